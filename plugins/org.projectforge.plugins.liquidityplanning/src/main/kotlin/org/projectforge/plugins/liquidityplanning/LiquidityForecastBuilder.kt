@@ -23,12 +23,27 @@
 
 package org.projectforge.plugins.liquidityplanning
 
+import mu.KotlinLogging
 import org.projectforge.business.fibu.*
+import org.projectforge.framework.persistence.user.api.ThreadLocalUserContext
 import org.springframework.beans.factory.annotation.Autowired
 import org.springframework.stereotype.Service
 import java.time.LocalDate
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import javax.annotation.PreDestroy
+
+private val log = KotlinLogging.logger {}
 
 /**
+ * Builds the liquidity forecasts. The invoices (debitor and creditor invoices, paid ones for the statistics of payment
+ * times and unpaid ones for the forecast) of the forecast period are read in partitions of [PARTITION_MONTHS] months
+ * of invoice dates. All partitions and the liquidity entries are read in parallel and the partitions are merged in
+ * order of the invoice dates (newest first, as returned by the daos) before building the forecast.
+ *
  * @author Kai Reinhard (k.reinhard@micromata.de)
  */
 @Service
@@ -45,59 +60,126 @@ open class LiquidityForecastBuilder {
     @Autowired
     private lateinit var rechnungDao: RechnungDao
 
+    @Autowired
+    private lateinit var liquidityForecastCache: LiquidityForecastCache
+
     /**
-     * Calculates expected dates of payments inside the last year (-365 days).
+     * Runs the partitioned queries (the tasks don't wait for other tasks, so the pool can't be exhausted by waiting
+     * tasks).
+     */
+    private val executor: ExecutorService = Executors.newFixedThreadPool(THREADS) { runnable ->
+        val thread = Thread(runnable, "LiquidityForecastBuilder")
+        thread.isDaemon = true
+        thread
+    }
+
+    /**
+     * Calculates expected dates of payments inside the last year (-365 days). The forecast is cached until the next
+     * modification of invoices or liquidity entries (see [LiquidityForecastCache]).
      */
     open fun build(baseDate: LocalDate?): LiquidityForecast {
-        val baseDate = baseDate ?: LocalDate.now()
+        val date = baseDate ?: LocalDate.now()
+        return liquidityForecastCache.getForecast(date) { buildForecast(date) }
+    }
+
+    private fun buildForecast(baseDate: LocalDate): LiquidityForecast {
+        val begin = System.currentTimeMillis()
         val forecast = LiquidityForecast(accountCache)
         // Consider only invoices of the last year:
         val historicalForecast = baseDate.isBefore(LocalDate.now())
         val fromDate = baseDate.minusMonths(12)
-        val toDate = baseDate.plusMonths(3)
+        // Only invoices issued before base date may be handled as paid for historical forecasts:
+        val toDate = if (historicalForecast) baseDate else baseDate.plusMonths(3)
         forecast.baseDate = baseDate
+        val partitions = getPartitions(fromDate, toDate)
 
-        processInvoices(forecast, baseDate, fromDate, toDate, historicalForecast)
-        processCreditorInvoices(forecast, baseDate, fromDate, toDate, historicalForecast)
-
-        val filter = LiquidityFilter()
-        filter.baseDate = baseDate
-        if (!historicalForecast) {
-            filter.paymentStatus = PaymentStatus.UNPAID
+        // Start all queries before waiting for any result:
+        val paidInvoices = if (historicalForecast) null else queryPartitions(partitions) { partition ->
+            rechnungDao.getList(createRechnungFilter(partition).setShowBezahlt())
         }
-        val list: MutableList<LiquidityEntryDO> = liquidityEntryDao.getList(filter)
-        if (historicalForecast) {
-            list.removeIf { entry: LiquidityEntryDO -> entry.dateOfPayment!!.isBefore(baseDate) }
+        val invoices = queryPartitions(partitions) { partition ->
+            val filter = createRechnungFilter(partition)
+            if (!historicalForecast) {
+                filter.setShowUnbezahlt()
+            }
+            rechnungDao.getList(filter)
+        }
+        val paidCreditorInvoices = if (historicalForecast) null else queryPartitions(partitions) { partition ->
+            eingangsrechnungDao.getList(createRechnungFilter(partition).setShowBezahlt())
+        }
+        val creditorInvoices = queryPartitions(partitions) { partition ->
+            val filter = createRechnungFilter(partition)
+            if (!historicalForecast) {
+                filter.setShowUnbezahlt()
+            }
+            eingangsrechnungDao.getList(filter)
+        }
+        val liquidityEntries = submit {
+            val filter = LiquidityFilter()
+            filter.baseDate = baseDate
+            if (!historicalForecast) {
+                filter.paymentStatus = PaymentStatus.UNPAID
+            }
+            val list: MutableList<LiquidityEntryDO> = liquidityEntryDao.getList(filter)
+            if (historicalForecast) {
+                list.removeIf { entry: LiquidityEntryDO -> entry.dateOfPayment!!.isBefore(baseDate) }
+            }
+            list
         }
-        forecast.set(list)
+
+        // Merge the partitions (statistics of paid invoices first, they're needed for the unpaid ones):
+        paidInvoices?.let { forecast.calculateExpectedTimeOfPayments(merge(it)) }
+        forecast.setInvoices(merge(invoices).also { handleHistoricalInvoices(it, baseDate, historicalForecast) })
+        paidCreditorInvoices?.let { forecast.calculateExpectedTimeOfCreditorPayments(merge(it)) }
+        forecast.setCreditorInvoices(merge(creditorInvoices).also { handleHistoricalInvoices(it, baseDate, historicalForecast) })
+        forecast.set(await(liquidityEntries))
         forecast.build()
+        log.info { "Liquidity forecast for base date $baseDate built in ${System.currentTimeMillis() - begin}ms (${partitions.size} partitions)." }
         return forecast
     }
 
-    private fun processInvoices(forecast: LiquidityForecast, baseDate: LocalDate, fromDate: LocalDate, toDate: LocalDate, historicalForecast: Boolean) {
-        val rechnungFilter = createRechnungFilter(baseDate, fromDate, toDate, historicalForecast)
-        if (!historicalForecast) {
-            rechnungFilter.setShowBezahlt()
-            val paidInvoices: MutableList<RechnungDO> = rechnungDao.getList(rechnungFilter)
-            forecast.calculateExpectedTimeOfPayments(paidInvoices)
-            rechnungFilter.setShowUnbezahlt() // For next query.
-        }
-        val invoices: MutableList<RechnungDO> = rechnungDao.getList(rechnungFilter)
-        handleHistoricalInvoices(invoices, baseDate, historicalForecast)
-        forecast.setInvoices(invoices)
+    private fun <T> queryPartitions(partitions: List<Partition>, query: (Partition) -> List<T>): List<Future<List<T>>> {
+        return partitions.map { partition -> submit { query(partition) } }
+    }
+
+    /**
+     * @return The results of all partitions in order of the partitions.
+     */
+    private fun <T> merge(futures: List<Future<List<T>>>): MutableList<T> {
+        val result = mutableListOf<T>()
+        futures.forEach { result.addAll(await(it)) }
+        return result
     }
 
-    private fun processCreditorInvoices(forecast: LiquidityForecast, baseDate: LocalDate, fromDate: LocalDate, toDate: LocalDate, historicalForecast: Boolean) {
-        val rechnungFilter = createRechnungFilter(baseDate, fromDate, toDate, historicalForecast)
-        if (!historicalForecast) {
-            rechnungFilter.setShowBezahlt()
-            val paidInvoices: MutableList<EingangsrechnungDO> = eingangsrechnungDao.getList(rechnungFilter)
-            forecast.calculateExpectedTimeOfCreditorPayments(paidInvoices)
-            rechnungFilter.setShowUnbezahlt() // For next query.
+    /**
+     * Runs the given task with the context (access rights) of the current user.
+     */
+    private fun <T> submit(task: () -> T): Future<T> {
+        val userContext = ThreadLocalUserContext.getUserContext()
+        return executor.submit(Callable {
+            ThreadLocalUserContext.setUserContext(userContext)
+            try {
+                task()
+            } finally {
+                ThreadLocalUserContext.clear()
+            }
+        })
+    }
+
+    /**
+     * Rethrows exceptions of the task (e. g. AccessException) unwrapped.
+     */
+    private fun <T> await(future: Future<T>): T {
+        try {
+            return future.get()
+        } catch (ex: ExecutionException) {
+            throw ex.cause ?: ex
         }
-        val invoices: MutableList<EingangsrechnungDO> = eingangsrechnungDao.getList(rechnungFilter)
-        handleHistoricalInvoices(invoices, baseDate, historicalForecast)
-        forecast.setCreditorInvoices(invoices)
+    }
+
+    @PreDestroy
+    private fun shutdown() {
+        executor.shutdownNow()
     }
 
     private fun handleHistoricalInvoices(invoices: MutableList<out AbstractRechnungDO>, baseDate: LocalDate, historicalForecast: Boolean) {
@@ -111,14 +193,36 @@ open class LiquidityForecastBuilder {
         }
     }
 
-    private fun createRechnungFilter(baseDate: LocalDate, fromDate: LocalDate, toDate: LocalDate, historicalForecast: Boolean): RechnungFilter {
-        val filter = RechnungFilter().setFromDate(fromDate)
-        if (historicalForecast) {
-            filter.setToDate(baseDate) // Only invoices issued before base date may be handled as paid.
-        } else {
-            filter.setShowBezahlt()
-            filter.toDate = toDate
+    private fun createRechnungFilter(partition: Partition): RechnungFilter {
+        return RechnungFilter().setFromDate(partition.fromDate).setToDate(partition.toDate)
+    }
+
+    /**
+     * Range of invoice dates (both inclusive).
+     */
+    internal data class Partition(val fromDate: LocalDate, val toDate: LocalDate)
+
+    companion object {
+        internal const val PARTITION_MONTHS = 3L
+
+        private const val THREADS = 4
+
+        /**
+         * @return Consecutive, non overlapping partitions of [PARTITION_MONTHS] months covering the given period, the
+         * newest first.
+         */
+        internal fun getPartitions(fromDate: LocalDate, toDate: LocalDate): List<Partition> {
+            val result = mutableListOf<Partition>()
+            var partitionEnd = toDate
+            while (!partitionEnd.isBefore(fromDate)) {
+                var partitionBegin = partitionEnd.minusMonths(PARTITION_MONTHS).plusDays(1)
+                if (partitionBegin.isBefore(fromDate)) {
+                    partitionBegin = fromDate
+                }
+                result.add(Partition(partitionBegin, partitionEnd))
+                partitionEnd = partitionBegin.minusDays(1)
+            }
+            return result
         }
-        return filter
     }
 }
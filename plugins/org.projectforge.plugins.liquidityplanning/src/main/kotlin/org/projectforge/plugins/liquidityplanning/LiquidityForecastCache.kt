@@ -0,0 +1,120 @@
+/////////////////////////////////////////////////////////////////////////////
+//
+// Project ProjectForge Community Edition
+//         www.projectforge.org
+//
+// Copyright (C) 2001-2020 Micromata GmbH, Germany (www.micromata.com)
+//
+// ProjectForge is dual-licensed.
+//
+// This community edition is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; version 3 of the License.
+//
+// This community edition is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+// Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, see http://www.gnu.org/licenses/.
+//
+/////////////////////////////////////////////////////////////////////////////
+
+
+package org.projectforge.plugins.liquidityplanning
+
+import mu.KotlinLogging
+import org.projectforge.business.fibu.EingangsrechnungDO
+import org.projectforge.business.fibu.EingangsrechnungDao
+import org.projectforge.business.fibu.RechnungDO
+import org.projectforge.business.fibu.RechnungDao
+import org.projectforge.framework.access.OperationType
+import org.projectforge.framework.persistence.api.BaseDOChangedListener
+import org.projectforge.framework.persistence.user.api.ThreadLocalUserContext
+import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.stereotype.Service
+import java.time.LocalDate
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+import javax.annotation.PostConstruct
+
+private val log = KotlinLogging.logger {}
+
+/**
+ * Caches the built forecasts by user, base date and data version. The data version is incremented on every change of
+ * invoices, creditor invoices and liquidity entries, so a forecast (including the statistics of the payment times of
+ * debitors and creditors) is only recalculated after modifications of its data.
+ *
+ * The forecasts are cached per user, because the visible invoices depend on the user's access rights.
+ */
+@Service
+open class LiquidityForecastCache {
+    @Autowired
+    private lateinit var eingangsrechnungDao: EingangsrechnungDao
+
+    @Autowired
+    private lateinit var liquidityEntryDao: LiquidityEntryDao
+
+    @Autowired
+    private lateinit var rechnungDao: RechnungDao
+
+    private data class Key(val userId: Int?, val baseDate: LocalDate, val today: LocalDate, val dataVersion: Long)
+
+    private val dataVersion = AtomicLong()
+
+    private val forecasts = ConcurrentHashMap<Key, LiquidityForecast>()
+
+    @PostConstruct
+    private fun postConstruct() {
+        rechnungDao.register(object : BaseDOChangedListener<RechnungDO> {
+            override fun afterSaveOrModifify(changedObject: RechnungDO, operationType: OperationType) {
+                setExpired()
+            }
+        })
+        eingangsrechnungDao.register(object : BaseDOChangedListener<EingangsrechnungDO> {
+            override fun afterSaveOrModifify(changedObject: EingangsrechnungDO, operationType: OperationType) {
+                setExpired()
+            }
+        })
+        liquidityEntryDao.register(object : BaseDOChangedListener<LiquidityEntryDO> {
+            override fun afterSaveOrModifify(changedObject: LiquidityEntryDO, operationType: OperationType) {
+                setExpired()
+            }
+        })
+    }
+
+    /**
+     * @param baseDate The base date of the forecast.
+     * @param builder Builds the forecast, if not cached for the current user, base date and data version.
+     */
+    open fun getForecast(baseDate: LocalDate, builder: () -> LiquidityForecast): LiquidityForecast {
+        val key = Key(ThreadLocalUserContext.getUserId(), baseDate, LocalDate.now(), dataVersion.get())
+        forecasts[key]?.let {
+            log.debug { "Using cached liquidity forecast for base date $baseDate." }
+            return it
+        }
+        val forecast = builder()
+        if (key.dataVersion == dataVersion.get()) {
+            // Don't cache forecasts of outdated data (modified while building).
+            forecasts.keys.removeIf { it.dataVersion != key.dataVersion || it.today != key.today }
+            if (forecasts.size >= MAX_CACHED_FORECASTS) {
+                forecasts.clear()
+            }
+            forecasts[key] = forecast
+        }
+        return forecast
+    }
+
+    /**
+     * Forces the recalculation of all forecasts.
+     */
+    open fun setExpired() {
+        dataVersion.incrementAndGet()
+        forecasts.clear()
+    }
+
+    companion object {
+        private const val MAX_CACHED_FORECASTS = 100
+    }
+}
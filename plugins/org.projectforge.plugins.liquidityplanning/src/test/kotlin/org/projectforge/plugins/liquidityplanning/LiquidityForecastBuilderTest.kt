@@ -0,0 +1,201 @@
+/////////////////////////////////////////////////////////////////////////////
+//
+// Project ProjectForge Community Edition
+//         www.projectforge.org
+//
+// Copyright (C) 2001-2020 Micromata GmbH, Germany (www.micromata.com)
+//
+// ProjectForge is dual-licensed.
+//
+// This community edition is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; version 3 of the License.
+//
+// This community edition is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+// Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, see http://www.gnu.org/licenses/.
+//
+/////////////////////////////////////////////////////////////////////////////
+
+
+package org.projectforge.plugins.liquidityplanning
+
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Test
+import org.projectforge.business.fibu.*
+import org.projectforge.framework.persistence.api.BaseSearchFilter
+import org.springframework.test.util.ReflectionTestUtils
+import java.math.BigDecimal
+import java.time.LocalDate
+import java.time.Month
+import java.util.*
+
+class LiquidityForecastBuilderTest {
+    @Test
+    fun partitionsTest() {
+        val toDate = LocalDate.of(2020, Month.MARCH, 31)
+        val fromDate = toDate.minusMonths(15)
+        val partitions = LiquidityForecastBuilder.getPartitions(fromDate, toDate)
+        Assertions.assertEquals(5, partitions.size)
+        Assertions.assertEquals(toDate, partitions.first().toDate)
+        Assertions.assertEquals(fromDate, partitions.last().fromDate)
+        for (i in 1 until partitions.size) {
+            // Newest first, consecutive and non overlapping:
+            Assertions.assertEquals(partitions[i - 1].fromDate.minusDays(1), partitions[i].toDate)
+        }
+        partitions.forEach {
+            Assertions.assertFalse(it.fromDate.isAfter(it.toDate))
+            Assertions.assertFalse(it.fromDate.isBefore(it.toDate.minusMonths(LiquidityForecastBuilder.PARTITION_MONTHS)))
+        }
+        val day = LocalDate.of(2020, Month.MARCH, 1)
+        Assertions.assertEquals(listOf(LiquidityForecastBuilder.Partition(day, day)), LiquidityForecastBuilder.getPartitions(day, day))
+    }
+
+    @Test
+    fun mergedForecastTest() {
+        val today = LocalDate.now()
+        val fromDate = today.minusMonths(12)
+        val partitions = LiquidityForecastBuilder.getPartitions(fromDate, today.plusMonths(3))
+        Assertions.assertTrue(partitions.size > 1)
+
+        val invoices = mutableListOf<RechnungDO>()
+        val creditorInvoices = mutableListOf<EingangsrechnungDO>()
+        for (i in 0L..13L) { // The last ones are out of range.
+            val date = today.minusMonths(i)
+            invoices.add(createInvoice("P$i", date, date.plusDays(30)))
+            creditorInvoices.add(createCreditorInvoice("P$i", date, date.plusDays(10)))
+        }
+        val unpaidDays = listOf(-80L, -10L, 0L, 1L, 45L, 89L, 90L, 91L, 200L, 364L, 400L)
+        unpaidDays.forEach {
+            val date = today.minusDays(it)
+            invoices.add(createInvoice("U$it", date, null))
+            creditorInvoices.add(createCreditorInvoice("U$it", date, null))
+        }
+        invoices.shuffle(Random(42))
+        creditorInvoices.shuffle(Random(42))
+        val rechnungDao = TestRechnungDao(invoices)
+        val eingangsrechnungDao = TestEingangsrechnungDao(creditorInvoices)
+        val liquidityEntry = LiquidityEntryDO()
+        liquidityEntry.dateOfPayment = today.plusDays(5)
+        liquidityEntry.amount = BigDecimal("-100")
+        liquidityEntry.subject = "Rent"
+
+        val builder = LiquidityForecastBuilder()
+        ReflectionTestUtils.setField(builder, "accountCache", TestKontoCache())
+        ReflectionTestUtils.setField(builder, "rechnungDao", rechnungDao)
+        ReflectionTestUtils.setField(builder, "eingangsrechnungDao", eingangsrechnungDao)
+        ReflectionTestUtils.setField(builder, "liquidityEntryDao", TestLiquidityEntryDao(listOf(liquidityEntry)))
+        ReflectionTestUtils.setField(builder, "liquidityForecastCache", LiquidityForecastCache())
+        val forecast = builder.build(today)
+
+        // Each partition is queried for paid and unpaid invoices:
+        assertQueries(partitions, rechnungDao.queries)
+        assertQueries(partitions, eingangsrechnungDao.queries)
+
+        // Unpaid invoices of all partitions, each only once and newest first (as the daos return them):
+        val expectedUnpaid = unpaidDays.filter { it <= 364 }.map { "U$it" }
+        Assertions.assertEquals(expectedUnpaid, forecast.invoices!!.map { it.betreff })
+        Assertions.assertEquals(expectedUnpaid, forecast.creditorInvoices!!.map { it.betreff })
+
+        // Expected dates of payments are calculated by the paid invoices of all partitions:
+        forecast.getInvoicesLiquidityEntries()!!.forEachIndexed { index, entry ->
+            val invoice = forecast.invoices!!.elementAt(index)
+            Assertions.assertEquals(invoice.datum!!.plusDays(30), entry.expectedDateOfPayment)
+            Assertions.assertTrue(entry.comment!!.endsWith("30 days (13 paid invoices)"), entry.comment)
+        }
+        forecast.getCreditorInvoicesLiquidityEntries()!!.forEachIndexed { index, entry ->
+            val invoice = forecast.creditorInvoices!!.elementAt(index)
+            Assertions.assertEquals(invoice.datum!!.plusDays(10), entry.expectedDateOfPayment)
+            Assertions.assertTrue(entry.comment!!.endsWith("10 days (13 paid invoices)"), entry.comment)
+        }
+        Assertions.assertEquals(2 * expectedUnpaid.size + 1, forecast.getEntries().size)
+        Assertions.assertEquals(1, forecast.getEntries().count { it.type == LiquidityEntryType.LIQUIDITY && it.subject == "Rent" })
+    }
+
+    private fun assertQueries(partitions: List<LiquidityForecastBuilder.Partition>, queries: List<RechnungFilter>) {
+        Assertions.assertEquals(2 * partitions.size, queries.size)
+        partitions.forEach { partition ->
+            val partitionQueries = queries.filter { it.fromDate == partition.fromDate && it.toDate == partition.toDate }
+            Assertions.assertEquals(1, partitionQueries.count { it.isShowBezahlt })
+            Assertions.assertEquals(1, partitionQueries.count { it.isShowUnbezahlt })
+        }
+    }
+
+    private fun createInvoice(number: String, date: LocalDate, dateOfPayment: LocalDate?): RechnungDO {
+        val invoice = RechnungDO()
+        invoice.kundeText = "ACME"
+        invoice.betreff = number
+        invoice.datum = date
+        invoice.faelligkeit = date.plusDays(14)
+        invoice.bezahlDatum = dateOfPayment
+        invoice.status = if (dateOfPayment != null) RechnungStatus.BEZAHLT else RechnungStatus.GESTELLT
+        val position = RechnungsPositionDO()
+        position.menge = BigDecimal.ONE
+        position.einzelNetto = BigDecimal("1000")
+        invoice.positionen = mutableListOf(position)
+        invoice.zahlBetrag = if (dateOfPayment != null) invoice.grossSum else null
+        return invoice
+    }
+
+    private fun createCreditorInvoice(number: String, date: LocalDate, dateOfPayment: LocalDate?): EingangsrechnungDO {
+        val invoice = EingangsrechnungDO()
+        invoice.kreditor = "Supplier"
+        invoice.betreff = number
+        invoice.datum = date
+        invoice.faelligkeit = date.plusDays(14)
+        invoice.bezahlDatum = dateOfPayment
+        val position = EingangsrechnungsPositionDO()
+        position.menge = BigDecimal.ONE
+        position.einzelNetto = BigDecimal("500")
+        invoice.positionen = mutableListOf(position)
+        invoice.zahlBetrag = if (dateOfPayment != null) invoice.grossSum else null
+        return invoice
+    }
+
+    private class TestKontoCache : KontoCache() {
+        override fun refresh() {
+            // No database.
+        }
+    }
+
+    private class TestRechnungDao(private val invoices: List<RechnungDO>) : RechnungDao() {
+        val queries: MutableList<RechnungFilter> = Collections.synchronizedList(mutableListOf())
+
+        override fun getList(filter: BaseSearchFilter): MutableList<RechnungDO> {
+            return select(invoices, filter as RechnungFilter, queries)
+        }
+    }
+
+    private class TestEingangsrechnungDao(private val invoices: List<EingangsrechnungDO>) : EingangsrechnungDao() {
+        val queries: MutableList<RechnungFilter> = Collections.synchronizedList(mutableListOf())
+
+        override fun getList(filter: BaseSearchFilter): MutableList<EingangsrechnungDO> {
+            return select(invoices, filter as RechnungFilter, queries)
+        }
+    }
+
+    private class TestLiquidityEntryDao(private val entries: List<LiquidityEntryDO>) : LiquidityEntryDao() {
+        override fun getList(filter: BaseSearchFilter): MutableList<LiquidityEntryDO> {
+            return entries.toMutableList()
+        }
+    }
+
+    companion object {
+        /**
+         * Selects the invoices as the daos do: by date range and paid status, ordered by date (newest first).
+         */
+        private fun <T : AbstractRechnungDO> select(invoices: List<T>, filter: RechnungFilter, queries: MutableList<RechnungFilter>): MutableList<T> {
+            queries.add(filter)
+            return invoices.filter { invoice ->
+                val date = invoice.datum!!
+                !date.isBefore(filter.fromDate) && !date.isAfter(filter.toDate)
+                        && (!filter.isShowBezahlt || invoice.isBezahlt)
+                        && (!filter.isShowUnbezahlt || !invoice.isBezahlt)
+            }.sortedByDescending { it.datum }.toMutableList()
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/////////////////////////////////////////////////////////////////////////////
+//
+// Project ProjectForge Community Edition
+//         www.projectforge.org
+//
+// Copyright (C) 2001-2020 Micromata GmbH, Germany (www.micromata.com)
+//
+// ProjectForge is dual-licensed.
+//
+// This community edition is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; version 3 of the License.
+//
+// This community edition is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+// Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, see http://www.gnu.org/licenses/.
+//
+/////////////////////////////////////////////////////////////////////////////
+
+
+package org.projectforge.plugins.liquidityplanning
+
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Test
+import org.projectforge.business.fibu.KontoCache
+import org.projectforge.framework.persistence.user.entities.PFUserDO
+import org.projectforge.framework.persistence.user.api.ThreadLocalUserContext
+import org.projectforge.framework.persistence.user.api.UserContext
+import java.time.LocalDate
+
+class LiquidityForecastCacheTest {
+    @Test
+    fun cacheKeyTest() {
+        val cache = LiquidityForecastCache()
+        val builder = CountingBuilder()
+        val today = LocalDate.now()
+        try {
+            setUser(1)
+            val forecast = cache.getForecast(today, builder)
+            Assertions.assertSame(forecast, cache.getForecast(today, builder))
+            Assertions.assertEquals(1, builder.counter)
+
+            // Other base date:
+            val nextWeek = cache.getForecast(today.plusWeeks(1), builder)
+            Assertions.assertNotSame(forecast, nextWeek)
+            Assertions.assertEquals(2, builder.counter)
+            Assertions.assertSame(forecast, cache.getForecast(today, builder))
+
+            // Other user (other access rights):
+            setUser(2)
+            val otherUsersForecast = cache.getForecast(today, builder)
+            Assertions.assertNotSame(forecast, otherUsersForecast)
+            Assertions.assertEquals(3, builder.counter)
+            setUser(1)
+            Assertions.assertSame(forecast, cache.getForecast(today, builder))
+            Assertions.assertEquals(3, builder.counter)
+        } finally {
+            ThreadLocalUserContext.clear()
+        }
+    }
+
+    @Test
+    fun dataVersionTest() {
+        val cache = LiquidityForecastCache()
+        val builder = CountingBuilder()
+        val today = LocalDate.now()
+        val forecast = cache.getForecast(today, builder)
+        Assertions.assertSame(forecast, cache.getForecast(today, builder))
+
+        // Modification of invoices or liquidity entries:
+        cache.setExpired()
+        val newForecast = cache.getForecast(today, builder)
+        Assertions.assertNotSame(forecast, newForecast)
+        Assertions.assertEquals(2, builder.counter)
+        Assertions.assertSame(newForecast, cache.getForecast(today, builder))
+
+        // Modification while building, the forecast of the outdated data mustn't be cached:
+        cache.setExpired()
+        val outdated = cache.getForecast(today) {
+            cache.setExpired()
+            builder()
+        }
+        Assertions.assertEquals(3, builder.counter)
+        val current = cache.getForecast(today, builder)
+        Assertions.assertNotSame(outdated, current)
+        Assertions.assertEquals(4, builder.counter)
+        Assertions.assertSame(current, cache.getForecast(today, builder))
+    }
+
+    private fun setUser(id: Int) {
+        val user = PFUserDO()
+        user.id = id
+        ThreadLocalUserContext.setUserContext(UserContext.createTestInstance(user))
+    }
+
+    private class CountingBuilder : () -> LiquidityForecast {
+        var counter = 0
+
+        override fun invoke(): LiquidityForecast {
+            ++counter
+            return LiquidityForecast(KontoCache())
+        }
+    }
+}
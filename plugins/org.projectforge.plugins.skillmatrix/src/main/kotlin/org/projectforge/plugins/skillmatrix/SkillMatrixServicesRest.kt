@@ -37,6 +37,7 @@ import org.springframework.http.HttpHeaders
 import org.springframework.http.ResponseEntity
 import org.springframework.web.bind.annotation.GetMapping
 import org.springframework.web.bind.annotation.RequestMapping
+import org.springframework.web.bind.annotation.RequestParam
 import org.springframework.web.bind.annotation.RestController
 import java.util.*
 
@@ -63,6 +64,18 @@ class SkillMatrixServicesRest {
     @Autowired
     private lateinit var skillEntryDao: SkillEntryDao
 
+    /**
+     * Top-N skills from the pre-aggregated statistics (no recomputation).
+     * @param limit Number of skills (default [DEFAULT_TOP_LIMIT], max [MAX_TOP_LIMIT]).
+     * @param sortBy COUNTER (default), RATING_MEAN, INTEREST_MEAN or EXPERTS.
+     */
+    @GetMapping(REST_TOP_SUB_PATH)
+    fun getTopSkills(@RequestParam("limit") limit: Int?, @RequestParam("sortBy") sortBy: String?): List<SkillStatisticsCache.SkillStatistic> {
+        val sortOrder = SkillStatisticsCache.SortBy.values().find { it.name.equals(sortBy, ignoreCase = true) }
+                ?: SkillStatisticsCache.SortBy.COUNTER
+        return skillStatisticsCache.getTopStatistics((limit ?: DEFAULT_TOP_LIMIT).coerceIn(1, MAX_TOP_LIMIT), sortOrder)
+    }
+
     /**
      * Exports favorites addresses.
      */
@@ -119,5 +132,8 @@ class SkillMatrixServicesRest {
         const val REST_PATH = "${Rest.URL}/skillmatrix"
         private const val REST_EXCEL_SUB_PATH = "exportExcel"
         const val REST_EXCEL_EXPORT_PATH = "$REST_PATH/$REST_EXCEL_SUB_PATH"
+        private const val REST_TOP_SUB_PATH = "top"
+        private const val DEFAULT_TOP_LIMIT = 10
+        private const val MAX_TOP_LIMIT = 1000
     }
 }
@@ -21,6 +21,7 @@
 //
 /////////////////////////////////////////////////////////////////////////////
 
+
 package org.projectforge.plugins.skillmatrix
 
 import mu.KotlinLogging
@@ -31,107 +32,241 @@ import org.springframework.beans.factory.annotation.Autowired
 import org.springframework.stereotype.Service
 import java.math.BigDecimal
 import java.math.RoundingMode
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.LongAdder
+import java.util.concurrent.locks.ReentrantReadWriteLock
 import javax.annotation.PostConstruct
+import kotlin.concurrent.read
+import kotlin.concurrent.write
 
 private val log = KotlinLogging.logger {}
 
 /**
  * Skill statistics cache holds ratings of all skills stored in the data base.
  *
+ * The statistics are maintained incrementally: inserts, updates and deletes of skill entries only adjust the counters
+ * of the affected skills (histograms of ratings and interests per skill). The full recomputation from the data base is
+ * only done on start-up and once a day (for safety). Modifications during a recomputation wait for it and are applied to
+ * the recomputed counters afterwards (they would be lost otherwise).
+ *
  * @author Kai Reinhard (k.reinhard@micromata.de)
  */
 @Service
-open class SkillStatisticsCache : AbstractCache(), BaseDOChangedListener<SkillEntryDO> {
+open class SkillStatisticsCache : AbstractCache(AbstractCache.TICKS_PER_DAY), BaseDOChangedListener<SkillEntryDO> {
     @Autowired
     private lateinit var skillEntryDao: SkillEntryDao
 
-    class SkillStatistic(val skill: String, val totalCounter: Int, val ratingMean: BigDecimal, val interestsMean: BigDecimal)
-
-    private data class Entry(var skill: String,
-                             var totalCounter: Int = 0,
-                             /**
-                              * Sum of all skill ratings.
-                              */
-                             var ratingSum: Int = 0,
-                             /**
-                              * Counter of ratings (not null) for getting average.
-                              */
-                             var ratingCounter: Int = 0,
-                             /**
-                              * Sum of all interest ratings.
-                              */
-                             var interestSum: Int = 0,
-                             /**
-                              * Counter of ratings (not null) for getting average.
-                              */
-                             var interstCounter: Int = 0) {
-        val ratingMean: BigDecimal
-            get() {
-                return meanValue(ratingSum, ratingCounter)
-            }
+    /**
+     * @param totalCounter Number of skill entries of this skill (including entries without rating or interest).
+     * @param ratingMean Mean of all given ratings (entries without rating are ignored).
+     * @param interestsMean Mean of all given interests (entries without interest are ignored).
+     * @param ratingHistogram Number of entries per rating value (0..3), [ratingHistogram]\[0\] is the number of entries
+     * rated with 0. Entries without rating aren't counted, so the sum may be less than [totalCounter].
+     * @param interestHistogram Number of entries per interest value (0..3), entries without interest aren't counted.
+     */
+    class SkillStatistic(val skill: String,
+                         val totalCounter: Int,
+                         val ratingMean: BigDecimal,
+                         val interestsMean: BigDecimal,
+                         val ratingHistogram: IntArray = IntArray(SkillEntryDO.MAX_VAL_RATING + 1),
+                         val interestHistogram: IntArray = IntArray(SkillEntryDO.MAX_VAL_INTEREST + 1)) {
+        /**
+         * Number of entries with a rating of at least the given value (e. g. number of experts for 3).
+         */
+        fun getRatingCoverage(minRating: Int): Int {
+            return ratingHistogram.filterIndexed { value, _ -> value >= minRating }.sum()
+        }
 
-        val interestMean: BigDecimal
-            get() {
-                return meanValue(interestSum, interstCounter)
+        /**
+         * @param percent 0..100, e. g. 50 for the median.
+         * @return The smallest rating value of which at least the given percentage of all given ratings are less or
+         * equal, or null if no entry is rated.
+         */
+        fun getRatingPercentile(percent: Int): Int? {
+            return percentile(ratingHistogram, percent)
+        }
+
+        /**
+         * @param percent 0..100, e. g. 50 for the median.
+         * @return The smallest interest value of which at least the given percentage of all given interests are less or
+         * equal, or null if no interest is given.
+         */
+        fun getInterestPercentile(percent: Int): Int? {
+            return percentile(interestHistogram, percent)
+        }
+
+        private fun percentile(histogram: IntArray, percent: Int): Int? {
+            val total = histogram.sum()
+            if (total == 0) {
+                return null
             }
+            val threshold = total.toLong() * percent.coerceIn(0, 100)
+            var cumulated = 0L
+            histogram.forEachIndexed { value, counter ->
+                cumulated += counter
+                if (cumulated * 100 >= threshold && cumulated > 0) {
+                    return value
+                }
+            }
+            return histogram.size - 1
+        }
+    }
+
+    /**
+     * Counters of one skill, modified concurrently without locks.
+     */
+    private class Entry(@Volatile var skill: String) {
+        val totalCounter = LongAdder()
 
-        fun add(skillEntry: SkillEntryDO) {
-            totalCounter++
-            skillEntry.rating?.let {
+        val ratingHistogram = Array(SkillEntryDO.MAX_VAL_RATING + 1) { LongAdder() }
+
+        val interestHistogram = Array(SkillEntryDO.MAX_VAL_INTEREST + 1) { LongAdder() }
+
+        fun add(contribution: Contribution, sign: Int) {
+            totalCounter.add(sign.toLong())
+            contribution.rating?.let {
                 // rating is 0..3
-                ratingSum += it
-                ratingCounter++
+                ratingHistogram[it].add(sign.toLong())
             }
-            skillEntry.interest?.let {
+            contribution.interest?.let {
                 // interest is 0..3
-                interestSum += it
-                interstCounter++
+                interestHistogram[it].add(sign.toLong())
             }
         }
 
-        fun meanValue(sum: Int, counter: Int): BigDecimal {
+        fun toStatistic(): SkillStatistic {
+            val ratings = IntArray(ratingHistogram.size) { ratingHistogram[it].toInt() }
+            val interests = IntArray(interestHistogram.size) { interestHistogram[it].toInt() }
+            return SkillStatistic(skill, totalCounter.toInt(), meanValue(ratings), meanValue(interests), ratings, interests)
+        }
+
+        private fun meanValue(histogram: IntArray): BigDecimal {
+            val counter = histogram.sum()
             return if (counter > 0)
-                BigDecimal(sum).divide(BigDecimal(counter), 1, RoundingMode.HALF_UP)
+                BigDecimal(histogram.foldIndexed(0) { value, sum, count -> sum + value * count })
+                        .divide(BigDecimal(counter), 1, RoundingMode.HALF_UP)
             else
                 BigDecimal.ZERO
         }
     }
 
-    private lateinit var skillStatistics: List<SkillStatistic>
+    /**
+     * The values of a skill entry counted in the statistics (needed for removing them on update or delete).
+     */
+    private data class Contribution(val normalizedSkill: String, val rating: Int?, val interest: Int?) {
+        constructor(skillEntry: SkillEntryDO) : this(skillEntry.normalizedSkill,
+                skillEntry.rating?.takeIf { it in SkillEntryDO.MIN_VAL_RATING..SkillEntryDO.MAX_VAL_RATING },
+                skillEntry.interest?.takeIf { it in SkillEntryDO.MIN_VAL_INTEREST..SkillEntryDO.MAX_VAL_INTEREST })
+    }
+
+    /**
+     * Key is the normalized skill name.
+     */
+    @Volatile
+    private var skillMap = ConcurrentHashMap<String, Entry>()
+
+    /**
+     * Key is the id of the skill entry.
+     */
+    @Volatile
+    private var contributionMap = ConcurrentHashMap<Int, Contribution>()
+
+    /**
+     * Modifications (read lock, concurrently) are applied before or after a recomputation (write lock), never during.
+     */
+    internal val refreshLock = ReentrantReadWriteLock()
 
     val statistics: List<SkillStatistic>
         get() {
             checkRefresh()
-            return skillStatistics
+            return skillMap.values
+                    .map { it.toStatistic() }
+                    .filter { it.totalCounter > 0 }
+                    .sortedBy { it.skill.toLowerCase() }
         }
 
+    /**
+     * @param limit Maximum number of results.
+     * @param sortBy Order of the results (best first), e. g. [SortBy.RATING_MEAN].
+     * @return The top skills.
+     */
+    fun getTopStatistics(limit: Int, sortBy: SortBy = SortBy.COUNTER): List<SkillStatistic> {
+        checkRefresh()
+        return skillMap.values
+                .map { it.toStatistic() }
+                .filter { it.totalCounter > 0 }
+                .sortedWith(sortBy.comparator)
+                .take(limit)
+    }
+
+    enum class SortBy(val comparator: Comparator<SkillStatistic>) {
+        COUNTER(compareByDescending<SkillStatistic> { it.totalCounter }.thenBy { it.skill.toLowerCase() }),
+        RATING_MEAN(compareByDescending<SkillStatistic> { it.ratingMean }.thenByDescending { it.totalCounter }),
+        INTEREST_MEAN(compareByDescending<SkillStatistic> { it.interestsMean }.thenByDescending { it.totalCounter }),
+        /**
+         * Number of experts (highest rating).
+         */
+        EXPERTS(compareByDescending<SkillStatistic> { it.ratingHistogram[SkillEntryDO.MAX_VAL_RATING] }.thenByDescending { it.totalCounter })
+    }
+
     @PostConstruct
     private fun postConstruct() {
         skillEntryDao.register(this)
     }
 
+    /**
+     * Removes the former values of the changed skill entry from the counters and adds the new ones (if not deleted).
+     * If a recomputation is running, the modification is applied after it.
+     */
     override fun afterSaveOrModifify(changedObject: SkillEntryDO, operationType: OperationType) {
-        setExpired()
+        val id = changedObject.id ?: return
+        val skillName = changedObject.skill ?: ""
+        val newContribution = if (operationType == OperationType.DELETE || changedObject.isDeleted) null else Contribution(changedObject)
+        refreshLock.read {
+            val skills = skillMap
+            // compute is atomic per skill entry, so concurrent modifications of the same entry are counted correctly:
+            contributionMap.compute(id) { _, oldContribution ->
+                if (oldContribution != newContribution) {
+                    oldContribution?.let { skills[it.normalizedSkill]?.add(it, -1) }
+                    newContribution?.let { skills.computeIfAbsent(it.normalizedSkill) { Entry(skillName) }.add(it, 1) }
+                }
+                newContribution?.let {
+                    skills[it.normalizedSkill]?.skill = skillName // Use skill syntax of last edited one.
+                }
+                newContribution
+            }
+        }
     }
 
+    /**
+     * @return All skill entries of the data base (including deleted ones).
+     */
+    protected open fun loadSkillEntries(): List<SkillEntryDO> {
+        return skillEntryDao.internalLoadAll()
+    }
+
+    /**
+     * Recomputes all statistics from the data base. Modifications of skill entries wait until the new counters are
+     * published and are applied to them (a modification already contained in the loaded entries results in no change).
+     */
     override fun refresh() {
         log.info("Refreshing SkillMatrixCache ...")
-        val skillStatisticsMap = mutableMapOf<String, Entry>()
-        skillEntryDao.internalLoadAll()
-                .filter { !it.isDeleted } // Ignore deleted skill entries.
-                .sortedByDescending { it.lastUpdate } // Use skill syntax of last edited one (older ones will be normalized)
-                .forEach { skillEntry ->
-                    val skillName = skillEntry.skill ?: ""
-                    val normalizedSkillName = skillEntry.normalizedSkill
-                    val entry = skillStatisticsMap[normalizedSkillName] ?: run {
-                        val newEntry = Entry(skillName)
-                        skillStatisticsMap[normalizedSkillName] = newEntry
-                        newEntry
+        val begin = System.currentTimeMillis()
+        refreshLock.write {
+            val newSkillMap = ConcurrentHashMap<String, Entry>()
+            val newContributionMap = ConcurrentHashMap<Int, Contribution>()
+            loadSkillEntries()
+                    .filter { !it.isDeleted } // Ignore deleted skill entries.
+                    .sortedByDescending { it.lastUpdate } // Use skill syntax of last edited one (older ones will be normalized)
+                    .forEach { skillEntry ->
+                        val contribution = Contribution(skillEntry)
+                        skillEntry.id?.let { newContributionMap[it] = contribution }
+                        newSkillMap.computeIfAbsent(contribution.normalizedSkill) { Entry(skillEntry.skill ?: "") }
+                                .add(contribution, 1)
                     }
-                    entry.add(skillEntry)
-                }
-        skillStatistics = skillStatisticsMap.values
-                .sortedBy { it.skill.toLowerCase() }
-                .map { SkillStatistic(it.skill, it.totalCounter, it.ratingMean, it.interestMean) }
+            skillMap = newSkillMap
+            contributionMap = newContributionMap
+        }
+        log.info("Refreshing SkillMatrixCache done (${skillMap.size} skills, ${contributionMap.size} entries) in ${System.currentTimeMillis() - begin}ms.")
     }
 }
@@ -0,0 +1,184 @@
+/////////////////////////////////////////////////////////////////////////////
+//
+// Project ProjectForge Community Edition
+//         www.projectforge.org
+//
+// Copyright (C) 2001-2020 Micromata GmbH, Germany (www.micromata.com)
+//
+// ProjectForge is dual-licensed.
+//
+// This community edition is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; version 3 of the License.
+//
+// This community edition is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+// Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, see http://www.gnu.org/licenses/.
+//
+/////////////////////////////////////////////////////////////////////////////
+
+package org.projectforge.plugins.skillmatrix
+
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Test
+import org.projectforge.framework.access.OperationType
+import org.springframework.test.util.ReflectionTestUtils
+import java.math.BigDecimal
+import kotlin.concurrent.thread
+
+class SkillStatisticsCacheTest {
+    @Test
+    fun countersTest() {
+        val cache = TestSkillStatisticsCache(listOf(
+                createEntry(1, "Java", 3, 2),
+                createEntry(2, "JAVA", 1, null),
+                createEntry(3, "Kotlin", null, 3),
+                createEntry(4, "Kotlin", 2, 1, deleted = true)))
+        var java = getStatistic(cache, "java")
+        Assertions.assertEquals(2, java.totalCounter)
+        assertHistogram(intArrayOf(0, 1, 0, 1), java.ratingHistogram)
+        assertHistogram(intArrayOf(0, 0, 1, 0), java.interestHistogram) // No interest of entry 2.
+        Assertions.assertEquals(BigDecimal("2.0"), java.ratingMean)
+        Assertions.assertEquals(BigDecimal("2.0"), java.interestsMean)
+        var kotlin = getStatistic(cache, "kotlin")
+        Assertions.assertEquals(1, kotlin.totalCounter)
+        assertHistogram(intArrayOf(0, 0, 0, 0), kotlin.ratingHistogram) // Entries without rating aren't counted.
+        Assertions.assertEquals(BigDecimal.ZERO, kotlin.ratingMean)
+        Assertions.assertNull(kotlin.getRatingPercentile(50))
+
+        // Update:
+        cache.afterSaveOrModifify(createEntry(2, "Java", 3, 0), OperationType.UPDATE)
+        java = getStatistic(cache, "java")
+        Assertions.assertEquals(2, java.totalCounter)
+        assertHistogram(intArrayOf(0, 0, 0, 2), java.ratingHistogram)
+        assertHistogram(intArrayOf(1, 0, 1, 0), java.interestHistogram)
+        Assertions.assertEquals(2, java.getRatingCoverage(3))
+
+        // Same values again (e. g. modified comment) don't change anything:
+        cache.afterSaveOrModifify(createEntry(2, "Java", 3, 0), OperationType.UPDATE)
+        Assertions.assertEquals(2, getStatistic(cache, "java").totalCounter)
+
+        // Rating 0 is counted:
+        cache.afterSaveOrModifify(createEntry(5, "Kotlin", 0, null), OperationType.INSERT)
+        kotlin = getStatistic(cache, "kotlin")
+        Assertions.assertEquals(2, kotlin.totalCounter)
+        assertHistogram(intArrayOf(1, 0, 0, 0), kotlin.ratingHistogram)
+        Assertions.assertEquals(1, kotlin.getRatingCoverage(0))
+
+        // Moving entry to other skill:
+        cache.afterSaveOrModifify(createEntry(5, "Java", 0, null), OperationType.UPDATE)
+        Assertions.assertEquals(1, getStatistic(cache, "kotlin").totalCounter)
+        java = getStatistic(cache, "java")
+        Assertions.assertEquals(3, java.totalCounter)
+        assertHistogram(intArrayOf(1, 0, 0, 2), java.ratingHistogram)
+
+        // Deletions:
+        cache.afterSaveOrModifify(createEntry(1, "Java", 3, 2), OperationType.DELETE)
+        cache.afterSaveOrModifify(createEntry(3, "Kotlin", null, 3, deleted = true), OperationType.UPDATE)
+        Assertions.assertNull(cache.statistics.find { it.skill.equals("kotlin", ignoreCase = true) }, "No kotlin entries left.")
+        java = getStatistic(cache, "java")
+        Assertions.assertEquals(2, java.totalCounter)
+        assertHistogram(intArrayOf(1, 0, 0, 1), java.ratingHistogram)
+        assertHistogram(intArrayOf(1, 0, 0, 0), java.interestHistogram)
+
+        // Undelete:
+        cache.afterSaveOrModifify(createEntry(1, "Java", 3, 2), OperationType.UNDELETE)
+        Assertions.assertEquals(3, getStatistic(cache, "java").totalCounter)
+    }
+
+    @Test
+    fun percentilesTest() {
+        val statistic = SkillStatisticsCache.SkillStatistic("Java", 5, BigDecimal.ONE, BigDecimal.ONE,
+                intArrayOf(1, 1, 1, 1), intArrayOf(0, 0, 0, 2))
+        Assertions.assertEquals(0, statistic.getRatingPercentile(0))
+        Assertions.assertEquals(0, statistic.getRatingPercentile(25))
+        Assertions.assertEquals(1, statistic.getRatingPercentile(50))
+        Assertions.assertEquals(2, statistic.getRatingPercentile(51))
+        Assertions.assertEquals(3, statistic.getRatingPercentile(100))
+        Assertions.assertEquals(3, statistic.getInterestPercentile(0))
+        Assertions.assertEquals(3, statistic.getInterestPercentile(50))
+        Assertions.assertEquals(4, statistic.getRatingCoverage(0))
+        Assertions.assertEquals(2, statistic.getRatingCoverage(2))
+        Assertions.assertEquals(0, statistic.getRatingCoverage(4))
+    }
+
+    @Test
+    fun topTest() {
+        val cache = TestSkillStatisticsCache(listOf(
+                createEntry(1, "Java", 3, 0),
+                createEntry(2, "Java", 3, 0),
+                createEntry(3, "Java", 0, 0),
+                createEntry(4, "Kotlin", 2, 3),
+                createEntry(5, "Kotlin", 2, 3),
+                createEntry(6, "Groovy", 3, 1)))
+        Assertions.assertEquals(listOf("Java", "Kotlin", "Groovy"), cache.getTopStatistics(10).map { it.skill })
+        Assertions.assertEquals(listOf("Java"), cache.getTopStatistics(1).map { it.skill })
+        Assertions.assertEquals(listOf("Groovy", "Java", "Kotlin"), // Same rating mean of Java and Kotlin, Java has more entries.
+                cache.getTopStatistics(10, SkillStatisticsCache.SortBy.RATING_MEAN).map { it.skill })
+        Assertions.assertEquals(listOf("Kotlin", "Groovy", "Java"),
+                cache.getTopStatistics(10, SkillStatisticsCache.SortBy.INTEREST_MEAN).map { it.skill })
+        Assertions.assertEquals(listOf("Java", "Groovy", "Kotlin"),
+                cache.getTopStatistics(10, SkillStatisticsCache.SortBy.EXPERTS).map { it.skill })
+
+        val rest = SkillMatrixServicesRest()
+        ReflectionTestUtils.setField(rest, "skillStatisticsCache", cache)
+        Assertions.assertEquals(listOf("Java", "Kotlin", "Groovy"), rest.getTopSkills(null, null).map { it.skill })
+        Assertions.assertEquals(listOf("Java", "Groovy"), rest.getTopSkills(2, "experts").map { it.skill })
+        Assertions.assertEquals(listOf("Kotlin"), rest.getTopSkills(1, "INTEREST_MEAN").map { it.skill })
+        Assertions.assertEquals(listOf("Java"), rest.getTopSkills(0, "unknown").map { it.skill }, "At least one result, ordered by counter.")
+    }
+
+    /**
+     * A modification during the recomputation must be applied to the recomputed counters.
+     */
+    @Test
+    fun modificationDuringRefreshTest() {
+        val cache = TestSkillStatisticsCache(listOf(createEntry(1, "Java", 1, 1)))
+        Assertions.assertEquals(1, getStatistic(cache, "java").ratingHistogram[1])
+        var modifier: Thread? = null
+        cache.onLoad = {
+            // The modification is done after the data base was read (the loaded entries are stale):
+            modifier = thread { cache.afterSaveOrModifify(createEntry(1, "Java", 3, 1), OperationType.UPDATE) }
+            while (!cache.refreshLock.hasQueuedThreads()) {
+                Thread.sleep(1) // Wait until the modification waits for the recomputation.
+            }
+        }
+        cache.forceReload()
+        modifier!!.join()
+        val java = getStatistic(cache, "java")
+        Assertions.assertEquals(1, java.totalCounter)
+        assertHistogram(intArrayOf(0, 0, 0, 1), java.ratingHistogram)
+    }
+
+    private fun getStatistic(cache: SkillStatisticsCache, skill: String): SkillStatisticsCache.SkillStatistic {
+        return cache.statistics.find { SkillEntryDO.getNormalizedSkill(it.skill) == skill }
+                ?: throw AssertionError("Statistic of skill '$skill' not found.")
+    }
+
+    private fun assertHistogram(expected: IntArray, histogram: IntArray) {
+        Assertions.assertEquals(expected.joinToString(), histogram.joinToString())
+    }
+
+    private fun createEntry(id: Int, skill: String, rating: Int?, interest: Int?, deleted: Boolean = false): SkillEntryDO {
+        val entry = SkillEntryDO()
+        entry.id = id
+        entry.skill = skill
+        entry.rating = rating
+        entry.interest = interest
+        entry.isDeleted = deleted
+        return entry
+    }
+
+    private class TestSkillStatisticsCache(val entries: List<SkillEntryDO>) : SkillStatisticsCache() {
+        var onLoad: (() -> Unit)? = null
+
+        override fun loadSkillEntries(): List<SkillEntryDO> {
+            onLoad?.invoke()
+            return entries
+        }
+    }
+}
@@ -27,43 +27,89 @@ import org.projectforge.framework.cache.AbstractCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * The number of open to-do entries is cached. Accessible via ToDoDao.
- * @author Kai Reinhard (k.reinhard@micromata.de)
+ * The number of open to-do entries (recent and not deleted entries) per assignee is cached. Accessible via ToDoDao.
+ * <br>
+ * The counters are maintained incrementally on every modification of a to-do (see {@link #update(ToDoDO)}), so a
+ * lookup is O(1) and doesn't need any database access. Only the entries counted are held (to-do id and assignee id),
+ * so the memory is bounded by the number of open entries and not by the total number of to-do's.
+ * <br>
+ * The periodic refresh verifies the counters by a single query and replaces them, if any differences are found
+ * (e. g. modifications done on the data base directly). The query is done inside the lock of the cache, so updates
+ * during a refresh wait and are applied to the reloaded counters.
  */
 public class ToDoCache extends AbstractCache
 {
   private static Logger log = LoggerFactory.getLogger(ToDoCache.class);
 
+  /** The key is the to-do id and the value is the assignee id of all counted (open) to-do entries. */
+  private volatile Map<Integer, Integer> openEntriesByToDoId = new ConcurrentHashMap<>();
+
   /** The key is the user id and the value is the number of open to-do entries. */
-  private Map<Integer, Integer> openEntriesMap;
+  private volatile Map<Integer, AtomicInteger> openEntriesMap = new ConcurrentHashMap<>();
+
+  /** False until the open entries are loaded successfully, updates are ignored until then. */
+  private boolean initialized;
 
-  private ToDoDao toDoDao;
+  private final ToDoDao toDoDao;
 
   /**
-   * Refreshes every 30 minutes. After any modifications via MebDao this cache will be refreshed.
+   * Verifies the counters every hour. Modifications via ToDoDao are applied immediately.
    */
   public ToDoCache(final ToDoDao toDoDao)
   {
-    super(30 * TICKS_PER_MINUTE);
+    super(TICKS_PER_HOUR);
     this.toDoDao = toDoDao;
   }
 
   int getOpenToDoEntries(final Integer userId)
   {
     checkRefresh();
-    final Integer result = openEntriesMap.get(userId);
-    if (result != null) {
-      return result;
+    final AtomicInteger counter = openEntriesMap.get(userId);
+    return counter != null ? counter.get() : 0;
+  }
+
+  /**
+   * Updates the counters of the old and new assignee of the given to-do. Called by ToDoDao after any modification
+   * (save, update, delete and undelete). Calling this method multiple times for the same state is harmless.
+   */
+  void update(final ToDoDO toDo)
+  {
+    if (toDo == null || toDo.getId() == null) {
+      return;
     }
-    final int counter = toDoDao.internalGetOpenEntries(userId);
-    synchronized (openEntriesMap) {
-      openEntriesMap.put(userId, counter);
+    final Integer assigneeId = isOpen(toDo) ? toDo.getAssigneeId() : null;
+    synchronized (this) {
+      // Synchronized with refresh, so no update gets lost while replacing the maps.
+      if (!initialized) {
+        // Not yet initialized, the counters will be loaded on first access.
+        return;
+      }
+      final Integer oldAssigneeId = assigneeId != null ? openEntriesByToDoId.put(toDo.getId(), assigneeId)
+          : openEntriesByToDoId.remove(toDo.getId());
+      if (Objects.equals(oldAssigneeId, assigneeId)) {
+        // Nothing changed.
+        return;
+      }
+      if (oldAssigneeId != null) {
+        final AtomicInteger counter = openEntriesMap.get(oldAssigneeId);
+        if (counter != null && counter.decrementAndGet() <= 0) {
+          openEntriesMap.remove(oldAssigneeId);
+        }
+      }
+      if (assigneeId != null) {
+        openEntriesMap.computeIfAbsent(assigneeId, id -> new AtomicInteger()).incrementAndGet();
+      }
     }
-    return counter;
+  }
+
+  private static boolean isOpen(final ToDoDO toDo)
+  {
+    return toDo.getRecent() && !toDo.isDeleted() && toDo.getAssigneeId() != null;
   }
 
   /**
@@ -72,7 +118,27 @@ public class ToDoCache extends AbstractCache
   @Override
   protected void refresh()
   {
-    log.info("Clearing cache with open to-do entries.");
-    openEntriesMap = new HashMap<>();
+    synchronized (this) {
+      // Loaded inside the lock: an update of a to-do committed after the query can't be applied to the old counters.
+      final Map<Integer, Integer> entries = toDoDao.internalGetOpenEntries();
+      if (entries == null) {
+        // Error while loading, keep the current counters.
+        return;
+      }
+      final Map<Integer, AtomicInteger> counters = new ConcurrentHashMap<>();
+      for (final Integer assigneeId : entries.values()) {
+        counters.computeIfAbsent(assigneeId, id -> new AtomicInteger()).incrementAndGet();
+      }
+      if (!initialized) {
+        log.info("Cache with open to-do entries initialized: " + entries.size() + " open entries of " + counters.size() + " users.");
+      } else if (!entries.equals(openEntriesByToDoId)) {
+        log.warn("Counters of open to-do entries were out of sync (modified without ToDoDao?), corrected.");
+      } else {
+        log.debug("Counters of open to-do entries verified.");
+      }
+      openEntriesByToDoId = new ConcurrentHashMap<>(entries);
+      openEntriesMap = counters;
+      initialized = true;
+    }
   }
 }
@@ -25,7 +25,6 @@ package org.projectforge.plugins.todo;
 
 import org.projectforge.business.configuration.ConfigurationService;
 import org.projectforge.business.task.TaskDO;
-import org.projectforge.business.task.TaskNode;
 import org.projectforge.business.task.TaskTree;
 import org.projectforge.business.tasktree.TaskTreeHelper;
 import org.projectforge.business.user.GroupDao;
@@ -125,10 +124,7 @@ public class ToDoDao extends BaseDao<ToDoDO> {
         queryFilter.add(QueryFilter.isIn("status", col));
       }
       if (myFilter.getTaskId() != null) {
-        final TaskNode node = getTaskTree().getTaskNodeById(myFilter.getTaskId());
-        final List<Integer> taskIds = node.getDescendantIds();
-        taskIds.add(node.getId());
-        queryFilter.add(QueryFilter.isIn("task.id", taskIds));
+        queryFilter.add(QueryFilter.taskSearch("task.id", myFilter.getTaskId(), true));
       }
       if (myFilter.getAssigneeId() != null) {
         final PFUserDO assignee = new PFUserDO();
@@ -240,7 +236,7 @@ public class ToDoDao extends BaseDao<ToDoDO> {
 
   @Override
   protected void afterSaveOrModify(final ToDoDO obj) {
-    toDoCache.setExpired(); // Force reload of the menu item counters for open to-do entrie.
+    toDoCache.update(obj); // Update the menu item counters for open to-do entries.
   }
 
   public void setAssignee(final ToDoDO todo, final Integer userId) {
@@ -279,22 +275,24 @@ public class ToDoDao extends BaseDao<ToDoDO> {
   }
 
   /**
-   * Called by ToDoCache to get the number of open entries for the given users.
+   * Called by ToDoCache to get all open entries (recent and not deleted entries with assignee).
    *
-   * @param userId
-   * @return Number of open to-do entries.
+   * @return Map with the assignee id by to-do id or null, if an error occurred.
    */
-  int internalGetOpenEntries(final Integer userId) {
+  Map<Integer, Integer> internalGetOpenEntries() {
     final JdbcTemplate jdbc = new JdbcTemplate(dataSource);
     try {
-      return jdbc.queryForObject("SELECT COUNT(*) FROM "
+      final Map<Integer, Integer> result = new HashMap<>();
+      jdbc.query("SELECT pk, assignee_fk FROM "
               + table.getName()
-              + " where assignee_fk="
-              + userId
-              + " and recent=true and deleted=false", Integer.class);
+              + " where assignee_fk is not null and recent=true and deleted=false",
+              rs -> {
+                result.put(rs.getInt(1), rs.getInt(2));
+              });
+      return result;
     } catch (final Exception ex) {
       log.error(ex.getMessage(), ex);
-      return 0;
+      return null;
     }
   }
 
@@ -0,0 +1,173 @@
+/////////////////////////////////////////////////////////////////////////////
+//
+// Project ProjectForge Community Edition
+//         www.projectforge.org
+//
+// Copyright (C) 2001-2020 Micromata GmbH, Germany (www.micromata.com)
+//
+// ProjectForge is dual-licensed.
+//
+// This community edition is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; version 3 of the License.
+//
+// This community edition is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+// Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, see http://www.gnu.org/licenses/.
+//
+/////////////////////////////////////////////////////////////////////////////
+
+
+package org.projectforge.plugins.todo;
+
+import org.junit.jupiter.api.Test;
+import org.projectforge.framework.persistence.user.entities.PFUserDO;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ToDoCacheTest {
+  @Test
+  public void countersTest() {
+    final TestToDoDao dao = new TestToDoDao();
+    dao.openEntries = createMap(1, 10, 2, 10, 3, 20);
+    final ToDoCache cache = new ToDoCache(dao);
+    assertCounters(cache, 2, 1, 0);
+
+    cache.update(createToDo(4, 30, true)); // Inserted.
+    assertCounters(cache, 2, 1, 1);
+    cache.update(createToDo(1, 20, true)); // Assignee changed.
+    assertCounters(cache, 1, 2, 1);
+    cache.update(createToDo(1, 20, true)); // Unchanged.
+    assertCounters(cache, 1, 2, 1);
+    cache.update(createToDo(2, 10, false)); // Seen by assignee.
+    assertCounters(cache, 0, 2, 1);
+    final ToDoDO toDo = createToDo(3, 20, true);
+    toDo.setDeleted(true);
+    cache.update(toDo); // Deleted.
+    assertCounters(cache, 0, 1, 1);
+    toDo.setDeleted(false);
+    cache.update(toDo); // Undeleted.
+    assertCounters(cache, 0, 2, 1);
+    cache.update(createToDo(4, null, true)); // Assignee removed.
+    assertCounters(cache, 0, 2, 0);
+    assertEquals(1, dao.counter, "No database access expected for updates.");
+
+    // Refresh verifies the counters:
+    dao.openEntries = createMap(1, 20, 3, 20);
+    cache.forceReload();
+    assertCounters(cache, 0, 2, 0);
+    // Refresh corrects the counters (e. g. after modifications on the data base directly):
+    dao.openEntries = createMap(1, 20, 5, 10);
+    cache.forceReload();
+    assertCounters(cache, 1, 1, 0);
+    assertEquals(3, dao.counter);
+  }
+
+  @Test
+  public void loadErrorTest() {
+    final TestToDoDao dao = new TestToDoDao();
+    dao.openEntries = null; // Error while loading.
+    final ToDoCache cache = new ToDoCache(dao);
+    assertCounters(cache, 0, 0, 0);
+    cache.update(createToDo(1, 10, true)); // Ignored, not yet initialized.
+    assertCounters(cache, 0, 0, 0);
+
+    dao.openEntries = createMap(1, 10, 2, 10);
+    cache.forceReload();
+    assertCounters(cache, 2, 0, 0);
+    // Error while loading: the current counters are kept.
+    dao.openEntries = null;
+    cache.forceReload();
+    assertCounters(cache, 2, 0, 0);
+    cache.update(createToDo(3, 20, true));
+    assertCounters(cache, 2, 1, 0);
+  }
+
+  @Test
+  public void updateDuringRefreshTest() throws Exception {
+    final TestToDoDao dao = new TestToDoDao();
+    dao.openEntries = createMap(1, 10);
+    final ToDoCache cache = new ToDoCache(dao);
+    assertCounters(cache, 1, 0, 0);
+
+    // The refresh reads the data base before the new to-do is committed:
+    dao.loadStarted = new CountDownLatch(1);
+    dao.continueLoading = new CountDownLatch(1);
+    final Thread refreshThread = new Thread(cache::forceReload);
+    refreshThread.start();
+    assertTrue(dao.loadStarted.await(10, TimeUnit.SECONDS));
+    // After commit of the new to-do:
+    final Thread updateThread = new Thread(() -> cache.update(createToDo(2, 10, true)));
+    updateThread.start();
+    final long timeout = System.currentTimeMillis() + 10000;
+    while (updateThread.getState() != Thread.State.BLOCKED && System.currentTimeMillis() < timeout) {
+      Thread.sleep(10);
+    }
+    assertEquals(Thread.State.BLOCKED, updateThread.getState(), "Update should wait for the refresh.");
+    dao.continueLoading.countDown();
+    refreshThread.join(10000);
+    updateThread.join(10000);
+    assertCounters(cache, 2, 0, 0); // The update isn't lost.
+  }
+
+  private void assertCounters(final ToDoCache cache, final int user10, final int user20, final int user30) {
+    assertEquals(user10, cache.getOpenToDoEntries(10));
+    assertEquals(user20, cache.getOpenToDoEntries(20));
+    assertEquals(user30, cache.getOpenToDoEntries(30));
+  }
+
+  /**
+   * @param toDoIdsAndAssigneeIds Pairs of to-do id and assignee id.
+   */
+  private static Map<Integer, Integer> createMap(final Integer... toDoIdsAndAssigneeIds) {
+    final Map<Integer, Integer> map = new HashMap<>();
+    for (int i = 0; i < toDoIdsAndAssigneeIds.length; i += 2) {
+      map.put(toDoIdsAndAssigneeIds[i], toDoIdsAndAssigneeIds[i + 1]);
+    }
+    return map;
+  }
+
+  private static ToDoDO createToDo(final Integer id, final Integer assigneeId, final boolean recent) {
+    final ToDoDO toDo = new ToDoDO();
+    toDo.setId(id);
+    if (assigneeId != null) {
+      final PFUserDO assignee = new PFUserDO();
+      assignee.setId(assigneeId);
+      toDo.setAssignee(assignee);
+    }
+    toDo.setRecent(recent);
+    return toDo;
+  }
+
+  private static class TestToDoDao extends ToDoDao {
+    private volatile Map<Integer, Integer> openEntries;
+
+    private volatile CountDownLatch loadStarted, continueLoading;
+
+    private int counter;
+
+    @Override
+    Map<Integer, Integer> internalGetOpenEntries() {
+      ++counter;
+      final Map<Integer, Integer> result = openEntries != null ? new HashMap<>(openEntries) : null;
+      if (loadStarted != null) {
+        loadStarted.countDown();
+        try {
+          continueLoading.await(10, TimeUnit.SECONDS);
+        } catch (final InterruptedException ex) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      return result;
+    }
+  }
+}
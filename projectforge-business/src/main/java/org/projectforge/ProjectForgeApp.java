@@ -37,6 +37,7 @@ import org.projectforge.common.EmphasizedLogSupport;
 import org.projectforge.common.StringModifier;
 import org.projectforge.continuousdb.DatabaseSupport;
 import org.projectforge.export.MyXlsExportContext;
+import org.projectforge.framework.cache.CacheWarmUp;
 import org.projectforge.framework.configuration.ConfigXml;
 import org.projectforge.framework.persistence.api.HibernateUtils;
 import org.projectforge.framework.persistence.database.DatabaseService;
@@ -99,6 +100,12 @@ public class ProjectForgeApp {
 
   private SystemStatus systemStatus;
 
+  private CacheWarmUp cacheWarmUp;
+
+  private RepoService repoService;
+
+  private RepoBackupService repoBackupService;
+
   @Autowired
   ProjectForgeApp(ApplicationContext applicationContext,
                   DatabaseService databaseService,
@@ -108,16 +115,18 @@ public class ProjectForgeApp {
                   RepoService repoService,
                   RepoBackupService repoBackupService,
                   SystemInfoCache systemInfoCache,
-                  SystemStatus systemStatus) {
+                  SystemStatus systemStatus,
+                  CacheWarmUp cacheWarmUp) {
     this.applicationContext = applicationContext;
     this.databaseService = databaseService;
     this.domainService = domainService;
     this.environment = environment;
     this.userXmlPreferencesCache = userXmlPreferencesCache;
-    repoService.init(new File(ConfigXml.getInstance().getJcrDirectory()));
-    repoBackupService.initBackupDir(new File(ConfigXml.getInstance().getBackupDirectory()));
     this.systemInfoCache = systemInfoCache;
     this.systemStatus = systemStatus;
+    this.cacheWarmUp = cacheWarmUp;
+    this.repoService = repoService;
+    this.repoBackupService = repoBackupService;
   }
 
   @PostConstruct
@@ -128,6 +137,11 @@ public class ProjectForgeApp {
   @EventListener(ApplicationReadyEvent.class)
   public void startApp() {
     internalInit();
+    // Required, so not part of the warm-up of the caches (ProjectForge mustn't be up and running without repository):
+    repoService.init(new File(ConfigXml.getInstance().getJcrDirectory()));
+    repoBackupService.initBackupDir(new File(ConfigXml.getInstance().getBackupDirectory()));
+    // ProjectForge isn't up and running until the caches are initialized:
+    cacheWarmUp.warmUp();
     finalizeInitialization();
   }
 
@@ -267,6 +267,33 @@ public class AddressDao extends BaseDao<AddressDO> {
     queryFilter.add(QueryFilter.isIn("addressbookList.id", abIdList));
   }
 
+  /**
+   * Same select access check as {@link #hasAccess(PFUserDO, AddressDO, AddressDO, OperationType, boolean)}, but the
+   * decisions per address book are stored in the given map (address book id as key), so checking a lot of addresses
+   * of the same user doesn't resolve the rights of the address books again and again.
+   *
+   * @param addressbookAccess Map to use for all addresses of one request of the given user.
+   */
+  public boolean hasSelectAccess(final PFUserDO user, final AddressDO obj, final Map<Integer, Boolean> addressbookAccess) {
+    if (addressbookRight == null) {
+      addressbookRight = (AddressbookRight) userRights.getRight(UserRightId.MISC_ADDRESSBOOK);
+    }
+    if (obj == null || obj.getAddressbookList() == null) {
+      // Same as hasAccess: Nothing to check.
+      return true;
+    }
+    for (AddressbookDO ab : getAddressCache().getAddressbooks(obj)) {
+      if (addressbookAccess.computeIfAbsent(ab.getId(), id -> hasAddressbookSelectAccess(user, ab))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private boolean hasAddressbookSelectAccess(final PFUserDO user, final AddressbookDO ab) {
+    return addressbookRight.checkGlobal(ab) || addressbookRight.getAccessType(ab, user.getId()).hasAnyAccess();
+  }
+
   @Override
   public boolean hasAccess(final PFUserDO user, final AddressDO obj, final AddressDO oldObj,
                            final OperationType operationType,
@@ -281,7 +308,7 @@ public class AddressDao extends BaseDao<AddressDO> {
     switch (operationType) {
       case SELECT:
         for (AddressbookDO ab : getAddressCache().getAddressbooks(obj)) {
-          if (addressbookRight.checkGlobal(ab) || addressbookRight.getAccessType(ab, user.getId()).hasAnyAccess()) {
+          if (hasAddressbookSelectAccess(user, ab)) {
             return true;
           }
         }
@@ -370,13 +397,13 @@ public class AddressDao extends BaseDao<AddressDO> {
   }
 
   /**
-   * Sets birthday cache as expired.
+   * Marks the address as modified in the birthday cache (called after commit).
    *
    * @param obj
    */
   @Override
   protected void afterSaveOrModify(AddressDO obj) {
-    TenantRegistryMap.getCache(BirthdayCache.class).setExpired();
+    TenantRegistryMap.getCache(BirthdayCache.class).setAddressModified(obj.getId());
   }
 
   protected static String getNormalizedFullname(final AddressDO address) {
@@ -400,7 +427,7 @@ public class AddressDao extends BaseDao<AddressDO> {
    */
   public Set<BirthdayAddress> getBirthdays(final Date fromDate, final Date toDate, final boolean all) {
     BirthdayCache cache = TenantRegistryMap.getCache(BirthdayCache.class);
-    return cache.getBirthdays(fromDate, toDate, all, personalAddressDao.getFavoriteAddressIdList());
+    return cache.getBirthdays(fromDate, toDate, all, new HashSet<>(personalAddressDao.getFavoriteAddressIdList()));
   }
 
   public List<PersonalAddressDO> getFavoriteVCards() {
@@ -63,6 +63,18 @@ public class BirthdayAddress implements Comparable<BirthdayAddress>, Serializabl
     compareString = dateOfYear + " " + address.getName() + ", " + address.getFirstName();
   }
 
+  /**
+   * Copy constructor (without the user specific fields favorite and age), avoids the date calculations.
+   */
+  BirthdayAddress(final BirthdayAddress src)
+  {
+    this.address = src.address;
+    this.month = src.month;
+    this.dayOfMonth = src.dayOfMonth;
+    this.dateOfYear = src.dateOfYear;
+    this.compareString = src.compareString;
+  }
+
   @Override
   public boolean equals(final Object obj)
   {
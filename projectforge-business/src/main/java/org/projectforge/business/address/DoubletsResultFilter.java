@@ -26,16 +26,20 @@ package org.projectforge.business.address;
 import org.jetbrains.annotations.NotNull;
 import org.projectforge.framework.persistence.api.impl.CustomResultFilter;
 
-import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
 
+/**
+ * Selects all addresses with the same normalized full name as any other address (doublets) in one pass: Only the first
+ * address of each full name is kept until a second one with the same name occurs.
+ */
 public class DoubletsResultFilter implements CustomResultFilter<AddressDO> {
-  final Set<String> fullnames = new HashSet<>();
-  final Set<String> doubletFullnames = new HashSet<>();
-  final List<AddressDO> all = new ArrayList<>(); // Already processed addresses to add doublets.
-  final Set<Integer> addedDoublets = new HashSet<>();
+  /**
+   * First address per normalized full name. The value is set to null after the first address was added to the result
+   * list (as doublet), so it's not referenced anymore.
+   */
+  final Map<String, AddressDO> firstAddressByFullname = new HashMap<>();
 
   @Override
   public boolean match(@NotNull List<AddressDO> list, @NotNull AddressDO element) {
@@ -43,20 +47,15 @@ public class DoubletsResultFilter implements CustomResultFilter<AddressDO> {
       return false;
     }
     final String fullname = AddressDao.getNormalizedFullname(element);
-    if (fullnames.contains(fullname)) {
-      doubletFullnames.add(fullname);
-      for (final AddressDO adr : all) {
-        if (addedDoublets.contains(adr.getId())) {
-          continue; // Already added.
-        } else if (doubletFullnames.contains(AddressDao.getNormalizedFullname(adr))) {
-          list.add(adr);
-          addedDoublets.add(adr.getId()); // Mark this address as already added.
-        }
+    if (firstAddressByFullname.containsKey(fullname)) {
+      final AddressDO first = firstAddressByFullname.get(fullname);
+      if (first != null) {
+        list.add(first); // Add first address of this full name (once).
+        firstAddressByFullname.put(fullname, null);
       }
       return true;
     }
-    all.add(element);
-    fullnames.add(fullname);
+    firstAddressByFullname.put(fullname, element);
     return false;
   }
 }
@@ -24,17 +24,23 @@
 package org.projectforge.business.fibu;
 
 import org.projectforge.framework.cache.AbstractCache;
+import org.projectforge.framework.cache.CacheSnapshotService;
 import org.projectforge.framework.persistence.jpa.PfEmgrFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PreDestroy;
 import javax.persistence.EntityManager;
+import java.io.Serializable;
 import java.util.*;
 
 /**
  * Caches the order positions assigned to invoice positions.
+ * <br>
+ * If snapshots are enabled (see {@link CacheSnapshotService}), the state is written on shutdown and used on the next
+ * start-up: only the positions of invoices modified since the snapshot are reloaded.
  *
  * @author Kai Reinhard (k.reinhard@micromata.de)
  */
@@ -42,9 +48,19 @@ import java.util.*;
 public class RechnungCache extends AbstractCache {
   private static Logger log = LoggerFactory.getLogger(RechnungCache.class);
 
+  private static final String SNAPSHOT_NAME = "RechnungCache";
+
+  /**
+   * If more invoices are modified since the snapshot, the cache is rebuilt completely.
+   */
+  private static final int MAX_DELTA_INVOICES = 1000;
+
   @Autowired
   protected PfEmgrFactory emgrFactory;
 
+  @Autowired
+  private CacheSnapshotService cacheSnapshotService;
+
   /**
    * The key is the order id.
    */
@@ -55,6 +71,13 @@ public class RechnungCache extends AbstractCache {
    */
   private Map<Integer, Set<RechnungsPositionVO>> invoicePositionMapByAuftragsPositionId;
 
+  /**
+   * Data version of the current state (determined before loading), only needed for snapshots.
+   */
+  private CacheSnapshotService.DataVersion dataVersion;
+
+  private boolean initialized;
+
   public Set<RechnungsPositionVO> getRechnungsPositionVOSetByAuftragId(final Integer auftragId) {
     checkRefresh();
     return invoicePositionMapByAuftragId.get(auftragId);
@@ -69,8 +92,14 @@ public class RechnungCache extends AbstractCache {
    * This method will be called by CacheHelper and is synchronized via getData();
    */
   @Override
-  @SuppressWarnings("unchecked")
   protected void refresh() {
+    final boolean firstRefresh = !initialized;
+    initialized = true;
+    final CacheSnapshotService.DataVersion currentVersion = cacheSnapshotService.isEnabled() ? getCurrentDataVersion() : null;
+    if (firstRefresh && currentVersion != null && refreshFromSnapshot(currentVersion)) {
+      this.dataVersion = currentVersion;
+      return;
+    }
     log.info("Initializing RechnungCache ...");
     // This method must not be synchronized because it works with a new copy of maps.
     final Map<Integer, Set<RechnungsPositionVO>> mapByAuftragId = new HashMap<>();
@@ -82,6 +111,15 @@ public class RechnungCache extends AbstractCache {
               RechnungsPositionDO.class)
               .getResultList();
     });
+    addPositions(list, mapByAuftragId, mapByAuftragsPositionId);
+    this.invoicePositionMapByAuftragId = mapByAuftragId;
+    this.invoicePositionMapByAuftragsPositionId = mapByAuftragsPositionId;
+    this.dataVersion = currentVersion;
+    log.info("Initializing of RechnungCache done.");
+  }
+
+  private void addPositions(final List<RechnungsPositionDO> list, final Map<Integer, Set<RechnungsPositionVO>> mapByAuftragId,
+                            final Map<Integer, Set<RechnungsPositionVO>> mapByAuftragsPositionId) {
     for (final RechnungsPositionDO pos : list) {
       RechnungDO rechnung = pos.getRechnung();
       if (pos.getAuftragsPosition() == null || pos.getAuftragsPosition().getAuftrag() == null) {
@@ -112,8 +150,105 @@ public class RechnungCache extends AbstractCache {
         setByAuftragsPositionId.add(vo);
       }
     }
-    this.invoicePositionMapByAuftragId = mapByAuftragId;
-    this.invoicePositionMapByAuftragsPositionId = mapByAuftragsPositionId;
-    log.info("Initializing of RechnungCache done.");
+  }
+
+  /**
+   * Uses the snapshot, if its data version is equal to the current one. If only invoices and invoice positions were
+   * modified or inserted since the snapshot, the positions of these invoices are reloaded (delta).
+   *
+   * @return true, if the state was restored from the snapshot, false if a full rebuild is needed.
+   */
+  private boolean refreshFromSnapshot(final CacheSnapshotService.DataVersion currentVersion) {
+    final CacheSnapshotService.Snapshot<State> snapshot = cacheSnapshotService.read(SNAPSHOT_NAME, State.class);
+    if (snapshot == null) {
+      return false;
+    }
+    final State state = snapshot.getState();
+    final CacheSnapshotService.DataVersion snapshotVersion = snapshot.getDataVersion();
+    if (snapshotVersion.equals(currentVersion)) {
+      log.info("RechnungCache restored from snapshot (data unchanged).");
+      setState(state);
+      return true;
+    }
+    final CacheSnapshotService.TableVersion snapshotPositions = snapshotVersion.getTableVersion(RechnungsPositionDO.class);
+    final CacheSnapshotService.TableVersion currentPositions = currentVersion.getTableVersion(RechnungsPositionDO.class);
+    final CacheSnapshotService.TableVersion snapshotInvoices = snapshotVersion.getTableVersion(RechnungDO.class);
+    final CacheSnapshotService.TableVersion currentInvoices = currentVersion.getTableVersion(RechnungDO.class);
+    if (!Objects.equals(snapshotVersion.getTableVersion(AuftragsPositionDO.class), currentVersion.getTableVersion(AuftragsPositionDO.class))
+            || snapshotPositions == null || currentPositions == null || snapshotInvoices == null || currentInvoices == null
+            || currentPositions.getCount() < snapshotPositions.getCount() // Positions were deleted.
+            || snapshotPositions.getMaxLastUpdate() == null || snapshotInvoices.getMaxLastUpdate() == null
+            // Older data (e. g. restored database), modifications can't be detected by last update:
+            || isBefore(currentPositions.getMaxLastUpdate(), snapshotPositions.getMaxLastUpdate())
+            || isBefore(currentInvoices.getMaxLastUpdate(), snapshotInvoices.getMaxLastUpdate())) {
+      log.info("Snapshot of RechnungCache outdated, rebuilding cache.");
+      return false;
+    }
+    final Set<Integer> modifiedInvoiceIds = emgrFactory.runRoTrans(emgr -> {
+      final EntityManager em = emgr.getEntityManager();
+      final Set<Integer> ids = new HashSet<>(em.createQuery("select r.id from RechnungDO r where r.lastUpdate >= :since", Integer.class)
+              .setParameter("since", snapshotInvoices.getMaxLastUpdate())
+              .getResultList());
+      ids.addAll(em.createQuery("select p.rechnung.id from RechnungsPositionDO p where p.lastUpdate >= :since", Integer.class)
+              .setParameter("since", snapshotPositions.getMaxLastUpdate())
+              .getResultList());
+      return ids;
+    });
+    if (modifiedInvoiceIds.size() > MAX_DELTA_INVOICES) {
+      log.info("Too many invoices modified since snapshot of RechnungCache (" + modifiedInvoiceIds.size() + "), rebuilding cache.");
+      return false;
+    }
+    // Remove all positions of modified invoices and reload them:
+    state.mapByAuftragId.values().forEach(set -> set.removeIf(vo -> modifiedInvoiceIds.contains(vo.getRechnungId())));
+    state.mapByAuftragsPositionId.values().forEach(set -> set.removeIf(vo -> modifiedInvoiceIds.contains(vo.getRechnungId())));
+    if (!modifiedInvoiceIds.isEmpty()) {
+      final List<RechnungsPositionDO> list = emgrFactory.runRoTrans(emgr -> {
+        EntityManager em = emgr.getEntityManager();
+        em.clear();
+        return em.createQuery("from RechnungsPositionDO t left join fetch t.auftragsPosition left join fetch t.auftragsPosition.auftrag where t.auftragsPosition is not null and t.rechnung.id in (:ids)",
+                RechnungsPositionDO.class)
+                .setParameter("ids", modifiedInvoiceIds)
+                .getResultList();
+      });
+      addPositions(list, state.mapByAuftragId, state.mapByAuftragsPositionId);
+    }
+    log.info("RechnungCache restored from snapshot, positions of " + modifiedInvoiceIds.size() + " modified invoices reloaded.");
+    setState(state);
+    return true;
+  }
+
+  private static boolean isBefore(final Date date, final Date other) {
+    return date == null || date.before(other);
+  }
+
+  private void setState(final State state) {
+    this.invoicePositionMapByAuftragId = state.mapByAuftragId;
+    this.invoicePositionMapByAuftragsPositionId = state.mapByAuftragsPositionId;
+  }
+
+  private CacheSnapshotService.DataVersion getCurrentDataVersion() {
+    return cacheSnapshotService.getDataVersion(RechnungDO.class, RechnungsPositionDO.class, AuftragsPositionDO.class);
+  }
+
+  @PreDestroy
+  public void writeSnapshot() {
+    if (!cacheSnapshotService.isEnabled() || dataVersion == null || isExpired() || invoicePositionMapByAuftragId == null) {
+      // Nothing to write or state is outdated.
+      return;
+    }
+    cacheSnapshotService.write(SNAPSHOT_NAME, dataVersion, new State(invoicePositionMapByAuftragId, invoicePositionMapByAuftragsPositionId));
+  }
+
+  private static class State implements Serializable {
+    private static final long serialVersionUID = 4203984017283912211L;
+
+    private final Map<Integer, Set<RechnungsPositionVO>> mapByAuftragId;
+
+    private final Map<Integer, Set<RechnungsPositionVO>> mapByAuftragsPositionId;
+
+    private State(final Map<Integer, Set<RechnungsPositionVO>> mapByAuftragId, final Map<Integer, Set<RechnungsPositionVO>> mapByAuftragsPositionId) {
+      this.mapByAuftragId = mapByAuftragId;
+      this.mapByAuftragsPositionId = mapByAuftragsPositionId;
+    }
   }
 }
@@ -26,19 +26,20 @@ package org.projectforge.business.humanresources;
 import org.projectforge.business.fibu.KundeDO;
 import org.projectforge.business.fibu.ProjektDO;
 import org.projectforge.business.multitenancy.TenantRegistryMap;
+import org.projectforge.business.task.TaskDO;
 import org.projectforge.business.task.TaskTree;
 import org.projectforge.business.tasktree.TaskTreeHelper;
+import org.projectforge.business.timesheet.TimesheetAggregationDao;
 import org.projectforge.business.timesheet.TimesheetDO;
 import org.projectforge.business.timesheet.TimesheetDao;
-import org.projectforge.business.timesheet.TimesheetFilter;
 import org.projectforge.business.user.UserDao;
 import org.projectforge.business.user.UserGroupCache;
 import org.projectforge.framework.persistence.api.BaseSearchFilter;
 import org.projectforge.framework.persistence.api.IDao;
 import org.projectforge.framework.persistence.api.QueryFilter;
 import org.projectforge.framework.persistence.api.SortProperty;
+import org.projectforge.framework.persistence.user.api.ThreadLocalUserContext;
 import org.projectforge.framework.persistence.user.entities.PFUserDO;
-import org.projectforge.framework.time.PFDateTime;
 import org.projectforge.framework.time.PFDay;
 import org.projectforge.framework.utils.NumberHelper;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -58,6 +59,9 @@ public class HRViewDao implements IDao<HRViewData> {
   @Autowired
   private TimesheetDao timesheetDao;
 
+  @Autowired
+  private TimesheetAggregationDao timesheetAggregationDao;
+
   @Autowired
   private HRPlanningDao hrPlanningDao;
 
@@ -77,29 +81,33 @@ public class HRViewDao implements IDao<HRViewData> {
       filter.setStartDay(PFDay.today().getLocalDate());
     }
     if (filter.isShowBookedTimesheets()) {
-      final TimesheetFilter tsFilter = new TimesheetFilter();
-      tsFilter.setStartTime(PFDateTime.fromOrNull(filter.getStartDay()).getBeginOfDay().getUtilDate());
-      tsFilter.setStopTime(PFDateTime.fromOrNull(filter.getStopDay()).getEndOfDay().getUtilDate());
-      final List<TimesheetDO> sheets = timesheetDao.getList(tsFilter);
+      // The durations are summed by user and task by the aggregation store instead of loading all time sheets:
+      final TimesheetAggregationDao.Filter aggregationFilter = new TimesheetAggregationDao.Filter(filter.getStartDay(), filter.getStopDay());
+      final List<TimesheetAggregationDao.TimesheetAggregate> aggregates = timesheetAggregationDao.query(aggregationFilter,
+              TimesheetAggregationDao.Dimension.USER, TimesheetAggregationDao.Dimension.TASK);
       final UserGroupCache userGroupCache = TenantRegistryMap.getInstance().getTenantRegistry().getUserGroupCache();
-      for (final TimesheetDO sheet : sheets) {
-        final PFUserDO user = userGroupCache.getUser(sheet.getUserId());
+      final TaskTree taskTree = TaskTreeHelper.getTaskTree();
+      final PFUserDO loggedInUser = ThreadLocalUserContext.getUser();
+      for (final TimesheetAggregationDao.TimesheetAggregate aggregate : aggregates) {
+        final PFUserDO user = userGroupCache.getUser(aggregate.getUserId());
         if (user == null) {
-          log.error("Oups, user of time sheet is null or unknown? Ignoring entry: " + sheet);
+          log.error("Oups, user of time sheets is null or unknown? Ignoring entry of user with id: " + aggregate.getUserId());
           continue;
         }
-        final TaskTree taskTree = TaskTreeHelper.getTaskTree();
-        final ProjektDO projekt = taskTree.getProjekt(sheet.getTaskId());
+        if (!hasSelectAccess(loggedInUser, user, taskTree.getTaskById(aggregate.getTaskId()))) {
+          continue;
+        }
+        final ProjektDO projekt = taskTree.getProjekt(aggregate.getTaskId());
         final Object targetObject = getTargetObject(userGroupCache, filter, projekt);
         if (targetObject == null) {
-          data.addTimesheet(sheet, user);
+          data.addDuration(aggregate.getDuration(), user);
         } else if (targetObject instanceof ProjektDO) {
-          data.addTimesheet(sheet, user, (ProjektDO) targetObject);
+          data.addDuration(aggregate.getDuration(), user, (ProjektDO) targetObject);
         } else if (targetObject instanceof KundeDO) {
-          data.addTimesheet(sheet, user, (KundeDO) targetObject);
+          data.addDuration(aggregate.getDuration(), user, (KundeDO) targetObject);
         } else {
           log.error("Target object of type " + targetObject + " not supported.");
-          data.addTimesheet(sheet, user);
+          data.addDuration(aggregate.getDuration(), user);
         }
       }
     }
@@ -160,6 +168,20 @@ public class HRViewDao implements IDao<HRViewData> {
     return data;
   }
 
+  /**
+   * The select access of time sheets depends only on the user and the task of the time sheets, so the access of the
+   * aggregated durations is checked with a time sheet of the given user and task.
+   */
+  private boolean hasSelectAccess(final PFUserDO loggedInUser, final PFUserDO user, final TaskDO task) {
+    if (task == null) {
+      return false;
+    }
+    final TimesheetDO timesheet = new TimesheetDO();
+    timesheet.setUser(user);
+    timesheet.setTask(task);
+    return timesheetDao.hasUserSelectAccess(loggedInUser, timesheet, false);
+  }
+
   /**
    * Returns a list of all users which are accessible by the current logged in user and not planned in the given
    * HRViewData object.
@@ -85,6 +85,29 @@ public class HRViewData implements Serializable
     sortedUserDatas = null;
   }
 
+  /**
+   * @param duration Duration of booked time sheets in millis.
+   */
+  void addDuration(final long duration, final PFUserDO user)
+  {
+    ensureAndGetUserData(user).addDuration(duration, (ProjektDO) null);
+    sortedUserDatas = null;
+  }
+
+  void addDuration(final long duration, final PFUserDO user, final ProjektDO projekt)
+  {
+    ensureAndGetUserData(user).addDuration(duration, projekt);
+    addProjekt(projekt);
+    sortedUserDatas = null;
+  }
+
+  void addDuration(final long duration, final PFUserDO user, final KundeDO kunde)
+  {
+    ensureAndGetUserData(user).addDuration(duration, kunde);
+    addKunde(kunde);
+    sortedUserDatas = null;
+  }
+
   void addHRPlanningEntry(final HRPlanningEntryDO entry, final PFUserDO user)
   {
     ensureAndGetUserData(user).addPlanningEntry(entry);
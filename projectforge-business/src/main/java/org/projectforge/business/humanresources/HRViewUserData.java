@@ -69,19 +69,35 @@ public class HRViewUserData implements Comparable<HRViewUserData>, Serializable,
 
   void addTimesheet(final TimesheetDO timesheet, final ProjektDO projekt)
   {
-    ensureAndGetEntry(projekt).addTimesheet(timesheet);
-    actualSecondsSum += (timesheet.getDuration() / 1000);
+    addDuration(timesheet.getDuration(), projekt);
+  }
+
+  void addTimesheet(final TimesheetDO timesheet, final KundeDO kunde)
+  {
+    addDuration(timesheet.getDuration(), kunde);
+  }
+
+  /**
+   * @param duration Duration of booked time sheets in millis.
+   */
+  void addDuration(final long duration, final ProjektDO projekt)
+  {
+    ensureAndGetEntry(projekt).addDuration(duration);
+    actualSecondsSum += (duration / 1000);
     if (projekt == null) {
-      actualSecondsRestSum += (timesheet.getDuration() / 1000);
+      actualSecondsRestSum += (duration / 1000);
     }
   }
 
-  void addTimesheet(final TimesheetDO timesheet, final KundeDO kunde)
+  /**
+   * @param duration Duration of booked time sheets in millis.
+   */
+  void addDuration(final long duration, final KundeDO kunde)
   {
-    ensureAndGetEntry(kunde).addTimesheet(timesheet);
-    actualSecondsSum += (timesheet.getDuration() / 1000);
+    ensureAndGetEntry(kunde).addDuration(duration);
+    actualSecondsSum += (duration / 1000);
     if (kunde == null) {
-      actualSecondsRestSum += (timesheet.getDuration() / 1000);
+      actualSecondsRestSum += (duration / 1000);
     }
   }
 
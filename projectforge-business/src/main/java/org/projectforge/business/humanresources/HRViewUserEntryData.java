@@ -66,7 +66,15 @@ public class HRViewUserEntryData implements Comparable<HRViewUserEntryData>, Ser
 
   void addTimesheet(final TimesheetDO timesheet)
   {
-    actualSeconds += (timesheet.getDuration() / 1000);
+    addDuration(timesheet.getDuration());
+  }
+
+  /**
+   * @param duration Duration of booked time sheets in millis.
+   */
+  void addDuration(final long duration)
+  {
+    actualSeconds += (duration / 1000);
   }
 
   void addPlanningEntry(final HRPlanningEntryDO entry)
@@ -53,6 +53,50 @@ public class ImageService
     return createBytesFromImage(bufferedImage);
   }
 
+  /**
+   * Resizes the given image to fit into a square of maxSize x maxSize pixels. The aspect ratio is preserved and smaller
+   * images aren't enlarged.
+   *
+   * @return The resized image as png.
+   */
+  public byte[] resizeImageToMaxSize(byte[] originalImage, int maxSize)
+  {
+    BufferedImage imageFromBytes = createImageFromBytes(originalImage);
+    if (imageFromBytes == null) {
+      return null;
+    }
+    int width = imageFromBytes.getWidth();
+    int height = imageFromBytes.getHeight();
+    if (width > maxSize || height > maxSize) {
+      final double scale = Math.min((double) maxSize / width, (double) maxSize / height);
+      width = Math.max(1, (int) Math.round(width * scale));
+      height = Math.max(1, (int) Math.round(height * scale));
+    }
+    return createBytesFromImage(compressImage(imageFromBytes, width, height));
+  }
+
+  /**
+   * Determines the mime type of the given image by its magic bytes.
+   *
+   * @return image/png, image/jpeg, image/gif or null, if not supported.
+   */
+  public static String getMimeType(byte[] image)
+  {
+    if (image == null) {
+      return null;
+    }
+    if (image.length >= 8 && (image[0] & 0xFF) == 0x89 && image[1] == 'P' && image[2] == 'N' && image[3] == 'G') {
+      return "image/png";
+    }
+    if (image.length >= 3 && (image[0] & 0xFF) == 0xFF && (image[1] & 0xFF) == 0xD8 && (image[2] & 0xFF) == 0xFF) {
+      return "image/jpeg";
+    }
+    if (image.length >= 6 && image[0] == 'G' && image[1] == 'I' && image[2] == 'F' && image[3] == '8') {
+      return "image/gif";
+    }
+    return null;
+  }
+
   private BufferedImage compressImage(BufferedImage originalImage, int width, int height)
   {
     if (originalImage != null) {
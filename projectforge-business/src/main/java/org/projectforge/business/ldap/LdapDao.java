@@ -30,6 +30,11 @@ import javax.naming.NameNotFoundException;
 import javax.naming.NamingEnumeration;
 import javax.naming.NamingException;
 import javax.naming.directory.*;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.LdapContext;
+import javax.naming.ldap.PagedResultsControl;
+import javax.naming.ldap.PagedResultsResponseControl;
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.LinkedList;
@@ -43,6 +48,11 @@ public abstract class LdapDao<I extends Serializable, T extends LdapObject<I>>
 {
   private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(LdapDao.class);
 
+  /**
+   * Page size of LDAP paged results used by {@link #findAll(DirContext, String)}.
+   */
+  private static final int PAGE_SIZE = 500;
+
   protected LdapConnector ldapConnector;
 
   protected LdapConfig ldapConfig;
@@ -428,6 +438,10 @@ public abstract class LdapDao<I extends Serializable, T extends LdapObject<I>>
     }.excecute();
   }
 
+  /**
+   * Uses LDAP paged results (RFC 2696) if supported by the given context, so large user bases don't exceed the size
+   * limit of the LDAP server. Servers not supporting paged results will ignore the (non critical) control.
+   */
   public List<T> findAll(final DirContext ctx, final String organizationalUnit) throws NamingException
   {
     final LinkedList<T> list = new LinkedList<>();
@@ -435,16 +449,45 @@ public abstract class LdapDao<I extends Serializable, T extends LdapObject<I>>
     final SearchControls controls = new SearchControls();
     controls.setSearchScope(SearchControls.SUBTREE_SCOPE);
     final String searchBase = getSearchBase(organizationalUnit);
-    results = ctx.search(searchBase, "(objectclass=" + getObjectClass() + ")", controls);
-    while (results.hasMore()) {
-      final SearchResult searchResult = (SearchResult) results.next();
-      final String dn = searchResult.getName();
-      final Attributes attributes = searchResult.getAttributes();
-      list.add(mapToObject(dn, searchBase, attributes));
+    final LdapContext ldapContext = ctx instanceof LdapContext ? (LdapContext) ctx : null;
+    byte[] cookie = null;
+    try {
+      do {
+        if (ldapContext != null) {
+          ldapContext.setRequestControls(new Control[]{new PagedResultsControl(PAGE_SIZE, cookie, Control.NONCRITICAL)});
+        }
+        results = ctx.search(searchBase, "(objectclass=" + getObjectClass() + ")", controls);
+        while (results.hasMore()) {
+          final SearchResult searchResult = (SearchResult) results.next();
+          final String dn = searchResult.getName();
+          final Attributes attributes = searchResult.getAttributes();
+          list.add(mapToObject(dn, searchBase, attributes));
+        }
+        cookie = ldapContext != null ? getPagedResultsCookie(ldapContext) : null;
+      } while (cookie != null && cookie.length > 0);
+    } catch (final IOException ex) {
+      throw new NamingException("Can't create paged results control: " + ex.getMessage());
+    } finally {
+      if (ldapContext != null) {
+        ldapContext.setRequestControls(null);
+      }
     }
     return list;
   }
 
+  private byte[] getPagedResultsCookie(final LdapContext ctx) throws NamingException
+  {
+    final Control[] responseControls = ctx.getResponseControls();
+    if (responseControls != null) {
+      for (final Control control : responseControls) {
+        if (control instanceof PagedResultsResponseControl) {
+          return ((PagedResultsResponseControl) control).getCookie();
+        }
+      }
+    }
+    return null;
+  }
+
   @SuppressWarnings("unchecked")
   public T findById(final Object id, final String... organizationalUnits)
   {
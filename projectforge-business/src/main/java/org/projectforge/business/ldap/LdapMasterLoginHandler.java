@@ -60,8 +60,27 @@ public class LdapMasterLoginHandler extends LdapLoginHandler
 {
   private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(LdapMasterLoginHandler.class);
 
+  /**
+   * A full synchronization of all users and groups is done at least once within this period, otherwise only users
+   * and groups modified since the last successful synchronization will be written to LDAP.
+   */
+  private static final long FULL_SYNC_INTERVAL_MILLIS = 24 * 60 * 60 * 1000L;
+
+  /**
+   * Safety margin for the modification dates of users and groups (clock skew and objects saved during the last
+   * synchronization run).
+   */
+  private static final long INCREMENTAL_SYNC_MARGIN_MILLIS = 60 * 1000L;
+
   private boolean refreshInProgress;
 
+  /**
+   * Start time of the last synchronization run without errors, used as reference for incremental synchronization.
+   */
+  private Date lastSuccessfulSync;
+
+  private Date lastFullSync;
+
   @Autowired
   private GroupDOConverter groupDOConverter;
 
@@ -165,23 +184,49 @@ public class LdapMasterLoginHandler extends LdapLoginHandler
     return refreshInProgress;
   }
 
-  private void updateLdap(final Collection<PFUserDO> users, final Collection<GroupDO> groups)
+  /**
+   * Package-private for tests (synchronous call, see {@link #afterUserGroupCacheRefresh(Collection, Collection)}).
+   */
+  void updateLdap(final Collection<PFUserDO> users, final Collection<GroupDO> groups)
   {
     new LdapTemplate(ldapConnector)
     {
       @Override
       protected Object call() throws Exception
       {
-        log.info("Updating LDAP...");
+        final long begin = System.currentTimeMillis();
+        final Date syncStart = new Date(begin);
+        final boolean fullSync = lastSuccessfulSync == null || lastFullSync == null
+            || begin - lastFullSync.getTime() > FULL_SYNC_INTERVAL_MILLIS;
+        // Users and groups modified before this date are skipped in incremental mode:
+        final Date modifiedSince = fullSync ? null : new Date(lastSuccessfulSync.getTime() - INCREMENTAL_SYNC_MARGIN_MILLIS);
+        log.info("Updating LDAP (" + (fullSync ? "full" : "incremental") + " synchronization)...");
         // First, get set of all ldap entries:
-        final List<LdapUser> ldapUsers = getAllLdapUsers(ctx);
+        final List<LdapUser> ldapUsers = new ArrayList<>(getAllLdapUsers(ctx));
+        // Index of the first ldap user by uid and employee number:
+        final Map<String, Integer> ldapUsersByUid = new HashMap<>();
+        final Map<String, Integer> ldapUsersByEmployeeNumber = new HashMap<>();
+        for (int i = 0; i < ldapUsers.size(); i++) {
+          final LdapUser ldapUser = ldapUsers.get(i);
+          ldapUsersByUid.putIfAbsent(ldapUser.getUid(), i);
+          ldapUsersByEmployeeNumber.putIfAbsent(ldapUser.getEmployeeNumber(), i);
+        }
         final List<LdapUser> updatedLdapUsers = new ArrayList<>();
-        int error = 0, unmodified = 0, created = 0, updated = 0, deleted = 0, renamed = 0;
+        final Set<Integer> processedUserIds = new HashSet<>();
+        int error = 0, unmodified = 0, created = 0, updated = 0, deleted = 0, renamed = 0, skipped = 0;
+        int totalErrors = 0;
         final boolean sambaConfigured = ldapConfig.getSambaAccountsConfig() != null;
         for (final PFUserDO user : users) {
+          final LdapUser ldapUser = getLdapUser(ldapUsers, ldapUsersByUid, ldapUsersByEmployeeNumber, user);
+          if (ldapUser != null && !isModifiedSince(user.getLastUpdate(), modifiedSince)) {
+            // Unmodified since last synchronization, but needed for group memberships:
+            updatedLdapUsers.add(ldapUser);
+            skipped++;
+            continue;
+          }
+          processedUserIds.add(user.getId());
           final LdapUser updatedLdapUser = pfUserDOConverter.convert(user);
           try {
-            final LdapUser ldapUser = getLdapUser(ldapUsers, user);
             if (ldapUser == null) {
               updatedLdapUser.setOrganizationalUnit(userBase);
               if (!user.isDeleted() && !user.getLocalUser() && StringUtils.isNotBlank(user.getUsername())) {
@@ -255,15 +300,30 @@ public class LdapMasterLoginHandler extends LdapLoginHandler
             + renamed
             + " renamed, "
             + deleted
-            + " deleted.");
+            + " deleted, "
+            + skipped
+            + " skipped (not modified since last synchronization).");
+        totalErrors += error;
         // Now get all groups:
         final List<LdapGroup> ldapGroups = getAllLdapGroups(ctx);
+        final Map<String, LdapGroup> ldapGroupsByBusinessCategory = new HashMap<>();
+        for (final LdapGroup ldapGroup : ldapGroups) {
+          if (ldapGroup.getBusinessCategory() != null) {
+            ldapGroupsByBusinessCategory.putIfAbsent(ldapGroup.getBusinessCategory(), ldapGroup);
+          }
+        }
         final Map<Integer, LdapUser> ldapUserMap = getUserMap(updatedLdapUsers);
-        error = unmodified = created = updated = renamed = deleted = 0;
+        error = unmodified = created = updated = renamed = deleted = skipped = 0;
         for (final GroupDO group : groups) {
           try {
+            final LdapGroup ldapGroup = ldapGroupsByBusinessCategory.get(groupDOConverter.buildBusinessCategory(group));
+            if (ldapGroup != null && !isModifiedSince(group.getLastUpdate(), modifiedSince)
+                && !hasAssignedUser(group, processedUserIds)) {
+              // Neither the group nor any of its members were modified since last synchronization.
+              skipped++;
+              continue;
+            }
             final LdapGroup updatedLdapGroup = groupDOConverter.convert(group, baseDN, ldapUserMap);
-            final LdapGroup ldapGroup = getLdapGroup(ldapGroups, group);
             if (ldapGroup == null) {
               updatedLdapGroup.setOrganizationalUnit(groupBase);
               if (!group.isDeleted() && !group.getLocalGroup()) {
@@ -311,8 +371,18 @@ public class LdapMasterLoginHandler extends LdapLoginHandler
             + renamed
             + " renamed, "
             + deleted
-            + " deleted.");
-        log.info("LDAP update done.");
+            + " deleted, "
+            + skipped
+            + " skipped (not modified since last synchronization).");
+        totalErrors += error;
+        if (totalErrors == 0) {
+          // On errors, the next run will synchronize all objects modified since the last successful run again.
+          lastSuccessfulSync = syncStart;
+          if (fullSync) {
+            lastFullSync = syncStart;
+          }
+        }
+        log.info("LDAP update done in " + (System.currentTimeMillis() - begin) + "ms.");
         return null;
       }
     }.excecute();
@@ -422,24 +492,42 @@ public class LdapMasterLoginHandler extends LdapLoginHandler
     return map;
   }
 
-  private LdapUser getLdapUser(final List<LdapUser> ldapUsers, final PFUserDO user)
+  /**
+   * @return The first ldap user matching the uid or the employee number of the given user (same result as scanning the
+   * list of ldap users).
+   */
+  private LdapUser getLdapUser(final List<LdapUser> ldapUsers, final Map<String, Integer> ldapUsersByUid,
+      final Map<String, Integer> ldapUsersByEmployeeNumber, final PFUserDO user)
   {
-    for (final LdapUser ldapUser : ldapUsers) {
-      if (StringUtils.equals(ldapUser.getUid(), user.getUsername())
-          || StringUtils.equals(ldapUser.getEmployeeNumber(), PFUserDOConverter.buildEmployeeNumber(user))) {
-        return ldapUser;
-      }
+    final Integer uidIndex = ldapUsersByUid.get(user.getUsername());
+    final Integer employeeNumberIndex = ldapUsersByEmployeeNumber.get(PFUserDOConverter.buildEmployeeNumber(user));
+    if (uidIndex == null) {
+      return employeeNumberIndex != null ? ldapUsers.get(employeeNumberIndex) : null;
     }
-    return null;
+    if (employeeNumberIndex == null || uidIndex < employeeNumberIndex) {
+      return ldapUsers.get(uidIndex);
+    }
+    return ldapUsers.get(employeeNumberIndex);
   }
 
-  private LdapGroup getLdapGroup(final List<LdapGroup> ldapGroups, final GroupDO group)
+  /**
+   * @param modifiedSince null for full synchronization (every object is treated as modified).
+   */
+  private static boolean isModifiedSince(final Date lastUpdate, final Date modifiedSince)
   {
-    for (final LdapGroup ldapGroup : ldapGroups) {
-      if (StringUtils.equals(ldapGroup.getBusinessCategory(), groupDOConverter.buildBusinessCategory(group))) {
-        return ldapGroup;
+    return modifiedSince == null || lastUpdate == null || !lastUpdate.before(modifiedSince);
+  }
+
+  private static boolean hasAssignedUser(final GroupDO group, final Set<Integer> userIds)
+  {
+    if (group.getAssignedUsers() == null || userIds.isEmpty()) {
+      return false;
+    }
+    for (final PFUserDO user : group.getAssignedUsers()) {
+      if (userIds.contains(user.getId())) {
+        return true;
       }
     }
-    return null;
+    return false;
   }
 }
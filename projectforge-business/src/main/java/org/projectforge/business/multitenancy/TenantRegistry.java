@@ -29,6 +29,7 @@ import org.projectforge.business.fibu.ProjektDao;
 import org.projectforge.business.fibu.kost.KostCache;
 import org.projectforge.business.task.TaskDao;
 import org.projectforge.business.task.TaskTree;
+import org.projectforge.business.task.TaskTreeIntervalDao;
 import org.projectforge.business.timesheet.TimesheetDao;
 import org.projectforge.business.user.UserGroupCache;
 import org.projectforge.framework.access.AccessDao;
@@ -85,6 +86,8 @@ public class TenantRegistry
 
   private TimesheetDao timesheetDao;
 
+  private TaskTreeIntervalDao taskTreeIntervalDao;
+
   private KostCache kostCache;
 
   public TenantRegistry(final TenantDO tenant, ApplicationContext applicationContext)
@@ -100,6 +103,7 @@ public class TenantRegistry
     this.projektDao = applicationContext.getBean(ProjektDao.class);
     this.taskDao = applicationContext.getBean(TaskDao.class);
     this.timesheetDao = applicationContext.getBean(TimesheetDao.class);
+    this.taskTreeIntervalDao = applicationContext.getBean(TaskTreeIntervalDao.class);
 
     this.kostCache = applicationContext.getBean(KostCache.class);
   }
@@ -137,6 +141,7 @@ public class TenantRegistry
       taskTree.setProjektDao(projektDao);
       taskTree.setTaskDao(taskDao);
       taskTree.setTimesheetDao(timesheetDao);
+      taskTree.setTaskTreeIntervalDao(taskTreeIntervalDao);
       taskTree.forceReload();
     }
     updateUsageTime();
@@ -27,7 +27,6 @@ import groovy.lang.Binding;
 import groovy.lang.GroovyClassLoader;
 import groovy.lang.Script;
 import groovy.lang.Writable;
-import groovy.text.SimpleTemplateEngine;
 import groovy.text.Template;
 import groovy.text.TemplateEngine;
 import org.apache.commons.lang3.StringUtils;
@@ -37,6 +36,7 @@ import org.projectforge.framework.access.AccessException;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PreDestroy;
 import java.io.IOException;
 import java.io.StringWriter;
 import java.util.Map;
@@ -55,6 +55,12 @@ public class GroovyExecutor
   @Autowired
   private RefactoringService refService;
 
+  @PreDestroy
+  private void preDestroy()
+  {
+    log.info("Statistics of groovy template cache: " + GroovyTemplateCache.getInstance());
+  }
+
   public ScriptExecutionResult execute(final String script, final Map<String, Object> variables)
   {
     if (script == null) {
@@ -79,10 +85,21 @@ public class GroovyExecutor
     return execute(result, groovyObject, variables);
   }
 
+  /**
+   * The compiled templates are cached (see {@link GroovyTemplateCache}).
+   */
   public String executeTemplate(final String template, final Map<String, Object> variables)
   {
     securityChecks(template);
-    return executeTemplate(new SimpleTemplateEngine(), template, variables);
+    if (template == null) {
+      return null;
+    }
+    try {
+      return executeTemplate(GroovyTemplateCache.getInstance().getTemplate(template), variables);
+    } catch (final CompilationFailedException | IOException | ClassNotFoundException ex) {
+      log.error(ex.getMessage() + " while executing template: " + template, ex);
+    }
+    return null;
   }
 
   public String executeTemplate(final TemplateEngine templateEngine, final String template,
@@ -93,21 +110,26 @@ public class GroovyExecutor
       return null;
     }
     try {
-      final Template templateObject = templateEngine.createTemplate(template);
-      final Writable writable = templateObject.make(variables);
-      final StringWriter writer = new StringWriter();
-      writable.writeTo(writer);
-      writer.flush();
-      if (log.isDebugEnabled()) {
-        log.debug(writer.toString());
-      }
-      return writer.toString();
+      return executeTemplate(templateEngine.createTemplate(template), variables);
     } catch (final CompilationFailedException | IOException | ClassNotFoundException ex) {
       log.error(ex.getMessage() + " while executing template: " + template, ex);
     }
     return null;
   }
 
+  private String executeTemplate(final Template templateObject, final Map<String, Object> variables)
+      throws IOException
+  {
+    final Writable writable = templateObject.make(variables);
+    final StringWriter writer = new StringWriter();
+    writable.writeTo(writer);
+    writer.flush();
+    if (log.isDebugEnabled()) {
+      log.debug(writer.toString());
+    }
+    return writer.toString();
+  }
+
   /**
    * @param script
    * @param bindScriptResult If true then "scriptResult" from type GroovyResult is binded.
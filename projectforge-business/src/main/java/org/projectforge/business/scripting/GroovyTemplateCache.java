@@ -0,0 +1,155 @@
+/////////////////////////////////////////////////////////////////////////////
+//
+// Project ProjectForge Community Edition
+//         www.projectforge.org
+//
+// Copyright (C) 2001-2020 Micromata GmbH, Germany (www.micromata.com)
+//
+// ProjectForge is dual-licensed.
+//
+// This community edition is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; version 3 of the License.
+//
+// This community edition is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+// Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, see http://www.gnu.org/licenses/.
+//
+/////////////////////////////////////////////////////////////////////////////
+
+package org.projectforge.business.scripting;
+
+import groovy.text.SimpleTemplateEngine;
+import groovy.text.Template;
+import org.codehaus.groovy.control.CompilationFailedException;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded LRU cache of compiled groovy templates (SimpleTemplateEngine) by SHA-256 hash of the template source.
+ * Compiling a template creates a new Groovy class, so rendering the same mail template for many recipients compiled
+ * the same class again and again (and filled the Metaspace). Compiled templates are thread safe, every
+ * {@link Template#make(Map)} creates a new script instance.
+ */
+public class GroovyTemplateCache
+{
+  private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(GroovyTemplateCache.class);
+
+  /**
+   * Maximum number of cached templates.
+   */
+  static final int MAX_SIZE = 100;
+
+  private static final GroovyTemplateCache instance = new GroovyTemplateCache();
+
+  private final Map<String, Template> cache = new LinkedHashMap<String, Template>(16, 0.75f, true)
+  {
+    @Override
+    protected boolean removeEldestEntry(final Map.Entry<String, Template> eldest)
+    {
+      return size() > MAX_SIZE;
+    }
+  };
+
+  private final AtomicLong hits = new AtomicLong();
+
+  private final AtomicLong misses = new AtomicLong();
+
+  private final AtomicLong compileTimeMillis = new AtomicLong();
+
+  public static GroovyTemplateCache getInstance()
+  {
+    return instance;
+  }
+
+  /**
+   * @return The compiled template from the cache or the new compiled template (put in the cache).
+   */
+  public Template getTemplate(final String template) throws CompilationFailedException, ClassNotFoundException, IOException
+  {
+    final String key = hash(template);
+    synchronized (cache) {
+      final Template compiled = cache.get(key);
+      if (compiled != null) {
+        hits.incrementAndGet();
+        return compiled;
+      }
+    }
+    misses.incrementAndGet();
+    final long begin = System.currentTimeMillis();
+    // Compile outside the lock, concurrent compilations of the same new template are rare and harmless.
+    final Template compiled = new SimpleTemplateEngine().createTemplate(template);
+    final long duration = System.currentTimeMillis() - begin;
+    compileTimeMillis.addAndGet(duration);
+    if (log.isDebugEnabled()) {
+      log.debug("Groovy template compiled in " + duration + "ms.");
+    }
+    synchronized (cache) {
+      cache.put(key, compiled);
+    }
+    return compiled;
+  }
+
+  public long getHits()
+  {
+    return hits.get();
+  }
+
+  public long getMisses()
+  {
+    return misses.get();
+  }
+
+  /**
+   * @return Total time of all template compilations in milliseconds.
+   */
+  public long getCompileTimeMillis()
+  {
+    return compileTimeMillis.get();
+  }
+
+  public int getSize()
+  {
+    synchronized (cache) {
+      return cache.size();
+    }
+  }
+
+  public void clear()
+  {
+    synchronized (cache) {
+      cache.clear();
+    }
+  }
+
+  @Override
+  public String toString()
+  {
+    return "size=" + getSize() + ", hits=" + getHits() + ", misses=" + getMisses() + ", compileTime="
+        + getCompileTimeMillis() + "ms";
+  }
+
+  private static String hash(final String template)
+  {
+    try {
+      final byte[] digest = MessageDigest.getInstance("SHA-256").digest(template.getBytes(StandardCharsets.UTF_8));
+      final StringBuilder sb = new StringBuilder(digest.length * 2);
+      for (final byte b : digest) {
+        sb.append(String.format("%02x", b));
+      }
+      return sb.toString();
+    } catch (final NoSuchAlgorithmException ex) {
+      throw new RuntimeException(ex); // Shouldn't occur, SHA-256 is supported by every JVM.
+    }
+  }
+}
@@ -126,7 +126,10 @@ public class ScriptDao extends BaseDao<ScriptDO> {
 
     String scriptContent = script.getScriptAsString();
     if (script.getType() == ScriptDO.ScriptType.KOTLIN) {
-      return KotlinScriptExecutor.execute(scriptContent, scriptVariables, script.getFile(), script.getFilename());
+      // Compiled scripts are cached by id and last update (unsaved scripts are compiled on every execution):
+      final String cacheKey = script.getId() != null && script.getLastUpdate() != null
+              ? script.getId() + ":" + script.getLastUpdate().getTime() : null;
+      return KotlinScriptExecutor.execute(scriptContent, scriptVariables, script.getFile(), script.getFilename(), cacheKey);
     }
     if (scriptContent.contains("import org.projectforge.export")) {
       // Package was renamed in version 5.2 and 6.13:
@@ -39,6 +39,7 @@ import org.projectforge.framework.access.AccessType;
 import org.projectforge.framework.access.OperationType;
 import org.projectforge.framework.i18n.UserException;
 import org.projectforge.framework.persistence.api.*;
+import org.projectforge.framework.persistence.database.SearchIndexer;
 import org.projectforge.framework.persistence.user.entities.PFUserDO;
 import org.projectforge.framework.persistence.user.entities.TenantDO;
 import org.projectforge.framework.persistence.utils.SQLHelper;
@@ -64,6 +65,9 @@ public class TaskDao extends BaseDao<TaskDO> {
   @Autowired
   private UserDao userDao;
 
+  @Autowired
+  private SearchIndexer searchIndexer;
+
   public TaskDao() {
     super(TaskDO.class);
   }
@@ -499,14 +503,28 @@ public class TaskDao extends BaseDao<TaskDO> {
   }
 
   /**
-   * Re-index all dependent objects only if the title was changed.
+   * Re-index all dependent objects only if the title or the parent task was changed.
    */
   @Override
   protected boolean wantsReindexAllDependentObjects(final TaskDO obj, final TaskDO dbObj) {
     if (!super.wantsReindexAllDependentObjects(obj, dbObj)) {
       return false;
     }
-    return !StringUtils.equals(obj.getTitle(), dbObj.getTitle());
+    return !StringUtils.equals(obj.getTitle(), dbObj.getTitle())
+            || !Objects.equals(obj.getParentTaskId(), dbObj.getParentTaskId());
+  }
+
+  /**
+   * The task path (see {@link HibernateSearchTaskPathBridge}) of all descendant tasks contains the title of the given
+   * task, so all descendants are queued for re-indexing too.
+   */
+  @Override
+  public void reindexDependentObjects(final TaskDO obj) {
+    super.reindexDependentObjects(obj);
+    final TaskNode node = getTaskTree(obj).getTaskNodeById(obj.getId());
+    if (node != null) {
+      searchIndexer.enqueue(TaskDO.class, node.getDescendantIds());
+    }
   }
 
   @Override
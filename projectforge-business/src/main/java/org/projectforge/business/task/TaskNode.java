@@ -41,6 +41,7 @@ import org.slf4j.LoggerFactory;
 import java.io.Serializable;
 import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Objects;
@@ -58,6 +59,17 @@ public class TaskNode implements IdObject<Integer>, Serializable {
    */
   private static final Logger log = LoggerFactory.getLogger(TaskNode.class);
 
+  /**
+   * Flag of the effective permission bits: the explicit access of this node isn't recursive, so the descendant nodes
+   * don't inherit the permissions.
+   */
+  static final int PERMISSION_NOT_INHERITABLE = 1 << 30;
+
+  private static final OperationType[] PERMISSION_OPERATION_TYPES = {OperationType.SELECT, OperationType.INSERT,
+          OperationType.UPDATE, OperationType.DELETE};
+
+  private static final int[] EMPTY_PERMISSIONS = new int[0];
+
   /**
    * Reference to the parent task node with the parentTaskID.
    */
@@ -88,11 +100,30 @@ public class TaskNode implements IdObject<Integer>, Serializable {
 
   boolean bookableForTimesheets;
 
+  /**
+   * Pre-order number of this node in the task tree (nested set encoding, maintained by TaskTree). 0 if not yet
+   * numbered.
+   */
+  int treeLeft;
+
+  /**
+   * The highest pre-order number of all descendants of this node (or treeLeft, if this node has no children).
+   */
+  int treeRight;
+
   /**
    * For every group with access to this node the permissions will be stored here.
    */
   private final List<GroupTaskAccessDO> groupTaskAccessList = new ArrayList<>();
 
+  /**
+   * The materialized effective permissions of this node (explicit or inherited), indexed by the permission group index
+   * of the task tree. Maintained by TaskTree.
+   *
+   * @see #getPermissionBit(AccessType, OperationType)
+   */
+  private volatile int[] effectivePermissions = EMPTY_PERMISSIONS;
+
   public TaskNode() {
   }
 
@@ -279,6 +310,22 @@ public class TaskNode implements IdObject<Integer>, Serializable {
     return this.children != null && this.children.size() > 0 ? true : false;
   }
 
+  /**
+   * @return The pre-order number of this node in the task tree or 0, if not yet numbered.
+   * @see TaskTreeIntervalDO
+   */
+  public int getTreeLeft() {
+    return treeLeft;
+  }
+
+  /**
+   * @return The highest pre-order number of all descendants of this node (or tree left, if this node has no children).
+   * @see TaskTreeIntervalDO
+   */
+  public int getTreeRight() {
+    return treeRight;
+  }
+
   /**
    * Checks if the given node is a child / descendant of this node.
    */
@@ -286,6 +333,10 @@ public class TaskNode implements IdObject<Integer>, Serializable {
     if (this.children == null) {
       return false;
     }
+    if (this.treeLeft > 0 && node.treeLeft > 0) {
+      // Both nodes are numbered, so the intervals can be used:
+      return this.treeLeft < node.treeLeft && node.treeLeft <= this.treeRight;
+    }
     for (final TaskNode child : this.children) {
       if (child.equals(node)) {
         return true;
@@ -379,7 +430,8 @@ public class TaskNode implements IdObject<Integer>, Serializable {
 
   /**
    * Checks the desired permission for the given group to this task. If no GroupTaskAccess is defined for this task for
-   * the given group, hasPermission will be called of the parent task.
+   * the given group, hasPermission will be called of the parent task. For fast checks use the materialized permissions
+   * by {@link TaskTree#hasPermission(TaskNode, Integer, AccessType, OperationType)}.
    *
    * @param groupId    The id of the group to check.
    * @param accessType TASK_ACCESS, ...
@@ -399,6 +451,79 @@ public class TaskNode implements IdObject<Integer>, Serializable {
     return groupAccess.hasPermission(accessType, opType);
   }
 
+  /**
+   * @param groupIndex The permission group index of the task tree.
+   * @return The materialized effective permission bits for the given group.
+   */
+  int getEffectivePermissions(final int groupIndex) {
+    final int[] permissions = this.effectivePermissions;
+    return groupIndex < permissions.length ? permissions[groupIndex] : 0;
+  }
+
+  /**
+   * Calculates and stores the effective permission bits of the given group for this node. The effective permissions of
+   * the parent node must be up to date. Should only be called by TaskTree (synchronized).
+   *
+   * @return true, if the effective permissions were modified.
+   */
+  boolean updateEffectivePermissions(final Integer groupId, final int groupIndex) {
+    final int bits;
+    final GroupTaskAccessDO groupAccess = getGroupTaskAccess(groupId);
+    if (groupAccess != null) {
+      bits = getPermissionBits(groupAccess) | (groupAccess.isRecursive() ? 0 : PERMISSION_NOT_INHERITABLE);
+    } else if (parent != null) {
+      final int parentBits = parent.getEffectivePermissions(groupIndex);
+      bits = (parentBits & PERMISSION_NOT_INHERITABLE) != 0 ? 0 : parentBits;
+    } else {
+      // This is the root node.
+      bits = 0;
+    }
+    if (getEffectivePermissions(groupIndex) == bits) {
+      return false;
+    }
+    int[] permissions = this.effectivePermissions;
+    if (groupIndex >= permissions.length) {
+      permissions = Arrays.copyOf(permissions, groupIndex + 1);
+    }
+    permissions[groupIndex] = bits;
+    this.effectivePermissions = permissions;
+    return true;
+  }
+
+  /**
+   * @return The bit of the effective permissions representing the given access and operation type. Undelete is handled
+   * as delete (see AccessEntryDO).
+   */
+  static int getPermissionBit(final AccessType accessType, final OperationType opType) {
+    final int opIndex;
+    switch (opType) {
+      case SELECT:
+        opIndex = 0;
+        break;
+      case INSERT:
+        opIndex = 1;
+        break;
+      case UPDATE:
+        opIndex = 2;
+        break;
+      default:
+        opIndex = 3;
+    }
+    return 1 << (accessType.ordinal() * 4 + opIndex);
+  }
+
+  private static int getPermissionBits(final GroupTaskAccessDO groupAccess) {
+    int bits = 0;
+    for (final AccessType accessType : AccessType.values()) {
+      for (final OperationType opType : PERMISSION_OPERATION_TYPES) {
+        if (groupAccess.hasPermission(accessType, opType)) {
+          bits |= getPermissionBit(accessType, opType);
+        }
+      }
+    }
+    return bits;
+  }
+
   public boolean isPermissionRecursive(final Integer groupId) {
     final GroupTaskAccessDO groupAccess = getGroupTaskAccess(groupId);
     return groupAccess == null || groupAccess.isRecursive();
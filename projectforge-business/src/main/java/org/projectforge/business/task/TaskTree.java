@@ -41,6 +41,7 @@ import org.projectforge.business.fibu.kost.KostCache;
 import org.projectforge.business.timesheet.TimesheetDO;
 import org.projectforge.business.timesheet.TimesheetDao;
 import org.projectforge.framework.access.AccessDao;
+import org.projectforge.framework.access.AccessType;
 import org.projectforge.framework.access.GroupTaskAccessDO;
 import org.projectforge.framework.access.OperationType;
 import org.projectforge.framework.cache.AbstractCache;
@@ -57,6 +58,7 @@ import java.io.Serializable;
 import java.io.StringWriter;
 import java.math.BigDecimal;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Holds the complete task list in a tree. It will be initialized by the values read from the database. Any changes will
@@ -82,6 +84,8 @@ public class TaskTree extends AbstractCache implements Serializable
 
   private TimesheetDao timesheetDao;
 
+  private TaskTreeIntervalDao taskTreeIntervalDao;
+
   private TenantDO tenant;
 
   private static final List<TaskNode> EMPTY_LIST = new ArrayList<>();
@@ -106,6 +110,18 @@ public class TaskTree extends AbstractCache implements Serializable
    */
   private TaskNode root = null;
 
+  /**
+   * Key is the group id, value is the index of the group in the materialized effective permissions of the task nodes.
+   * Only groups with explicit task access are indexed.
+   */
+  private Map<Integer, Integer> permissionGroupIndexMap = new ConcurrentHashMap<>();
+
+  /**
+   * True, if the pre-order intervals of all task nodes are written to the data base (T_TASK_TREE_INTERVAL) and are
+   * up to date.
+   */
+  private volatile boolean treeIntervalsPersisted = false;
+
   private Map<Integer, Set<AuftragsPositionVO>> orderPositionReferences;
 
   private boolean orderPositionReferencesDirty = true;
@@ -154,7 +170,10 @@ public class TaskTree extends AbstractCache implements Serializable
     timesheet.setTask(task);
     final boolean bookable = timesheetDao.checkTaskBookable(timesheet, null, OperationType.INSERT, false);
     node.bookableForTimesheets = bookable;
-    return addTaskNode(node, parent);
+    addTaskNode(node, parent);
+    updatePermissions(node);
+    updateTreeIntervals(false);
+    return node;
   }
 
   /**
@@ -403,6 +422,8 @@ public class TaskTree extends AbstractCache implements Serializable
       final TaskNode newParent = getTaskNodeById(task.getParentTaskId());
       node.setParent(newParent);
       newParent.addChild(node);
+      updatePermissions(node);
+      updateTreeIntervals(false);
     }
     updateTimeOfLastModification();
     return node;
@@ -420,6 +441,10 @@ public class TaskTree extends AbstractCache implements Serializable
     final Integer taskId = groupTaskAccess.getTaskId();
     final TaskNode node = taskMap.get(taskId);
     node.setGroupTaskAccess(groupTaskAccess);
+    final Integer groupId = groupTaskAccess.getGroupId();
+    synchronized (this) {
+      updatePermissions(node, groupId, getOrCreatePermissionGroupIndex(groupId), false);
+    }
   }
 
   /**
@@ -433,7 +458,142 @@ public class TaskTree extends AbstractCache implements Serializable
     checkRefresh();
     final Integer taskId = groupTaskAccess.getTaskId();
     final TaskNode node = taskMap.get(taskId);
-    node.removeGroupTaskAccess(groupTaskAccess.getGroupId());
+    final Integer groupId = groupTaskAccess.getGroupId();
+    node.removeGroupTaskAccess(groupId);
+    final Integer groupIndex = permissionGroupIndexMap.get(groupId);
+    if (groupIndex != null) {
+      synchronized (this) {
+        updatePermissions(node, groupId, groupIndex, false);
+      }
+    }
+  }
+
+  /**
+   * Checks the desired permission for the given group to the given task node by using the materialized effective
+   * permissions (explicit or inherited by ancestor tasks) instead of climbing up the task hierarchy. The result is the
+   * same as of {@link TaskNode#hasPermission(Integer, AccessType, OperationType)}.
+   *
+   * @param node       A node of this task tree.
+   * @param groupId    The id of the group to check.
+   * @param accessType TASK_ACCESS, ...
+   * @param opType     Select, insert, update or delete.
+   */
+  public boolean hasPermission(final TaskNode node, final Integer groupId, final AccessType accessType,
+                               final OperationType opType)
+  {
+    final Integer groupIndex = permissionGroupIndexMap.get(groupId);
+    if (groupIndex == null) {
+      // No explicit access defined for this group.
+      return false;
+    }
+    return (node.getEffectivePermissions(groupIndex) & TaskNode.getPermissionBit(accessType, opType)) != 0;
+  }
+
+  private int getOrCreatePermissionGroupIndex(final Integer groupId)
+  {
+    synchronized (this) {
+      Integer groupIndex = permissionGroupIndexMap.get(groupId);
+      if (groupIndex == null) {
+        groupIndex = permissionGroupIndexMap.size();
+        permissionGroupIndexMap.put(groupId, groupIndex);
+      }
+      return groupIndex;
+    }
+  }
+
+  /**
+   * Updates the effective permissions of all groups for the given node and all its descendants (after inserting or
+   * moving a task).
+   */
+  private void updatePermissions(final TaskNode node)
+  {
+    synchronized (this) {
+      for (final Map.Entry<Integer, Integer> entry : permissionGroupIndexMap.entrySet()) {
+        updatePermissions(node, entry.getKey(), entry.getValue(), true);
+      }
+    }
+  }
+
+  /**
+   * Updates the effective permissions of the given group for the given node and its descendants.
+   *
+   * @param force If false, descendants with own access definitions for the group and descendants of unmodified nodes
+   *              are skipped, because their effective permissions don't depend on the modification.
+   */
+  private void updatePermissions(final TaskNode node, final Integer groupId, final int groupIndex, final boolean force)
+  {
+    final boolean modified = node.updateEffectivePermissions(groupId, groupIndex);
+    if (node.children == null || (!modified && !force)) {
+      return;
+    }
+    for (final TaskNode child : node.children) {
+      if (force || child.getGroupTaskAccess(groupId) == null) {
+        updatePermissions(child, groupId, groupIndex, force);
+      }
+    }
+  }
+
+  /**
+   * @return true, if the pre-order intervals of the task nodes are persisted and up to date, so subtree filters may
+   * use the interval table (see {@link TaskTreeIntervalDO}) instead of lists of descendant ids.
+   */
+  public boolean isTreeIntervalsPersisted()
+  {
+    return treeIntervalsPersisted;
+  }
+
+  /**
+   * Numbers all task nodes in pre-order and writes the modified intervals to the data base. The intervals of the task
+   * nodes are published after writing, because recursive task filters combine the intervals of the nodes with the
+   * intervals of the data base (see {@link org.projectforge.framework.persistence.api.QueryFilter#taskSearch}).
+   *
+   * @param writeAll If true, all intervals of this task tree will be replaced (after building the tree).
+   */
+  private void updateTreeIntervals(final boolean writeAll)
+  {
+    synchronized (this) {
+      if (root == null) {
+        return;
+      }
+      final List<TaskTreeIntervalDao.Interval> intervals = new ArrayList<>();
+      numberTreeIntervals(root, 0, intervals);
+      boolean persisted = false;
+      if (taskTreeIntervalDao != null) {
+        // Rewrite all, if the last write failed (the data base may differ from the intervals of the nodes).
+        final boolean rewrite = writeAll || !treeIntervalsPersisted;
+        treeIntervalsPersisted = false;
+        try {
+          if (rewrite) {
+            taskTreeIntervalDao.writeAll(root.getId(), intervals);
+          } else {
+            taskTreeIntervalDao.write(root.getId(), intervals);
+          }
+          persisted = true;
+        } catch (final Exception ex) {
+          log.error("Can't write intervals of task tree (recursive task filters will use lists of task ids): "
+              + ex.getMessage(), ex);
+        }
+      }
+      for (final TaskTreeIntervalDao.Interval interval : intervals) {
+        interval.getNode().treeLeft = interval.getTreeLeft();
+        interval.getNode().treeRight = interval.getTreeRight();
+      }
+      treeIntervalsPersisted = persisted;
+    }
+  }
+
+  private int numberTreeIntervals(final TaskNode node, int counter, final List<TaskTreeIntervalDao.Interval> intervals)
+  {
+    final int treeLeft = ++counter;
+    final int index = intervals.size();
+    intervals.add(null); // Place holder (pre-order), the tree right value is known after numbering the children.
+    if (node.children != null) {
+      for (final TaskNode child : node.children) {
+        counter = numberTreeIntervals(child, counter, intervals);
+      }
+    }
+    intervals.set(index, new TaskTreeIntervalDao.Interval(node, treeLeft, counter));
+    return counter;
   }
 
   public long getTimeOfLastModification()
@@ -499,6 +659,11 @@ public class TaskTree extends AbstractCache implements Serializable
     this.kostCache = kostCache;
   }
 
+  public void setTaskTreeIntervalDao(final TaskTreeIntervalDao taskTreeIntervalDao)
+  {
+    this.taskTreeIntervalDao = taskTreeIntervalDao;
+  }
+
   public void setTimesheetDao(TimesheetDao timesheetDao)
   {
     this.timesheetDao = timesheetDao;
@@ -918,13 +1083,26 @@ public class TaskTree extends AbstractCache implements Serializable
 
     // Now read all explicit group task access' from the database:
     final List<GroupTaskAccessDO> accessList = accessDao.internalLoadAll();
+    final Map<Integer, Integer> groupIndexMap = new ConcurrentHashMap<>();
     for (final GroupTaskAccessDO access : accessList) {
       node = taskMap.get(access.getTaskId());
       node.setGroupTaskAccess(access);
+      groupIndexMap.putIfAbsent(access.getGroupId(), groupIndexMap.size());
       if (log.isDebugEnabled()) {
         log.debug(access.toString());
       }
     }
+    // Materialize the effective permissions (top down):
+    synchronized (this) {
+      this.permissionGroupIndexMap = groupIndexMap;
+      updatePermissions(this.root);
+      for (final TaskNode taskNode : taskMap.values()) {
+        if (taskNode.isRootNode() && taskNode != this.root) {
+          // Duplicate root node (see above), not registered as child of the root node.
+          updatePermissions(taskNode);
+        }
+      }
+    }
     // Now read all projects with their references to tasks:
     final List<ProjektDO> projects = projektDao.internalLoadAll();
     if (projects != null) {
@@ -943,6 +1121,7 @@ public class TaskTree extends AbstractCache implements Serializable
     if (log.isDebugEnabled()) {
       log.debug(this.toString());
     }
+    updateTreeIntervals(true);
     readTotalDurations();
     refreshOrderPositionReferences();
     // Now update the status: bookable for time sheets:
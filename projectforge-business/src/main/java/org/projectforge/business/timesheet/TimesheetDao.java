@@ -86,8 +86,13 @@ public class TimesheetDao extends BaseDao<TimesheetDO> {
   @Autowired
   private Kost2Dao kost2Dao;
 
+  @Autowired
+  private TimesheetAggregationDao timesheetAggregationDao;
+
   public TimesheetDao() {
     super(TimesheetDO.class);
+    // The origin time sheet is needed for maintaining the aggregates.
+    supportAfterUpdate = true;
   }
 
   public boolean showTimesheetsOfOtherUsers() {
@@ -168,17 +173,8 @@ public class TimesheetDao extends BaseDao<TimesheetDO> {
       queryFilter.add(QueryFilter.le("startTime", filter.getStopTime()));
     }
     if (filter.getTaskId() != null) {
-      if (filter.isRecursive()) {
-        final TaskNode node = TaskTreeHelper.getTaskTree().getTaskNodeById(filter.getTaskId());
-        final List<Integer> taskIds = node.getDescendantIds();
-        taskIds.add(node.getId());
-        queryFilter.add(QueryFilter.isIn("task.id", taskIds));
-        if (log.isDebugEnabled()) {
-          log.debug("search in tasks: " + taskIds);
-        }
-      } else {
-        queryFilter.add(QueryFilter.eq("task.id", filter.getTaskId()));
-      }
+      // Recursive: subtree of the task as range predicate (pre-order intervals, see TaskTreeIntervalDO).
+      queryFilter.add(QueryFilter.taskSearch("task.id", filter.getTaskId(), filter.isRecursive()));
     }
     if (filter.getOrderType() == OrderDirection.DESC) {
       queryFilter.addOrder(SortProperty.desc("startTime"));
@@ -258,6 +254,36 @@ public class TimesheetDao extends BaseDao<TimesheetDO> {
     TaskTreeHelper.getTaskTree(obj).resetTotalDuration(obj.getTaskId());
   }
 
+  @Override
+  protected void afterSave(final TimesheetDO obj) {
+    super.afterSave(obj);
+    timesheetAggregationDao.refresh(obj);
+  }
+
+  /**
+   * Recomputes the aggregates of the origin and the new values (fact of user, day, task and kost2) from the data base.
+   */
+  @Override
+  protected void afterUpdate(final TimesheetDO obj, final TimesheetDO dbObj, final boolean isModified) {
+    super.afterUpdate(obj, dbObj, isModified);
+    if (!isModified || dbObj == null) {
+      return;
+    }
+    timesheetAggregationDao.refresh(obj, dbObj);
+  }
+
+  @Override
+  protected void afterDelete(final TimesheetDO obj) {
+    super.afterDelete(obj);
+    timesheetAggregationDao.refresh(obj);
+  }
+
+  @Override
+  protected void afterUndelete(final TimesheetDO obj) {
+    super.afterUndelete(obj);
+    timesheetAggregationDao.refresh(obj);
+  }
+
   /**
    * Checks the start and stop time. If seconds or millis is not null, a RuntimeException will be thrown.
    */
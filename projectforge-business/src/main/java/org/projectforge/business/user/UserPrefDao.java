@@ -61,15 +61,13 @@ import org.projectforge.framework.utils.NumberHelper;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Repository;
 
+import javax.persistence.EntityManager;
 import java.io.IOException;
 import java.io.Serializable;
 import java.lang.reflect.AccessibleObject;
 import java.lang.reflect.Field;
 import java.time.LocalDate;
-import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.List;
+import java.util.*;
 
 /**
  * @author Kai Reinhard (k.reinhard@micromata.de)
@@ -97,6 +95,13 @@ public class UserPrefDao extends BaseDao<UserPrefDO> {
   @Autowired
   private UserDao userDao;
 
+  /**
+   * Number of locks for serializing the write operations of the users (lock striping). Must be a power of 2.
+   */
+  private static final int USER_LOCK_STRIPES = 64;
+
+  private final Object[] userLocks = new Object[USER_LOCK_STRIPES];
+
   @Override
   public String[] getAdditionalSearchFields() {
     return ADDITIONAL_SEARCH_FIELDS;
@@ -105,6 +110,19 @@ public class UserPrefDao extends BaseDao<UserPrefDO> {
   public UserPrefDao() {
     super(UserPrefDO.class);
     logDatabaseActions = false;
+    for (int i = 0; i < USER_LOCK_STRIPES; i++) {
+      userLocks[i] = new Object();
+    }
+  }
+
+  /**
+   * Insert, update and delete operations are serialized per user (not globally), so a user never waits for the
+   * preference writes of other users. Also used by {@link UserPrefCache} for loading the preferences of a user.
+   *
+   * @return The lock of the given user (shared with the users of the same stripe).
+   */
+  public Object getUserLock(final Integer userId) {
+    return userLocks[(userId != null ? userId : 0) & (USER_LOCK_STRIPES - 1)];
   }
 
   /**
@@ -517,6 +535,13 @@ public class UserPrefDao extends BaseDao<UserPrefDO> {
 
   @Override
   protected void onSaveOrModify(UserPrefDO obj) {
+    serializeValueObject(obj);
+  }
+
+  /**
+   * Serializes the value object of the given user pref as json (value string and type).
+   */
+  public void serializeValueObject(UserPrefDO obj) {
     if (obj.getValueObject() == null) {
       obj.setValueString(null);
       obj.setValueTypeString(null);
@@ -560,68 +585,156 @@ public class UserPrefDao extends BaseDao<UserPrefDO> {
       log.warn("User of UserPrefDO is null (can't save it): " + obj);
       return null;
     }
-    synchronized (this) { // Avoid parallel insert, update, delete operations.
-      final UserPrefDO dbUserPref = (UserPrefDO) internalQuery(obj.getUser().getId(), obj.getArea(), obj.getName());
-      if (dbUserPref == null) {
-        obj.setId(null); // Add new entry (ignore id of any previous existing entry).
-        return super.internalSaveOrUpdate(obj);
-      } else {
-        obj.setId(dbUserPref.getId());
-        dbUserPref.setValueObject(obj.getValueObject());
-        if (dbUserPref.getUserPrefEntries() != null ||
-                obj.getUserPrefEntries() != null) {
-          // Legacy entries:
-          if (CollectionUtils.isEmpty(obj.getUserPrefEntries())) {
-            // All existing entries are deleted, so clear db entries:
-            dbUserPref.getUserPrefEntries().clear();
+    synchronized (getUserLock(obj.getUser().getId())) { // Avoid parallel insert, update, delete operations of the user.
+      if (isUpsertable(obj)) {
+        internalUpsert(obj.getUser().getId(), Collections.singletonList(obj));
+        return obj.getId();
+      }
+      return internalSaveOrUpdateEntries(obj);
+    }
+  }
+
+  /**
+   * Saves or updates the given user pref including its legacy entries (entries of the data base not existing anymore in
+   * the given object are removed). Must be called inside the lock of the user.
+   */
+  private Serializable internalSaveOrUpdateEntries(final UserPrefDO obj) {
+    final UserPrefDO dbUserPref = (UserPrefDO) internalQuery(obj.getUser().getId(), obj.getArea(), obj.getName());
+    if (dbUserPref == null) {
+      obj.setId(null); // Add new entry (ignore id of any previous existing entry).
+      return super.internalSaveOrUpdate(obj);
+    } else {
+      obj.setId(dbUserPref.getId());
+      dbUserPref.setValueObject(obj.getValueObject());
+      if (dbUserPref.getUserPrefEntries() != null ||
+              obj.getUserPrefEntries() != null) {
+        // Legacy entries:
+        if (CollectionUtils.isEmpty(obj.getUserPrefEntries())) {
+          // All existing entries are deleted, so clear db entries:
+          dbUserPref.getUserPrefEntries().clear();
+        } else {
+          // New entries exists, so we've to add them:
+          if (dbUserPref.getUserPrefEntries() == null) {
+            dbUserPref.setUserPrefEntries(new HashSet<>());
           } else {
-            // New entries exists, so we've to add them:
-            if (dbUserPref.getUserPrefEntries() == null) {
-              dbUserPref.setUserPrefEntries(new HashSet<>());
-            } else {
-              // Remove entries in db not existing anymore in given obj:
-              for (Iterator<UserPrefEntryDO> it = dbUserPref.getUserPrefEntries().iterator(); it.hasNext(); ) {
-                UserPrefEntryDO entry = it.next();
-                if (obj.getUserPrefEntry(entry.getParameter()) == null) {
-                  // This entry was removed (it's not present in the given object anymore:
-                  it.remove();
-                }
+            // Remove entries in db not existing anymore in given obj:
+            for (Iterator<UserPrefEntryDO> it = dbUserPref.getUserPrefEntries().iterator(); it.hasNext(); ) {
+              UserPrefEntryDO entry = it.next();
+              if (obj.getUserPrefEntry(entry.getParameter()) == null) {
+                // This entry was removed (it's not present in the given object anymore:
+                it.remove();
               }
             }
-            // Now we've to add / update all entries in the db of given obj:
-            for (UserPrefEntryDO newEntry : obj.getUserPrefEntries()) {
-              UserPrefEntryDO dbEntry = dbUserPref.getUserPrefEntry(newEntry.getParameter());
-              if (dbEntry == null) {
-                // New entry:
-                dbUserPref.getUserPrefEntries().add(newEntry);
-                newEntry.setId(null);
-              } else {
-                // Update current entry:
-                dbEntry.copyValuesFrom(newEntry, "id");
-              }
+          }
+          // Now we've to add / update all entries in the db of given obj:
+          for (UserPrefEntryDO newEntry : obj.getUserPrefEntries()) {
+            UserPrefEntryDO dbEntry = dbUserPref.getUserPrefEntry(newEntry.getParameter());
+            if (dbEntry == null) {
+              // New entry:
+              dbUserPref.getUserPrefEntries().add(newEntry);
+              newEntry.setId(null);
+            } else {
+              // Update current entry:
+              dbEntry.copyValuesFrom(newEntry, "id");
             }
           }
         }
-        super.internalUpdate(dbUserPref);
-        obj.setId(dbUserPref.getId());
-        return obj.getId();
       }
+      super.internalUpdate(dbUserPref);
+      obj.setId(dbUserPref.getId());
+      return obj.getId();
     }
   }
 
   /**
-   * Only for synchronization with {@link #internalSaveOrUpdate(UserPrefDO)}.
+   * Only for synchronization with {@link #internalSaveOrUpdate(UserPrefDO)} (lock of the user).
    *
    * @param obj
    * @throws AccessException
    */
   @Override
   public void delete(UserPrefDO obj) throws AccessException {
-    synchronized (this) {
+    synchronized (getUserLock(obj.getUser() != null ? obj.getUser().getId() : null)) {
       super.delete(obj);
     }
   }
 
+  /**
+   * Writes the given user prefs of one user (upsert): the json values of all existing entries are updated inside one
+   * transaction by user, area, name and tenant (unique in the data base), only the entries not yet existing are inserted
+   * afterwards. User prefs with legacy entries (given or persisted) are saved or updated as usual. Used by the
+   * write-behind of {@link UserPrefCache}.
+   * <br/>
+   * Please note: the bulk update bypasses the BaseDao hooks (onSaveOrModify, afterSaveOrModify etc.), the history and
+   * the deleted flag. User prefs aren't historized, so only the value and the time stamp of last update are written.
+   *
+   * @param userId    The owner of all given user prefs.
+   * @param userPrefs Entries to write without check access.
+   */
+  public void internalUpsert(final Integer userId, final Collection<UserPrefDO> userPrefs) {
+    if (CollectionUtils.isEmpty(userPrefs)) {
+      return;
+    }
+    synchronized (getUserLock(userId)) {
+      final List<UserPrefDO> notUpdated = new ArrayList<>();
+      final Date now = new Date();
+      emgrFactory.runInTrans(emgr -> {
+        final EntityManager em = emgr.getEntityManager();
+        for (final UserPrefDO obj : userPrefs) {
+          if (!isUpsertable(obj)) {
+            notUpdated.add(obj);
+            continue;
+          }
+          final Integer tenantId = obj.getTenant() != null ? obj.getTenant().getId() : getTenantRegistry().getTenantId();
+          final long entries = em.createNamedQuery(UserPrefDO.COUNT_ENTRIES_BY_USER_AND_AREA_AND_NAME, Long.class)
+                  .setParameter("userId", userId)
+                  .setParameter("area", obj.getArea())
+                  .setParameter("name", obj.getName())
+                  .setParameter("tenantId", tenantId)
+                  .getSingleResult();
+          if (entries > 0) {
+            // Legacy entries of the data base have to be removed:
+            notUpdated.add(obj);
+            continue;
+          }
+          serializeValueObject(obj);
+          final int updated = em.createNamedQuery(UserPrefDO.UPDATE_VALUE_BY_USER_AND_AREA_AND_NAME)
+                  .setParameter("valueString", obj.getValueString())
+                  .setParameter("valueTypeString", obj.getValueTypeString())
+                  .setParameter("lastUpdate", now)
+                  .setParameter("userId", userId)
+                  .setParameter("area", obj.getArea())
+                  .setParameter("name", obj.getName())
+                  .setParameter("tenantId", tenantId)
+                  .executeUpdate();
+          if (updated == 0) {
+            notUpdated.add(obj);
+          } else if (obj.getId() == null) {
+            obj.setId(SQLHelper.ensureUniqueResult(
+                    em.createNamedQuery(UserPrefDO.FIND_ID_BY_USER_AND_AREA_AND_NAME, Integer.class)
+                            .setParameter("userId", userId)
+                            .setParameter("area", obj.getArea())
+                            .setParameter("name", obj.getName())
+                            .setParameter("tenantId", tenantId)));
+          }
+        }
+        return null;
+      });
+      for (final UserPrefDO obj : notUpdated) {
+        // New entries, entries with legacy entries or entries without tenant are saved or updated as usual:
+        internalSaveOrUpdateEntries(obj);
+      }
+    }
+  }
+
+  /**
+   * Json user prefs (value object given, no legacy entries) may be updated directly in the data base.
+   */
+  private boolean isUpsertable(final UserPrefDO obj) {
+    return obj.getUser() != null && obj.getName() != null && obj.getValueObject() != null
+            && CollectionUtils.isEmpty(obj.getUserPrefEntries());
+  }
+
   private static final String MAGIC_JSON_START = "^JSON:";
 
   private String toJson(Object obj) {
@@ -33,9 +33,9 @@ import org.springframework.context.annotation.DependsOn;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.PreDestroy;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Stores all user persistent objects such as filter settings, personal settings and persists them to the database.
@@ -50,7 +50,7 @@ public class UserXmlPreferencesCache extends AbstractCache
 
   private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(UserXmlPreferencesCache.class);
 
-  private final Map<Integer, UserXmlPreferencesMap> allPreferences = new HashMap<>();
+  private final Map<Integer, UserXmlPreferencesMap> allPreferences = new ConcurrentHashMap<>();
 
   @Autowired
   private UserXmlPreferencesDao userXmlPreferencesDao;
@@ -144,7 +144,7 @@ public class UserXmlPreferencesCache extends AbstractCache
     flushToDB(userId, true);
   }
 
-  private synchronized void flushToDB(final Integer userId, final boolean checkAccess)
+  private void flushToDB(final Integer userId, final boolean checkAccess)
   {
     if (checkAccess) {
       if (!userId.equals(ThreadLocalUserContext.getUserId())) {
@@ -165,7 +165,9 @@ public class UserXmlPreferencesCache extends AbstractCache
     if (data == null || !data.isModified()) {
       return;
     }
-    userXmlPreferencesDao.saveOrUpdateUserEntries(userId, data, checkAccess);
+    synchronized (data) { // Only the user's data is locked, other users may be flushed in parallel.
+      userXmlPreferencesDao.saveOrUpdateUserEntries(userId, data, checkAccess);
+    }
   }
 
   /**
@@ -177,9 +179,11 @@ public class UserXmlPreferencesCache extends AbstractCache
   @Override
   protected void refresh()
   {
-    log.info("Flushing all user preferences to data-base....");
-    for (final Integer userId : allPreferences.keySet()) {
-      flushToDB(userId, false);
+    log.info("Flushing all modified user preferences to data-base....");
+    for (final Map.Entry<Integer, UserXmlPreferencesMap> entry : allPreferences.entrySet()) {
+      if (entry.getValue().isModified()) {
+        flushToDB(entry.getKey(), false);
+      }
     }
     log.info("Flushing of user preferences to data-base done.");
   }
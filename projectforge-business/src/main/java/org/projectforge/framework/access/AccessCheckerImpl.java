@@ -81,7 +81,8 @@ public class AccessCheckerImpl implements AccessChecker, Serializable {
                                final OperationType operationType,
                                final boolean throwException) {
     Validate.notNull(user);
-    final TaskNode node = getTaskTree().getTaskNodeById(taskId);
+    final TaskTree taskTree = getTaskTree();
+    final TaskNode node = taskTree.getTaskNodeById(taskId);
     if (node == null) {
       log.error("Task with " + taskId + " not found.");
       if (throwException) {
@@ -104,7 +105,7 @@ public class AccessCheckerImpl implements AccessChecker, Serializable {
       return false;
     }
     for (final Integer groupId : groupIds) {
-      if (node.hasPermission(groupId, accessType, operationType)) {
+      if (taskTree.hasPermission(node, groupId, accessType, operationType)) {
         return true;
       }
     }
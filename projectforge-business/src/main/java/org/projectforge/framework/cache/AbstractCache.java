@@ -142,6 +142,14 @@ public abstract class AbstractCache implements Serializable
     return refreshInProgress;
   }
 
+  /**
+   * @return true if the cache is marked as expired (will be refreshed before next use).
+   */
+  public boolean isExpired()
+  {
+    return isExpired;
+  }
+
   /**
    * Please implement this method refreshing the stored object _data. Do not forget to call checkRefresh in your cache
    * methods.
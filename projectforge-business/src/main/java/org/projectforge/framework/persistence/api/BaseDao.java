@@ -68,6 +68,7 @@ import javax.persistence.criteria.CriteriaQuery;
 import javax.persistence.criteria.Root;
 import java.io.Serializable;
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.stream.Collectors;
 
 /**
@@ -91,7 +92,7 @@ public abstract class BaseDao<O extends ExtendedBaseDO<Integer>>
    */
   private static final boolean LUCENE_FLUSH_ALWAYS = false;
 
-  private final List<BaseDOChangedListener<O>> objectChangedListeners = new LinkedList<>();
+  private final List<BaseDOChangedListener<O>> objectChangedListeners = new CopyOnWriteArrayList<>();
 
   protected Class<O> clazz;
 
@@ -1277,17 +1278,22 @@ public abstract class BaseDao<O extends ExtendedBaseDO<Integer>>
     if (list.size() > MAX_MASS_UPDATE) {
       throw new UserException(MAX_MASS_UPDATE_EXCEEDED_EXCEPTION_I18N, MAX_MASS_UPDATE);
     }
-    final Object store = prepareMassUpdateStore(list, master);
     for (final O entry : list) {
-      if (massUpdateEntry(entry, master, store)) {
-        try {
-          update(entry);
-        } catch (final IllegalArgumentException ex) {
-          log.error("Exception occured while updating entry inside mass update: " + entry + ex.getMessage());
-          throw new UserException("error", ex.getMessage());
-        }
+      if (entry.getId() == null) {
+        final String msg = "Could not update object unless id is not given:" + entry.toString();
+        log.error(msg);
+        throw new RuntimeException(msg);
       }
     }
+    accessChecker.checkRestrictedOrDemoUser();
+    final Object store = prepareMassUpdateStore(list, master);
+    try {
+      // All entries are updated in one transaction (history entries are written en bloc in deferred history mode).
+      BaseDaoSupport.internalMassUpdate(this, list, entry -> massUpdateEntry(entry, master, store));
+    } catch (final IllegalArgumentException ex) {
+      log.error("Exception occured while updating entry inside mass update: " + ex.getMessage());
+      throw new UserException("error", ex.getMessage());
+    }
   }
 
   /**
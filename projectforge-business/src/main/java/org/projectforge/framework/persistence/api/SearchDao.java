@@ -61,7 +61,7 @@ public class SearchDao {
     if (list.size() == 0) {
       return result;
     }
-    // TODO: Search for history entries.
+    // History entries are searched by UnifiedSearchService.search (optional source).
     // Now put the stuff together:
     int counter = 0;
     for (final ExtendedBaseDO entry : list) {
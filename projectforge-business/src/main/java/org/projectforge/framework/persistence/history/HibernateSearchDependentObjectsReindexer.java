@@ -25,9 +25,8 @@ package org.projectforge.framework.persistence.history;
 
 import org.hibernate.search.annotations.ContainedIn;
 import org.hibernate.search.annotations.IndexedEmbedded;
-import org.hibernate.search.jpa.FullTextEntityManager;
-import org.hibernate.search.jpa.Search;
 import org.projectforge.framework.persistence.api.BaseDO;
+import org.projectforge.framework.persistence.database.SearchIndexer;
 import org.projectforge.framework.persistence.jpa.PfEmgrFactory;
 import org.projectforge.registry.Registry;
 import org.projectforge.registry.RegistryEntry;
@@ -37,14 +36,14 @@ import org.springframework.util.CollectionUtils;
 
 import javax.annotation.PostConstruct;
 import javax.persistence.EntityManager;
-import javax.persistence.FlushModeType;
 import java.lang.reflect.Field;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.util.*;
 
 /**
- * Hotfix: Hibernate-search does not update index of dependent objects.
+ * Hotfix: Hibernate-search does not update index of dependent objects. The dependent objects are queued for
+ * re-indexing by the {@link SearchIndexer}.
  *
  * @author Kai Reinhard (k.reinhard@micromata.de)
  */
@@ -56,6 +55,9 @@ public class HibernateSearchDependentObjectsReindexer {
   @Autowired
   private PfEmgrFactory emgrFactory;
 
+  @Autowired
+  private SearchIndexer searchIndexer;
+
   /**
    * Key is the embedded class (annotated with @IndexEmbedded), value the set of all dependent objects.
    */
@@ -113,29 +115,31 @@ public class HibernateSearchDependentObjectsReindexer {
 
   }
 
+  /**
+   * Collects the ids of all objects depending on the given object (recursively) and stores them in the durable search
+   * index queue. The indexing itself is done in background by the {@link SearchIndexer}.
+   */
   public void reindexDependents(final BaseDO<?> obj) {
-    new Thread() {
-      @Override
-      public void run() {
-        emgrFactory.runInTrans(emgr -> {
-                  final EntityManager em = emgr.getEntityManager();
-                  final Set<String> alreadyReindexed = new HashSet<>();
-                  final List<Entry> entryList = map.get(obj.getClass());
-                  reindexDependents(em, obj, entryList, alreadyReindexed);
-                  final int size = alreadyReindexed.size();
-                  if (size >= 10) {
-                    log.info("Re-indexing of " + size + " objects done after updating " + obj.getClass().getName() + ":"
-                            + obj.getId());
-                  }
-                  return null;
-                }
-        );
-      }
-    }.start();
+    final Map<Class<?>, Set<Number>> dependents = emgrFactory.runRoTrans(emgr -> {
+      final Map<Class<?>, Set<Number>> result = new HashMap<>();
+      final Set<String> alreadyCollected = new HashSet<>();
+      collectDependents(emgr.getEntityManager(), obj.getClass(), (Number) obj.getId(), result, alreadyCollected);
+      return result;
+    });
+    int size = 0;
+    for (final Map.Entry<Class<?>, Set<Number>> entry : dependents.entrySet()) {
+      searchIndexer.enqueue(entry.getKey(), entry.getValue());
+      size += entry.getValue().size();
+    }
+    if (size >= 10) {
+      log.info("Re-indexing of " + size + " objects queued after updating " + obj.getClass().getName() + ":"
+              + obj.getId());
+    }
   }
 
-  private void reindexDependents(final EntityManager em, final BaseDO<?> obj,
-                                 final List<Entry> entryList, final Set<String> alreadyReindexed) {
+  private void collectDependents(final EntityManager em, final Class<?> clazz, final Number id,
+                                 final Map<Class<?>, Set<Number>> result, final Set<String> alreadyCollected) {
+    final List<Entry> entryList = map.get(clazz);
     if (CollectionUtils.isEmpty(entryList)) {
       // Nothing to do.
       return;
@@ -146,73 +150,40 @@ public class HibernateSearchDependentObjectsReindexer {
         // Nothing to do
         return;
       }
-      final List<?> result = getDependents(em, registryEntry, entry, obj);
-      if (result != null) {
-        for (Object dependentObject : result) {
-          if (dependentObject instanceof Object[]) {
-            dependentObject = ((Object[]) dependentObject)[0];
-          }
-          if (dependentObject instanceof BaseDO) {
-            reindexDependents(em, (BaseDO<?>) dependentObject, alreadyReindexed);
+      final Class<?> dependentClass = registryEntry.getDOClass();
+      for (final Number dependentId : getDependentIds(em, registryEntry, entry, id)) {
+        if (!alreadyCollected.add(getReindexId(dependentClass, dependentId))) {
+          if (log.isDebugEnabled()) {
+            log.debug("Object already queued (skipping): " + getReindexId(dependentClass, dependentId));
           }
+          continue;
         }
+        result.computeIfAbsent(dependentClass, k -> new HashSet<>()).add(dependentId);
+        collectDependents(em, dependentClass, dependentId, result, alreadyCollected);
       }
     }
   }
 
-  private void reindexDependents(final EntityManager em, final BaseDO<?> obj,
-                                 final Set<String> alreadyReindexed) {
-    if (alreadyReindexed.contains(getReindexId(obj))) {
-      if (log.isDebugEnabled()) {
-        log.debug("Object already re-indexed (skipping): " + getReindexId(obj));
-      }
-      return;
-    }
-    em.flush(); // Needed to flush the object changes!
-    final FullTextEntityManager fullTextEntityManager = Search.getFullTextEntityManager(em);
-
-    fullTextEntityManager.setFlushMode(FlushModeType.AUTO);
-    //HibernateCompatUtils.setCacheMode(fullTextSession, CacheMode.IGNORE);
-    try {
-      BaseDO<?> dbObj = em.find(obj.getClass(), obj.getId());
-      if (dbObj == null) {
-        dbObj = em.find(obj.getClass(), obj.getId());
-      }
-      fullTextEntityManager.index(dbObj);
-      alreadyReindexed.add(getReindexId(dbObj));
-      if (log.isDebugEnabled()) {
-        log.debug("Object added to index: " + getReindexId(dbObj));
-      }
-    } catch (final Exception ex) {
-      // Don't fail if any exception while re-indexing occurs.
-      log.info("Fail to re-index " + obj.getClass() + ": " + ex.getMessage());
-    }
-    // em.flush(); // clear every batchSize since the queue is processed
-    final List<Entry> entryList = map.get(obj.getClass());
-    reindexDependents(em, obj, entryList, alreadyReindexed);
-  }
-
-  private List<?> getDependents(final EntityManager em,
-                                final RegistryEntry registryEntry,
-                                final Entry entry,
-                                final BaseDO<?> obj) {
+  private List<Number> getDependentIds(final EntityManager em,
+                                       final RegistryEntry registryEntry,
+                                       final Entry entry,
+                                       final Number id) {
     final String queryString;
     if (entry.setOrCollection) {
-      queryString = "from " + registryEntry.getDOClass().getName() + " o join o." + entry.fieldName + " r where r.id=:id";
+      queryString = "select o.id from " + registryEntry.getDOClass().getName() + " o join o." + entry.fieldName + " r where r.id=:id";
     } else {
-      queryString = "from " + registryEntry.getDOClass().getName() + " o where o." + entry.fieldName + ".id=:id";
+      queryString = "select o.id from " + registryEntry.getDOClass().getName() + " o where o." + entry.fieldName + ".id=:id";
     }
     if (log.isDebugEnabled()) {
-      log.debug(queryString + ", id=" + obj.getId());
+      log.debug(queryString + ", id=" + id);
     }
-    final List<?> result = em.createQuery(queryString, registryEntry.getDOClass())
-            .setParameter("id", obj.getId())
+    return em.createQuery(queryString, Number.class)
+            .setParameter("id", id)
             .getResultList();
-    return result;
   }
 
-  private String getReindexId(final BaseDO<?> obj) {
-    return obj.getClass() + ":" + obj.getId();
+  private String getReindexId(final Class<?> clazz, final Number id) {
+    return clazz + ":" + id;
   }
 
   void register(final RegistryEntry registryEntry) {
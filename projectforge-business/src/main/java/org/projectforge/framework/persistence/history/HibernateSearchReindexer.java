@@ -29,17 +29,23 @@ import org.projectforge.framework.configuration.ConfigurationParam;
 import org.projectforge.framework.configuration.GlobalConfiguration;
 import org.projectforge.framework.persistence.api.ReindexSettings;
 import org.projectforge.framework.persistence.database.DatabaseDao;
+import org.projectforge.framework.persistence.database.IndexProgressMonitor;
 import org.projectforge.framework.persistence.jpa.PfEmgrFactory;
 import org.projectforge.framework.time.DateHelper;
 import org.projectforge.framework.time.DateTimeFormatter;
 import org.projectforge.mail.Mail;
 import org.projectforge.mail.SendMail;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import java.util.Date;
-import java.util.Locale;
-import java.util.Set;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 @Service
 public class HibernateSearchReindexer {
@@ -49,6 +55,12 @@ public class HibernateSearchReindexer {
           + "Try to run re-index manually in the web administration menu and if occured again, "
           + "shutdown ProjectForge, delete lock file(s) in hibernate-search sub directory and restart.";
 
+  /**
+   * Appended to the result of {@link #rebuildDatabaseSearchIndices(ReindexSettings, Class[])} followed by the names of
+   * the failed entities, if the re-indexing of any entity class failed (the result is partial).
+   */
+  public static final String PARTIAL_RESULT_MARKER = "*** Re-indexing incomplete, failed: ";
+
   @Autowired
   private SendMail sendMail;
 
@@ -60,6 +72,24 @@ public class HibernateSearchReindexer {
   @Autowired
   private PfEmgrFactory emf;
 
+  /**
+   * Number of entity classes re-indexed concurrently.
+   */
+  @Value("${projectforge.hibernateSearch.reindex.threads:2}")
+  private int threads = 2;
+
+  private ExecutorService executor;
+
+  @PostConstruct
+  private void postConstruct() {
+    executor = Executors.newFixedThreadPool(Math.max(threads, 1));
+  }
+
+  @PreDestroy
+  private void preDestroy() {
+    executor.shutdownNow();
+  }
+
   public void execute() {
     log.info("Re-index job started.");
     if (databaseDao == null) {
@@ -103,17 +133,38 @@ public class HibernateSearchReindexer {
       try {
         currentReindexRun = new Date();
         final StringBuffer buf = new StringBuffer();
+        final Collection<Class<?>> entities;
         if (classes != null && classes.length > 0) {
-          for (final Class<?> cls : classes) {
-            reindex(cls, settings, buf);
-          }
+          entities = Arrays.asList(classes);
         } else {
           // Re-index of all ProjectForge entities:
-          Set<Class<?>> clsses = emf.getSearchableEntities();
-          for (Class<?> clz : clsses) {
-            reindex(clz, settings, buf);
+          entities = emf.getSearchableEntities();
+        }
+        // Independent entity classes are re-indexed concurrently:
+        final Map<Class<?>, Future<Boolean>> futures = new LinkedHashMap<>();
+        for (final Class<?> cls : entities) {
+          futures.put(cls, executor.submit(() -> reindex(cls, settings, buf)));
+        }
+        final List<String> failedEntities = new ArrayList<>();
+        for (final Map.Entry<Class<?>, Future<Boolean>> entry : futures.entrySet()) {
+          final String entity = entry.getKey().getSimpleName();
+          try {
+            if (!entry.getValue().get()) {
+              failedEntities.add(entity);
+            }
+          } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            log.error("Re-indexing interrupted: " + ex.getMessage(), ex);
+            failedEntities.add(entity + " (interrupted)");
+          } catch (final ExecutionException ex) {
+            log.error("While rebuilding data-base-search-index for '" + entity + "': " + ex.getMessage(), ex);
+            failedEntities.add(entity);
           }
         }
+        if (!failedEntities.isEmpty()) {
+          // Marks the result as partial (execute() informs the administrator):
+          buf.append(PARTIAL_RESULT_MARKER).append(StringUtils.join(failedEntities, ", "));
+        }
         return buf.toString();
       } finally {
         currentReindexRun = null;
@@ -121,14 +172,26 @@ public class HibernateSearchReindexer {
     }
   }
 
-  private void reindex(final Class<?> clazz, final ReindexSettings settings, final StringBuffer buf) {
+  /**
+   * @return The progress and throughput of all running (and last finished) re-indexings per entity class.
+   */
+  public List<IndexProgressMonitor.Progress> getProgressList() {
+    return IndexProgressMonitor.getProgressList();
+  }
+
+  /**
+   * @return false, if the re-indexing of the given class failed.
+   */
+  private boolean reindex(final Class<?> clazz, final ReindexSettings settings, final StringBuffer buf) {
     // PF-378: Performance of run of full re-indexing the data-base is very slow for large data-bases
     // Single transactions needed, otherwise the full run will be very slow for large data-bases.
     try {
       databaseDao.reindex(clazz, settings, buf);
+      return true;
     } catch (Exception ex) {
-      buf.append(" (an error occured, see log file for further information.), ");
+      buf.append(clazz.getSimpleName()).append(" (an error occured, see log file for further information.), ");
       log.error("While rebuilding data-base-search-index for '" + clazz.getName() + "': " + ex.getMessage(), ex);
+      return false;
     }
   }
 
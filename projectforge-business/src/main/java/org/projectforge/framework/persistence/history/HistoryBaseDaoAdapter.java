@@ -61,6 +61,45 @@ public class HistoryBaseDaoAdapter {
 
   private static final HistoryEntry[] HISTORY_ARR_TEMPL = new HistoryEntry[]{};
 
+  private static boolean deferredHistoryWrite;
+
+  /**
+   * If true, the history entries of updates are collected inside the transaction and written en bloc at the end
+   * of the transaction. Set by {@link HistoryWriteConfiguration}.
+   */
+  public static boolean isDeferredHistoryWrite() {
+    return deferredHistoryWrite;
+  }
+
+  static void setDeferredHistoryWrite(boolean deferredHistoryWrite) {
+    HistoryBaseDaoAdapter.deferredHistoryWrite = deferredHistoryWrite;
+  }
+
+  /**
+   * Runs the given callback inside the transaction of the given entity manager. If deferred history writing is enabled,
+   * all history entries of updates done by the callback are buffered and written at the end of the callback (before
+   * the transaction commits). Nested calls are written by the outer most call.
+   *
+   * @see HistoryWriteBuffer
+   */
+  public static <R> R runWithDeferredHistory(PfEmgr emgr, Supplier<R> callback) {
+    if (!deferredHistoryWrite) {
+      return callback.get();
+    }
+    final HistoryWriteBuffer buffer = HistoryWriteBuffer.begin(emgr);
+    if (buffer == null) {
+      // Nested call, the outer most call will write the history entries.
+      return callback.get();
+    }
+    try {
+      final R result = callback.get();
+      buffer.flush(HistoryServiceManager.get().getHistoryService());
+      return result;
+    } finally {
+      buffer.end();
+    }
+  }
+
   public static HistoryEntry[] getHistoryFor(BaseDO<?> obj) {
     //long begin = System.currentTimeMillis();
     HistoryEntry[] result = getHistoryEntries(obj).toArray(HISTORY_ARR_TEMPL);
@@ -240,10 +279,16 @@ public class HistoryBaseDaoAdapter {
     );
 
     // create history entries with the diff resulting from the old and new history properties
+    // (or buffer them for writing at the end of the transaction in deferred mode)
+    final HistoryWriteBuffer buffer = HistoryWriteBuffer.get(emgr);
     props.forEach(
             (pk, p) -> {
               if (p.oldProps != null && p.newProps != null) {
-                historyService.internalOnUpdate(emgr, p.entClassName, pk, p.oldProps, p.newProps);
+                if (buffer != null) {
+                  buffer.add(p.entClassName, pk, p.oldProps, p.newProps);
+                } else {
+                  historyService.internalOnUpdate(emgr, p.entClassName, pk, p.oldProps, p.newProps);
+                }
               }
             }
     );
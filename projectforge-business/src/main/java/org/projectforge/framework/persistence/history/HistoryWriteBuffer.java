@@ -0,0 +1,185 @@
+/////////////////////////////////////////////////////////////////////////////
+//
+// Project ProjectForge Community Edition
+//         www.projectforge.org
+//
+// Copyright (C) 2001-2020 Micromata GmbH, Germany (www.micromata.com)
+//
+// ProjectForge is dual-licensed.
+//
+// This community edition is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; version 3 of the License.
+//
+// This community edition is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+// Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, see http://www.gnu.org/licenses/.
+//
+/////////////////////////////////////////////////////////////////////////////
+
+package org.projectforge.framework.persistence.history;
+
+import de.micromata.genome.db.jpa.history.api.HistProp;
+import de.micromata.genome.db.jpa.history.api.HistoryService;
+import org.projectforge.framework.persistence.jpa.PfEmgr;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects the history diffs of updates inside one transaction and writes them en bloc at the end of the transaction
+ * (deferred history mode). The diffs are captured inside the transaction, the history rows are written by the same
+ * entity manager right before the commit, so they're committed or rolled back together with the modified entities.
+ * With hibernate.jdbc.batch_size the inserts of all buffered entries are sent as JDBC batches.
+ *
+ * @see HistoryBaseDaoAdapter#runWithDeferredHistory(PfEmgr, java.util.function.Supplier)
+ */
+public class HistoryWriteBuffer {
+  private static final Logger log = LoggerFactory.getLogger(HistoryWriteBuffer.class);
+
+  private static final ThreadLocal<HistoryWriteBuffer> threadLocalBuffer = new ThreadLocal<>();
+
+  private static final AtomicLong flushCounter = new AtomicLong();
+
+  private static final AtomicLong entryCounter = new AtomicLong();
+
+  private static final AtomicLong flushDurationMillis = new AtomicLong();
+
+  private static final AtomicLong maxFlushDurationMillis = new AtomicLong();
+
+  private final PfEmgr emgr;
+
+  private final List<Entry> entries = new ArrayList<>();
+
+  private HistoryWriteBuffer(PfEmgr emgr) {
+    this.emgr = emgr;
+  }
+
+  /**
+   * @return The buffer of the current thread, if any and if it's bound to the given entity manager. Otherwise null.
+   */
+  static HistoryWriteBuffer get(PfEmgr emgr) {
+    final HistoryWriteBuffer buffer = threadLocalBuffer.get();
+    if (buffer == null || buffer.emgr != emgr) {
+      return null;
+    }
+    return buffer;
+  }
+
+  /**
+   * @return The new buffer bound to the current thread or null, if a buffer is already active (nested call).
+   */
+  static HistoryWriteBuffer begin(PfEmgr emgr) {
+    if (threadLocalBuffer.get() != null) {
+      return null;
+    }
+    final HistoryWriteBuffer buffer = new HistoryWriteBuffer(emgr);
+    threadLocalBuffer.set(buffer);
+    return buffer;
+  }
+
+  void add(String entClassName, Serializable pk, Map<String, HistProp> oldProps, Map<String, HistProp> newProps) {
+    entries.add(new Entry(entClassName, pk, oldProps, newProps));
+  }
+
+  /**
+   * Writes all buffered entries and flushes the entity manager, so the inserts are sent to the database (in batches).
+   */
+  void flush(HistoryService historyService) {
+    if (entries.isEmpty()) {
+      return;
+    }
+    final long begin = System.currentTimeMillis();
+    for (Entry entry : entries) {
+      historyService.internalOnUpdate(emgr, entry.entClassName, entry.pk, entry.oldProps, entry.newProps);
+    }
+    emgr.getEntityManager().flush();
+    final long duration = System.currentTimeMillis() - begin;
+    flushCounter.incrementAndGet();
+    entryCounter.addAndGet(entries.size());
+    flushDurationMillis.addAndGet(duration);
+    maxFlushDurationMillis.accumulateAndGet(duration, Math::max);
+    if (log.isDebugEnabled()) {
+      log.debug("Deferred history of " + entries.size() + " entities written in " + duration + "ms.");
+    }
+    entries.clear();
+  }
+
+  void end() {
+    threadLocalBuffer.remove();
+  }
+
+  /**
+   * @return Statistics of deferred history writing (number of flushes, entities, total and max duration) for logging
+   * and monitoring.
+   */
+  public static Statistics getStatistics() {
+    return new Statistics(flushCounter.get(), entryCounter.get(), flushDurationMillis.get(), maxFlushDurationMillis.get());
+  }
+
+  public static final class Statistics {
+    private final long flushes;
+    private final long entities;
+    private final long totalDurationMillis;
+    private final long maxDurationMillis;
+
+    private Statistics(long flushes, long entities, long totalDurationMillis, long maxDurationMillis) {
+      this.flushes = flushes;
+      this.entities = entities;
+      this.totalDurationMillis = totalDurationMillis;
+      this.maxDurationMillis = maxDurationMillis;
+    }
+
+    public long getFlushes() {
+      return flushes;
+    }
+
+    public long getEntities() {
+      return entities;
+    }
+
+    public long getTotalDurationMillis() {
+      return totalDurationMillis;
+    }
+
+    public long getAvgDurationMillis() {
+      return flushes > 0 ? totalDurationMillis / flushes : 0;
+    }
+
+    public long getMaxDurationMillis() {
+      return maxDurationMillis;
+    }
+
+    @Override
+    public String toString() {
+      return "flushes=" + flushes
+              + ", entities=" + entities
+              + ", totalDuration=" + totalDurationMillis + "ms"
+              + ", avgDuration=" + getAvgDurationMillis() + "ms"
+              + ", maxDuration=" + maxDurationMillis + "ms";
+    }
+  }
+
+  private static final class Entry {
+    private final String entClassName;
+    private final Serializable pk;
+    private final Map<String, HistProp> oldProps;
+    private final Map<String, HistProp> newProps;
+
+    private Entry(String entClassName, Serializable pk, Map<String, HistProp> oldProps, Map<String, HistProp> newProps) {
+      this.entClassName = entClassName;
+      this.pk = pk;
+      this.oldProps = oldProps;
+      this.newProps = newProps;
+    }
+  }
+}
@@ -0,0 +1,62 @@
+/////////////////////////////////////////////////////////////////////////////
+//
+// Project ProjectForge Community Edition
+//         www.projectforge.org
+//
+// Copyright (C) 2001-2020 Micromata GmbH, Germany (www.micromata.com)
+//
+// ProjectForge is dual-licensed.
+//
+// This community edition is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; version 3 of the License.
+//
+// This community edition is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+// Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, see http://www.gnu.org/licenses/.
+//
+/////////////////////////////////////////////////////////////////////////////
+
+package org.projectforge.framework.persistence.history;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+/**
+ * Configures the history writing of {@link HistoryBaseDaoAdapter}.
+ */
+@Component
+public class HistoryWriteConfiguration {
+  private static final Logger log = LoggerFactory.getLogger(HistoryWriteConfiguration.class);
+
+  /**
+   * If true, history entries of updates are written en bloc at the end of each transaction (use it together with
+   * hibernate.jdbc.batch_size). Default is false (history entries are written directly after each update).
+   */
+  @Value("${projectforge.history.deferredWrite:false}")
+  private boolean deferredWrite;
+
+  @PostConstruct
+  private void postConstruct() {
+    HistoryBaseDaoAdapter.setDeferredHistoryWrite(deferredWrite);
+    if (deferredWrite) {
+      log.info("Deferred history writing enabled.");
+    }
+  }
+
+  @PreDestroy
+  private void preDestroy() {
+    if (deferredWrite) {
+      log.info("Statistics of deferred history writing: " + HistoryWriteBuffer.getStatistics());
+    }
+  }
+}
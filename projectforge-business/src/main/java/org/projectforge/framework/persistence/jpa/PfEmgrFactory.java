@@ -72,6 +72,12 @@ public class PfEmgrFactory extends SearchEmgrFactory<PfEmgr>
   @Value("${hibernate.search.default.indexBase}")
   private String hibernateSearchDefaultIndexBase;
 
+  /**
+   * JDBC batch size for inserts and updates (0 means no batching). Recommended for deferred history writing.
+   */
+  @Value("${hibernate.jdbc.batch_size:0}")
+  private int hibernateJdbcBatchSize;
+
   /**
    * Gets the.
    *
@@ -139,6 +145,11 @@ public class PfEmgrFactory extends SearchEmgrFactory<PfEmgr>
     properties.put(AvailableSettings.ENABLE_LAZY_LOAD_NO_TRANS, true);
     properties.put(AvailableSettings.AUTOCOMMIT, false);
     properties.put("hibernate.search.default.indexBase", hibernateSearchDefaultIndexBase);
+    if (hibernateJdbcBatchSize > 0) {
+      properties.put(AvailableSettings.STATEMENT_BATCH_SIZE, hibernateJdbcBatchSize);
+      properties.put(AvailableSettings.ORDER_INSERTS, true);
+      properties.put(AvailableSettings.ORDER_UPDATES, true);
+    }
     properties.put(AvailableSettings.DATASOURCE, ds);
     return properties;
   }
@@ -44,7 +44,10 @@ import javax.xml.transform.*;
 import javax.xml.transform.sax.SAXResult;
 import javax.xml.transform.stream.StreamSource;
 import java.io.*;
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * This class provides the functionality for rendering pdf files. The underlaying technology is XSL-FO. The dynamic data
@@ -60,6 +63,11 @@ public class PdfRenderer {
 
   public final static String DEFAULT_FO_STYLE = "default-style-fo.xsl";
 
+  /**
+   * Pdfs larger than this number of bytes are spooled to a temporary file by {@link #renderSpooled(String, String, Map)}.
+   */
+  static final int SPOOL_MEMORY_THRESHOLD = 1024 * 1024;
+
   @Autowired
   private ConfigurationService configurationService;
 
@@ -68,6 +76,13 @@ public class PdfRenderer {
 
   private String fontResourcePath;
 
+  private volatile FopFactory fopFactory;
+
+  /**
+   * Compiled xsl stylesheets by name (thread-safe, Templates are shared by all renderings).
+   */
+  private final Map<String, CachedTemplates> templatesCache = new ConcurrentHashMap<>();
+
   private String getFontResourcePath() {
     if (fontResourcePath == null) {
       final File dir = new File(configurationService.getFontsDir());
@@ -79,7 +94,103 @@ public class PdfRenderer {
     return fontResourcePath;
   }
 
+  /**
+   * The FopFactory is thread-safe and expensive to create (the fonts are detected and parsed and held by its font
+   * manager), so only one instance is created and shared by all renderings.
+   */
+  private FopFactory getFopFactory() {
+    FopFactory factory = fopFactory;
+    if (factory == null) {
+      synchronized (this) {
+        factory = fopFactory;
+        if (factory == null) {
+          final long begin = System.currentTimeMillis();
+          factory = FopFactory.newInstance(new File(getFontResourcePath()).toURI());
+          log.info("FopFactory created in " + (System.currentTimeMillis() - begin) + "ms (fontBaseDir=" + getFontResourcePath() + ").");
+          fopFactory = factory;
+        }
+      }
+    }
+    return factory;
+  }
+
+  /**
+   * @return The compiled stylesheet. Stylesheets of the file system are re-compiled if modified.
+   */
+  private Templates getTemplates(final String stylesheet) throws TransformerConfigurationException {
+    final Object[] result = configurationService.getResourceAsInputStream(stylesheet);
+    final InputStream xsltInputStream = (InputStream) result[0];
+    try {
+      final String url = (String) result[1];
+      if (url == null) {
+        log.error("Url of xsl resource is null.");
+        throw new InternalErrorException("exception.internalError");
+      }
+      final long lastModified = getLastModified(url);
+      final CachedTemplates cached = templatesCache.get(stylesheet);
+      if (cached != null && cached.url.equals(url) && cached.lastModified == lastModified) {
+        return cached.templates;
+      }
+      final StreamSource xltStreamSource = new StreamSource(xsltInputStream);
+      xltStreamSource.setSystemId(url);
+      final Templates templates = TransformerFactory.newInstance().newTemplates(xltStreamSource);
+      templatesCache.put(stylesheet, new CachedTemplates(url, lastModified, templates));
+      log.info("Stylesheet '" + stylesheet + "' compiled.");
+      return templates;
+    } finally {
+      IOUtils.closeQuietly(xsltInputStream);
+    }
+  }
+
+  private long getLastModified(final String url) {
+    if (url.startsWith("file:")) {
+      try {
+        return new File(new URI(url)).lastModified();
+      } catch (final URISyntaxException | IllegalArgumentException ex) {
+        log.warn("Can't get last modification of '" + url + "': " + ex.getMessage());
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * @see #render(String, String, Map, OutputStream)
+   */
   public byte[] render(final String stylesheet, final String groovyXml, final Map<String, Object> data) {
+    final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    render(stylesheet, groovyXml, data, baos);
+    return baos.toByteArray();
+  }
+
+  /**
+   * Renders the pdf completely before anything is sent to the client, so a rendering error is thrown here (and may be
+   * shown as usual error message) instead of breaking an already started download. Small pdfs are held in memory,
+   * larger ones are spooled to a temporary file.
+   *
+   * @return The rendered pdf. Must be closed by the caller (deletes the temporary file, if any).
+   * @see #render(String, String, Map, OutputStream)
+   */
+  public SpooledContent renderSpooled(final String stylesheet, final String groovyXml, final Map<String, Object> data) {
+    final SpooledContent content = new SpooledContent(SPOOL_MEMORY_THRESHOLD, "projectforge-pdf-");
+    boolean success = false;
+    try {
+      render(stylesheet, groovyXml, data, content.getOutputStream());
+      success = true;
+      return content;
+    } finally {
+      if (!success) {
+        content.close();
+      }
+    }
+  }
+
+  /**
+   * Renders the pdf and streams it to the given output stream. Thread-safe: the FopFactory and the compiled
+   * stylesheets are shared, so multiple pdfs may be rendered in parallel.
+   *
+   * @param out The pdf is written to this stream (not closed by this method).
+   */
+  public void render(final String stylesheet, final String groovyXml, final Map<String, Object> data, final OutputStream out) {
     final PFUserDO user = ThreadLocalUserContext.getUser();
     data.put("createdLabel", ThreadLocalUserContext.getLocalizedString("created"));
     data.put("loggedInUser", user);
@@ -90,7 +201,6 @@ public class PdfRenderer {
     data.put("organization",
             StringUtils.defaultString(Configuration.getInstance().getStringValue(ConfigurationParam.ORGANIZATION),
                     ProjectForgeVersion.APP_ID));
-    final ByteArrayOutputStream baos = new ByteArrayOutputStream();
     log.info("stylesheet="
             + stylesheet
             + ", jellyXml="
@@ -99,42 +209,16 @@ public class PdfRenderer {
             + configurationService.getResourceDir()
             + ", fontBaseDir="
             + getFontResourcePath());
-
-    // configure fopFactory as desired
-    final FopFactory fopFactory = FopFactory.newInstance(new File(getFontResourcePath()).toURI());
-
-    /*try {
-      fopFactory.getFontManager().setFontBaseURL(getFontResourcePath());
-    } catch (final MalformedURLException ex) {
-      log.error(ex.getMessage(), ex);
-    }*/
-
+    final long begin = System.currentTimeMillis();
+    final FopFactory fopFactory = getFopFactory();
     final FOUserAgent foUserAgent = fopFactory.newFOUserAgent();
-    /*try {
-      foUserAgent.getFactory().getFontManager().setFontBaseURL(getFontResourcePath());
-    } catch (final MalformedURLException ex) {
-      log.error(ex.getMessage(), ex);
-    }*/
-    // configure foUserAgent as desired
-
-    InputStream xsltInputStream = null;
+    final BufferedOutputStream bufferedOut = new BufferedOutputStream(out);
     try {
       // Construct fop with desired output format
-      final Fop fop = fopFactory.newFop(MimeConstants.MIME_PDF, foUserAgent, baos);
+      final Fop fop = fopFactory.newFop(MimeConstants.MIME_PDF, foUserAgent, bufferedOut);
 
-      // Setup XSLT
-      final TransformerFactory factory = TransformerFactory.newInstance();
-      Object[] result = configurationService.getResourceAsInputStream(stylesheet);
-      xsltInputStream = (InputStream) result[0];
-      final StreamSource xltStreamSource = new StreamSource(xsltInputStream);
-      final String url = (String) result[1];
-      if (url == null) {
-        log.error("Url of xsl resource is null.");
-        throw new InternalErrorException("exception.internalError");
-      }
-      xltStreamSource.setSystemId(url);
-
-      final Transformer transformer = factory.newTransformer(xltStreamSource);
+      // Setup XSLT (a transformer isn't thread-safe, but is cheap to get from the compiled stylesheet):
+      final Transformer transformer = getTemplates(stylesheet).newTransformer();
 
       // Set the value of a <param> in the stylesheet
       for (final Map.Entry<String, Object> entry : data.entrySet()) {
@@ -142,7 +226,7 @@ public class PdfRenderer {
       }
 
       // First run jelly through xmlData:
-      result = configurationService.getResourceContentAsString(groovyXml);
+      final Object[] result = configurationService.getResourceContentAsString(groovyXml);
       final GroovyEngine groovyEngine = new GroovyEngine(configurationService, data, ThreadLocalUserContext.getLocale(),
               ThreadLocalUserContext.getTimeZone());
       final String groovyXmlInput = groovyEngine.preprocessGroovyXml((String) result[0]);
@@ -157,21 +241,31 @@ public class PdfRenderer {
 
       // Start XSLT transformation and FOP processing
       transformer.transform(src, res);
+      bufferedOut.flush();
     } catch (final FOPException ex) {
       log.error(ex.getMessage(), ex);
       throw new RuntimeException(ex);
     } catch (final TransformerException ex) {
       log.error(ex.getMessage(), ex);
       throw new RuntimeException(ex);
-    } finally {
-      try {
-        baos.close();
-      } catch (final IOException ex) {
-        log.error(ex.getMessage(), ex);
-        throw new RuntimeException(ex);
-      }
-      IOUtils.closeQuietly(xsltInputStream);
+    } catch (final IOException ex) {
+      log.error(ex.getMessage(), ex);
+      throw new RuntimeException(ex);
+    }
+    if (log.isDebugEnabled()) {
+      log.debug("Pdf rendered in " + (System.currentTimeMillis() - begin) + "ms: " + stylesheet);
+    }
+  }
+
+  private static class CachedTemplates {
+    private final String url;
+    private final long lastModified;
+    private final Templates templates;
+
+    private CachedTemplates(final String url, final long lastModified, final Templates templates) {
+      this.url = url;
+      this.lastModified = lastModified;
+      this.templates = templates;
     }
-    return baos.toByteArray();
   }
 }
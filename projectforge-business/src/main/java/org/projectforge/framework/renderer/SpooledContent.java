@@ -0,0 +1,87 @@
+/////////////////////////////////////////////////////////////////////////////
+//
+// Project ProjectForge Community Edition
+//         www.projectforge.org
+//
+// Copyright (C) 2001-2020 Micromata GmbH, Germany (www.micromata.com)
+//
+// ProjectForge is dual-licensed.
+//
+// This community edition is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; version 3 of the License.
+//
+// This community edition is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+// Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, see http://www.gnu.org/licenses/.
+//
+/////////////////////////////////////////////////////////////////////////////
+
+
+package org.projectforge.framework.renderer;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.DeferredFileOutputStream;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Content written completely before it's sent: small content is held in memory, larger content is spooled to a
+ * temporary file. Must be closed for deleting the temporary file.
+ */
+public class SpooledContent implements Closeable {
+  private final DeferredFileOutputStream out;
+
+  /**
+   * @param memoryThreshold Content larger than this number of bytes is spooled to a temporary file.
+   * @param prefix          Prefix of the temporary file.
+   */
+  public SpooledContent(final int memoryThreshold, final String prefix) {
+    this.out = new DeferredFileOutputStream(memoryThreshold, prefix, ".tmp", null);
+  }
+
+  /**
+   * @return The stream to write the content to.
+   */
+  public OutputStream getOutputStream() {
+    return out;
+  }
+
+  /**
+   * @return Number of bytes written.
+   */
+  public long getSize() {
+    return out.getByteCount();
+  }
+
+  public boolean isInMemory() {
+    return out.isInMemory();
+  }
+
+  /**
+   * Writes the whole content to the given stream (not closed by this method).
+   */
+  public void writeTo(final OutputStream os) throws IOException {
+    out.close();
+    out.writeTo(os);
+  }
+
+  /**
+   * Deletes the temporary file, if any.
+   */
+  @Override
+  public void close() {
+    IOUtils.closeQuietly(out);
+    final File file = out.getFile();
+    if (file != null && file.exists() && !file.delete()) {
+      file.deleteOnExit();
+    }
+  }
+}
@@ -67,6 +67,9 @@ public class SendMail {
   @Autowired
   private DomainService domainService;
 
+  @Autowired
+  private MailDispatcher mailDispatcher;
+
   private Random random = new Random();
 
   /**
@@ -130,7 +133,9 @@ public class SendMail {
       return false;
     }
 
-    if (async) {
+    if (async && mailDispatcher != null && mailDispatcher.getQueueEnabled() && !testMode) {
+      return enqueue(composedMessage, icalContent, attachments);
+    } else if (async) {
       CompletableFuture.runAsync(() -> sendIt(composedMessage, icalContent, attachments));
     } else {
       sendIt(composedMessage, icalContent, attachments);
@@ -140,6 +145,10 @@ public class SendMail {
   }
 
   private Session getSession() {
+    return createSession(configurationService);
+  }
+
+  static Session createSession(final ConfigurationService configurationService) {
     MailSessionLocalSettingsConfigModel cf = configurationService.createMailSessionLocalSettingsConfigModel();
     if (!cf.isEmailEnabled()) {
       log.error("Sending email is not enabled");
@@ -162,42 +171,29 @@ public class SendMail {
     return cf.createMailSession(addp);
   }
 
+  /**
+   * Creates the message and stores it in the persistent mail queue. The mail queue sends it asynchronously.
+   *
+   * @return true if the message was successfully queued.
+   * @see MailDispatcher
+   */
+  private boolean enqueue(final Mail composedMessage, final String icalContent,
+                          final Collection<? extends MailAttachment> attachments) {
+    try {
+      final MimeMessage message = createMessage(getSession(), composedMessage, icalContent, attachments);
+      mailDispatcher.enqueue(message, StringUtils.join(composedMessage.getTo(), ", "));
+      return true;
+    } catch (final Exception ex) {
+      log.error("While creating and queueing message: " + composedMessage.toString(), ex);
+      return false;
+    }
+  }
+
   private void sendIt(final Mail composedMessage, final String icalContent,
                       final Collection<? extends MailAttachment> attachments) {
     log.info("Start sending e-mail message: " + StringUtils.join(composedMessage.getTo(), ", "));
     try {
-      final Session session = getSession();
-      final MimeMessage message = new MimeMessage(session);
-      if (composedMessage.getFrom() != null) {
-        message.setFrom(new InternetAddress(composedMessage.getFrom()));
-      } else {
-        message.setFrom();
-      }
-      message.setRecipients(Message.RecipientType.TO,
-              composedMessage.getTo().toArray(new Address[composedMessage.getTo().size()]));
-      if (CollectionUtils.isNotEmpty(composedMessage.getCC())) {
-        message.setRecipients(Message.RecipientType.CC,
-                composedMessage.getCC().toArray(new Address[composedMessage.getCC().size()]));
-      }
-      final String subject = composedMessage.getSubject();
-      final SendMailConfig sendMailConfig = configurationService.getSendMailConfiguration();
-      message.setSubject(subject, sendMailConfig.getCharset());
-      message.setSentDate(new Date());
-
-      if (StringUtils.isBlank(icalContent) && attachments == null) {
-        // create message without attachments
-        if (composedMessage.getContentType() != null) {
-          message.setText(composedMessage.getContent(), composedMessage.getCharset(), composedMessage.getContentType());
-        } else {
-          message.setText(composedMessage.getContent(), sendMailConfig.getCharset());
-        }
-      } else {
-        // create message with attachments
-        final MimeMultipart mp = createMailAttachmentContent(message, composedMessage, icalContent, attachments, sendMailConfig);
-        message.setContent(mp);
-      }
-
-      message.saveChanges(); // don't forget this
+      final MimeMessage message = createMessage(getSession(), composedMessage, icalContent, attachments);
       if (testMode) {
         log.info("Test mode, do not really send e-mails (OK only for test cases).");
       } else {
@@ -211,6 +207,42 @@ public class SendMail {
     log.info("E-Mail successfully sent: " + composedMessage.toString());
   }
 
+  private MimeMessage createMessage(final Session session, final Mail composedMessage, final String icalContent,
+                                    final Collection<? extends MailAttachment> attachments) throws MessagingException {
+    final MimeMessage message = new MimeMessage(session);
+    if (composedMessage.getFrom() != null) {
+      message.setFrom(new InternetAddress(composedMessage.getFrom()));
+    } else {
+      message.setFrom();
+    }
+    message.setRecipients(Message.RecipientType.TO,
+            composedMessage.getTo().toArray(new Address[composedMessage.getTo().size()]));
+    if (CollectionUtils.isNotEmpty(composedMessage.getCC())) {
+      message.setRecipients(Message.RecipientType.CC,
+              composedMessage.getCC().toArray(new Address[composedMessage.getCC().size()]));
+    }
+    final String subject = composedMessage.getSubject();
+    final SendMailConfig sendMailConfig = configurationService.getSendMailConfiguration();
+    message.setSubject(subject, sendMailConfig.getCharset());
+    message.setSentDate(new Date());
+
+    if (StringUtils.isBlank(icalContent) && attachments == null) {
+      // create message without attachments
+      if (composedMessage.getContentType() != null) {
+        message.setText(composedMessage.getContent(), composedMessage.getCharset(), composedMessage.getContentType());
+      } else {
+        message.setText(composedMessage.getContent(), sendMailConfig.getCharset());
+      }
+    } else {
+      // create message with attachments
+      final MimeMultipart mp = createMailAttachmentContent(message, composedMessage, icalContent, attachments, sendMailConfig);
+      message.setContent(mp);
+    }
+
+    message.saveChanges(); // don't forget this
+    return message;
+  }
+
   private MimeMultipart createMailAttachmentContent(MimeMessage message, final Mail composedMessage, final String icalContent,
                                                     final Collection<? extends MailAttachment> attachments,
                                                     final SendMailConfig sendMailConfig) throws MessagingException {
@@ -0,0 +1,178 @@
+/////////////////////////////////////////////////////////////////////////////
+//
+// Project ProjectForge Community Edition
+//         www.projectforge.org
+//
+// Copyright (C) 2001-2020 Micromata GmbH, Germany (www.micromata.com)
+//
+// ProjectForge is dual-licensed.
+//
+// This community edition is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; version 3 of the License.
+//
+// This community edition is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+// Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, see http://www.gnu.org/licenses/.
+//
+/////////////////////////////////////////////////////////////////////////////
+
+package org.projectforge.business.address
+
+import mu.KotlinLogging
+import org.apache.commons.lang3.StringUtils
+import org.projectforge.framework.access.AccessChecker
+import org.projectforge.framework.persistence.jpa.PfEmgrFactory
+import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.stereotype.Service
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import javax.annotation.PreDestroy
+
+private val log = KotlinLogging.logger {}
+
+/**
+ * Finds doublets of addresses for data quality cleanup. Only the needed fields (no entities) of all addresses are
+ * selected, the match keys are computed once per address and grouped by hash maps in one pass, so it's usable for
+ * large address books (100k+ addresses), e. g. as background report.
+ *
+ * Only available for admins (checked by [findDoublets] and [findDoubletsAsync]), because no access checking per
+ * address is done.
+ */
+@Service
+open class AddressDoubletsFinder {
+    /**
+     * Match keys for finding doublets.
+     */
+    enum class MatchKey {
+        /**
+         * Same as [DoubletsResultFilter]: first name and name in lower case.
+         */
+        FULLNAME,
+        /**
+         * First name and name without accents, white spaces and punctuation characters (e. g. "Müller-Lüdenscheidt"
+         * and "Muller Ludenscheidt").
+         */
+        FUZZY_FULLNAME,
+        /**
+         * Business or private e-mail (in lower case).
+         */
+        EMAIL,
+        /**
+         * Any phone number (digits only, without country prefix).
+         */
+        PHONE
+    }
+
+    /**
+     * Addresses with the same key.
+     */
+    class DoubletGroup(val matchKey: MatchKey, val key: String, val addressIds: List<Int>)
+
+    @Autowired
+    private lateinit var accessChecker: AccessChecker
+
+    @Autowired
+    private lateinit var emgrFactory: PfEmgrFactory
+
+    private val executor: ExecutorService = Executors.newSingleThreadExecutor()
+
+    @PreDestroy
+    private fun preDestroy() {
+        executor.shutdownNow()
+    }
+
+    /**
+     * Runs [findDoublets] in background (only one report at a time, further calls are queued).
+     * @throws org.projectforge.framework.access.AccessException if the logged-in user isn't an admin.
+     */
+    open fun findDoubletsAsync(vararg matchKeys: MatchKey): CompletableFuture<List<DoubletGroup>> {
+        accessChecker.checkIsLoggedInUserMemberOfAdminGroup()
+        return CompletableFuture.supplyAsync({ internalFindDoublets(*matchKeys) }, executor)
+    }
+
+    /**
+     * @param matchKeys Keys to use for matching, [MatchKey.FULLNAME] if not given.
+     * @return All groups of at least two non-deleted addresses with the same key.
+     * @throws org.projectforge.framework.access.AccessException if the logged-in user isn't an admin.
+     */
+    open fun findDoublets(vararg matchKeys: MatchKey): List<DoubletGroup> {
+        accessChecker.checkIsLoggedInUserMemberOfAdminGroup()
+        return internalFindDoublets(*matchKeys)
+    }
+
+    private fun internalFindDoublets(vararg matchKeys: MatchKey): List<DoubletGroup> {
+        val keys = if (matchKeys.isEmpty()) setOf(MatchKey.FULLNAME) else matchKeys.toSet()
+        val begin = System.currentTimeMillis()
+        val rows = emgrFactory.runRoTrans { emgr ->
+            emgr.entityManager.createQuery("select a.id, a.firstName, a.name, a.email, a.privateEmail, a.businessPhone, a.mobilePhone, a.privatePhone, a.privateMobilePhone from AddressDO a where a.deleted = false",
+                    Array<Any?>::class.java)
+                    .resultList
+        }
+        val index = keys.associateWith { mutableMapOf<String, MutableList<Int>>() }
+        rows.forEach { row ->
+            val id = row[0] as Int
+            keys.forEach { matchKey ->
+                getKeys(matchKey, row).forEach { key ->
+                    index.getValue(matchKey).getOrPut(key) { mutableListOf() }.add(id)
+                }
+            }
+        }
+        val result = mutableListOf<DoubletGroup>()
+        index.forEach { (matchKey, map) ->
+            map.forEach { (key, ids) ->
+                if (ids.size > 1) {
+                    result.add(DoubletGroup(matchKey, key, ids))
+                }
+            }
+        }
+        log.info("${result.size} groups of address doublets found in ${rows.size} addresses by ${keys.joinToString()} in ${System.currentTimeMillis() - begin}ms.")
+        return result
+    }
+
+    private fun getKeys(matchKey: MatchKey, row: Array<Any?>): Set<String> {
+        return when (matchKey) {
+            MatchKey.FULLNAME -> setOf(getNormalizedFullname(row[1] as String?, row[2] as String?))
+            MatchKey.FUZZY_FULLNAME -> setOf(getFuzzyFullname(row[1] as String?, row[2] as String?))
+            MatchKey.EMAIL -> setOfNotBlank(normalizeEmail(row[3] as String?), normalizeEmail(row[4] as String?))
+            MatchKey.PHONE -> setOfNotBlank(*(5..8).map { normalizePhone(row[it] as String?) }.toTypedArray())
+        }.filter { it.isNotBlank() }.toSet()
+    }
+
+    private fun setOfNotBlank(vararg values: String?): Set<String> {
+        return values.filterNotNull().filter { it.isNotBlank() }.toSet()
+    }
+
+    companion object {
+        /**
+         * Same as AddressDao.getNormalizedFullname.
+         */
+        internal fun getNormalizedFullname(firstName: String?, name: String?): String {
+            return "${firstName?.toLowerCase()?.trim() ?: ""}${name?.toLowerCase()?.trim() ?: ""}"
+        }
+
+        internal fun getFuzzyFullname(firstName: String?, name: String?): String {
+            return StringUtils.stripAccents("${firstName ?: ""}${name ?: ""}")
+                    .toLowerCase()
+                    .filter { it.isLetterOrDigit() }
+        }
+
+        internal fun normalizeEmail(email: String?): String? {
+            return email?.trim()?.toLowerCase()
+        }
+
+        /**
+         * Digits only, the last 9 digits are used for ignoring different country and area code prefixes
+         * (e. g. +49 561 316793-0 and 0561 3167930).
+         */
+        internal fun normalizePhone(phone: String?): String? {
+            val digits = phone?.filter { it.isDigit() } ?: return null
+            return if (digits.length < 6) null else digits.takeLast(9)
+        }
+    }
+}
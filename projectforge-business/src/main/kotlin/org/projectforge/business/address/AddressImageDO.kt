@@ -32,7 +32,15 @@ import javax.persistence.*
  */
 @NamedQueries(
         NamedQuery(name = AddressImageDO.SELECT_IMAGE, query = "select image from AddressImageDO where address.id = :addressId"),
-        NamedQuery(name = AddressImageDO.SELECT_IMAGE_PREVIEW, query = "select imagePreview from AddressImageDO where address.id = :addressId"))
+        NamedQuery(name = AddressImageDO.SELECT_IMAGE_PREVIEW, query = "select imagePreview from AddressImageDO where address.id = :addressId"),
+        NamedQuery(name = AddressImageDO.SELECT_IMAGE_THUMBNAIL, query = "select imageThumbnail from AddressImageDO where address.id = :addressId"),
+        NamedQuery(name = AddressImageDO.SELECT_IMAGE_HASH, query = "select imageHash from AddressImageDO where address.id = :addressId"),
+        NamedQuery(name = AddressImageDO.UPDATE_PREVIEWS,
+                query = "update AddressImageDO set imagePreview = :imagePreview, imageThumbnail = :imageThumbnail, imageHash = :imageHash where address.id = :addressId and (imageHash = :imageHash or imageHash is null)"),
+        NamedQuery(name = AddressImageDO.UPDATE_THUMBNAIL,
+                query = "update AddressImageDO set imageThumbnail = :imageThumbnail, imageHash = :imageHash where address.id = :addressId and (imageHash = :imageHash or imageHash is null)"),
+        NamedQuery(name = AddressImageDO.UPDATE_HASH,
+                query = "update AddressImageDO set imageHash = :imageHash where address.id = :addressId and imageHash is null"))
 @Entity
 @Table(name = "T_ADDRESS_IMAGE")
 open class AddressImageDO : DbRecord<Int> {
@@ -53,6 +61,19 @@ open class AddressImageDO : DbRecord<Int> {
     @get:Basic(fetch = FetchType.LAZY)
     open var imagePreview: ByteArray? = null
 
+    /**
+     * Thumbnail of the image (max size [AddressImageDao.THUMBNAIL_SIZE]), e. g. embedded in vcards.
+     */
+    @get:Column(name = "image_thumbnail")
+    @get:Basic(fetch = FetchType.LAZY)
+    open var imageThumbnail: ByteArray? = null
+
+    /**
+     * SHA-256 of the image (hex), used as ETag of the image and its previews.
+     */
+    @get:Column(name = "image_hash", length = 64)
+    open var imageHash: String? = null
+
     @javax.persistence.Transient
     override fun getPk(): Int? {
         return id
@@ -65,5 +86,10 @@ open class AddressImageDO : DbRecord<Int> {
     companion object {
         internal const val SELECT_IMAGE = "AddressImageDO.selectImage"
         internal const val SELECT_IMAGE_PREVIEW = "AddressImageDO.selectImagePreview"
+        internal const val SELECT_IMAGE_THUMBNAIL = "AddressImageDO.selectImageThumbnail"
+        internal const val SELECT_IMAGE_HASH = "AddressImageDO.selectImageHash"
+        internal const val UPDATE_PREVIEWS = "AddressImageDO.updatePreviews"
+        internal const val UPDATE_THUMBNAIL = "AddressImageDO.updateThumbnail"
+        internal const val UPDATE_HASH = "AddressImageDO.updateHash"
     }
 }
@@ -29,13 +29,19 @@ import org.projectforge.framework.persistence.jpa.PfEmgrFactory
 import org.projectforge.framework.persistence.utils.SQLHelper.ensureUniqueResult
 import org.springframework.beans.factory.annotation.Autowired
 import org.springframework.stereotype.Repository
+import java.security.MessageDigest
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import javax.annotation.PreDestroy
 import javax.persistence.EntityManager
 import javax.persistence.PersistenceContext
 
 private val log = KotlinLogging.logger {}
 
 /**
- * @author Kai Reinhard (k.reinhard@micromata.de)
+ * The previews (small preview for lists and thumbnail for vcards) are generated once after uploading an image in a
+ * background thread. The SHA-256 of the image is stored as well and used as ETag for http caching.
  */
 @Repository
 open class AddressImageDao {
@@ -51,6 +57,17 @@ open class AddressImageDao {
     @Autowired
     private lateinit var imageService: ImageService
 
+    private val previewExecutor: ExecutorService = Executors.newSingleThreadExecutor { runnable ->
+        val thread = Thread(runnable, "AddressImagePreviewGenerator")
+        thread.isDaemon = true
+        thread
+    }
+
+    /**
+     * Ids of addresses with scheduled preview generation (for avoiding multiple generations of the same image).
+     */
+    private val scheduledPreviews = ConcurrentHashMap.newKeySet<Int>()
+
     /**
      * Does the access checking. The user may only get images, if he has the select access to the given address.
      */
@@ -62,6 +79,7 @@ open class AddressImageDao {
 
     /**
      * Does the access checking. The user may only get images, if he has the select access to the given address.
+     * @return The small preview image or null, if not (yet) generated.
      */
     open fun getPreviewImage(addressId: Int): ByteArray? {
         addressDao.getById(addressId) ?: return null // For access checking!
@@ -69,6 +87,60 @@ open class AddressImageDao {
                 .setParameter("addressId", addressId))
     }
 
+    /**
+     * Does the access checking. The user may only get images, if he has the select access to the given address.
+     * @return The thumbnail of the image (png, max [THUMBNAIL_SIZE] pixels) or null, if no image exists or the
+     * thumbnail can't be generated. The original image is never returned. If not yet generated (images of older
+     * versions or generation still pending), the thumbnail is generated and stored now.
+     */
+    open fun getThumbnail(addressId: Int): ByteArray? {
+        addressDao.getById(addressId) ?: return null // For access checking!
+        ensureUniqueResult(em.createNamedQuery(AddressImageDO.SELECT_IMAGE_THUMBNAIL, ByteArray::class.java)
+                .setParameter("addressId", addressId))?.let {
+            return it
+        }
+        val image = ensureUniqueResult(em.createNamedQuery(AddressImageDO.SELECT_IMAGE, ByteArray::class.java)
+                .setParameter("addressId", addressId)) ?: return null
+        val thumbnail = imageService.resizeImageToMaxSize(image, THUMBNAIL_SIZE)
+        if (thumbnail == null) {
+            log.warn { "Can't generate thumbnail of image for address $addressId (unsupported image format)." }
+            return null
+        }
+        emgrFactory.runInTrans { emgr ->
+            emgr.entityManager.createNamedQuery(AddressImageDO.UPDATE_THUMBNAIL)
+                    .setParameter("imageThumbnail", thumbnail)
+                    .setParameter("imageHash", getHash(image))
+                    .setParameter("addressId", addressId)
+                    .executeUpdate()
+        }
+        return thumbnail
+    }
+
+    /**
+     * Does the access checking. The user may only get images, if he has the select access to the given address.
+     * @return The hash of the image (for use as ETag) without loading the image itself or null, if no image exists.
+     */
+    open fun getImageHash(addressId: Int): String? {
+        addressDao.getById(addressId) ?: return null // For access checking!
+        ensureUniqueResult(em.createNamedQuery(AddressImageDO.SELECT_IMAGE_HASH, String::class.java)
+                .setParameter("addressId", addressId))?.let {
+            return it
+        }
+        // Images stored by older versions have no hash and thumbnail. The hash is stored now, so the image is loaded
+        // only once:
+        val image = ensureUniqueResult(em.createNamedQuery(AddressImageDO.SELECT_IMAGE, ByteArray::class.java)
+                .setParameter("addressId", addressId)) ?: return null
+        val hash = getHash(image)
+        emgrFactory.runInTrans { emgr ->
+            emgr.entityManager.createNamedQuery(AddressImageDO.UPDATE_HASH)
+                    .setParameter("imageHash", hash)
+                    .setParameter("addressId", addressId)
+                    .executeUpdate()
+        }
+        schedulePreviewGeneration(addressId, image, hash)
+        return hash
+    }
+
     /**
      * Does the access checking. The user may only modify images, if he has the access to modify the given address.
      */
@@ -79,7 +151,11 @@ open class AddressImageDao {
         val addressImage = get(address.id) ?: AddressImageDO()
         addressImage.address = address
         addressImage.image = image
-        addressImage.imagePreview = imageService.resizeImage(image)
+        val hash = getHash(image)
+        addressImage.imageHash = hash
+        // Previews will be generated in the background:
+        addressImage.imagePreview = null
+        addressImage.imageThumbnail = null
         emgrFactory.runInTrans { emgr ->
             if (addressImage.id != null) {
                 // Update
@@ -92,9 +168,44 @@ open class AddressImageDao {
             }
         }
         log.info("New image for address ${address.id} (${address.fullName}) saved.")
+        schedulePreviewGeneration(address.id, image, hash)
         return true
     }
 
+    private fun schedulePreviewGeneration(addressId: Int, image: ByteArray, hash: String) {
+        if (!scheduledPreviews.add(addressId)) {
+            return // Already scheduled.
+        }
+        previewExecutor.submit {
+            try {
+                val preview = imageService.resizeImage(image)
+                val thumbnail = imageService.resizeImageToMaxSize(image, THUMBNAIL_SIZE)
+                val updated = emgrFactory.runInTrans { emgr ->
+                    emgr.entityManager.createNamedQuery(AddressImageDO.UPDATE_PREVIEWS)
+                            .setParameter("imagePreview", preview)
+                            .setParameter("imageThumbnail", thumbnail)
+                            .setParameter("imageHash", hash)
+                            .setParameter("addressId", addressId)
+                            .executeUpdate()
+                }
+                if (updated == 0) {
+                    log.info { "Image of address $addressId was modified or deleted in the meantime, previews discarded." }
+                } else {
+                    log.info { "Previews of image for address $addressId generated." }
+                }
+            } catch (ex: Exception) {
+                log.error("Error while generating previews of image for address $addressId: ${ex.message}", ex)
+            } finally {
+                scheduledPreviews.remove(addressId)
+            }
+        }
+    }
+
+    @PreDestroy
+    fun shutdown() {
+        previewExecutor.shutdown()
+    }
+
     /**
      * Does the access checking. The user may only delete images, if he has the access to modify the given address.
      */
@@ -125,4 +236,15 @@ open class AddressImageDao {
             return null
         }
     }
+
+    companion object {
+        /**
+         * Max width and height of thumbnails (used e. g. by vcards).
+         */
+        const val THUMBNAIL_SIZE = 256
+
+        fun getHash(image: ByteArray): String {
+            return MessageDigest.getInstance("SHA-256").digest(image).joinToString("") { "%02x".format(it) }
+        }
+    }
 }
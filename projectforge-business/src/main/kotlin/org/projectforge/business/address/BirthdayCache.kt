@@ -25,15 +25,38 @@ package org.projectforge.business.address
 
 import org.projectforge.framework.cache.AbstractCache
 import org.projectforge.framework.persistence.api.QueryFilter
-import org.projectforge.framework.time.DateHelper
+import org.projectforge.framework.persistence.user.api.ThreadLocalUserContext
 import org.projectforge.framework.time.PFDateTime
 import org.projectforge.registry.Registry
+import java.time.LocalDate
+import java.time.Month
 import java.util.*
 
-class BirthdayCache() : AbstractCache() {
+/**
+ * Birthdays of all addresses, bucketed by day of year. Range queries only touch the buckets of the requested days.
+ * Only the birthday index is cached: address book membership and access are checked on every query (once per address
+ * book).
+ *
+ * Modified addresses are marked by [AddressDao] after commit and re-read from the data base on the next query, so
+ * modifications of rolled back transactions are never applied. The periodical refresh (once a day) is only a fallback.
+ */
+class BirthdayCache() : AbstractCache(AbstractCache.TICKS_PER_DAY) {
     private var addressDao: AddressDao
 
-    private var cacheList = mutableListOf<BirthdayAddress>()
+    /**
+     * 366 buckets (index is day of year of a leap year - 1).
+     */
+    private var buckets = createBuckets()
+
+    /**
+     * Bucket index of each cached address by address id (needed for removing modified addresses).
+     */
+    private var bucketIndexByAddressId = mutableMapOf<Int, Int>()
+
+    /**
+     * Ids of modified addresses to re-read on next query.
+     */
+    private val modifiedAddressIds = mutableSetOf<Int>()
 
     init {
         val registryEntry = Registry.instance.getEntry(AddressDao::class.java)
@@ -46,54 +69,127 @@ class BirthdayCache() : AbstractCache() {
      * @param fromDate Search for birthdays from given date (ignoring the year).
      * @param toDate   Search for birthdays until given date (ignoring the year).
      * @param all      If false, only the birthdays of favorites will be returned.
+     * @param favorites Ids of the favorite addresses of the logged-in user.
      * @return The entries are ordered by date of year and name.
      */
-    fun getBirthdays(fromDate: Date, toDate: Date, all: Boolean, favorites: List<Int>)
+    fun getBirthdays(fromDate: Date, toDate: Date, all: Boolean, favorites: Set<Int>)
             : Set<BirthdayAddress> {
         checkRefresh()
-        // Uses not Collections.sort because every comparison needs Calendar.getDayOfYear().
         val set = TreeSet<BirthdayAddress>()
         val from = PFDateTime.from(fromDate) // not null
         val to = PFDateTime.from(toDate) // not null
-        var dh: PFDateTime
-        val fromMonth = from.month
-        val fromDayOfMonth = from.dayOfMonth
-        val toMonth = to.month
-        val toDayOfMonth = to.dayOfMonth
-        for (birthdayAddress in cacheList) {
-            val address = birthdayAddress.address
-            if (!addressDao.hasLoggedInUserSelectAccess(address,false)) {
-                // User has no access to the given address.
-                continue
+        if (from.month == to.month && from.dayOfMonth > to.dayOfMonth) {
+            return set // Same handling as DateHelper.dateOfYearBetween.
+        }
+        val fromIndex = getBucketIndex(from.month, from.dayOfMonth)
+        val toIndex = getBucketIndex(to.month, to.dayOfMonth)
+        val entries = mutableListOf<BirthdayAddress>()
+        synchronized(this) {
+            updateModifiedAddresses()
+            var index = fromIndex
+            while (true) {
+                entries.addAll(buckets[index])
+                if (index == toIndex) {
+                    break
+                }
+                index = (index + 1) % BUCKETS // Date range may span the turn of the year (e. g. NOV - FEB).
             }
-            if (!all && !favorites.contains(address.id)) {
+        }
+        val user = ThreadLocalUserContext.getUser()
+        // Access decisions are done once per address book and request, not per address:
+        val addressbookAccess = mutableMapOf<Int, Boolean>()
+        for (entry in entries) {
+            val address = entry.address
+            val isFavorite = favorites.contains(address.id)
+            if (!all && !isFavorite) {
                 // Address is not a favorite address, so ignore it.
                 continue
             }
-            dh = PFDateTime.fromOrNull(address.birthday) ?: continue
-            val month = dh.month
-            val dayOfMonth = dh.dayOfMonth
-            if (!DateHelper.dateOfYearBetween(month.value, dayOfMonth, fromMonth.value, fromDayOfMonth, toMonth.value, toDayOfMonth)) {
+            if (!addressDao.hasSelectAccess(user, address, addressbookAccess)) {
+                // User has no access to the given address.
                 continue
             }
-            val ba = BirthdayAddress(address)
-            ba.isFavorite = favorites.contains(address.getId())
+            val ba = BirthdayAddress(entry)
+            ba.isFavorite = isFavorite
             set.add(ba)
         }
         return set
     }
 
+    /**
+     * Called by [AddressDao] after the modification of the given address is committed.
+     */
+    fun setAddressModified(addressId: Int) {
+        synchronized(modifiedAddressIds) {
+            modifiedAddressIds.add(addressId)
+        }
+    }
+
+    /**
+     * Re-reads all modified addresses. Must be called inside synchronized(this), so it doesn't interfere with
+     * [refresh] (called by [checkRefresh], also synchronized).
+     */
+    private fun updateModifiedAddresses() {
+        val ids = synchronized(modifiedAddressIds) {
+            if (modifiedAddressIds.isEmpty()) {
+                return
+            }
+            val ids = modifiedAddressIds.toList()
+            modifiedAddressIds.clear()
+            ids
+        }
+        for (id in ids) {
+            bucketIndexByAddressId.remove(id)?.let { index ->
+                buckets[index].removeIf { it.address.id == id }
+            }
+            val address = addressDao.internalGetById(id) ?: continue
+            if (!address.isDeleted && address.birthday != null) {
+                add(buckets, bucketIndexByAddressId, address)
+            }
+        }
+    }
+
+    /**
+     * Modified addresses aren't cleared, because they might be modified after loading the address list: re-reading them
+     * on next query is idempotent.
+     */
     override fun refresh() {
         val filter = QueryFilter()
         filter.add(QueryFilter.isNotNull("birthday"))
         filter.deleted = false
         val addressList = addressDao.internalGetList(filter)
-        val newList = mutableListOf<BirthdayAddress>()
+        val newBuckets = createBuckets()
+        val newBucketIndexByAddressId = mutableMapOf<Int, Int>()
         addressList.forEach {
             if (!it.isDeleted) { // deleted shouldn't occur, already filtered above.
-                newList.add(BirthdayAddress(it))
+                add(newBuckets, newBucketIndexByAddressId, it)
             }
         }
-        cacheList = newList
+        synchronized(this) {
+            buckets = newBuckets
+            bucketIndexByAddressId = newBucketIndexByAddressId
+        }
+    }
+
+    private fun add(buckets: Array<MutableList<BirthdayAddress>>, bucketIndexByAddressId: MutableMap<Int, Int>, address: AddressDO) {
+        val birthdayAddress = BirthdayAddress(address)
+        val index = getBucketIndex(birthdayAddress.month, birthdayAddress.dayOfMonth)
+        buckets[index].add(birthdayAddress)
+        bucketIndexByAddressId[address.id] = index
+    }
+
+    companion object {
+        private const val BUCKETS = 366
+
+        private fun createBuckets(): Array<MutableList<BirthdayAddress>> {
+            return Array(BUCKETS) { mutableListOf<BirthdayAddress>() }
+        }
+
+        /**
+         * @return The day of year (0-based) of the given day in a leap year, so 29th of February has its own bucket.
+         */
+        internal fun getBucketIndex(month: Month, dayOfMonth: Int): Int {
+            return LocalDate.of(2000, month, dayOfMonth).dayOfYear - 1
+        }
     }
 }
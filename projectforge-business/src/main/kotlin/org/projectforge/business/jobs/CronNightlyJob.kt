@@ -25,8 +25,10 @@ package org.projectforge.business.jobs
 
 import mu.KotlinLogging
 import org.projectforge.business.meb.MebJobExecutor
+import org.projectforge.framework.persistence.database.SearchIndexer
 import org.projectforge.framework.persistence.history.HibernateSearchReindexer
 import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.beans.factory.annotation.Value
 import org.springframework.scheduling.annotation.Scheduled
 import org.springframework.stereotype.Component
 
@@ -43,6 +45,16 @@ class CronNightlyJob {
     @Autowired
     private lateinit var hibernateSearchReindexer: HibernateSearchReindexer
 
+    @Autowired
+    private lateinit var searchIndexer: SearchIndexer
+
+    /**
+     * If false (default), the search indexes are maintained incrementally and only a sampled consistency check is done
+     * nightly instead of a full re-index.
+     */
+    @Value("\${projectforge.hibernateSearch.nightlyFullReindex:false}")
+    private var nightlyFullReindex: Boolean = false
+
     @Autowired
     private var mebJobExecutor: MebJobExecutor? = null
 
@@ -52,7 +64,11 @@ class CronNightlyJob {
         log.info("Nightly job started.")
 
         try {
-            hibernateSearchReindexer.execute()
+            if (nightlyFullReindex) {
+                hibernateSearchReindexer.execute()
+            } else {
+                searchIndexer.checkConsistency()
+            }
         } catch (ex: Throwable) {
             log.error("While executing hibernate search re-index job: " + ex.message, ex)
         }
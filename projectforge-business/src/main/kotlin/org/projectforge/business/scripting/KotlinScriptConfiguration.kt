@@ -0,0 +1,73 @@
+/////////////////////////////////////////////////////////////////////////////
+//
+// Project ProjectForge Community Edition
+//         www.projectforge.org
+//
+// Copyright (C) 2001-2020 Micromata GmbH, Germany (www.micromata.com)
+//
+// ProjectForge is dual-licensed.
+//
+// This community edition is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; version 3 of the License.
+//
+// This community edition is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+// Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, see http://www.gnu.org/licenses/.
+//
+/////////////////////////////////////////////////////////////////////////////
+
+
+package org.projectforge.business.scripting
+
+import mu.KotlinLogging
+import org.springframework.beans.factory.annotation.Value
+import org.springframework.stereotype.Component
+import javax.annotation.PostConstruct
+import javax.annotation.PreDestroy
+
+private val log = KotlinLogging.logger {}
+
+/**
+ * Configures the engine pool and the execution timeout of [KotlinScriptExecutor] and prewarms the engine pool.
+ */
+@Component
+open class KotlinScriptConfiguration {
+    @Value("\${projectforge.scripting.kotlin.enginePoolSize:2}")
+    private var enginePoolSize: Int = 2
+
+    @Value("\${projectforge.scripting.kotlin.prewarm:true}")
+    private var prewarm: Boolean = true
+
+    @Value("\${projectforge.scripting.kotlin.executionTimeoutSeconds:0}")
+    private var executionTimeoutSeconds: Long = 0
+
+    @PostConstruct
+    private fun postConstruct() {
+        KotlinScriptExecutor.poolSize = enginePoolSize
+        KotlinScriptExecutor.executionTimeoutSeconds = executionTimeoutSeconds
+        if (prewarm && enginePoolSize > 0) {
+            // Creating engines takes several seconds, so don't block the start-up:
+            val thread = Thread {
+                try {
+                    KotlinScriptExecutor.prewarm()
+                } catch (ex: Throwable) {
+                    log.warn("Can't prewarm Kotlin script engines: ${ex.message}", ex)
+                }
+            }
+            thread.name = "KotlinScriptPrewarm"
+            thread.isDaemon = true
+            thread.priority = Thread.MIN_PRIORITY
+            thread.start()
+        }
+    }
+
+    @PreDestroy
+    private fun preDestroy() {
+        log.info("Statistics of Kotlin script executions: ${KotlinScriptExecutor.statistics}")
+    }
+}
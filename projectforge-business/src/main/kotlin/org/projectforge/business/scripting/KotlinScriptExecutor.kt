@@ -23,9 +23,25 @@
 
 package org.projectforge.business.scripting
 
+import org.projectforge.framework.persistence.user.api.ThreadLocalUserContext
 import org.slf4j.LoggerFactory
+import java.util.concurrent.*
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicLong
+import javax.script.Compilable
+import javax.script.CompiledScript
+import javax.script.ScriptEngine
 import javax.script.ScriptEngineManager
 
+/**
+ * Executes Kotlin scripts. Creating a Kotlin script engine and compiling a script is very expensive (seconds and
+ * hundreds of MB), therefore fresh engines are created in advance (prewarmed on start-up, see
+ * [KotlinScriptConfiguration]) and compiled scripts of [ScriptDO]s are cached by id and last update.
+ *
+ * An engine keeps the state of all evaluated scripts (REPL history, e. g. top level variables), so every execution
+ * gets its own fresh engine, which is never reused for another execution. Only compiled scripts are reused: they are
+ * evaluated with new bindings on every execution.
+ */
 object KotlinScriptExecutor {
 
     val autoImports = listOf(
@@ -51,36 +67,284 @@ object KotlinScriptExecutor {
             "import org.projectforge.business.scripting.ScriptingDao",
             "import org.projectforge.common.*")
 
+    /**
+     * Number of fresh engines created in advance.
+     */
+    @JvmStatic
+    var poolSize = 2
+
+    /**
+     * Maximum execution time of a script in seconds. 0 means no timeout.
+     *
+     * The timeout is best-effort: the caller gets a [TimeoutException] after this time and the executing thread is
+     * interrupted, but a script ignoring interrupts (e. g. busy loops) keeps running until it finishes. The number of
+     * such threads is limited by [MAX_EXECUTION_THREADS].
+     */
+    @JvmStatic
+    var executionTimeoutSeconds = 0L
+
+    /**
+     * A compiled script is dropped after this number of evaluations, because every evaluation enlarges the REPL history
+     * of its engine.
+     */
+    internal const val MAX_USAGES_PER_COMPILED_SCRIPT = 50
+
+    /**
+     * Maximum number of scripts executed concurrently with timeout. Further executions are rejected.
+     */
+    internal const val MAX_EXECUTION_THREADS = 10
+
+    /**
+     * Maximum number of cached compiled scripts. Each compiled script holds its own engine.
+     */
+    internal const val MAX_COMPILED_SCRIPTS = 10
+
+    /**
+     * Fresh (unused) engines.
+     */
+    private val enginePool = LinkedBlockingDeque<ScriptEngine>()
+
+    private val compiledScripts = object : LinkedHashMap<String, CompiledEntry>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, CompiledEntry>?): Boolean {
+            return size > MAX_COMPILED_SCRIPTS
+        }
+    }
+
+    private val executor = ThreadPoolExecutor(0, MAX_EXECUTION_THREADS, 60L, TimeUnit.SECONDS, SynchronousQueue()) { runnable ->
+        val thread = Thread(runnable, "KotlinScriptExecutor")
+        thread.isDaemon = true
+        thread
+    }
+
+    /**
+     * Creates fresh engines for the pool in background.
+     */
+    private val poolRefillExecutor = Executors.newSingleThreadExecutor { runnable ->
+        val thread = Thread(runnable, "KotlinScriptPoolRefill")
+        thread.isDaemon = true
+        thread.priority = Thread.MIN_PRIORITY
+        thread
+    }
+
+    private val poolRefillScheduled = AtomicBoolean()
+
+    private val executionCounter = AtomicLong()
+    private val compileCounter = AtomicLong()
+    private val cacheHitCounter = AtomicLong()
+    private val timeoutCounter = AtomicLong()
+    private val compileMillis = AtomicLong()
+    private val executionMillis = AtomicLong()
+    private val engineCreateMillis = AtomicLong()
+
     /**
      * @param script Common imports will be prepended.
      * @param variables Variables to bind. Variables are usable via binding["key"] or directly, if #autobind# is part of script.
+     * @param cacheKey If given, the compiled script will be cached under this key (e. g. id and last update of a [ScriptDO]).
      * @see GroovyExecutor.executeTemplate
      */
     @JvmStatic
     @JvmOverloads
-    fun execute(script: String, variables: Map<String, Any>, file: ByteArray? = null, filename: String? = null): ScriptExecutionResult {
-        val engine = MyKotlinScriptEngineFactory().scriptEngine
-        val bindings = engine.createBindings()
-        variables.forEach {
-            bindings[it.key] = it.value
-        }
-        if (file != null) {
-            bindings["file"] = file
-            bindings["filename"] = filename
-        }
+    fun execute(script: String, variables: Map<String, Any>, file: ByteArray? = null, filename: String? = null, cacheKey: String? = null): ScriptExecutionResult {
         val sb = StringBuilder()
         sb.appendln(autoImports.joinToString("\n"))
         sb.append(script)
         val effectiveScript = sb.toString()
+        val begin = System.currentTimeMillis()
         try {
             val result = ScriptExecutionResult()
             result.script = effectiveScript
-            result.result = engine.eval(effectiveScript, bindings)
+            result.result = if (cacheKey != null) {
+                executeCompiled(cacheKey, effectiveScript, variables, file, filename)
+            } else {
+                executeWithFreshEngine(effectiveScript, variables, file, filename)
+            }
             return result
+        } catch (ex: TimeoutException) {
+            timeoutCounter.incrementAndGet()
+            log.warn("Kotlin script execution aborted after timeout of ${executionTimeoutSeconds}s.")
+            return ScriptExecutionResult(ex)
+        } catch (ex: RejectedExecutionException) {
+            log.warn("Kotlin script execution rejected, too many scripts running ($MAX_EXECUTION_THREADS).")
+            return ScriptExecutionResult(ex)
         } catch (ex: Exception) {
             log.info("Exception on Kotlin script execution: ${ex.message}", ex)
             return ScriptExecutionResult(ex)
+        } finally {
+            executionCounter.incrementAndGet()
+            executionMillis.addAndGet(System.currentTimeMillis() - begin)
+        }
+    }
+
+    /**
+     * Creates fresh engines until the pool is filled. Called on start-up in a background thread.
+     */
+    @JvmStatic
+    fun prewarm() {
+        val engine = createEngine()
+        if (engine is Compilable) {
+            // Compiles the auto imports once for loading all the compiler classes (this engine isn't fresh anymore
+            // and is dropped):
+            engine.compile(autoImports.joinToString("\n"))
+        }
+        fillPool()
+        log.info("Kotlin script engine pool prewarmed: ${enginePool.size} engines.")
+    }
+
+    @Synchronized
+    private fun fillPool() {
+        while (enginePool.size < poolSize) {
+            enginePool.offer(createEngine())
+        }
+    }
+
+    /**
+     * Removes all compiled scripts and pooled engines.
+     */
+    @JvmStatic
+    fun clear() {
+        synchronized(compiledScripts) {
+            compiledScripts.clear()
+        }
+        enginePool.clear()
+    }
+
+    /**
+     * @return Statistics (number of executions, compilations, cache hits and timeouts, and the total durations).
+     */
+    @JvmStatic
+    val statistics: String
+        get() {
+            val executions = executionCounter.get()
+            val compilations = compileCounter.get()
+            return "executions=$executions, compilations=$compilations, cacheHits=${cacheHitCounter.get()}, timeouts=${timeoutCounter.get()}" +
+                    ", avgExecution=${if (executions > 0) executionMillis.get() / executions else 0}ms" +
+                    ", avgCompilation=${if (compilations > 0) compileMillis.get() / compilations else 0}ms" +
+                    ", engineCreation=${engineCreateMillis.get()}ms, pooledEngines=${enginePool.size}, compiledScripts=${synchronized(compiledScripts) { compiledScripts.size }}"
+        }
+
+    /**
+     * @return A fresh engine of the pool (or a new one, if the pool is empty). The pool is refilled in background.
+     */
+    private fun takeFreshEngine(): ScriptEngine {
+        val engine = enginePool.pollFirst() ?: createEngine()
+        if (poolSize > 0 && poolRefillScheduled.compareAndSet(false, true)) {
+            poolRefillExecutor.execute {
+                try {
+                    fillPool()
+                } catch (ex: Throwable) {
+                    log.warn("Can't create Kotlin script engines: ${ex.message}", ex)
+                } finally {
+                    poolRefillScheduled.set(false)
+                }
+            }
+        }
+        return engine
+    }
+
+    private fun executeWithFreshEngine(effectiveScript: String, variables: Map<String, Any>, file: ByteArray?, filename: String?,
+                                       engine: ScriptEngine = takeFreshEngine()): Any? {
+        // The engine is dropped after execution, so no state is shared between executions:
+        val bindings = engine.createBindings()
+        bind(bindings, variables, file, filename)
+        return runWithTimeout { engine.eval(effectiveScript, bindings) }
+    }
+
+    private fun executeCompiled(cacheKey: String, effectiveScript: String, variables: Map<String, Any>, file: ByteArray?, filename: String?): Any? {
+        var entry = synchronized(compiledScripts) { compiledScripts[cacheKey] }
+        if (entry == null || entry.script != effectiveScript) {
+            val engine = takeFreshEngine()
+            if (engine !is Compilable) {
+                return executeWithFreshEngine(effectiveScript, variables, file, filename, engine)
+            }
+            val begin = System.currentTimeMillis()
+            val compiledScript = engine.compile(effectiveScript)
+            compileCounter.incrementAndGet()
+            compileMillis.addAndGet(System.currentTimeMillis() - begin)
+            entry = CompiledEntry(effectiveScript, compiledScript)
+            synchronized(compiledScripts) {
+                compiledScripts[cacheKey] = entry
+            }
+        } else {
+            cacheHitCounter.incrementAndGet()
+        }
+        // The compiled script is bound to its engine, therefore concurrent executions of the same script are serialized.
+        synchronized(entry) {
+            // New bindings for every execution, so no variables are shared between executions:
+            val bindings = entry.compiledScript.engine.createBindings()
+            bind(bindings, variables, file, filename)
+            try {
+                return runWithTimeout { entry.compiledScript.eval(bindings) }
+            } catch (ex: TimeoutException) {
+                removeCompiledScript(cacheKey, entry)
+                throw ex
+            } finally {
+                if (++entry.usages >= MAX_USAGES_PER_COMPILED_SCRIPT) {
+                    removeCompiledScript(cacheKey, entry)
+                }
+            }
+        }
+    }
+
+    private fun removeCompiledScript(cacheKey: String, entry: CompiledEntry) {
+        synchronized(compiledScripts) {
+            if (compiledScripts[cacheKey] === entry) {
+                compiledScripts.remove(cacheKey)
+            }
+        }
+    }
+
+    private fun bind(bindings: MutableMap<String, Any?>, variables: Map<String, Any>, file: ByteArray?, filename: String?) {
+        variables.forEach {
+            bindings[it.key] = it.value
         }
+        if (file != null) {
+            bindings["file"] = file
+            bindings["filename"] = filename
+        }
+    }
+
+    /**
+     * The timeout is best-effort (see [executionTimeoutSeconds]).
+     */
+    private fun runWithTimeout(eval: () -> Any?): Any? {
+        if (executionTimeoutSeconds <= 0) {
+            return eval()
+        }
+        val userContext = ThreadLocalUserContext.getUserContext()
+        val future = executor.submit(Callable {
+            ThreadLocalUserContext.setUserContext(userContext)
+            try {
+                eval()
+            } finally {
+                ThreadLocalUserContext.clear()
+            }
+        })
+        try {
+            return future.get(executionTimeoutSeconds, TimeUnit.SECONDS)
+        } catch (ex: TimeoutException) {
+            future.cancel(true)
+            throw ex
+        } catch (ex: ExecutionException) {
+            val cause = ex.cause
+            throw if (cause is Exception) cause else ex
+        }
+    }
+
+    private fun createEngine(): ScriptEngine {
+        val begin = System.currentTimeMillis()
+        val engine = MyKotlinScriptEngineFactory().scriptEngine
+        engineCreateMillis.addAndGet(System.currentTimeMillis() - begin)
+        return engine
+    }
+
+    internal val compileCount: Long
+        get() = compileCounter.get()
+
+    internal val cacheHitCount: Long
+        get() = cacheHitCounter.get()
+
+    private class CompiledEntry(val script: String, val compiledScript: CompiledScript) {
+        var usages = 0
     }
 
     private val log = LoggerFactory.getLogger(KotlinScriptExecutor::class.java)
@@ -0,0 +1,86 @@
+/////////////////////////////////////////////////////////////////////////////
+//
+// Project ProjectForge Community Edition
+//         www.projectforge.org
+//
+// Copyright (C) 2001-2020 Micromata GmbH, Germany (www.micromata.com)
+//
+// ProjectForge is dual-licensed.
+//
+// This community edition is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; version 3 of the License.
+//
+// This community edition is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+// Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, see http://www.gnu.org/licenses/.
+//
+/////////////////////////////////////////////////////////////////////////////
+
+
+package org.projectforge.business.task
+
+import de.micromata.genome.jpa.DbRecord
+import javax.persistence.*
+
+/**
+ * Pre-order interval numbers of a task node in the [TaskTree] (nested set encoding). The tree left value of all
+ * descendants of a task is between the tree left and the tree right value of the task, so subtree filters may be
+ * expressed as a range predicate (sub query) instead of a list of all descendant task ids. Maintained by
+ * [TaskTreeIntervalDao].
+ */
+@Entity
+@Table(name = "T_TASK_TREE_INTERVAL",
+        indexes = [javax.persistence.Index(name = "idx_task_tree_interval_root_left", columnList = "root_task_id, tree_left")])
+@NamedQueries(
+        NamedQuery(name = TaskTreeIntervalDO.DELETE_BY_ROOT,
+                query = "delete from TaskTreeIntervalDO where rootTaskId = :rootTaskId"),
+        NamedQuery(name = TaskTreeIntervalDO.SHIFT_RANGE,
+                query = "update TaskTreeIntervalDO set treeLeft = 0 - treeLeft - :deltaLeft, treeRight = treeRight + :deltaRight where rootTaskId = :rootTaskId and treeLeft between :fromTreeLeft and :toTreeLeft"),
+        NamedQuery(name = TaskTreeIntervalDO.RESTORE_SHIFTED,
+                query = "update TaskTreeIntervalDO set treeLeft = 0 - treeLeft where rootTaskId = :rootTaskId and treeLeft < 0"))
+open class TaskTreeIntervalDO : DbRecord<Int> {
+    @get:Id
+    @get:Column(name = "task_id")
+    open var taskId: Int? = null
+
+    /**
+     * The id of the root task of the task tree (the numbers of different task trees, e. g. of tenants, overlap).
+     */
+    @get:Column(name = "root_task_id", nullable = false)
+    open var rootTaskId: Int? = null
+
+    @get:Column(name = "tree_left", nullable = false)
+    open var treeLeft: Int = 0
+
+    /**
+     * The highest tree left value of all descendants (or the tree left value of this task, if it has no children).
+     */
+    @get:Column(name = "tree_right", nullable = false)
+    open var treeRight: Int = 0
+
+    @Transient
+    override fun getPk(): Int? {
+        return taskId
+    }
+
+    override fun setPk(pk: Int?) {
+        taskId = pk
+    }
+
+    companion object {
+        internal const val DELETE_BY_ROOT = "TaskTreeIntervalDO_DeleteByRoot"
+
+        /**
+         * Shifts a range of tree left values and marks the shifted rows by negative tree left values (so following
+         * shifts of the same write don't match them again). Must be followed by [RESTORE_SHIFTED].
+         */
+        internal const val SHIFT_RANGE = "TaskTreeIntervalDO_ShiftRange"
+
+        internal const val RESTORE_SHIFTED = "TaskTreeIntervalDO_RestoreShifted"
+    }
+}
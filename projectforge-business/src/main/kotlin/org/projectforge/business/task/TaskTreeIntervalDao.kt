@@ -0,0 +1,149 @@
+/////////////////////////////////////////////////////////////////////////////
+//
+// Project ProjectForge Community Edition
+//         www.projectforge.org
+//
+// Copyright (C) 2001-2020 Micromata GmbH, Germany (www.micromata.com)
+//
+// ProjectForge is dual-licensed.
+//
+// This community edition is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; version 3 of the License.
+//
+// This community edition is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+// Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, see http://www.gnu.org/licenses/.
+//
+/////////////////////////////////////////////////////////////////////////////
+
+
+package org.projectforge.business.task
+
+import mu.KotlinLogging
+import org.projectforge.framework.persistence.jpa.PfEmgrFactory
+import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.stereotype.Repository
+import javax.persistence.EntityManager
+
+private val log = KotlinLogging.logger {}
+
+/**
+ * Persists the pre-order interval numbers of the task nodes (see [TaskTreeIntervalDO]), so recursive task filters
+ * (e. g. time sheets of a task and all its descendants) may be joined in the data base.
+ */
+@Repository
+open class TaskTreeIntervalDao {
+    @Autowired
+    private lateinit var emgrFactory: PfEmgrFactory
+
+    /**
+     * The new interval of a task node. The node itself still holds the interval stored in the data base (0, if the
+     * node is new), it's updated by the [TaskTree] after writing.
+     */
+    class Interval(val node: TaskNode, val treeLeft: Int, val treeRight: Int) {
+        val deltaLeft: Int
+            get() = treeLeft - node.treeLeft
+
+        val deltaRight: Int
+            get() = treeRight - node.treeRight
+
+        val isModified: Boolean
+            get() = node.treeLeft != treeLeft || node.treeRight != treeRight
+    }
+
+    /**
+     * Replaces all intervals of the given task tree (after building the task tree).
+     */
+    open fun writeAll(rootTaskId: Int, intervals: Collection<Interval>) {
+        val begin = System.currentTimeMillis()
+        emgrFactory.runInTrans { emgr ->
+            val em = emgr.entityManager
+            em.createNamedQuery(TaskTreeIntervalDO.DELETE_BY_ROOT)
+                    .setParameter("rootTaskId", rootTaskId)
+                    .executeUpdate()
+            persist(em, rootTaskId, intervals)
+        }
+        log.info { "Intervals of ${intervals.size} task nodes written in ${System.currentTimeMillis() - begin}ms." }
+    }
+
+    /**
+     * Writes the modified intervals of an already persisted task tree (after inserting or moving task nodes).
+     * Inserting or moving a node shifts the intervals of all following nodes, so the modified nodes are grouped into
+     * ranges of consecutive (old) tree left values with the same shift, and every range is updated by one bulk update
+     * (one statement per ancestor of the inserted or moved node plus a few, instead of one statement per row).
+     * @param intervals The new intervals of all nodes of the task tree.
+     */
+    open fun write(rootTaskId: Int, intervals: Collection<Interval>) {
+        val inserted = intervals.filter { it.node.treeLeft <= 0 }
+        val shifts = mutableListOf<Shift>()
+        var current: Shift? = null
+        for (interval in intervals.filter { it.node.treeLeft > 0 }.sortedBy { it.node.treeLeft }) {
+            val shift = current
+            if (!interval.isModified) {
+                current = null
+            } else if (shift != null && shift.deltaLeft == interval.deltaLeft && shift.deltaRight == interval.deltaRight) {
+                shift.toTreeLeft = interval.node.treeLeft
+            } else {
+                current = Shift(interval.node.treeLeft, interval.deltaLeft, interval.deltaRight)
+                shifts.add(current)
+            }
+        }
+        if (shifts.isEmpty() && inserted.isEmpty()) {
+            return
+        }
+        emgrFactory.runInTrans { emgr ->
+            val em = emgr.entityManager
+            shifts.forEach {
+                em.createNamedQuery(TaskTreeIntervalDO.SHIFT_RANGE)
+                        .setParameter("deltaLeft", it.deltaLeft)
+                        .setParameter("deltaRight", it.deltaRight)
+                        .setParameter("rootTaskId", rootTaskId)
+                        .setParameter("fromTreeLeft", it.fromTreeLeft)
+                        .setParameter("toTreeLeft", it.toTreeLeft)
+                        .executeUpdate()
+            }
+            if (shifts.isNotEmpty()) {
+                em.createNamedQuery(TaskTreeIntervalDO.RESTORE_SHIFTED)
+                        .setParameter("rootTaskId", rootTaskId)
+                        .executeUpdate()
+            }
+            persist(em, rootTaskId, inserted)
+        }
+        log.debug { "Intervals of task tree updated (${shifts.size} shifted ranges, ${inserted.size} inserted nodes)." }
+    }
+
+    private fun persist(em: EntityManager, rootTaskId: Int, intervals: Collection<Interval>) {
+        intervals.forEachIndexed { index, interval ->
+            em.persist(createInterval(rootTaskId, interval))
+            if (index % BATCH_SIZE == BATCH_SIZE - 1) {
+                em.flush()
+                em.clear()
+            }
+        }
+    }
+
+    private fun createInterval(rootTaskId: Int, interval: Interval): TaskTreeIntervalDO {
+        val intervalDO = TaskTreeIntervalDO()
+        intervalDO.taskId = interval.node.taskId
+        intervalDO.rootTaskId = rootTaskId
+        intervalDO.treeLeft = interval.treeLeft
+        intervalDO.treeRight = interval.treeRight
+        return intervalDO
+    }
+
+    /**
+     * Range of old tree left values [fromTreeLeft, toTreeLeft] to shift.
+     */
+    private class Shift(val fromTreeLeft: Int, val deltaLeft: Int, val deltaRight: Int) {
+        var toTreeLeft = fromTreeLeft
+    }
+
+    companion object {
+        private const val BATCH_SIZE = 1000
+    }
+}
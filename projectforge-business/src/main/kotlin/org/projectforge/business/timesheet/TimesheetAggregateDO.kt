@@ -0,0 +1,103 @@
+/////////////////////////////////////////////////////////////////////////////
+//
+// Project ProjectForge Community Edition
+//         www.projectforge.org
+//
+// Copyright (C) 2001-2020 Micromata GmbH, Germany (www.micromata.com)
+//
+// ProjectForge is dual-licensed.
+//
+// This community edition is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; version 3 of the License.
+//
+// This community edition is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+// Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, see http://www.gnu.org/licenses/.
+//
+/////////////////////////////////////////////////////////////////////////////
+
+
+package org.projectforge.business.timesheet
+
+import de.micromata.genome.jpa.DbRecord
+import java.time.LocalDate
+import javax.persistence.*
+
+/**
+ * Pre-aggregated durations of time sheets (facts) by the dimensions user, day, task and kost2. Maintained
+ * incrementally by [TimesheetAggregationDao] on every modification of time sheets.
+ */
+@Entity
+@Table(name = "T_TIMESHEET_AGGREGATE",
+        indexes = [javax.persistence.Index(name = "idx_timesheet_aggregate_day_user", columnList = "booking_day, user_id"),
+            javax.persistence.Index(name = "idx_timesheet_aggregate_task", columnList = "task_id")],
+        uniqueConstraints = [UniqueConstraint(name = "unique_t_timesheet_aggregate", columnNames = ["user_id", "booking_day", "task_id", "kost2_id"])])
+@NamedQueries(
+        NamedQuery(name = TimesheetAggregateDO.UPDATE_FACT,
+                query = "update TimesheetAggregateDO set duration = :duration, timesheetCount = :count where userId = :userId and day = :day and taskId = :taskId and kost2Id = :kost2Id"),
+        NamedQuery(name = TimesheetAggregateDO.UPDATE_FACT_WITHOUT_KOST2,
+                query = "update TimesheetAggregateDO set duration = :duration, timesheetCount = :count where userId = :userId and day = :day and taskId = :taskId and kost2Id is null"),
+        NamedQuery(name = TimesheetAggregateDO.DELETE_FACT,
+                query = "delete from TimesheetAggregateDO where userId = :userId and day = :day and taskId = :taskId and kost2Id = :kost2Id"),
+        NamedQuery(name = TimesheetAggregateDO.DELETE_FACT_WITHOUT_KOST2,
+                query = "delete from TimesheetAggregateDO where userId = :userId and day = :day and taskId = :taskId and kost2Id is null"),
+        NamedQuery(name = TimesheetAggregateDO.DELETE_ALL,
+                query = "delete from TimesheetAggregateDO"),
+        NamedQuery(name = TimesheetAggregateDO.COUNT,
+                query = "select count(*) from TimesheetAggregateDO"))
+open class TimesheetAggregateDO : DbRecord<Int> {
+    @get:Id
+    @get:GeneratedValue
+    @get:Column(name = "pk")
+    open var id: Int? = null
+
+    @get:Column(name = "user_id", nullable = false)
+    open var userId: Int? = null
+
+    /**
+     * The day of the start time of the time sheets in the time zone of the time sheet.
+     */
+    @get:Column(name = "booking_day", nullable = false)
+    open var day: LocalDate? = null
+
+    @get:Column(name = "task_id", nullable = false)
+    open var taskId: Int? = null
+
+    @get:Column(name = "kost2_id")
+    open var kost2Id: Int? = null
+
+    /**
+     * Sum of the durations in millis.
+     */
+    @get:Column(nullable = false)
+    open var duration: Long = 0
+
+    /**
+     * Number of aggregated time sheets.
+     */
+    @get:Column(name = "timesheet_count", nullable = false)
+    open var timesheetCount: Int = 0
+
+    @Transient
+    override fun getPk(): Int? {
+        return id
+    }
+
+    override fun setPk(pk: Int?) {
+        id = pk
+    }
+
+    companion object {
+        internal const val UPDATE_FACT = "TimesheetAggregateDO_UpdateFact"
+        internal const val UPDATE_FACT_WITHOUT_KOST2 = "TimesheetAggregateDO_UpdateFactWithoutKost2"
+        internal const val DELETE_FACT = "TimesheetAggregateDO_DeleteFact"
+        internal const val DELETE_FACT_WITHOUT_KOST2 = "TimesheetAggregateDO_DeleteFactWithoutKost2"
+        internal const val DELETE_ALL = "TimesheetAggregateDO_DeleteAll"
+        internal const val COUNT = "TimesheetAggregateDO_Count"
+    }
+}
@@ -0,0 +1,357 @@
+/////////////////////////////////////////////////////////////////////////////
+//
+// Project ProjectForge Community Edition
+//         www.projectforge.org
+//
+// Copyright (C) 2001-2020 Micromata GmbH, Germany (www.micromata.com)
+//
+// ProjectForge is dual-licensed.
+//
+// This community edition is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; version 3 of the License.
+//
+// This community edition is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+// Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, see http://www.gnu.org/licenses/.
+//
+/////////////////////////////////////////////////////////////////////////////
+
+
+package org.projectforge.business.timesheet
+
+import mu.KotlinLogging
+import org.projectforge.framework.configuration.Configuration
+import org.projectforge.framework.persistence.jpa.PfEmgr
+import org.projectforge.framework.persistence.jpa.PfEmgrFactory
+import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.stereotype.Repository
+import java.time.LocalDate
+import java.time.ZoneOffset
+import java.util.*
+import java.util.concurrent.locks.ReentrantReadWriteLock
+import javax.persistence.Query
+import javax.persistence.Tuple
+import kotlin.concurrent.read
+import kotlin.concurrent.write
+
+private val log = KotlinLogging.logger {}
+
+/**
+ * Store of pre-aggregated time sheet durations (facts) by user, day, task and kost2 (see [TimesheetAggregateDO]).
+ * Reports needing only sums of durations (e. g. HR view) may query the aggregates by any combination of dimensions
+ * and a date range with one small query instead of loading all time sheets.
+ *
+ * The aggregates are maintained incrementally by [TimesheetDao]: on save, update, delete and undelete the facts of the
+ * old and new values of the time sheet are recomputed from the time sheets (not by adding deltas, so concurrent
+ * modifications and a concurrent [rebuild] can't corrupt the facts). If the store is empty (e. g. after migration),
+ * it's built from the time sheets on first usage.
+ *
+ * No access checking is done here, the callers are responsible for checking the access to the aggregated values.
+ */
+@Repository
+open class TimesheetAggregationDao {
+    enum class Dimension(internal val property: String) { USER("userId"), DAY("day"), TASK("taskId"), KOST2("kost2Id") }
+
+    /**
+     * Result row of [query]. Only the values of the grouped dimensions are given, the others are null.
+     * @param duration Sum of durations in millis.
+     */
+    class TimesheetAggregate(val userId: Int?, val day: LocalDate?, val taskId: Int?, val kost2Id: Int?, val duration: Long, val timesheetCount: Int)
+
+    /**
+     * All restrictions are optional, null values mean no restriction.
+     */
+    class Filter @JvmOverloads constructor(var fromDay: LocalDate? = null,
+                                           var untilDay: LocalDate? = null,
+                                           var userIds: Collection<Int>? = null,
+                                           var taskIds: Collection<Int>? = null,
+                                           var kost2Ids: Collection<Int>? = null)
+
+    @Autowired
+    private lateinit var emgrFactory: PfEmgrFactory
+
+    private enum class State { UNKNOWN, EMPTY, READY }
+
+    /**
+     * If the store is empty (not yet built), modifications are ignored until the store is built on first usage.
+     */
+    @Volatile
+    private var state = State.UNKNOWN
+
+    /**
+     * Exclusive lock for [rebuild], shared by the refreshes of facts.
+     */
+    private val rebuildLock = ReentrantReadWriteLock()
+
+    /**
+     * Refreshes of the same fact are serialized, refreshes of different facts (e. g. of different users) run in
+     * parallel.
+     */
+    private val factLocks = Array(FACT_LOCK_STRIPES) { Any() }
+
+    /**
+     * Sums the durations of all time sheets matching the filter, grouped by the given dimensions.
+     */
+    open fun query(filter: Filter, vararg groupBy: Dimension): List<TimesheetAggregate> {
+        if (getState() != State.READY) {
+            rebuildLock.write {
+                if (getState() != State.READY) {
+                    rebuild()
+                }
+            }
+        }
+        val conditions = mutableListOf<String>()
+        filter.fromDay?.let { conditions.add("day >= :fromDay") }
+        filter.untilDay?.let { conditions.add("day <= :untilDay") }
+        filter.userIds?.let { conditions.add("userId in (:userIds)") }
+        filter.taskIds?.let { conditions.add("taskId in (:taskIds)") }
+        filter.kost2Ids?.let { conditions.add("kost2Id in (:kost2Ids)") }
+        val dimensions = groupBy.distinct()
+        val select = dimensions.joinToString(separator = "") { "${it.property}, " }
+        val sb = StringBuilder("select ${select}sum(duration), sum(timesheetCount) from TimesheetAggregateDO")
+        if (conditions.isNotEmpty()) {
+            sb.append(" where ").append(conditions.joinToString(separator = " and "))
+        }
+        if (dimensions.isNotEmpty()) {
+            sb.append(" group by ").append(dimensions.joinToString(separator = ", ") { it.property })
+        }
+        return emgrFactory.runRoTrans { emgr ->
+            val query = emgr.entityManager.createQuery(sb.toString(), Tuple::class.java)
+            filter.fromDay?.let { query.setParameter("fromDay", it) }
+            filter.untilDay?.let { query.setParameter("untilDay", it) }
+            filter.userIds?.let { query.setParameter("userIds", if (it.isEmpty()) listOf(-1) else it) }
+            filter.taskIds?.let { query.setParameter("taskIds", if (it.isEmpty()) listOf(-1) else it) }
+            filter.kost2Ids?.let { query.setParameter("kost2Ids", if (it.isEmpty()) listOf(-1) else it) }
+            query.resultList.mapNotNull { tuple ->
+                val duration = (tuple.get(dimensions.size) as Number?)?.toLong() ?: return@mapNotNull null // Nothing found.
+                TimesheetAggregate(
+                        userId = getValue(tuple, dimensions, Dimension.USER) as Int?,
+                        day = getValue(tuple, dimensions, Dimension.DAY) as LocalDate?,
+                        taskId = getValue(tuple, dimensions, Dimension.TASK) as Int?,
+                        kost2Id = getValue(tuple, dimensions, Dimension.KOST2) as Int?,
+                        duration = duration,
+                        timesheetCount = (tuple.get(dimensions.size + 1) as Number?)?.toInt() ?: 0)
+            }
+        }
+    }
+
+    /**
+     * Recomputes the fact (user, day, task and kost2) of the given time sheet from the persisted time sheets. Must be
+     * called after the modification (save, update, delete or undelete) of the time sheet is committed, so the fact is
+     * up to date after the last call independent of the order of concurrent calls.
+     * A running [rebuild] is awaited (shared lock), refreshes of the same fact are serialized.
+     * @param origin The time sheet before the update (optional): its fact is recomputed as well, if it differs (e. g.
+     * after moving the time sheet to another task or day).
+     */
+    @JvmOverloads
+    open fun refresh(timesheet: TimesheetDO, origin: TimesheetDO? = null) {
+        val key = getFactKey(timesheet)
+        val originKey = origin?.let { getFactKey(it) }
+        if (key == null && originKey == null) {
+            return
+        }
+        rebuildLock.read {
+            if (getState() != State.READY) {
+                return // Will be built completely on first usage.
+            }
+            key?.let { refreshFact(it) }
+            if (originKey != null && originKey != key) {
+                refreshFact(originKey)
+            }
+        }
+    }
+
+    private fun getFactKey(timesheet: TimesheetDO): FactKey? {
+        val userId = timesheet.user?.id
+        val taskId = timesheet.task?.id
+        val startTime = timesheet.startTime
+        if (userId == null || taskId == null || startTime == null) {
+            return null
+        }
+        return FactKey(userId, getDay(startTime, timesheet.timeZone), taskId, timesheet.kost2?.id)
+    }
+
+    private fun refreshFact(key: FactKey) {
+        synchronized(factLocks[key.hashCode() and (FACT_LOCK_STRIPES - 1)]) {
+            recomputeFact(key)
+        }
+    }
+
+    private fun recomputeFact(key: FactKey) {
+        // All time sheets starting at the given day in any time zone:
+        val from = Date.from(key.day.minusDays(1).atStartOfDay(ZoneOffset.UTC).toInstant())
+        val until = Date.from(key.day.plusDays(2).atStartOfDay(ZoneOffset.UTC).toInstant())
+        val tuples = emgrFactory.runRoTrans { emgr ->
+            val kost2Condition = if (key.kost2Id != null) "t.kost2.id = :kost2Id" else "t.kost2 is null"
+            val query = emgr.entityManager.createQuery("select t.startTime, t.stopTime, t.timeZone from TimesheetDO t where t.deleted = false and t.user.id = :userId and t.task.id = :taskId and $kost2Condition and t.startTime >= :from and t.startTime < :until", Tuple::class.java)
+                    .setParameter("userId", key.userId)
+                    .setParameter("taskId", key.taskId)
+                    .setParameter("from", from)
+                    .setParameter("until", until)
+            key.kost2Id?.let { query.setParameter("kost2Id", it) }
+            query.resultList
+        }
+        var duration = 0L
+        var count = 0
+        tuples.forEach { tuple ->
+            val startTime = tuple.get(0) as Date
+            if (getDay(startTime, tuple.get(2) as String?) == key.day) {
+                duration += maxOf(0L, (tuple.get(1) as Date).time - startTime.time)
+                ++count
+            }
+        }
+        if (count == 0) {
+            emgrFactory.runInTrans { emgr ->
+                setKeyParameters(emgr.entityManager.createNamedQuery(if (key.kost2Id != null) TimesheetAggregateDO.DELETE_FACT else TimesheetAggregateDO.DELETE_FACT_WITHOUT_KOST2), key)
+                        .executeUpdate()
+            }
+            return
+        }
+        if (updateFact(key, duration, count) > 0) {
+            return
+        }
+        try {
+            emgrFactory.runInTrans { emgr ->
+                val aggregate = TimesheetAggregateDO()
+                aggregate.userId = key.userId
+                aggregate.day = key.day
+                aggregate.taskId = key.taskId
+                aggregate.kost2Id = key.kost2Id
+                aggregate.duration = duration
+                aggregate.timesheetCount = count
+                emgr.entityManager.persist(aggregate)
+                emgr.entityManager.flush()
+            }
+        } catch (ex: Exception) {
+            // Inserted in the meantime by another node (unique constraint violated), so retry as update:
+            log.info { "Can't insert aggregate $key, retrying as update: ${ex.message}" }
+            if (updateFact(key, duration, count) == 0) {
+                throw ex
+            }
+        }
+    }
+
+    private fun updateFact(key: FactKey, duration: Long, count: Int): Int {
+        return emgrFactory.runInTrans { emgr ->
+            setKeyParameters(emgr.entityManager.createNamedQuery(if (key.kost2Id != null) TimesheetAggregateDO.UPDATE_FACT else TimesheetAggregateDO.UPDATE_FACT_WITHOUT_KOST2), key)
+                    .setParameter("duration", duration)
+                    .setParameter("count", count)
+                    .executeUpdate()
+        }
+    }
+
+    private fun setKeyParameters(query: Query, key: FactKey): Query {
+        query.setParameter("userId", key.userId)
+                .setParameter("day", key.day)
+                .setParameter("taskId", key.taskId)
+        key.kost2Id?.let { query.setParameter("kost2Id", it) }
+        return query
+    }
+
+    /**
+     * Deletes all aggregates and builds them from the time sheets. The time sheets are read in blocks (only the needed
+     * columns, no entities). Refreshes of facts are blocked while rebuilding.
+     */
+    open fun rebuild() {
+        rebuildLock.write {
+            rebuildAll()
+        }
+    }
+
+    private fun rebuildAll() {
+        val begin = System.currentTimeMillis()
+        log.info { "Building aggregates of time sheets..." }
+        val facts = mutableMapOf<FactKey, TimesheetAggregateDO>()
+        var lastId = -1
+        var counter = 0
+        while (true) {
+            val block = emgrFactory.runRoTrans { emgr ->
+                emgr.entityManager.createQuery("select t.id, t.user.id, t.task.id, k.id, t.startTime, t.stopTime, t.timeZone from TimesheetDO t left join t.kost2 k where t.deleted = false and t.id > :lastId order by t.id", Tuple::class.java)
+                        .setParameter("lastId", lastId)
+                        .setMaxResults(REBUILD_BLOCK_SIZE)
+                        .resultList
+            }
+            block.forEach { tuple ->
+                val startTime = tuple.get(4) as Date
+                val stopTime = tuple.get(5) as Date
+                val key = FactKey(tuple.get(1) as Int, getDay(startTime, tuple.get(6) as String?), tuple.get(2) as Int, tuple.get(3) as Int?)
+                val fact = facts.getOrPut(key) {
+                    val aggregate = TimesheetAggregateDO()
+                    aggregate.userId = key.userId
+                    aggregate.day = key.day
+                    aggregate.taskId = key.taskId
+                    aggregate.kost2Id = key.kost2Id
+                    aggregate
+                }
+                fact.duration += maxOf(0L, stopTime.time - startTime.time)
+                fact.timesheetCount++
+            }
+            counter += block.size
+            if (block.size < REBUILD_BLOCK_SIZE) {
+                break
+            }
+            lastId = block.last().get(0) as Int
+        }
+        emgrFactory.runInTrans { emgr ->
+            emgr.entityManager.createNamedQuery(TimesheetAggregateDO.DELETE_ALL).executeUpdate()
+            persist(emgr, facts.values)
+        }
+        state = State.READY
+        log.info { "Aggregates of $counter time sheets built (${facts.size} facts) in ${System.currentTimeMillis() - begin}ms." }
+    }
+
+    private fun persist(emgr: PfEmgr, facts: Collection<TimesheetAggregateDO>) {
+        val em = emgr.entityManager
+        var counter = 0
+        facts.forEach {
+            em.persist(it)
+            if (++counter % PERSIST_BLOCK_SIZE == 0) {
+                em.flush()
+                em.clear()
+            }
+        }
+        em.flush()
+    }
+
+    private fun getState(): State {
+        if (state == State.UNKNOWN) {
+            val count = emgrFactory.runRoTrans { emgr ->
+                (emgr.entityManager.createNamedQuery(TimesheetAggregateDO.COUNT).singleResult as Number).toLong()
+            }
+            state = if (count > 0) State.READY else State.EMPTY
+        }
+        return state
+    }
+
+    private fun getValue(tuple: Tuple, dimensions: List<Dimension>, dimension: Dimension): Any? {
+        val idx = dimensions.indexOf(dimension)
+        return if (idx >= 0) tuple.get(idx) else null
+    }
+
+    private data class FactKey(val userId: Int, val day: LocalDate, val taskId: Int, val kost2Id: Int?)
+
+    companion object {
+        private const val REBUILD_BLOCK_SIZE = 50_000
+
+        private const val PERSIST_BLOCK_SIZE = 1_000
+
+        /**
+         * Number of locks for refreshing facts (power of 2).
+         */
+        private const val FACT_LOCK_STRIPES = 64
+
+        /**
+         * @return The day of the given start time in the time zone of the time sheet (or the default time zone, if not
+         * given).
+         */
+        internal fun getDay(startTime: Date, timeZone: String?): LocalDate {
+            val zone = if (timeZone.isNullOrBlank()) Configuration.getInstance().defaultTimeZone else TimeZone.getTimeZone(timeZone)
+            return startTime.toInstant().atZone(zone.toZoneId()).toLocalDate()
+        }
+    }
+}
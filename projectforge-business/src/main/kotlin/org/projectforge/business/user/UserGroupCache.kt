@@ -62,6 +62,10 @@ open class UserGroupCache(tenant: TenantDO?, applicationContext: ApplicationCont
      * The key is the group id.
      */
     private var groupMap: Map<Int, GroupDO>? = null
+    /**
+     * The key is the group id and the value is the set of ids of the assigned users (for fast lookups and unions).
+     */
+    private var groupUserIdMap: Map<Int, BitSet>? = null
     /**
      * List of all rights (value) defined for the user ids (key).
      */
@@ -324,6 +328,16 @@ open class UserGroupCache(tenant: TenantDO?, applicationContext: ApplicationCont
         return userGroupIdMap
     }
 
+    /**
+     * @return The ids of the users assigned to the given group or null, if the group doesn't exist. Please don't modify
+     * the returned bitset, it's shared (use [BitSet.clone] or [BitSet.or] with a new bitset).
+     */
+    fun getGroupUserIds(groupId: Int?): BitSet? {
+        groupId ?: return null
+        checkRefresh()
+        return groupUserIdMap?.get(groupId)
+    }
+
     fun getEmployeeId(userId: Int?): Int? {
         userId ?: return null
         checkRefresh()
@@ -389,6 +403,7 @@ open class UserGroupCache(tenant: TenantDO?, applicationContext: ApplicationCont
         val groups = Login.getInstance().allGroups
         val gMap: MutableMap<Int, GroupDO> = HashMap()
         val ugIdMap: MutableMap<Int, MutableSet<Int>> = HashMap()
+        val guIdMap: MutableMap<Int, BitSet> = HashMap()
         val nAdminUsers: MutableSet<Int> = HashSet()
         val nFinanceUser: MutableSet<Int> = HashSet()
         val nControllingUsers: MutableSet<Int> = HashSet()
@@ -405,7 +420,12 @@ open class UserGroupCache(tenant: TenantDO?, applicationContext: ApplicationCont
                 }
             }
             gMap[group.id] = group
+            val groupUserIds = BitSet()
+            guIdMap[group.id] = groupUserIds
             group.assignedUsers?.forEach { user ->
+                if (user.id >= 0) {
+                    groupUserIds.set(user.id)
+                }
                 val groupIdSet = ensureAndGetUserGroupIdMap(ugIdMap, user.id)
                 groupIdSet.add(group.id)
                 when {
@@ -456,6 +476,7 @@ open class UserGroupCache(tenant: TenantDO?, applicationContext: ApplicationCont
         orgaUsers = nOrgaUsers
         hrUsers = nhrUsers
         userGroupIdMap = ugIdMap
+        groupUserIdMap = guIdMap
         val rMap: MutableMap<Int, List<UserRightDO>> = HashMap()
         val rights: List<UserRightDO>
         rights = try {
@@ -33,8 +33,9 @@ import org.projectforge.framework.persistence.user.entities.PFUserDO
 import org.projectforge.framework.persistence.user.entities.UserPrefDO
 import org.springframework.beans.factory.annotation.Autowired
 import org.springframework.context.annotation.DependsOn
+import org.springframework.scheduling.annotation.Scheduled
 import org.springframework.stereotype.Component
-import java.util.*
+import java.util.concurrent.ConcurrentHashMap
 import javax.annotation.PreDestroy
 
 private val log = KotlinLogging.logger {}
@@ -43,13 +44,22 @@ private val log = KotlinLogging.logger {}
  * A cache for UserPrefDO, if preferences are modified and accessed very often by the user's normal work
  * (such as current filters in Calendar and list pages etc.)
  *
+ * Modifications are written behind: the users with modified entries are tracked and flushed periodically, only entries
+ * with changed values are written (see [UserPrefDao.internalUpsert]). There is no global lock, the users are
+ * synchronized independently of each other.
+ *
  * @author Kai Reinhard (k.reinhard@micromata.de)
  */
 @Component
 @DependsOn("entityManagerFactory")
 class UserPrefCache : AbstractCache() {
 
-    private val allPreferences = HashMap<Int, UserPrefCacheData>()
+    private val allPreferences = ConcurrentHashMap<Int, UserPrefCacheData>()
+
+    /**
+     * Users with (potentially) modified entries, not yet flushed to the data base.
+     */
+    private val dirtyUserIds = ConcurrentHashMap.newKeySet<Int>()
 
     @Autowired
     private lateinit var accessChecker: AccessChecker
@@ -76,6 +86,9 @@ class UserPrefCache : AbstractCache() {
             log.debug { "Put value for area '$area' and name '$name' (persistent=$persistent): ${ToStringUtil.toJsonString(value)}" }
         }
         data.putEntry(area, name, value, persistent)
+        if (persistent) {
+            dirtyUserIds.add(uid)
+        }
         checkRefresh() // Should be called at the end of this method for considering changes inside this method.
     }
 
@@ -86,7 +99,11 @@ class UserPrefCache : AbstractCache() {
         val userId = ThreadLocalUserContext.getUserId()
         val data = ensureAndGetUserPreferencesData(userId)
         checkRefresh()
-        return data.getEntries(area).map { it.userPrefDO }
+        val entries = data.getEntries(area)
+        if (entries.isNotEmpty()) {
+            dirtyUserIds.add(userId) // Entries are marked as modified after use-age.
+        }
+        return entries.map { it.userPrefDO }
     }
 
     /**
@@ -130,6 +147,7 @@ class UserPrefCache : AbstractCache() {
         val data = ensureAndGetUserPreferencesData(userId)
         checkRefresh()
         val userPref = data.getEntry(area, name)?.userPrefDO ?: return null
+        dirtyUserIds.add(userId) // Entry is marked as modified after use-age.
         return userPref.valueObject ?: userPrefDao.deserizalizeValueObject(userPref)
     }
 
@@ -157,36 +175,33 @@ class UserPrefCache : AbstractCache() {
      * @param userId
      * @return
      */
-    @Synchronized
     private fun ensureAndGetUserPreferencesData(userId: Int): UserPrefCacheData {
-        var data = getUserPreferencesData(userId)
-        if (data == null) {
-            data = UserPrefCacheData()
-            data.userId = userId
-            val userPrefs = userPrefDao.getUserPrefs(userId)
-            userPrefs?.forEach {
-                data.putEntry(it)
-            }
-            if (log.isDebugEnabled) {
-                log.debug { "Created new UserPrefCacheData: ${ToStringUtil.toJsonString(data)}" }
-            }
-            synchronized(allPreferences) {
+        getUserPreferencesData(userId)?.let { return it }
+        // Only the loading of the same user (or of users of the same lock stripe) is synchronized:
+        synchronized(userPrefDao.getUserLock(userId)) {
+            var data = getUserPreferencesData(userId)
+            if (data == null) {
+                data = UserPrefCacheData()
+                data.userId = userId
+                val userPrefs = userPrefDao.getUserPrefs(userId)
+                userPrefs?.forEach {
+                    data.putEntry(it)
+                }
+                if (log.isDebugEnabled) {
+                    log.debug { "Created new UserPrefCacheData: ${ToStringUtil.toJsonString(data)}" }
+                }
                 this.allPreferences[userId] = data
             }
+            return data
         }
-        return data
     }
 
     internal fun getUserPreferencesData(userId: Int): UserPrefCacheData? {
-        synchronized(allPreferences) {
-            return this.allPreferences[userId]
-        }
+        return this.allPreferences[userId]
     }
 
     internal fun setUserPreferencesData(userId: Int, data: UserPrefCacheData) {
-        synchronized(allPreferences) {
-            this.allPreferences[userId] = data
-        }
+        this.allPreferences[userId] = data
     }
 
     /**
@@ -197,7 +212,6 @@ class UserPrefCache : AbstractCache() {
         flushToDB(userId, true)
     }
 
-    @Synchronized
     private fun flushToDB(userId: Int?, checkAccess: Boolean) {
         if (checkAccess) {
             if (userId != ThreadLocalUserContext.getUserId()) {
@@ -212,13 +226,48 @@ class UserPrefCache : AbstractCache() {
                 return
             }
         }
-        val data = allPreferences[userId]
-        data?.getModifiedPersistentEntries()?.forEach {
+        userId ?: return
+        dirtyUserIds.remove(userId)
+        val data = allPreferences[userId] ?: return
+        synchronized(data) {
+            val entries = data.getModifiedPersistentEntries().filter {
+                it.modified = false // Modifications from now on will be flushed by the next run.
+                val userPref = it.userPrefDO
+                if (userPref.valueObject == null) {
+                    return@filter false // Value wasn't deserialized, so it can't be modified.
+                }
+                userPrefDao.serializeValueObject(userPref)
+                userPref.valueString != it.persistedValueString
+            }
+            if (entries.isEmpty()) {
+                return
+            }
             if (log.isDebugEnabled) {
-                log.debug { "Persisting entry to data base: ${ToStringUtil.toJsonString(it.userPrefDO)}" }
+                entries.forEach { log.debug { "Persisting entry to data base: ${ToStringUtil.toJsonString(it.userPrefDO)}" } }
             }
-            userPrefDao.internalSaveOrUpdate(it.userPrefDO)
+            try {
+                userPrefDao.internalUpsert(userId, entries.map { it.userPrefDO })
+                entries.forEach { it.persistedValueString = it.userPrefDO.valueString }
+            } catch (ex: Exception) {
+                log.error("Error while writing ${entries.size} user preferences of user $userId (will be retried): ${ex.message}", ex)
+                entries.forEach { it.modified = true }
+                dirtyUserIds.add(userId)
+            }
+        }
+    }
+
+    /**
+     * Write-behind: flushes the modified entries of all users with modifications since the last run.
+     */
+    @Scheduled(fixedDelayString = "\${projectforge.userPrefs.writeBehindIntervalMillis:60000}", initialDelay = 60 * 1000)
+    fun flushModifiedEntries() {
+        if (dirtyUserIds.isEmpty()) {
+            return
         }
+        val begin = System.currentTimeMillis()
+        val userIds = dirtyUserIds.toList()
+        userIds.forEach { flushToDB(it, false) }
+        log.debug { "Modified user preferences of ${userIds.size} users flushed in ${System.currentTimeMillis() - begin}ms." }
     }
 
     /**
@@ -228,13 +277,8 @@ class UserPrefCache : AbstractCache() {
      * @see AbstractCache.refresh
      */
     override fun refresh() {
-        log.info("Flushing all user preferences to data-base....")
-        for (userId in allPreferences.keys) {
-            if (log.isDebugEnabled) {
-                log.debug { "Flushing all user preferences for user $userId." }
-            }
-            flushToDB(userId, false)
-        }
+        log.info("Flushing all modified user preferences to data-base....")
+        flushModifiedEntries()
         log.info("Flushing of user preferences to data-base done.")
     }
 
@@ -244,14 +288,13 @@ class UserPrefCache : AbstractCache() {
      * @param userId
      */
     fun clear(userId: Int?) {
-        synchronized(allPreferences) {
-            val data = allPreferences[userId] ?: return
-            if (log.isDebugEnabled) {
-                log.debug { "Clearing all user preferences in cache for user $userId." }
-            }
-            allPreferences.remove(userId)
-            data.clear()
+        userId ?: return
+        val data = allPreferences.remove(userId) ?: return
+        if (log.isDebugEnabled) {
+            log.debug { "Clearing all user preferences in cache for user $userId." }
         }
+        dirtyUserIds.remove(userId)
+        data.clear()
     }
 
     override fun setExpireTimeInMinutes(expireTime: Long) {
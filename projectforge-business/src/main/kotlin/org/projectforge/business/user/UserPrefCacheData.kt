@@ -35,14 +35,23 @@ internal class UserPrefCacheData {
     class CacheEntry(
             var userPrefDO: UserPrefDO,
             var persistant: Boolean = true,
-            var modified: Boolean = false)
+            @Volatile
+            var modified: Boolean = false) {
+        /**
+         * The json value written to (or read from) the data base. Entries marked as modified are only written if their
+         * serialized value differs from this one.
+         */
+        var persistedValueString: String? = if (modified) null else userPrefDO.valueString
+    }
 
     var userId: Int? = null
 
     private var entries = mutableListOf<CacheEntry>()
 
     internal fun putEntry(userPref: UserPrefDO) {
-        entries.add(CacheEntry(userPref))
+        synchronized(entries) {
+            entries.add(CacheEntry(userPref))
+        }
     }
 
     /**
@@ -104,7 +113,9 @@ internal class UserPrefCacheData {
     }
 
     internal fun getModifiedPersistentEntries(): List<CacheEntry> {
-        return entries.filter { it.persistant && it.modified }
+        synchronized(entries) {
+            return entries.filter { it.persistant && it.modified }
+        }
     }
 
     /**
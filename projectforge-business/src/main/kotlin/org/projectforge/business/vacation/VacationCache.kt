@@ -32,14 +32,17 @@ import org.projectforge.framework.persistence.user.api.ThreadLocalUserContext
 import org.springframework.beans.factory.annotation.Autowired
 import org.springframework.stereotype.Component
 import java.time.LocalDate
-import javax.persistence.EntityManager
-import javax.persistence.LockModeType
-import javax.persistence.PersistenceContext
+import java.util.*
 
 private val log = KotlinLogging.logger {}
 
 /**
- * The vacation entries will be cached.
+ * The vacation entries will be cached. The entries are indexed by the user id of the employee (sorted by start date),
+ * so lookups for users and groups only touch the vacation entries of the requested users. The cache is updated
+ * incrementally by [VacationDao] on every modification, a full reload is only done on expiry.
+ *
+ * Full reloads and incremental updates are serialized by the monitor of this cache (the data base is read inside the
+ * lock), so an update done while a reload is running is applied after the reload and can't be overwritten by it.
  *
  * @author Kai Reinhard (k.reinhard@micromata.de)
  */
@@ -48,7 +51,16 @@ open class VacationCache : AbstractCache() {
     @Autowired
     private lateinit var vacationDao: VacationDao
 
-    private lateinit var vacationSet: Set<VacationDO>
+    /**
+     * Key is the user id of the employee, the value is the list of the (not deleted) vacation entries of the employee,
+     * sorted by start date. The lists are never modified (copy on write).
+     */
+    private var vacationsByUserId: MutableMap<Int, List<VacationDO>> = HashMap()
+
+    /**
+     * Key is the vacation id, the value is the user id of the employee (needed for removing entries on updates).
+     */
+    private var userIdByVacationId: MutableMap<Int, Int> = HashMap()
 
     /**
      * Checks also the select access of the logged in user.
@@ -62,46 +74,97 @@ open class VacationCache : AbstractCache() {
             return result
         }
         val userGroupCache = UserGroupCache.tenantInstance
-        val loggedInUser = ThreadLocalUserContext.getUser()
-        for (vacation in vacationSet) {
-            if (vacation.endDate?.isBefore(startVacationDate) == true ||
-                    vacation.startDate?.isAfter(endVacationDate) == true) {
-                continue
+        val requestedUserIds = BitSet()
+        groupIds?.forEach { gid ->
+            userGroupCache.getGroupUserIds(gid)?.let { requestedUserIds.or(it) }
+        }
+        userIds?.forEach { uid ->
+            if (uid >= 0) {
+                requestedUserIds.set(uid)
             }
-            if (!vacationDao.hasSelectAccess(vacation, loggedInUser, false)) {
-                continue
+        }
+        val loggedInUser = ThreadLocalUserContext.getUser()
+        val index = synchronized(this) { vacationsByUserId }
+        var userId = requestedUserIds.nextSetBit(0)
+        while (userId >= 0) {
+            index[userId]?.let { vacations ->
+                for (vacation in vacations) {
+                    if (vacation.startDate?.isAfter(endVacationDate) == true) {
+                        break // List is sorted by start date, no further matches.
+                    }
+                    if (vacation.endDate?.isBefore(startVacationDate) == true) {
+                        continue
+                    }
+                    if (vacationDao.hasSelectAccess(vacation, loggedInUser, false)) {
+                        result.add(vacation)
+                    }
+                }
             }
-            val employeeUser = vacation.employee?.user ?: continue
-            var match = groupIds?.any { gid ->
-                userGroupCache.getGroup(gid)?.assignedUsers?.any { user ->
-                    user.id == employeeUser.id // The employee matches with one assigned user of the group.
-                } ?: false // Null doesn't match.
-            } ?: false // Null doesn't match
-            if (!match) { // Search for users
-                match = userIds?.any { uid ->
-                    uid == employeeUser.id // The employee matches with one given user.
-                } ?: false // Null doesn't match
+            userId = requestedUserIds.nextSetBit(userId + 1)
+        }
+        return result
+    }
+
+    /**
+     * Reloads the given vacation entry from the data base and updates the index (called by [VacationDao] after
+     * inserts, updates, deletions and undeletions). Deleted entries are removed.
+     * The entry is read inside the lock, so concurrent updates of the same entry and a running [refresh] are applied
+     * in order and a stale entry never wins.
+     */
+    open fun updateVacation(vacation: VacationDO) {
+        val id = vacation.id ?: return
+        synchronized(this) {
+            val dbVacation = vacationDao.internalGetById(id)
+            // Copy on write: readers may iterate over the current maps and lists.
+            val newVacationsByUserId = HashMap(vacationsByUserId)
+            val newUserIdByVacationId = HashMap(userIdByVacationId)
+            newUserIdByVacationId.remove(id)?.let { oldUserId ->
+                val list = newVacationsByUserId[oldUserId]?.filter { it.id != id }
+                if (list.isNullOrEmpty()) {
+                    newVacationsByUserId.remove(oldUserId)
+                } else {
+                    newVacationsByUserId[oldUserId] = list
+                }
             }
-            if (match) {
-                result.add(vacation) // Employee is part of group, so return the vacation entry for this user.
+            val userId = dbVacation?.employee?.user?.id
+            if (dbVacation != null && !dbVacation.isDeleted && userId != null) {
+                val list = (newVacationsByUserId[userId] ?: emptyList()) + dbVacation
+                newVacationsByUserId[userId] = list.sortedWith(START_DATE_COMPARATOR)
+                newUserIdByVacationId[id] = userId
             }
+            vacationsByUserId = newVacationsByUserId
+            userIdByVacationId = newUserIdByVacationId
         }
-        return result
     }
 
     /**
-     * This method will be called by CacheHelper and is synchronized via getData();
+     * This method will be called by CacheHelper and is synchronized via checkRefresh(). The data base is read inside
+     * the lock for serializing the reload with [updateVacation] (otherwise an update done during the load would be
+     * overwritten by the stale result of the load).
      */
     override fun refresh() {
         log.info("Refreshing VacationCache ...")
-        // This method must not be synchronized because it works with a new copy of maps.
-        val set = mutableSetOf<VacationDO>()
-        vacationDao.internalLoadAll().forEach {
-            if (!it.isDeleted) {
-                set.add(it)
+        synchronized(this) {
+            val map = HashMap<Int, MutableList<VacationDO>>()
+            val idMap = HashMap<Int, Int>()
+            vacationDao.internalLoadAll().forEach {
+                if (!it.isDeleted) {
+                    val userId = it.employee?.user?.id ?: return@forEach
+                    map.getOrPut(userId) { mutableListOf() }.add(it)
+                    it.id?.let { id -> idMap[id] = userId }
+                }
+            }
+            val newVacationsByUserId = HashMap<Int, List<VacationDO>>()
+            map.forEach { (userId, list) ->
+                newVacationsByUserId[userId] = list.sortedWith(START_DATE_COMPARATOR)
             }
+            vacationsByUserId = newVacationsByUserId
+            userIdByVacationId = idMap
         }
-        vacationSet = set
         log.info("Refreshing of VacationCache done.")
     }
+
+    companion object {
+        private val START_DATE_COMPARATOR = compareBy<VacationDO> { it.startDate } // null values first.
+    }
 }
@@ -28,6 +28,7 @@ import org.projectforge.business.fibu.EmployeeDO
 import org.projectforge.business.fibu.EmployeeDao
 import org.projectforge.business.user.UserRightId
 import org.projectforge.business.user.UserRightValue
+import org.projectforge.business.vacation.VacationCache
 import org.projectforge.business.vacation.VacationFilter
 import org.projectforge.business.vacation.model.VacationDO
 import org.projectforge.business.vacation.model.VacationStatus
@@ -310,21 +311,25 @@ open class VacationDao : BaseDao<VacationDO>(VacationDO::class.java) {
 
     override fun afterSave(obj: VacationDO) {
         super.afterSave(obj)
+        applicationContext.getBean(VacationCache::class.java).updateVacation(obj)
         vacationSendMailService.checkAndSendMail(obj, OperationType.INSERT)
     }
 
     override fun afterUpdate(obj: VacationDO, dbObj: VacationDO) {
         super.afterUpdate(obj, dbObj)
+        applicationContext.getBean(VacationCache::class.java).updateVacation(obj)
         vacationSendMailService.checkAndSendMail(obj, OperationType.UPDATE, dbObj)
     }
 
     override fun afterDelete(obj: VacationDO) {
         super.afterDelete(obj)
+        applicationContext.getBean(VacationCache::class.java).updateVacation(obj)
         vacationSendMailService.checkAndSendMail(obj, OperationType.DELETE)
     }
 
     override fun afterUndelete(obj: VacationDO) {
         super.afterDelete(obj)
+        applicationContext.getBean(VacationCache::class.java).updateVacation(obj)
         vacationSendMailService.checkAndSendMail(obj, OperationType.UNDELETE)
     }
 
@@ -0,0 +1,160 @@
+/////////////////////////////////////////////////////////////////////////////
+//
+// Project ProjectForge Community Edition
+//         www.projectforge.org
+//
+// Copyright (C) 2001-2020 Micromata GmbH, Germany (www.micromata.com)
+//
+// ProjectForge is dual-licensed.
+//
+// This community edition is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; version 3 of the License.
+//
+// This community edition is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+// Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, see http://www.gnu.org/licenses/.
+//
+/////////////////////////////////////////////////////////////////////////////
+
+
+package org.projectforge.framework.cache
+
+import mu.KotlinLogging
+import org.projectforge.ProjectForgeVersion
+import org.projectforge.framework.persistence.jpa.PfEmgrFactory
+import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.beans.factory.annotation.Value
+import org.springframework.stereotype.Service
+import java.io.*
+import java.nio.file.Files
+import java.nio.file.StandardCopyOption
+import java.util.*
+import java.util.zip.GZIPInputStream
+import java.util.zip.GZIPOutputStream
+import javax.persistence.Tuple
+
+private val log = KotlinLogging.logger {}
+
+/**
+ * Optional on-disk snapshots of cache states for fast restarts (disabled by default). A snapshot is stamped with the
+ * data version of the tables the cache is built of (max last update and number of rows per table). On start-up the
+ * cache compares the snapshot's data version with the current one: if equal the snapshot state is used, if
+ * different, the cache may reload the modified objects only (delta) or has to be rebuilt.
+ *
+ * Snapshots are written by the caches on shutdown. Only caches holding serializable value objects (no entities with
+ * lazy loaded associations) should use snapshots.
+ */
+@Service
+open class CacheSnapshotService {
+    data class TableVersion(val entity: String, val maxLastUpdate: Date?, val count: Long) : Serializable {
+        companion object {
+            private const val serialVersionUID = 1L
+        }
+    }
+
+    data class DataVersion(val tables: List<TableVersion>) : Serializable {
+        fun getTableVersion(entityClass: Class<*>): TableVersion? {
+            return tables.find { it.entity == entityClass.name }
+        }
+
+        companion object {
+            private const val serialVersionUID = 1L
+        }
+    }
+
+    class Snapshot<T : Serializable>(val dataVersion: DataVersion, val state: T)
+
+    @Autowired
+    private lateinit var emgrFactory: PfEmgrFactory
+
+    @Value("\${projectforge.cache.snapshot.enabled:false}")
+    var isEnabled: Boolean = false
+        private set
+
+    @Value("\${projectforge.base.dir}")
+    private var baseDir: String? = null
+
+    /**
+     * Max last update and number of rows of the given entities (all entities must have the property lastUpdate).
+     */
+    open fun getDataVersion(vararg entityClasses: Class<*>): DataVersion {
+        return emgrFactory.runRoTrans { emgr ->
+            DataVersion(entityClasses.map { entityClass ->
+                val tuple = emgr.entityManager
+                        .createQuery("select max(t.lastUpdate), count(t) from ${entityClass.simpleName} t", Tuple::class.java)
+                        .singleResult
+                TableVersion(entityClass.name, tuple.get(0) as Date?, (tuple.get(1) as Number).toLong())
+            })
+        }
+    }
+
+    /**
+     * Writes the state (compact, gzipped java serialization). Errors are only logged.
+     */
+    open fun <T : Serializable> write(cacheName: String, dataVersion: DataVersion, state: T) {
+        if (!isEnabled) {
+            return
+        }
+        val begin = System.currentTimeMillis()
+        val file = getFile(cacheName)
+        val tmpFile = File(file.parentFile, "${file.name}.tmp")
+        try {
+            file.parentFile.mkdirs()
+            ObjectOutputStream(GZIPOutputStream(BufferedOutputStream(FileOutputStream(tmpFile)))).use { out ->
+                out.writeInt(FORMAT_VERSION)
+                out.writeUTF(ProjectForgeVersion.VERSION_STRING)
+                out.writeObject(dataVersion)
+                out.writeObject(state)
+            }
+            Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+            log.info { "Snapshot of $cacheName written in ${System.currentTimeMillis() - begin}ms (${file.length()} bytes)." }
+        } catch (ex: Exception) {
+            log.error("Can't write snapshot of $cacheName to '${file.absolutePath}': ${ex.message}", ex)
+            tmpFile.delete()
+        }
+    }
+
+    /**
+     * @return The snapshot or null, if not enabled, not existing, written by another ProjectForge version or not readable.
+     */
+    open fun <T : Serializable> read(cacheName: String, stateClass: Class<T>): Snapshot<T>? {
+        if (!isEnabled) {
+            return null
+        }
+        val file = getFile(cacheName)
+        if (!file.exists()) {
+            return null
+        }
+        val begin = System.currentTimeMillis()
+        try {
+            ObjectInputStream(GZIPInputStream(BufferedInputStream(FileInputStream(file)))).use { input ->
+                if (input.readInt() != FORMAT_VERSION || input.readUTF() != ProjectForgeVersion.VERSION_STRING) {
+                    log.info { "Ignoring snapshot of $cacheName of another ProjectForge version." }
+                    return null
+                }
+                val dataVersion = input.readObject() as DataVersion
+                val state = stateClass.cast(input.readObject())
+                log.info { "Snapshot of $cacheName read in ${System.currentTimeMillis() - begin}ms." }
+                return Snapshot(dataVersion, state)
+            }
+        } catch (ex: Exception) {
+            log.warn("Can't read snapshot of $cacheName from '${file.absolutePath}' (cache will be rebuilt): ${ex.message}")
+            return null
+        }
+    }
+
+    private fun getFile(cacheName: String): File {
+        return File(File(baseDir ?: ".", SNAPSHOT_DIR), "$cacheName.snapshot")
+    }
+
+    companion object {
+        private const val FORMAT_VERSION = 1
+
+        private const val SNAPSHOT_DIR = "cacheSnapshots"
+    }
+}
@@ -0,0 +1,250 @@
+/////////////////////////////////////////////////////////////////////////////
+//
+// Project ProjectForge Community Edition
+//         www.projectforge.org
+//
+// Copyright (C) 2001-2020 Micromata GmbH, Germany (www.micromata.com)
+//
+// ProjectForge is dual-licensed.
+//
+// This community edition is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; version 3 of the License.
+//
+// This community edition is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+// Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, see http://www.gnu.org/licenses/.
+//
+/////////////////////////////////////////////////////////////////////////////
+
+
+package org.projectforge.framework.cache
+
+import mu.KotlinLogging
+import org.projectforge.business.address.AddressbookCache
+import org.projectforge.business.fibu.KontoCache
+import org.projectforge.business.fibu.RechnungCache
+import org.projectforge.business.fibu.kost.KostCache
+import org.projectforge.business.multitenancy.TenantRegistryMap
+import org.projectforge.business.teamcal.admin.TeamCalCache
+import org.projectforge.business.vacation.VacationCache
+import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.beans.factory.annotation.Value
+import org.springframework.stereotype.Service
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeoutException
+import java.util.concurrent.atomic.AtomicInteger
+import javax.annotation.PostConstruct
+
+private val log = KotlinLogging.logger {}
+
+/**
+ * Initializes the caches on start-up (instead of lazy initialization by the first user requests). The warm-up tasks
+ * are declared with their dependencies (e. g. the task tree needs the user groups) and independent tasks are run in
+ * parallel. ProjectForge is up and running (see [org.projectforge.ProjectForgeApp.isUpAndRunning]) after the warm-up.
+ *
+ * Further tasks (e. g. of plugins) may be registered via [register] before the start-up is finished. Failing tasks
+ * don't prevent the start-up (their caches are initialized lazily on demand), so required initializations (e. g. of the
+ * JCR repository) mustn't be registered as warm-up tasks.
+ */
+@Service
+open class CacheWarmUp {
+    class Task(val name: String, val dependsOn: List<String>, val action: () -> Unit)
+
+    /**
+     * Entry of the start-up timeline.
+     * @param startMillis Start of the task relative to the start of the warm-up.
+     */
+    class TimelineEntry(val name: String, val startMillis: Long, val durationMillis: Long, val thread: String, val error: String? = null)
+
+    @Autowired
+    private lateinit var addressbookCache: AddressbookCache
+
+    @Autowired
+    private lateinit var kontoCache: KontoCache
+
+    @Autowired
+    private lateinit var kostCache: KostCache
+
+    @Autowired
+    private lateinit var rechnungCache: RechnungCache
+
+    @Autowired
+    private lateinit var teamCalCache: TeamCalCache
+
+    @Autowired
+    private lateinit var vacationCache: VacationCache
+
+    /**
+     * If false, the tasks are run serially (in order of their dependencies) by the calling thread.
+     */
+    @Value("\${projectforge.cache.warmUp.parallel:true}")
+    private var parallel: Boolean = true
+
+    @Value("\${projectforge.cache.warmUp.threads:4}")
+    private var threads: Int = 4
+
+    @Value("\${projectforge.cache.warmUp.timeoutSeconds:300}")
+    private var timeoutSeconds: Long = 300
+
+    private val tasks = mutableListOf<Task>()
+
+    private val timelineEntries = mutableListOf<TimelineEntry>()
+
+    /**
+     * True, if all tasks are finished (successfully or not, see [timeline]). After a timeout of the warm-up, the
+     * remaining tasks are still running and this flag will be set after their termination.
+     */
+    @Volatile
+    var isDone: Boolean = false
+        private set
+
+    /**
+     * The start-up timeline (available after warm-up), sorted by start time.
+     */
+    val timeline: List<TimelineEntry>
+        get() = synchronized(timelineEntries) { timelineEntries.sortedBy { it.startMillis } }
+
+    @PostConstruct
+    private fun postConstruct() {
+        register(USER_GROUP_CACHE) { TenantRegistryMap.getInstance().tenantRegistry.userGroupCache.forceReload() }
+        register(KOST_CACHE) { kostCache.forceReload() }
+        register(KONTO_CACHE) { kontoCache.forceReload() }
+        register(RECHNUNG_CACHE) { rechnungCache.forceReload() }
+        register(ADDRESSBOOK_CACHE) { addressbookCache.forceReload() }
+        // TaskTree is built on first access (permissions of groups and cost assignments are needed):
+        register(TASK_TREE, USER_GROUP_CACHE, KOST_CACHE) { TenantRegistryMap.getInstance().tenantRegistry.taskTree }
+        register(TEAM_CAL_CACHE, USER_GROUP_CACHE) { teamCalCache.forceReload() }
+        register(VACATION_CACHE, USER_GROUP_CACHE) { vacationCache.forceReload() }
+    }
+
+    /**
+     * Registers a warm-up task.
+     * @param name Unique name of the task, used for dependencies and in the start-up timeline.
+     * @param dependsOn Names of tasks which have to be finished before this task starts.
+     */
+    @Synchronized
+    open fun register(name: String, vararg dependsOn: String, action: () -> Unit) {
+        if (tasks.any { it.name == name }) {
+            throw IllegalArgumentException("Warm-up task '$name' already registered.")
+        }
+        tasks.add(Task(name, dependsOn.toList(), action))
+    }
+
+    /**
+     * Runs all registered tasks and waits for their termination (or timeout). Errors of tasks are logged, the caches
+     * will be initialized lazily on demand in this case.
+     */
+    @Synchronized
+    open fun warmUp() {
+        val begin = System.currentTimeMillis()
+        val sortedTasks = sortByDependencies(tasks)
+        if (!parallel) {
+            sortedTasks.forEach { run(it, begin) }
+            isDone = true
+        } else {
+            val threadCounter = AtomicInteger()
+            val executor: ExecutorService = Executors.newFixedThreadPool(threads.coerceAtLeast(1)) { runnable ->
+                val thread = Thread(runnable, "CacheWarmUp-${threadCounter.incrementAndGet()}")
+                thread.isDaemon = true
+                thread
+            }
+            try {
+                val futures = mutableMapOf<String, CompletableFuture<Void>>()
+                sortedTasks.forEach { task ->
+                    val dependencies = task.dependsOn.map { futures[it]!! }.toTypedArray()
+                    // Dependent tasks are started also on failed dependencies (errors are logged by run):
+                    futures[task.name] = CompletableFuture.allOf(*dependencies)
+                            .handle { _, _ -> null }
+                            .thenRunAsync(Runnable { run(task, begin) }, executor)
+                }
+                val all = CompletableFuture.allOf(*futures.values.toTypedArray())
+                // Only needed on timeout: the remaining tasks set the flag after their termination.
+                all.whenComplete { _, _ -> isDone = true }
+                all.get(timeoutSeconds, TimeUnit.SECONDS)
+                // Set here as well, because the callback above may be run after get() returns:
+                isDone = true
+            } catch (ex: TimeoutException) {
+                log.error("Warm-up of caches not finished after $timeoutSeconds seconds, continuing start-up (remaining caches will be initialized lazily).")
+            } catch (ex: ExecutionException) {
+                log.error("Error while warming up caches: ${ex.message}", ex)
+                isDone = true // All tasks are terminated.
+            } finally {
+                executor.shutdown()
+            }
+        }
+        logTimeline(System.currentTimeMillis() - begin)
+    }
+
+    private fun run(task: Task, begin: Long) {
+        val start = System.currentTimeMillis()
+        var error: String? = null
+        try {
+            task.action()
+        } catch (ex: Exception) {
+            log.error("Error while warming up '${task.name}': ${ex.message}", ex)
+            error = ex.message ?: ex.javaClass.simpleName
+        }
+        val entry = TimelineEntry(task.name, start - begin, System.currentTimeMillis() - start, Thread.currentThread().name, error)
+        synchronized(timelineEntries) {
+            timelineEntries.add(entry)
+        }
+    }
+
+    private fun logTimeline(duration: Long) {
+        val sb = StringBuilder()
+        sb.append("Warm-up of ${tasks.size} caches done in ${duration}ms (${if (parallel) "parallel" else "serial"}):")
+        timeline.forEach {
+            sb.append("\n  +${it.startMillis.toString().padStart(6)}ms ${it.name.padEnd(25)} ${it.durationMillis.toString().padStart(6)}ms [${it.thread}]")
+            it.error?.let { error -> sb.append(" ERROR: $error") }
+        }
+        log.info(sb.toString())
+    }
+
+    companion object {
+        const val USER_GROUP_CACHE = "UserGroupCache"
+        const val KOST_CACHE = "KostCache"
+        const val KONTO_CACHE = "KontoCache"
+        const val RECHNUNG_CACHE = "RechnungCache"
+        const val ADDRESSBOOK_CACHE = "AddressbookCache"
+        const val TASK_TREE = "TaskTree"
+        const val TEAM_CAL_CACHE = "TeamCalCache"
+        const val VACATION_CACHE = "VacationCache"
+
+        /**
+         * Topological sort: every task is placed after its dependencies (registration order is kept otherwise).
+         * @throws IllegalStateException on unknown dependencies or cycles.
+         */
+        internal fun sortByDependencies(tasks: List<Task>): List<Task> {
+            val taskMap = tasks.associateBy { it.name }
+            val result = mutableListOf<Task>()
+            val done = mutableSetOf<String>()
+            val inProgress = mutableSetOf<String>()
+            fun visit(task: Task) {
+                if (done.contains(task.name)) {
+                    return
+                }
+                if (!inProgress.add(task.name)) {
+                    throw IllegalStateException("Cyclic dependency of warm-up task '${task.name}'.")
+                }
+                task.dependsOn.forEach {
+                    visit(taskMap[it]
+                            ?: throw IllegalStateException("Warm-up task '${task.name}' depends on unknown task '$it'."))
+                }
+                inProgress.remove(task.name)
+                done.add(task.name)
+                result.add(task)
+            }
+            tasks.forEach { visit(it) }
+            return result
+        }
+    }
+}
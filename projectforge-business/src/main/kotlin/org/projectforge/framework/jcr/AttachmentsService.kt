@@ -97,19 +97,31 @@ open class AttachmentsService {
     }
 
     /**
+     * File info (including size, last update and checksum) without content, e. g. for evaluating conditional or range
+     * requests before opening any stream.
      * @param path Unique path of data object.
      * @param id Id of data object.
      */
     @JvmOverloads
-    open fun getAttachmentInputStream(path: String, id: Any, fileId: String, accessChecker: AttachmentsAccessChecker, subPath: String? = null)
-            : Pair<FileObject, InputStream>? {
+    open fun getAttachmentFileInfo(path: String, id: Any, fileId: String, accessChecker: AttachmentsAccessChecker, subPath: String? = null): FileObject? {
         accessChecker.checkDownloadAccess(ThreadLocalUserContext.getUser(), path = path, id = id, fileId = fileId, subPath = subPath)
-        val fileObject = repoService.getFileInfo(
+        return repoService.getFileInfo(
                 getPath(path, id),
                 subPath ?: DEFAULT_NODE,
                 fileId = fileId)
+    }
+
+    /**
+     * @param path Unique path of data object.
+     * @param id Id of data object.
+     * @param offset Number of bytes to skip (for serving byte ranges).
+     */
+    @JvmOverloads
+    open fun getAttachmentInputStream(path: String, id: Any, fileId: String, accessChecker: AttachmentsAccessChecker, subPath: String? = null, offset: Long = 0)
+            : Pair<FileObject, InputStream>? {
+        val fileObject = getAttachmentFileInfo(path, id, fileId, accessChecker, subPath)
         val inputStream = if (fileObject != null) {
-            repoService.retrieveFileInputStream(fileObject)
+            repoService.retrieveFileInputStream(fileObject, offset)
         } else {
             null
         }
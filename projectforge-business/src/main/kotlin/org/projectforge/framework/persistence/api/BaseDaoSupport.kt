@@ -26,6 +26,7 @@ package org.projectforge.framework.persistence.api
 import org.apache.commons.lang3.Validate
 import org.projectforge.framework.access.OperationType
 import org.projectforge.framework.i18n.InternalErrorException
+import org.projectforge.framework.i18n.UserException
 import org.projectforge.framework.persistence.history.HistoryBaseDaoAdapter
 import org.projectforge.framework.persistence.jpa.PfEmgr
 import org.projectforge.framework.persistence.jpa.impl.BaseDaoJpaAdapter
@@ -89,7 +90,9 @@ object BaseDaoSupport {
         preInternalUpdate(baseDao, obj, checkAccess)
         val res = ResultObject<O>()
         baseDao.emgrFactory.runInTrans { emgr ->
-            internalUpdate(emgr, baseDao, obj, checkAccess, res)
+            HistoryBaseDaoAdapter.runWithDeferredHistory(emgr) {
+                internalUpdate(emgr, baseDao, obj, checkAccess, res)
+            }
         }
         postInternalUpdate<O>(baseDao, obj, res)
         return res.modStatus
@@ -214,22 +217,61 @@ object BaseDaoSupport {
         }
     }
 
+    /**
+     * Mass update with access checks: all entries are updated in one transaction, so in deferred history mode the
+     * history entries of all entries are written en bloc before commit. The after-update hooks are called after commit.
+     * If [prepareEntry] or the update of an entry fails with a [UserException], the entries updated so far are
+     * committed and the exception is thrown afterwards (as done by single updates before). Other exceptions roll back
+     * the whole mass update.
+     * @param prepareEntry Prepares the entry for update, returns false, if the entry shouldn't be updated.
+     */
+    @JvmStatic
+    fun <O : ExtendedBaseDO<Int>> internalMassUpdate(baseDao: BaseDao<O>, col: Collection<O>, prepareEntry: (O) -> Boolean) {
+        val updated = mutableListOf<Pair<O, ResultObject<O>>>()
+        var userException: UserException? = null
+        baseDao.emgrFactory.runInTrans { emgr ->
+            HistoryBaseDaoAdapter.runWithDeferredHistory(emgr) {
+                for (obj in col) {
+                    try {
+                        if (!prepareEntry(obj)) {
+                            continue
+                        }
+                        preInternalUpdate(baseDao, obj, true)
+                        val res = ResultObject<O>()
+                        internalUpdate(emgr, baseDao, obj, true, res)
+                        updated.add(Pair(obj, res))
+                    } catch (ex: UserException) {
+                        // Previous entries are already flushed, discard any unflushed modification of the failed entry:
+                        emgr.entityManager.clear()
+                        userException = ex
+                        break
+                    }
+                }
+            }
+        }
+        updated.forEach { postInternalUpdate(baseDao, it.first, it.second) }
+        userException?.let { throw it }
+    }
+
     /**
      * Bulk update.
      */
     @JvmStatic
     fun <O : ExtendedBaseDO<Int>> internalSaveOrUpdate(baseDao: BaseDao<O>, col: Collection<O>) {
         baseDao.emgrFactory.runInTrans { emgr ->
-            for (obj in col) {
-                if (obj.id != null) {
-                    preInternalUpdate(baseDao, obj, false)
-                    val res = ResultObject<O>()
-                    internalUpdate(emgr, baseDao, obj, false, res)
-                    postInternalUpdate<O>(baseDao, obj, res)
-                } else {
-                    preInternalSave(baseDao, obj)
-                    internalSave(emgr, baseDao, obj)
-                    postInternalSave(baseDao, obj)
+            // In deferred history mode, the history entries of all updates are written in one go before commit.
+            HistoryBaseDaoAdapter.runWithDeferredHistory(emgr) {
+                for (obj in col) {
+                    if (obj.id != null) {
+                        preInternalUpdate(baseDao, obj, false)
+                        val res = ResultObject<O>()
+                        internalUpdate(emgr, baseDao, obj, false, res)
+                        postInternalUpdate<O>(baseDao, obj, res)
+                    } else {
+                        preInternalSave(baseDao, obj)
+                        internalSave(emgr, baseDao, obj)
+                        postInternalSave(baseDao, obj)
+                    }
                 }
             }
         }
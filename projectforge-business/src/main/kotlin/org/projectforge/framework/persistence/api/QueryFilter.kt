@@ -332,6 +332,11 @@ class QueryFilter @JvmOverloads constructor(filter: BaseSearchFilter? = null,
                 DBPredicate.IsNull(field)
             } else {
                 if (recursive) {
+                    val taskTree = TaskTreeHelper.getTaskTree()
+                    if (taskTree.isTreeIntervalsPersisted && node.treeLeft > 0) {
+                        // Range predicate on the persisted pre-order intervals instead of a huge list of task ids:
+                        return DBPredicate.TaskSubtree(field, node.id)
+                    }
                     val taskIds = node.descendantIds
                     taskIds.add(node.id)
                     if (log.isDebugEnabled) {
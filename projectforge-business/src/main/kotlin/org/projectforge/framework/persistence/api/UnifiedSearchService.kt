@@ -0,0 +1,429 @@
+/////////////////////////////////////////////////////////////////////////////
+//
+// Project ProjectForge Community Edition
+//         www.projectforge.org
+//
+// Copyright (C) 2001-2020 Micromata GmbH, Germany (www.micromata.com)
+//
+// ProjectForge is dual-licensed.
+//
+// This community edition is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; version 3 of the License.
+//
+// This community edition is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+// Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, see http://www.gnu.org/licenses/.
+//
+/////////////////////////////////////////////////////////////////////////////
+
+package org.projectforge.framework.persistence.api
+
+import mu.KotlinLogging
+import org.apache.lucene.analysis.standard.ClassicAnalyzer
+import org.apache.lucene.queryparser.classic.MultiFieldQueryParser
+import org.apache.lucene.queryparser.classic.ParseException
+import org.apache.lucene.queryparser.classic.QueryParser
+import org.hibernate.search.engine.ProjectionConstants
+import org.hibernate.search.jpa.Search
+import org.projectforge.framework.persistence.api.impl.HibernateSearchMeta
+import org.projectforge.framework.persistence.history.entities.PfHistoryMasterDO
+import org.projectforge.framework.persistence.jpa.PfEmgrFactory
+import org.projectforge.framework.persistence.jpa.impl.HibernateSearchFilterUtils
+import org.projectforge.framework.persistence.user.api.ThreadLocalUserContext
+import org.projectforge.registry.Registry
+import org.projectforge.registry.RegistryEntry
+import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.beans.factory.annotation.Value
+import org.springframework.stereotype.Service
+import java.util.ArrayDeque
+import java.util.concurrent.*
+import javax.annotation.PostConstruct
+import javax.annotation.PreDestroy
+
+private val log = KotlinLogging.logger {}
+
+/**
+ * Global search over all searchable entities.
+ *
+ * [search] queries the indexes of all searchable entities the logged-in user has select access to by one Lucene query
+ * (multi-index query of Hibernate Search). The hits are processed in order of relevance, the access is checked only
+ * for the hits processed until the requested number of results (global top-K) is reached. Optionally the history
+ * entries are searched as well (in parallel).
+ *
+ * [AreaSearches] runs the searches of the areas (see [SearchDao.getEntries]) of one search request in the thread pool
+ * of this service, so the areas of the search page are searched in parallel and the latency is given by the slowest
+ * areas instead of the sum of all areas. The number of parallel area searches per request is limited, so one search
+ * request (about 30 areas) doesn't occupy the whole pool.
+ */
+@Service
+open class UnifiedSearchService {
+    /**
+     * @param score The relevance normalized to 0..1 (1 for the best hit). Hits found only via history entries have
+     * lower scores (see [HISTORY_SCORE_FACTOR]).
+     * @param fromHistory True, if the data object was found by its history entries.
+     */
+    class Hit(val registryEntry: RegistryEntry, val dataObject: ExtendedBaseDO<Int>, val score: Float, val fromHistory: Boolean = false)
+
+    @Autowired
+    private lateinit var emgrFactory: PfEmgrFactory
+
+    @Autowired
+    private lateinit var searchDao: SearchDao
+
+    @Value("\${projectforge.search.threads:16}")
+    private var threads: Int = 16
+
+    /**
+     * Maximum number of areas searched in parallel per search request.
+     */
+    @Value("\${projectforge.search.maxParallelAreas:4}")
+    private var maxParallelAreas: Int = 4
+
+    @Value("\${projectforge.search.timeoutSeconds:60}")
+    private var timeoutSeconds: Long = 60
+
+    private lateinit var executor: ExecutorService
+
+    @PostConstruct
+    private fun postConstruct() {
+        executor = Executors.newFixedThreadPool(threads) { runnable ->
+            val thread = Thread(runnable, "UnifiedSearchService")
+            thread.isDaemon = true
+            thread
+        }
+    }
+
+    /**
+     * Searches all searchable entities with the given search string.
+     * @param searchString The search string (modified for prefix search, see [HibernateSearchFilterUtils.modifySearchString]).
+     * @param maxResults The maximum number of hits over all entities (top-K).
+     * @param includeHistory If true, the history entries are searched as well.
+     * @return The hits sorted by relevance.
+     */
+    @JvmOverloads
+    open fun search(searchString: String?, maxResults: Int = DEFAULT_MAX_RESULTS, includeHistory: Boolean = false): List<Hit> {
+        if (searchString.isNullOrBlank() || maxResults <= 0) {
+            return emptyList()
+        }
+        val entries = getSearchableEntries()
+        if (entries.isEmpty()) {
+            return emptyList()
+        }
+        val begin = System.currentTimeMillis()
+        val entityHitsFuture = submit { searchEntities(searchString, entries, maxResults) }
+        val historyHitsFuture = if (includeHistory) submit { searchHistory(searchString, entries, maxResults) } else null
+        val hits = await(entityHitsFuture)
+        val historyHits = if (historyHitsFuture != null) await(historyHitsFuture) else emptyList()
+        val result = mergeHits(hits, historyHits, maxResults)
+        log.info { "Unified search for '$searchString' in ${entries.size} entities: ${result.size} hits in ${System.currentTimeMillis() - begin}ms." }
+        return result
+    }
+
+    /**
+     * @return New instance for the area searches of one search request.
+     */
+    open fun createAreaSearches(): AreaSearches {
+        return AreaSearches(maxParallelAreas)
+    }
+
+    /**
+     * The area searches of one search request. The searches are started in order of submission, but not more than
+     * maxParallel at once (the others are queued).
+     */
+    inner class AreaSearches internal constructor(private val maxParallel: Int) {
+        private val queue = ArrayDeque<SearchTask<*>>()
+
+        private var running = 0
+
+        /**
+         * Starts (or queues) the search of the given area.
+         * @see SearchDao.getEntries
+         * @see getAreaSearchResult
+         */
+        fun submit(filter: BaseSearchFilter, clazz: Class<*>, baseDao: BaseDao<*>): Future<List<SearchResultData>?> {
+            val task = createTask({ searchDao.getEntries(filter, clazz, baseDao) }) { finished() }
+            synchronized(this) {
+                queue.add(task)
+            }
+            schedule()
+            return task
+        }
+
+        private fun finished() {
+            synchronized(this) {
+                --running
+            }
+            schedule()
+        }
+
+        private fun schedule() {
+            synchronized(this) {
+                while (running < maxParallel.coerceAtLeast(1)) {
+                    val task = queue.poll() ?: return
+                    ++running
+                    executor.execute(task)
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits for the result of a search started by [AreaSearches.submit].
+     * @return The search result or null, if any error occurred or the search timed out.
+     */
+    open fun getAreaSearchResult(future: Future<List<SearchResultData>?>): List<SearchResultData>? {
+        return try {
+            await(future)
+        } catch (ex: Exception) {
+            log.error("Error while searching: ${ex.message}", ex)
+            null
+        }
+    }
+
+    /**
+     * @return All searchable entries with full text index the logged-in user has select access to (by data object class).
+     */
+    private fun getSearchableEntries(): Map<Class<*>, RegistryEntry> {
+        val indexedTypes = emgrFactory.runRoTrans { emgr ->
+            Search.getFullTextEntityManager(emgr.entityManager).searchFactory.indexedTypes
+        }
+        return Registry.getInstance().orderedList
+                .filter { it.isSearchable && indexedTypes.contains(it.doClass) && it.dao.hasLoggedInUserSelectAccess(false) }
+                .associateBy { it.doClass }
+    }
+
+    private fun searchEntities(searchString: String, entries: Map<Class<*>, RegistryEntry>, maxResults: Int): List<Hit> {
+        val queryString = HibernateSearchFilterUtils.modifySearchString(searchString, true)
+        val fields = entries.values.flatMap { HibernateSearchMeta.getClassInfo(it.dao).stringFieldNames.asIterable() }.distinct()
+        val parser = MultiFieldQueryParser(fields.toTypedArray(), ClassicAnalyzer())
+        parser.defaultOperator = QueryParser.Operator.AND
+        parser.allowLeadingWildcard = true
+        val query = try {
+            parser.parse(queryString)
+        } catch (ex: ParseException) {
+            log.error("Lucene error message: '${ex.message}' (for unified search: '$queryString').")
+            return emptyList()
+        }
+        return emgrFactory.runRoTrans { emgr ->
+            val fullTextEntityManager = Search.getFullTextEntityManager(emgr.entityManager)
+            val result = mutableListOf<Hit>()
+            var maxScore = 0f
+            var firstResult = 0
+            val pageSize = maxOf(maxResults, MIN_PAGE_SIZE)
+            // Hits without access are skipped, so further pages are read until maxResults are found:
+            while (result.size < maxResults && firstResult < MAX_PROCESSED_HITS) {
+                val fullTextQuery = fullTextEntityManager.createFullTextQuery(query, *entries.keys.toTypedArray())
+                fullTextQuery.setProjection(ProjectionConstants.SCORE, ProjectionConstants.THIS)
+                fullTextQuery.firstResult = firstResult
+                fullTextQuery.maxResults = pageSize
+                val page = fullTextQuery.resultList
+                for (row in page) {
+                    row as Array<*>
+                    val score = row[0] as Float
+                    if (maxScore == 0f) {
+                        maxScore = score // Hits are sorted by relevance, so the first hit has the highest score.
+                    }
+                    @Suppress("UNCHECKED_CAST")
+                    val obj = row[1] as? ExtendedBaseDO<Int> ?: continue
+                    val entry = getEntry(entries, obj) ?: continue
+                    if (obj.isDeleted || !hasSelectAccess(entry, obj)) {
+                        continue
+                    }
+                    result.add(Hit(entry, obj, if (maxScore > 0f) score / maxScore else 0f))
+                    if (result.size >= maxResults) {
+                        break
+                    }
+                }
+                if (page.size < pageSize) {
+                    break // No more hits.
+                }
+                firstResult += pageSize
+            }
+            result
+        }
+    }
+
+    /**
+     * Searches the history entries of all historizable entities the user has history access to. The hit of an history
+     * entry is mapped to its data object (the best hit per data object is used).
+     */
+    private fun searchHistory(searchString: String, entries: Map<Class<*>, RegistryEntry>, maxResults: Int): List<Hit> {
+        val historyEntries = entries.values.filter { it.dao.isHistorizable && it.dao.hasLoggedInUserHistoryAccess(false) }
+        if (historyEntries.isEmpty()) {
+            return emptyList()
+        }
+        // Wildcard queries aren't analyzed, the indexed terms are in lower case:
+        var str = searchString.trim().toLowerCase().replace('%', '*')
+        if (!str.startsWith("*"))
+            str = "*$str"
+        if (!str.endsWith("*"))
+            str = "$str*"
+        return emgrFactory.runRoTrans { emgr ->
+            val em = emgr.entityManager
+            val fullTextEntityManager = Search.getFullTextEntityManager(em)
+            val queryBuilder = fullTextEntityManager.searchFactory.buildQueryBuilder().forEntity(PfHistoryMasterDO::class.java).get()
+            val valueQuery = queryBuilder.keyword().wildcard().onField("oldValue").matching(str).createQuery()
+            // Best score per data object (the entity name isn't stored in the index, so one query per entity):
+            val candidates = mutableMapOf<Pair<RegistryEntry, Int>, Float>()
+            for (entry in historyEntries) {
+                val query = queryBuilder.bool()
+                        .must(queryBuilder.keyword().onField("entityName").matching(entry.doClass.name).createQuery())
+                        .must(valueQuery)
+                        .createQuery()
+                val fullTextQuery = fullTextEntityManager.createFullTextQuery(query, PfHistoryMasterDO::class.java)
+                fullTextQuery.setProjection(ProjectionConstants.SCORE, "entityId")
+                fullTextQuery.maxResults = maxResults
+                for (row in fullTextQuery.resultList) {
+                    row as Array<*>
+                    val score = row[0] as Float
+                    val entityId = (row[1] as? Number)?.toInt() ?: continue
+                    candidates.merge(Pair(entry, entityId), score) { a, b -> maxOf(a, b) }
+                }
+            }
+            val maxScore = candidates.values.max() ?: 0f
+            val result = mutableListOf<Hit>()
+            // Load only the data objects of the best hits (until maxResults accessible objects are found):
+            for ((key, score) in candidates.entries.sortedByDescending { it.value }) {
+                @Suppress("UNCHECKED_CAST")
+                val obj = em.find(key.first.doClass, key.second) as? ExtendedBaseDO<Int> ?: continue
+                if (obj.isDeleted || !hasSelectAccess(key.first, obj) || !hasHistoryAccess(key.first, obj)) {
+                    continue
+                }
+                result.add(Hit(key.first, obj, if (maxScore > 0f) score / maxScore * HISTORY_SCORE_FACTOR else 0f, true))
+                if (result.size >= maxResults) {
+                    break
+                }
+            }
+            result
+        }
+    }
+
+    private fun getEntry(entries: Map<Class<*>, RegistryEntry>, obj: Any): RegistryEntry? {
+        return entries[obj.javaClass] ?: entries.entries.find { it.key.isInstance(obj) }?.value
+    }
+
+    private fun hasSelectAccess(entry: RegistryEntry, obj: ExtendedBaseDO<Int>): Boolean {
+        @Suppress("UNCHECKED_CAST")
+        return (entry.dao as BaseDao<ExtendedBaseDO<Int>>).hasLoggedInUserSelectAccess(obj, false)
+    }
+
+    /**
+     * The history of an object is only visible with history access (may differ from the select access).
+     */
+    private fun hasHistoryAccess(entry: RegistryEntry, obj: ExtendedBaseDO<Int>): Boolean {
+        @Suppress("UNCHECKED_CAST")
+        return (entry.dao as BaseDao<ExtendedBaseDO<Int>>).hasLoggedInUserHistoryAccess(obj, false)
+    }
+
+    private fun <T> submit(task: () -> T): Future<T> {
+        val searchTask = createTask(task)
+        executor.execute(searchTask)
+        return searchTask
+    }
+
+    /**
+     * @param onFinished Called after the task is run (also on errors and cancellation).
+     */
+    private fun <T> createTask(task: () -> T, onFinished: (() -> Unit)? = null): SearchTask<T> {
+        val userContext = ThreadLocalUserContext.getUserContext()
+        return SearchTask(Callable {
+            ThreadLocalUserContext.setUserContext(userContext)
+            try {
+                task()
+            } finally {
+                ThreadLocalUserContext.clear()
+            }
+        }, onFinished)
+    }
+
+    /**
+     * Waits for the result. The timeout starts with the execution of the task (the time in the queue isn't counted).
+     */
+    private fun <T> await(future: Future<T>): T {
+        try {
+            if (future !is SearchTask<T>) {
+                return future.get(timeoutSeconds, TimeUnit.SECONDS)
+            }
+            while (true) {
+                val startMillis = future.startMillis
+                val waitMillis = if (startMillis == 0L) QUEUED_POLL_MILLIS else startMillis + timeoutSeconds * 1000 - System.currentTimeMillis()
+                if (waitMillis <= 0) {
+                    throw TimeoutException("Search not finished after $timeoutSeconds seconds.")
+                }
+                try {
+                    return future.get(waitMillis, TimeUnit.MILLISECONDS)
+                } catch (ex: TimeoutException) {
+                    // Still queued or time left (checked in next loop).
+                }
+            }
+        } catch (ex: ExecutionException) {
+            throw ex.cause ?: ex
+        } catch (ex: TimeoutException) {
+            future.cancel(true)
+            throw ex
+        }
+    }
+
+    /**
+     * Task with the start time of its execution.
+     */
+    private class SearchTask<T>(callable: Callable<T>, private val onFinished: (() -> Unit)?) : FutureTask<T>(callable) {
+        /**
+         * Start of execution or 0, if the task is still queued.
+         */
+        @Volatile
+        var startMillis = 0L
+            private set
+
+        override fun run() {
+            startMillis = System.currentTimeMillis()
+            try {
+                super.run()
+            } finally {
+                onFinished?.invoke()
+            }
+        }
+    }
+
+    @PreDestroy
+    private fun shutdown() {
+        executor.shutdownNow()
+    }
+
+    companion object {
+        const val DEFAULT_MAX_RESULTS = 50
+
+        /**
+         * Scores of hits found only by history entries are scaled by this factor (direct hits are ranked first).
+         */
+        const val HISTORY_SCORE_FACTOR = 0.5f
+
+        private const val MIN_PAGE_SIZE = 20
+
+        /**
+         * Interval for checking, whether a queued task was started (for starting its timeout).
+         */
+        private const val QUEUED_POLL_MILLIS = 1000L
+
+        /**
+         * Upper bound of hits to process (if the user has no access to most of the hits).
+         */
+        private const val MAX_PROCESSED_HITS = 1000
+
+        /**
+         * Merges the direct hits and the hits found by history entries: the history hits of objects already found
+         * directly are ignored, the others are ranked by their (scaled) score.
+         * @return The best hits sorted by relevance (direct hits first on equal scores).
+         */
+        internal fun mergeHits(hits: List<Hit>, historyHits: List<Hit>, maxResults: Int): List<Hit> {
+            val found = hits.map { Pair(it.registryEntry.id, it.dataObject.id) }.toSet()
+            val merged = hits + historyHits.filter { !found.contains(Pair(it.registryEntry.id, it.dataObject.id)) }
+            return merged.sortedByDescending { it.score }.take(maxResults) // Stable sort: direct hits first.
+        }
+    }
+}
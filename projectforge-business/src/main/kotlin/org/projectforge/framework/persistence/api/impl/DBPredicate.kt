@@ -23,6 +23,8 @@
 
 package org.projectforge.framework.persistence.api.impl
 
+import org.projectforge.business.task.TaskTreeIntervalDO
+import org.projectforge.business.tasktree.TaskTreeHelper
 import org.projectforge.common.BeanHelper
 import org.projectforge.framework.ToStringUtil
 import org.projectforge.framework.persistence.jpa.impl.HibernateSearchFilterUtils
@@ -503,6 +505,45 @@ abstract class DBPredicate(
         }
     }
 
+    /**
+     * Matches the ids of all tasks of a subtree (including the top task of the subtree) by the pre-order intervals of
+     * the task nodes: field in (select i.taskId from TaskTreeIntervalDO i, TaskTreeIntervalDO top where top.taskId=taskId
+     * and i.rootTaskId=top.rootTaskId and i.treeLeft between top.treeLeft and top.treeRight).
+     * The bounds are read by the data base from the interval of the top task, so the query is consistent with the
+     * persisted intervals, even if they were renumbered after building this predicate.
+     * @param taskId The id of the top task of the subtree.
+     * @see TaskTreeIntervalDO
+     */
+    class TaskSubtree(field: String, val taskId: Int)
+        : DBPredicate(field, false) {
+        override fun match(obj: Any): Boolean {
+            return fieldValueMatch(obj, field!!) { innerMatch(it) }
+        }
+
+        private fun innerMatch(value: Any?): Boolean {
+            val id = value as? Int ?: return false
+            val taskTree = TaskTreeHelper.getTaskTree()
+            val top = taskTree.getTaskNodeById(taskId) ?: return false
+            val node = taskTree.getTaskNodeById(id) ?: return false
+            return node.treeLeft in top.treeLeft..top.treeRight
+        }
+
+        /**
+         * Convert this predicate to JPA criteria for where clause in select (as sub query).
+         */
+        override fun asPredicate(ctx: DBCriteriaContext<*>): Predicate {
+            if (log.isDebugEnabled) log.debug("Adding criteria search (${ctx.entityName}): [taskSubtree] $field in (subtree of task #$taskId)")
+            val subquery = ctx.cr.subquery(Int::class.javaObjectType)
+            val interval = subquery.from(TaskTreeIntervalDO::class.java)
+            val top = subquery.from(TaskTreeIntervalDO::class.java)
+            subquery.select(interval.get("taskId"))
+                    .where(ctx.cb.equal(top.get<Int>("taskId"), taskId),
+                            ctx.cb.equal(interval.get<Int>("rootTaskId"), top.get<Int>("rootTaskId")),
+                            ctx.cb.between(interval.get<Int>("treeLeft"), top.get<Int>("treeLeft"), top.get<Int>("treeRight")))
+            return ctx.getField<Any>(field!!).`in`(subquery)
+        }
+    }
+
     /**
      * Evaluates whether the field matches the given match method or not. Nested fields are supported.
      * @param obj The Object of the result set to evaluate
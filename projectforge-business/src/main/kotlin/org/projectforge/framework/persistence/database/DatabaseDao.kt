@@ -35,8 +35,16 @@ import org.projectforge.framework.time.DateTimeFormatter
 import org.projectforge.framework.time.DayHolder
 import org.slf4j.LoggerFactory
 import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.beans.factory.annotation.Value
 import org.springframework.stereotype.Repository
 import java.util.*
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import javax.annotation.PostConstruct
+import javax.annotation.PreDestroy
 import javax.persistence.EntityManager
 import javax.persistence.FlushModeType
 import javax.persistence.TypedQuery
@@ -50,11 +58,41 @@ import javax.persistence.TypedQuery
 // SELECT backend_start, query_start, state_change, wait_event_type, state, query  FROM pg_stat_activity where state <> 'idle';
 @Repository
 open class DatabaseDao {
-    private var currentReindexRun: Date? = null
+    /**
+     * Entity classes currently being re-indexed with their start dates. Different entity classes may be re-indexed
+     * concurrently, but each entity class only once at a time.
+     */
+    private val currentReindexRuns = ConcurrentHashMap<Class<*>, Date>()
+
     @Autowired
     private val emgrFactory: PfEmgrFactory? = null
 
+    /**
+     * Entity classes with more than this number of objects will be re-indexed by id range partitions in parallel.
+     */
+    @Value("\${projectforge.hibernateSearch.reindex.partitionThreshold:100000}")
+    internal var partitionThreshold: Long = 100000
+
+    /**
+     * Number of threads for re-indexing id range partitions of one entity class.
+     */
+    @Value("\${projectforge.hibernateSearch.reindex.partitionThreads:2}")
+    private var partitionThreads: Int = 2
+
+    private lateinit var partitionExecutor: ExecutorService
+
+    @PostConstruct
+    private fun postConstruct() {
+        partitionExecutor = Executors.newFixedThreadPool(maxOf(partitionThreads, 1))
+    }
+
+    @PreDestroy
+    private fun preDestroy() {
+        partitionExecutor.shutdownNow()
+    }
+
     fun <T> rebuildDatabaseSearchIndices(clazz: Class<T>, settings: ReindexSettings): String {
+        val currentReindexRun = currentReindexRuns[clazz]
         if (currentReindexRun != null) {
             val otherJobStarted = DateTimeFormatter.instance().getFormattedDateTime(currentReindexRun, Locale.ENGLISH, DateHelper.UTC)
             return ("Another re-index job is already running. The job was started at: $otherJobStarted (UTC)")
@@ -65,19 +103,15 @@ open class DatabaseDao {
     }
 
     fun <T> reindex(clazz: Class<T>, settings: ReindexSettings, buf: StringBuffer) {
-        if (currentReindexRun != null) {
-            buf.append(" (cancelled due to another running index-job)")
+        if (currentReindexRuns.putIfAbsent(clazz, Date()) != null) {
+            buf.append(ClassUtils.getShortClassName(clazz)).append(" (cancelled due to another running index-job), ")
             return
         }
-        synchronized(this) {
-            try {
-                currentReindexRun = Date()
-                buf.append(ClassUtils.getShortClassName(clazz))
-                reindex(clazz, settings)
-                buf.append(", ")
-            } finally {
-                currentReindexRun = null
-            }
+        try {
+            reindex(clazz, settings)
+            buf.append(ClassUtils.getShortClassName(clazz)).append(", ")
+        } finally {
+            currentReindexRuns.remove(clazz)
         }
     }
 
@@ -102,33 +136,82 @@ open class DatabaseDao {
     }
 
     private fun <T> reindexObjects(clazz: Class<T>, settings: ReindexSettings?) {
-        runInTrans(emgrFactory!!) { em: EntityManager ->
-            val number = getRowCount(em, clazz, settings) // Get number of objects to re-index (select count(*) from).
-            if (number == 0L) {
-                log.info("Reindexing [${clazz.simpleName}]: 0 entries found. Nothing to-do.")
-                return@runInTrans 0L
+        // Get number of objects to re-index (select count(*) from).
+        val number = runInTrans(emgrFactory!!) { em: EntityManager -> getRowCount(em, clazz, settings) } as Long
+        if (number == 0L) {
+            log.info("Reindexing [${clazz.simpleName}]: 0 entries found. Nothing to-do.")
+            return
+        }
+        val monitor = IndexProgressMonitor("Reindexing [" + clazz.simpleName + "]", number, true).register(clazz.simpleName)
+        var failed = true
+        try {
+            val idRange = if (settings == null && number > partitionThreshold && partitionThreads > 1) {
+                emgrFactory.runRoTrans { emgr -> getIdRange(emgr.entityManager, clazz) }
+            } else null
+            if (idRange == null) {
+                log.info("Reindexing [${clazz.simpleName}]: Starting reindexing of $number entries with scrollMode=true...")
+                reindexObjects(clazz, settings, monitor, null)
+            } else {
+                // Id range partitions of (nearly) same size, the objects of each partition are indexed in its own transaction:
+                val partitionSize = (idRange.second - idRange.first) / partitionThreads + 1
+                log.info("Reindexing [${clazz.simpleName}]: Starting reindexing of $number entries in $partitionThreads partitions with scrollMode=true...")
+                val futures = (0 until partitionThreads).map { i ->
+                    val from = idRange.first + i * partitionSize
+                    partitionExecutor.submit<Long> { reindexObjects(clazz, null, monitor, Pair(from, from + partitionSize)) }
+                }
+                awaitPartitions(clazz, futures)
+            }
+            runInTrans(emgrFactory) { em: EntityManager ->
+                log.info("Reindexing [${clazz.simpleName}]: optimizing of " + number + " objects...")
+                val fullTextSession = Search.getFullTextSession(em.unwrap(Session::class.java))
+                fullTextSession.searchFactory.optimize(clazz)
             }
-            log.info("Reindexing [${clazz.simpleName}]: Starting reindexing of $number entries with scrollMode=true...")
+            log.info("Reindexing [${clazz.simpleName}]: reindexing done.")
+            failed = false
+        } finally {
+            monitor.finished(failed)
+        }
+    }
+
+    /**
+     * Waits for all partitions (also if one of them fails, so no partition is still running on return).
+     * @throws Exception The failure of the first failed partition, failures of other partitions are added as suppressed.
+     */
+    private fun awaitPartitions(clazz: Class<*>, futures: List<Future<Long>>) {
+        var failure: Throwable? = null
+        futures.forEach {
+            try {
+                it.get()
+            } catch (ex: ExecutionException) {
+                val cause = ex.cause ?: ex
+                log.error("Reindexing [${clazz.simpleName}]: partition failed: ${cause.message}", cause)
+                val first = failure
+                if (first == null) {
+                    failure = cause
+                } else {
+                    first.addSuppressed(cause)
+                }
+            }
+        }
+        failure?.let { throw it }
+    }
 
-            val idsQuery = createQuery(em, clazz, Number::class.java, settings, QueryMode.SELECT_IDS_ONLY)
+    /**
+     * Indexes the objects in place, so the current index is still used for searching until each object is replaced.
+     * @param idRange If given, only objects of the id range (first inclusive, second exclusive) are indexed.
+     */
+    private fun <T> reindexObjects(clazz: Class<T>, settings: ReindexSettings?, monitor: IndexProgressMonitor, idRange: Pair<Long, Long>?): Long {
+        return runInTrans(emgrFactory!!) { em: EntityManager ->
+            val idsQuery = createQuery(em, clazz, Number::class.java, settings, QueryMode.SELECT_IDS_ONLY, idRange)
             val session = em.unwrap(Session::class.java)//.delegate as Session
             val bigResultSetHandler = BigResultSetHandler<T>(em, clazz, idsQuery)
             val fullTextSession = Search.getFullTextSession(session)
             fullTextSession.flushMode = FlushModeType.COMMIT
-            val monitor = IndexProgressMonitor("Reindexing [" + clazz.simpleName + "]", number)
             var blockCounter = 0
             val batchSize = 10000 // NumberUtils.createInteger(System.getProperty("hibernate.search.worker.batch_size")
             var index: Long = 0
-            //val set= mutableSetOf<Long>()
             while (true) {
                 val obj = bigResultSetHandler.next() ?: break
-               /* if (obj is PfHistoryMasterDO) {
-                    if (set.contains(obj.pk)) {
-                        log.error("Duplicate object id: ${obj.pk}")
-                    } else {
-                        set.add(obj.pk)
-                    }
-                }*/
                 if (obj is ExtendedBaseDO<*>) {
                     obj.recalculate()
                 }
@@ -141,16 +224,23 @@ open class DatabaseDao {
                 }
                 ++index
             }
-            //log.info("******** ${set.size}")
-            if (bigResultSetHandler.totalRead != number) {
-                log.error("Oups, number of elements was $number, but read ${bigResultSetHandler.totalRead}.")
+            if (idRange == null && bigResultSetHandler.totalRead != monitor.totalNumber) {
+                log.error("Oups, number of elements was ${monitor.totalNumber}, but read ${bigResultSetHandler.totalRead}.")
             }
-            log.info("Reindexing [${clazz.simpleName}]: optimizing of " + number + " objects...")
-            val searchFactory = fullTextSession.searchFactory
-            searchFactory.optimize(clazz)
-            log.info("Reindexing [${clazz.simpleName}]: reindexing done.")
             return@runInTrans index
-        }
+        } as Long
+    }
+
+    /**
+     * @return min and max id of the given entities or null, if no entities exist.
+     */
+    private fun getIdRange(entityManager: EntityManager, clazz: Class<*>): Pair<Long, Long>? {
+        val idProperty = ReindexerRegistry.get(clazz).idProperty
+        val result = entityManager.createQuery("select min(t.$idProperty), max(t.$idProperty) from ${clazz.simpleName} as t", Array<Any?>::class.java)
+                .singleResult
+        val min = result[0] as? Number ?: return null
+        val max = result[1] as? Number ?: return null
+        return Pair(min.toLong(), max.toLong())
     }
 
     private fun <T> getRowCount(entityManager: EntityManager, clazz: Class<T>, settings: ReindexSettings?): Long {
@@ -162,13 +252,21 @@ open class DatabaseDao {
         return result
     }
 
-    private fun <T> createQuery(entityManager: EntityManager, clazz: Class<*>, resultClazz: Class<T>, settings: ReindexSettings?, queryMode: QueryMode)
+    private fun <T> createQuery(entityManager: EntityManager, clazz: Class<*>, resultClazz: Class<T>, settings: ReindexSettings?, queryMode: QueryMode,
+                                idRange: Pair<Long, Long>? = null)
             : TypedQuery<T> {
         val rowCountOnly = queryMode == QueryMode.ROW_COUNT
         val strategy = ReindexerRegistry.get(clazz)
         val idsOnly = if (queryMode == QueryMode.SELECT_IDS_ONLY) "select ${strategy.idProperty} " else ""
         val join = if (queryMode == QueryMode.NORMAL && settings?.lastNEntries == null) strategy.join else "" // Don't join for last n entries (not supported by Hibernate).
         val select = if (rowCountOnly) "select count(*) from ${clazz.simpleName} as t" else "${idsOnly}from ${clazz.simpleName} as t$join"
+        if (idRange != null) {
+            val query = entityManager.createQuery("$select where t.${strategy.idProperty} >= :fromId and t.${strategy.idProperty} < :toId", resultClazz)
+            val idType = entityManager.metamodel.entity(clazz).idType.javaType
+            query.setParameter("fromId", if (idType == Long::class.javaObjectType || idType == Long::class.java) idRange.first else idRange.first.toInt())
+            query.setParameter("toId", if (idType == Long::class.javaObjectType || idType == Long::class.java) idRange.second else idRange.second.toInt())
+            return query
+        }
         if (settings?.fromDate != null) {
             if (strategy.modifiedAtProperty != null) {
                 val query = entityManager.createQuery("$select where t.${strategy.modifiedAtProperty} > :modifiedAt", resultClazz)
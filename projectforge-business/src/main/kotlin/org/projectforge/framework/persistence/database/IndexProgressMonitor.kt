@@ -30,13 +30,41 @@ import java.math.BigDecimal
 import java.math.RoundingMode
 import java.text.NumberFormat
 import java.util.*
+import java.util.concurrent.ConcurrentHashMap
 
 /**
  * @author Kai Reinhard (k.reinhard@micromata.de)
  */
-class IndexProgressMonitor(private val logPrefix: String, private val totalNumber: Long, private val synchronizedMode: Boolean = false) : SimpleIndexingProgressMonitor() {
+class IndexProgressMonitor(private val logPrefix: String, val totalNumber: Long, private val synchronizedMode: Boolean = false) : SimpleIndexingProgressMonitor() {
+    /**
+     * Progress information of a (running or finished) re-indexing, e. g. for the rest service.
+     */
+    class Progress(val entity: String,
+                   val total: Long,
+                   val done: Long,
+                   val percentage: Int,
+                   /**
+                    * Average number of indexed objects per second since start.
+                    */
+                   val throughput: Long,
+                   val startTime: Long,
+                   val finished: Boolean,
+                   /**
+                    * True, if the re-indexing was aborted by an error (the index of this entity is incomplete).
+                    */
+                   val failed: Boolean)
+
+    @Volatile
+    var done: Long = 0
+        private set
+    val startTime = System.currentTimeMillis()
+    @Volatile
+    var finished: Boolean = false
+        private set
     @Volatile
-    private var done: Long = 0
+    var failed: Boolean = false
+        private set
+    private var entity: String? = null
     private var blockCounter: Long = 0
     private var progressSteps: Long = 0
     private var lastTime = System.currentTimeMillis()
@@ -60,6 +88,38 @@ class IndexProgressMonitor(private val logPrefix: String, private val totalNumbe
         }
     }
 
+    /**
+     * Registers this monitor, so the progress of the given entity is available via [getProgressList].
+     */
+    fun register(entity: String): IndexProgressMonitor {
+        this.entity = entity
+        monitors[entity] = this
+        return this
+    }
+
+    /**
+     * Marks this monitor as finished. The progress will be available until the next re-indexing of the entity.
+     * @param failed True, if the re-indexing was aborted by an error.
+     */
+    @JvmOverloads
+    fun finished(failed: Boolean = false) {
+        this.failed = failed
+        finished = true
+    }
+
+    val progress: Progress
+        get() {
+            val duration = System.currentTimeMillis() - startTime
+            return Progress(entity = entity ?: logPrefix,
+                    total = totalNumber,
+                    done = done,
+                    percentage = if (totalNumber > 0) (done * 100 / totalNumber).toInt() else 100,
+                    throughput = if (duration > 0) done * 1000 / duration else 0,
+                    startTime = startTime,
+                    finished = finished,
+                    failed = failed)
+        }
+
     override fun printStatusMessage(totalTodoCount: Long, doneCount: Long, blockCounter: Long) {
         val format = NumberFormat.getInstance(Locale.US)
         val percentage = BigDecimal(doneCount).multiply(NumberHelper.HUNDRED).divide(BigDecimal(totalTodoCount), 0, RoundingMode.HALF_UP)
@@ -71,6 +131,16 @@ class IndexProgressMonitor(private val logPrefix: String, private val totalNumbe
 
     companion object {
         private val log = LoggerFactory.getLogger(IndexProgressMonitor::class.java)
+
+        private val monitors = ConcurrentHashMap<String, IndexProgressMonitor>()
+
+        /**
+         * @return The progress of all registered (running and last finished) re-indexings.
+         */
+        @JvmStatic
+        fun getProgressList(): List<Progress> {
+            return monitors.values.map { it.progress }.sortedBy { it.entity }
+        }
     }
 
     init {
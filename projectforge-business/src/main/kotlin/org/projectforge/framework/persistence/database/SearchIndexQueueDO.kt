@@ -0,0 +1,84 @@
+/////////////////////////////////////////////////////////////////////////////
+//
+// Project ProjectForge Community Edition
+//         www.projectforge.org
+//
+// Copyright (C) 2001-2020 Micromata GmbH, Germany (www.micromata.com)
+//
+// ProjectForge is dual-licensed.
+//
+// This community edition is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; version 3 of the License.
+//
+// This community edition is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+// Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, see http://www.gnu.org/licenses/.
+//
+/////////////////////////////////////////////////////////////////////////////
+
+
+package org.projectforge.framework.persistence.database
+
+import de.micromata.genome.jpa.DbRecord
+import java.util.*
+import javax.persistence.*
+
+/**
+ * Entry of the durable search index queue: the (full text) index document of the given entity has to be updated
+ * (e. g. dependent objects of a modified entity or documents built by bridges from other entities).
+ *
+ * @see SearchIndexer
+ */
+@NamedQueries(
+        NamedQuery(name = SearchIndexQueueDO.FIND_ALL,
+                query = "from SearchIndexQueueDO order by attempts, id"),
+        NamedQuery(name = SearchIndexQueueDO.DELETE_BY_IDS,
+                query = "delete from SearchIndexQueueDO where id in (:ids)"),
+        NamedQuery(name = SearchIndexQueueDO.INCREMENT_ATTEMPTS,
+                query = "update SearchIndexQueueDO set attempts = attempts + 1 where id in (:ids)"),
+        NamedQuery(name = SearchIndexQueueDO.COUNT,
+                query = "select count(*) from SearchIndexQueueDO"))
+@Entity
+@Table(name = "T_SEARCH_INDEX_QUEUE")
+open class SearchIndexQueueDO : DbRecord<Int> {
+    @get:Id
+    @get:GeneratedValue
+    @get:Column(name = "pk")
+    open var id: Int? = null
+
+    @get:Column(nullable = false)
+    open var created: Date? = null
+
+    @get:Column(name = "entity_class", length = 255, nullable = false)
+    open var entityClass: String? = null
+
+    @get:Column(name = "entity_id", nullable = false)
+    open var entityId: Long? = null
+
+    /**
+     * Number of failed attempts to index the entity.
+     */
+    @get:Column(nullable = false)
+    open var attempts: Int = 0
+
+    @Transient
+    override fun getPk(): Int? {
+        return id
+    }
+
+    override fun setPk(pk: Int?) {
+        id = pk
+    }
+
+    companion object {
+        internal const val FIND_ALL = "SearchIndexQueueDO.findAll"
+        internal const val DELETE_BY_IDS = "SearchIndexQueueDO.deleteByIds"
+        internal const val INCREMENT_ATTEMPTS = "SearchIndexQueueDO.incrementAttempts"
+        internal const val COUNT = "SearchIndexQueueDO.count"
+    }
+}
@@ -0,0 +1,110 @@
+/////////////////////////////////////////////////////////////////////////////
+//
+// Project ProjectForge Community Edition
+//         www.projectforge.org
+//
+// Copyright (C) 2001-2020 Micromata GmbH, Germany (www.micromata.com)
+//
+// ProjectForge is dual-licensed.
+//
+// This community edition is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; version 3 of the License.
+//
+// This community edition is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+// Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, see http://www.gnu.org/licenses/.
+//
+/////////////////////////////////////////////////////////////////////////////
+
+
+package org.projectforge.framework.persistence.database
+
+import org.projectforge.framework.persistence.jpa.PfEmgrFactory
+import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.stereotype.Repository
+import java.util.*
+
+/**
+ * Persistence of the search index queue. No access checking, for internal use of [SearchIndexer] only.
+ */
+@Repository
+open class SearchIndexQueueDao {
+    @Autowired
+    private lateinit var emgrFactory: PfEmgrFactory
+
+    /**
+     * Stores an entry for every given id (in one transaction).
+     */
+    open fun enqueue(entityClass: Class<*>, entityIds: Collection<Number>) {
+        if (entityIds.isEmpty()) {
+            return
+        }
+        val now = Date()
+        emgrFactory.runInTrans { emgr ->
+            val em = emgr.entityManager
+            entityIds.forEachIndexed { index, entityId ->
+                val entry = SearchIndexQueueDO()
+                entry.created = now
+                entry.entityClass = entityClass.name
+                entry.entityId = entityId.toLong()
+                em.persist(entry)
+                if (index % BATCH_SIZE == BATCH_SIZE - 1) {
+                    em.flush()
+                    em.clear()
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The oldest entries (ordered by id), entries without failed attempts first.
+     */
+    open fun getEntries(maxResults: Int): List<SearchIndexQueueDO> {
+        return emgrFactory.runRoTrans { emgr ->
+            emgr.entityManager.createNamedQuery(SearchIndexQueueDO.FIND_ALL, SearchIndexQueueDO::class.java)
+                    .setMaxResults(maxResults)
+                    .resultList
+        }
+    }
+
+    open fun delete(ids: Collection<Int>) {
+        if (ids.isEmpty()) {
+            return
+        }
+        emgrFactory.runInTrans { emgr ->
+            emgr.entityManager.createNamedQuery(SearchIndexQueueDO.DELETE_BY_IDS)
+                    .setParameter("ids", ids)
+                    .executeUpdate()
+        }
+    }
+
+    /**
+     * Increments the number of failed attempts of the given entries.
+     */
+    open fun incrementAttempts(ids: Collection<Int>) {
+        if (ids.isEmpty()) {
+            return
+        }
+        emgrFactory.runInTrans { emgr ->
+            emgr.entityManager.createNamedQuery(SearchIndexQueueDO.INCREMENT_ATTEMPTS)
+                    .setParameter("ids", ids)
+                    .executeUpdate()
+        }
+    }
+
+    open fun count(): Long {
+        return emgrFactory.runRoTrans { emgr ->
+            emgr.entityManager.createNamedQuery(SearchIndexQueueDO.COUNT, java.lang.Long::class.java)
+                    .singleResult.toLong()
+        }
+    }
+
+    companion object {
+        private const val BATCH_SIZE = 1000
+    }
+}
@@ -0,0 +1,347 @@
+/////////////////////////////////////////////////////////////////////////////
+//
+// Project ProjectForge Community Edition
+//         www.projectforge.org
+//
+// Copyright (C) 2001-2020 Micromata GmbH, Germany (www.micromata.com)
+//
+// ProjectForge is dual-licensed.
+//
+// This community edition is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; version 3 of the License.
+//
+// This community edition is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+// Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, see http://www.gnu.org/licenses/.
+//
+/////////////////////////////////////////////////////////////////////////////
+
+
+package org.projectforge.framework.persistence.database
+
+import mu.KotlinLogging
+import org.hibernate.search.engine.ProjectionConstants
+import org.hibernate.search.jpa.Search
+import org.projectforge.framework.persistence.api.ExtendedBaseDO
+import org.projectforge.framework.persistence.api.ReindexSettings
+import org.projectforge.framework.persistence.jpa.PfEmgrFactory
+import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.beans.factory.annotation.Value
+import org.springframework.scheduling.annotation.Scheduled
+import org.springframework.stereotype.Service
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+import javax.annotation.PostConstruct
+import javax.annotation.PreDestroy
+import javax.persistence.EntityManager
+import kotlin.random.Random
+
+private val log = KotlinLogging.logger {}
+
+/**
+ * Incremental maintenance of the full text (Lucene) indexes. Entities modified directly are indexed by Hibernate Search
+ * on commit, but index documents depending on other entities (@IndexedEmbedded, @ContainedIn or bridges like the task
+ * path) aren't. The ids of these entities are stored in a durable queue ([SearchIndexQueueDO]) and are re-indexed in
+ * batches by a background thread, so the indexes aren't stale until the next full re-index.
+ *
+ * Instead of a nightly full re-index, [checkConsistency] checks samples of the entities of every indexed class: missing
+ * documents are queued, a full re-index is only done for entity classes with too many missing documents.
+ */
+@Service
+open class SearchIndexer {
+    @Autowired
+    private lateinit var emgrFactory: PfEmgrFactory
+
+    @Autowired
+    private lateinit var searchIndexQueueDao: SearchIndexQueueDao
+
+    @Autowired
+    private lateinit var databaseDao: DatabaseDao
+
+    @Value("\${projectforge.hibernateSearch.queue.batchSize:500}")
+    private var batchSize: Int = 500
+
+    /**
+     * Queue entries failing this number of times are removed from the queue (logged as error).
+     */
+    @Value("\${projectforge.hibernateSearch.queue.maxAttempts:5}")
+    internal var maxAttempts: Int = 5
+
+    /**
+     * If false, the queue is only processed by calling [processQueue] (for tests).
+     */
+    internal var backgroundProcessing = true
+
+    /**
+     * Number of entities per entity class checked by the consistency check.
+     */
+    @Value("\${projectforge.hibernateSearch.consistencyCheck.sampleSize:200}")
+    private var sampleSize: Int = 200
+
+    /**
+     * If more documents of the samples of an entity class are missing (in percent), the index of the entity class will
+     * be rebuilt completely.
+     */
+    @Value("\${projectforge.hibernateSearch.consistencyCheck.maxMissingPercent:5}")
+    private var maxMissingPercent: Int = 5
+
+    private lateinit var indexerPool: ThreadPoolExecutor
+
+    private val indexedCounter = AtomicLong()
+    private val purgedCounter = AtomicLong()
+    private val failedCounter = AtomicLong()
+    private val batchCounter = AtomicLong()
+    private val indexMillis = AtomicLong()
+
+    @PostConstruct
+    private fun postConstruct() {
+        // One background thread, further triggers are dropped while running (queued entries are picked up anyway).
+        indexerPool = ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, LinkedBlockingQueue(1),
+                { runnable ->
+                    val thread = Thread(runnable, "SearchIndexer")
+                    thread.isDaemon = true
+                    thread
+                }, ThreadPoolExecutor.DiscardPolicy())
+        indexerPool.allowCoreThreadTimeOut(true)
+    }
+
+    @PreDestroy
+    private fun preDestroy() {
+        indexerPool.shutdown()
+        log.info("Statistics of search indexer: $statistics")
+    }
+
+    /**
+     * Stores the given entities in the durable queue and triggers the indexing.
+     */
+    open fun enqueue(entityClass: Class<*>, entityIds: Collection<Number>) {
+        if (entityIds.isEmpty()) {
+            return
+        }
+        searchIndexQueueDao.enqueue(entityClass, entityIds)
+        trigger()
+    }
+
+    /**
+     * Polls the queue (e. g. entries of previous runs not processed due to shutdown).
+     */
+    @Scheduled(fixedDelayString = "\${projectforge.hibernateSearch.queue.pollIntervalMillis:60000}", initialDelay = 60 * 1000)
+    open fun poll() {
+        trigger()
+    }
+
+    open fun trigger() {
+        if (!backgroundProcessing) {
+            return
+        }
+        indexerPool.execute { processQueue() }
+    }
+
+    /**
+     * Number of queued entries.
+     */
+    open val backlog: Long
+        get() = searchIndexQueueDao.count()
+
+    open val statistics: String
+        get() {
+            val batches = batchCounter.get()
+            return "indexed=${indexedCounter.get()}, purged=${purgedCounter.get()}, failed=${failedCounter.get()}, batches=$batches" +
+                    ", avgBatchDuration=${if (batches > 0) indexMillis.get() / batches else 0}ms"
+        }
+
+    /**
+     * Processes all queued entries in batches. Entries queued multiple times are indexed only once per batch.
+     * Entries of entities failing to index are kept for the next run (their attempts are counted) and are removed
+     * after [maxAttempts] failed attempts. Processing stops after a batch with failures (retried on next poll).
+     */
+    internal fun processQueue() {
+        try {
+            while (true) {
+                val entries = searchIndexQueueDao.getEntries(batchSize)
+                if (entries.isEmpty()) {
+                    return
+                }
+                val begin = System.currentTimeMillis()
+                val entities = mutableMapOf<String, MutableSet<Long>>()
+                entries.forEach { entities.getOrPut(it.entityClass!!) { mutableSetOf() }.add(it.entityId!!) }
+                val failed = mutableSetOf<Pair<String, Long>>()
+                entities.forEach { (className, ids) ->
+                    index(className, ids).forEach { failed.add(Pair(className, it)) }
+                }
+                val (failedEntries, doneEntries) = entries.partition { failed.contains(Pair(it.entityClass!!, it.entityId!!)) }
+                searchIndexQueueDao.delete(doneEntries.map { it.id!! })
+                if (failedEntries.isNotEmpty()) {
+                    val (deadEntries, retryEntries) = failedEntries.partition { it.attempts + 1 >= maxAttempts }
+                    deadEntries.forEach {
+                        log.error("Giving up indexing of ${it.entityClass} #${it.entityId} after ${it.attempts + 1} failed attempts (removed from queue).")
+                    }
+                    searchIndexQueueDao.delete(deadEntries.map { it.id!! })
+                    searchIndexQueueDao.incrementAttempts(retryEntries.map { it.id!! })
+                }
+                batchCounter.incrementAndGet()
+                indexMillis.addAndGet(System.currentTimeMillis() - begin)
+                if (entries.size < batchSize || failedEntries.isNotEmpty()) {
+                    return
+                }
+            }
+        } catch (ex: Throwable) {
+            log.error("Error while processing search index queue: ${ex.message}", ex)
+        }
+    }
+
+    /**
+     * Indexes (or purges) the given entities. Every entity is handled separately, so one failing entity doesn't
+     * prevent the indexing of the others.
+     * @return The ids of the entities failed to index.
+     */
+    private fun index(className: String, ids: Collection<Long>): Set<Long> {
+        val clazz = try {
+            Class.forName(className)
+        } catch (ex: ClassNotFoundException) {
+            log.error("Can't re-index entities of unknown class '$className' (ignoring ${ids.size} queue entries).")
+            return emptySet()
+        }
+        val failed = mutableSetOf<Long>()
+        try {
+            emgrFactory.runInTrans { emgr ->
+                val em = emgr.entityManager
+                val fullTextEntityManager = Search.getFullTextEntityManager(em)
+                ids.forEach { id ->
+                    try {
+                        val entityId = toIdType(em, clazz, id)
+                        val obj = em.find(clazz, entityId)
+                        if (obj != null) {
+                            if (obj is ExtendedBaseDO<*>) {
+                                obj.recalculate()
+                            }
+                            fullTextEntityManager.index(obj)
+                            indexedCounter.incrementAndGet()
+                        } else {
+                            // Entity was deleted meanwhile.
+                            fullTextEntityManager.purge(clazz, entityId)
+                            purgedCounter.incrementAndGet()
+                        }
+                    } catch (ex: Exception) {
+                        log.warn("Can't index ${clazz.simpleName} #$id: ${ex.message}", ex)
+                        failed.add(id)
+                    }
+                }
+                fullTextEntityManager.flushToIndexes()
+                em.clear()
+            }
+        } catch (ex: Exception) {
+            log.error("Can't index ${ids.size} entities of ${clazz.simpleName}: ${ex.message}", ex)
+            failed.addAll(ids)
+        }
+        failedCounter.addAndGet(failed.size.toLong())
+        return failed
+    }
+
+    /**
+     * Checks random samples of all indexed entity classes: missing index documents are queued for indexing. If too
+     * many documents of an entity class are missing, the index of this class will be rebuilt.
+     * @return Summary for logging.
+     */
+    open fun checkConsistency(): String {
+        log.info("Consistency check of search indexes started.")
+        val begin = System.currentTimeMillis()
+        val buf = StringBuffer()
+        emgrFactory.searchableEntities.forEach { clazz ->
+            try {
+                val sampleIds = getSampleIds(clazz)
+                if (sampleIds.isEmpty()) {
+                    return@forEach
+                }
+                val missing = sampleIds - getIndexedIds(clazz, sampleIds)
+                if (missing.isEmpty()) {
+                    return@forEach
+                }
+                if (missing.size * 100 > sampleIds.size * maxMissingPercent) {
+                    log.warn("${missing.size} of ${sampleIds.size} checked documents of ${clazz.simpleName} missing in search index, rebuilding index.")
+                    databaseDao.reindex(clazz, ReindexSettings(), buf)
+                } else {
+                    log.info("${missing.size} of ${sampleIds.size} checked documents of ${clazz.simpleName} missing in search index, queued for indexing.")
+                    enqueue(clazz, missing)
+                    buf.append(clazz.simpleName).append(" (").append(missing.size).append(" queued), ")
+                }
+            } catch (ex: Exception) {
+                buf.append(clazz.simpleName).append(" (an error occured, see log file for further information.), ")
+                log.error("While checking search index of '${clazz.name}': ${ex.message}", ex)
+            }
+        }
+        log.info("Consistency check of search indexes finished after ${System.currentTimeMillis() - begin}ms: $buf")
+        return buf.toString()
+    }
+
+    /**
+     * @return Ids of random blocks of entities (one query per block).
+     */
+    private fun getSampleIds(clazz: Class<*>): Set<Long> {
+        return emgrFactory.runRoTrans { emgr ->
+            val em = emgr.entityManager
+            val idProperty = ReindexerRegistry.get(clazz).idProperty ?: "id"
+            val count = em.createQuery("select count(*) from ${clazz.simpleName} as t", java.lang.Long::class.java)
+                    .singleResult.toLong()
+            val result = mutableSetOf<Long>()
+            if (count == 0L) {
+                return@runRoTrans result
+            }
+            val blocks = maxOf(1, sampleSize / SAMPLE_BLOCK_SIZE)
+            for (i in 0 until blocks) {
+                val offset = if (count > SAMPLE_BLOCK_SIZE) Random.nextLong(count - SAMPLE_BLOCK_SIZE + 1).toInt() else 0
+                em.createQuery("select t.$idProperty from ${clazz.simpleName} as t order by t.$idProperty", Number::class.java)
+                        .setFirstResult(offset)
+                        .setMaxResults(SAMPLE_BLOCK_SIZE)
+                        .resultList
+                        .forEach { result.add(it.toLong()) }
+                if (count <= SAMPLE_BLOCK_SIZE) {
+                    break
+                }
+            }
+            result
+        }
+    }
+
+    /**
+     * @return The given ids found in the search index.
+     */
+    private fun getIndexedIds(clazz: Class<*>, ids: Collection<Long>): Set<Long> {
+        return emgrFactory.runRoTrans { emgr ->
+            val em = emgr.entityManager
+            val fullTextEntityManager = Search.getFullTextEntityManager(em)
+            val idProperty = ReindexerRegistry.get(clazz).idProperty ?: "id"
+            val queryBuilder = fullTextEntityManager.searchFactory.buildQueryBuilder().forEntity(clazz).get()
+            val result = mutableSetOf<Long>()
+            ids.chunked(SAMPLE_BLOCK_SIZE).forEach { chunk ->
+                var junction = queryBuilder.bool()
+                chunk.forEach { id ->
+                    junction = junction.should(queryBuilder.keyword().onField(idProperty).matching(toIdType(em, clazz, id)).createQuery())
+                }
+                val query = fullTextEntityManager.createFullTextQuery(junction.createQuery(), clazz)
+                query.setProjection(ProjectionConstants.ID)
+                query.maxResults = chunk.size * 2
+                query.resultList.forEach { row ->
+                    ((row as Array<*>)[0] as? Number)?.let { result.add(it.toLong()) }
+                }
+            }
+            result
+        }
+    }
+
+    private fun toIdType(em: EntityManager, clazz: Class<*>, id: Long): Any {
+        val idType = em.metamodel.entity(clazz).idType.javaType
+        return if (idType == Long::class.javaObjectType || idType == Long::class.java) id else id.toInt()
+    }
+
+    companion object {
+        private const val SAMPLE_BLOCK_SIZE = 20
+    }
+}
@@ -36,14 +36,17 @@ import org.projectforge.framework.persistence.api.BaseDO
 import org.projectforge.framework.persistence.api.ModificationStatus
 import org.projectforge.framework.persistence.entities.AbstractBaseDO
 import org.projectforge.framework.persistence.user.api.UserPrefArea
+import org.projectforge.framework.persistence.user.entities.UserPrefDO.Companion.COUNT_ENTRIES_BY_USER_AND_AREA_AND_NAME
 import org.projectforge.framework.persistence.user.entities.UserPrefDO.Companion.FIND_BY_USER_AND_AREA_AND_ID
 import org.projectforge.framework.persistence.user.entities.UserPrefDO.Companion.FIND_BY_USER_AND_AREA_AND_NAME
 import org.projectforge.framework.persistence.user.entities.UserPrefDO.Companion.FIND_BY_USER_ID
 import org.projectforge.framework.persistence.user.entities.UserPrefDO.Companion.FIND_BY_USER_ID_AND_AREA
 import org.projectforge.framework.persistence.user.entities.UserPrefDO.Companion.FIND_BY_USER_ID_AND_AREA_AND_NULLNAME
+import org.projectforge.framework.persistence.user.entities.UserPrefDO.Companion.FIND_ID_BY_USER_AND_AREA_AND_NAME
 import org.projectforge.framework.persistence.user.entities.UserPrefDO.Companion.FIND_IDS_AND_NAMES_BY_USER_AND_AREA
 import org.projectforge.framework.persistence.user.entities.UserPrefDO.Companion.FIND_NAMES_BY_USER_AND_AREA
 import org.projectforge.framework.persistence.user.entities.UserPrefDO.Companion.FIND_OTHER_BY_USER_AND_AREA_AND_NAME
+import org.projectforge.framework.persistence.user.entities.UserPrefDO.Companion.UPDATE_VALUE_BY_USER_AND_AREA_AND_NAME
 import java.io.Serializable
 import java.util.*
 import javax.persistence.*
@@ -68,7 +71,12 @@ import javax.persistence.*
         NamedQuery(name = FIND_BY_USER_ID_AND_AREA_AND_NULLNAME, query = "from UserPrefDO where user.id=:userId and area=:area and name is null"),
         NamedQuery(name = FIND_NAMES_BY_USER_AND_AREA, query = "select name from UserPrefDO where user.id=:userId and area=:area order by name"),
         NamedQuery(name = FIND_IDS_AND_NAMES_BY_USER_AND_AREA, query = "select id, name from UserPrefDO where user.id=:userId and area=:area order by name"),
-        NamedQuery(name = FIND_OTHER_BY_USER_AND_AREA_AND_NAME, query = "from UserPrefDO where id<>:id and user.id=:userId and area=:area and name=:name"))
+        NamedQuery(name = FIND_OTHER_BY_USER_AND_AREA_AND_NAME, query = "from UserPrefDO where id<>:id and user.id=:userId and area=:area and name=:name"),
+        NamedQuery(name = FIND_ID_BY_USER_AND_AREA_AND_NAME, query = "select id from UserPrefDO where user.id=:userId and area=:area and name=:name and tenant.id=:tenantId"),
+        NamedQuery(name = COUNT_ENTRIES_BY_USER_AND_AREA_AND_NAME,
+                query = "select count(e) from UserPrefDO p join p.userPrefEntries e where p.user.id=:userId and p.area=:area and p.name=:name and p.tenant.id=:tenantId"),
+        NamedQuery(name = UPDATE_VALUE_BY_USER_AND_AREA_AND_NAME,
+                query = "update UserPrefDO set valueString=:valueString, valueTypeString=:valueTypeString, lastUpdate=:lastUpdate where user.id=:userId and area=:area and name=:name and tenant.id=:tenantId"))
 class UserPrefDO : AbstractBaseDO<Int>() {
     @JsonIgnore
     private val log = org.slf4j.LoggerFactory.getLogger(UserPrefDO::class.java)
@@ -268,5 +276,17 @@ class UserPrefDO : AbstractBaseDO<Int>() {
         internal const val FIND_NAMES_BY_USER_AND_AREA = "UserPrefDO_FindNamesByUserIdAndArea"
 
         internal const val FIND_IDS_AND_NAMES_BY_USER_AND_AREA = "UserPrefDO_FindIdsAndNamesByUserIdAndArea"
+
+        internal const val FIND_ID_BY_USER_AND_AREA_AND_NAME = "UserPrefDO_FindIdByUserIdAndAreaAndName"
+
+        /**
+         * Number of legacy entries of a persisted user pref (see UserPrefDao): user prefs with legacy entries aren't upserted.
+         */
+        internal const val COUNT_ENTRIES_BY_USER_AND_AREA_AND_NAME = "UserPrefDO_CountEntriesByUserIdAndAreaAndName"
+
+        /**
+         * Upsert of json values (see UserPrefDao): updates the value of an existing entry (unique by user, area, name and tenant).
+         */
+        internal const val UPDATE_VALUE_BY_USER_AND_AREA_AND_NAME = "UserPrefDO_UpdateValueByUserIdAndAreaAndName"
     }
 }
@@ -0,0 +1,326 @@
+/////////////////////////////////////////////////////////////////////////////
+//
+// Project ProjectForge Community Edition
+//         www.projectforge.org
+//
+// Copyright (C) 2001-2020 Micromata GmbH, Germany (www.micromata.com)
+//
+// ProjectForge is dual-licensed.
+//
+// This community edition is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; version 3 of the License.
+//
+// This community edition is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+// Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, see http://www.gnu.org/licenses/.
+//
+/////////////////////////////////////////////////////////////////////////////
+
+
+package org.projectforge.mail
+
+import mu.KotlinLogging
+import org.projectforge.business.configuration.ConfigurationService
+import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.beans.factory.annotation.Value
+import org.springframework.scheduling.annotation.Scheduled
+import org.springframework.stereotype.Service
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.util.*
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import javax.annotation.PostConstruct
+import javax.annotation.PreDestroy
+import javax.mail.Session
+import javax.mail.Transport
+import javax.mail.internet.MimeMessage
+
+private val log = KotlinLogging.logger {}
+
+/**
+ * Sends the e-mails of the persistent mail queue ([MailQueueDao]). The e-mails are sent in batches by a dedicated
+ * bounded thread pool, one SMTP connection (transport) is used per batch. Failed e-mails are retried with exponential
+ * backoff until the max number of attempts is reached. If the mail server isn't reachable, the e-mails are postponed
+ * with backoff as well, but no attempts are counted (the e-mails weren't tried).
+ *
+ * The mail queue is disabled by default (opt-in by projectforge.mail.queue.enabled=true).
+ *
+ * @see SendMail.send
+ */
+@Service
+open class MailDispatcher {
+    @Autowired
+    private lateinit var configurationService: ConfigurationService
+
+    @Autowired
+    private lateinit var mailQueueDao: MailQueueDao
+
+    /**
+     * If false, asynchronous e-mails are sent directly (without queue).
+     */
+    @Value("\${projectforge.mail.queue.enabled:false}")
+    var queueEnabled: Boolean = false
+        private set
+
+    @Value("\${projectforge.mail.queue.threads:2}")
+    private var threads: Int = 2
+
+    @Value("\${projectforge.mail.queue.batchSize:50}")
+    private var batchSize: Int = 50
+
+    @Value("\${projectforge.mail.queue.maxAttempts:8}")
+    internal var maxAttempts: Int = 8
+
+    @Value("\${projectforge.mail.queue.retentionDays:7}")
+    private var retentionDays: Int = 7
+
+    private lateinit var senderPool: ThreadPoolExecutor
+
+    /**
+     * Ids of the entries currently processed by the sender pool (for avoiding sending twice).
+     */
+    private val inProgress = ConcurrentHashMap.newKeySet<Int>()
+
+    private val runningBatches = AtomicInteger()
+
+    private val sentCounter = AtomicLong()
+    private val retryCounter = AtomicLong()
+    private val failedCounter = AtomicLong()
+    private val batchCounter = AtomicLong()
+    private val connectionFailureCounter = AtomicLong()
+
+    /**
+     * Number of failed connections since the last successful one (for the backoff of postponed e-mails).
+     */
+    private val consecutiveConnectionFailures = AtomicInteger()
+    private val sendMillis = AtomicLong()
+
+    private var lastCleanup = 0L
+
+    /**
+     * Creates the mail session for sending (replaceable by tests).
+     */
+    internal var sessionFactory: () -> Session = { SendMail.createSession(configurationService) }
+
+    @PostConstruct
+    private fun postConstruct() {
+        val counter = AtomicInteger()
+        // Bounded: if all threads are busy, further triggers are dropped (pending e-mails are picked up by the next run).
+        senderPool = ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, LinkedBlockingQueue(threads),
+                { runnable ->
+                    val thread = Thread(runnable, "MailDispatcher-${counter.incrementAndGet()}")
+                    thread.isDaemon = true
+                    thread
+                }, ThreadPoolExecutor.DiscardPolicy())
+        senderPool.allowCoreThreadTimeOut(true)
+    }
+
+    @PreDestroy
+    private fun preDestroy() {
+        senderPool.shutdown()
+        log.info("Statistics of mail queue: $statistics")
+    }
+
+    /**
+     * Stores the message in the mail queue and triggers the sending.
+     */
+    open fun enqueue(message: MimeMessage, recipients: String?) {
+        val entry = mailQueueDao.enqueue(toByteArray(message), recipients, message.subject)
+        log.info("E-Mail queued (#${entry.id}): $recipients")
+        trigger()
+    }
+
+    /**
+     * Polls the mail queue for pending (and retry-due) e-mails.
+     */
+    @Scheduled(fixedDelayString = "\${projectforge.mail.queue.pollIntervalMillis:30000}", initialDelay = 30 * 1000)
+    open fun poll() {
+        if (!queueEnabled) {
+            return
+        }
+        trigger()
+        cleanup()
+    }
+
+    /**
+     * Starts a new batch, if a sender thread is available.
+     */
+    open fun trigger() {
+        if (runningBatches.get() < threads) {
+            senderPool.execute { dispatch() }
+        }
+    }
+
+    /**
+     * Number of e-mails waiting for (re-)sending.
+     */
+    open val backlog: Long
+        get() = mailQueueDao.count(MailQueueDO.Status.PENDING)
+
+    open val statistics: String
+        get() {
+            val batches = batchCounter.get()
+            return "sent=${sentCounter.get()}, retries=${retryCounter.get()}, failed=${failedCounter.get()}, batches=$batches" +
+                    ", connectionFailures=${connectionFailureCounter.get()}" +
+                    ", avgBatchDuration=${if (batches > 0) sendMillis.get() / batches else 0}ms" +
+                    ", inProgress=${inProgress.size}"
+        }
+
+    /**
+     * Sends all due e-mails of the queue in batches.
+     */
+    internal fun dispatch() {
+        runningBatches.incrementAndGet()
+        try {
+            while (true) {
+                val batch = claim()
+                if (batch.isEmpty()) {
+                    return
+                }
+                val connected = try {
+                    sendBatch(batch)
+                } finally {
+                    batch.forEach { inProgress.remove(it.id) }
+                }
+                if (!connected || batch.size < batchSize) {
+                    return
+                }
+            }
+        } catch (ex: Throwable) {
+            log.error("Error while dispatching mail queue: ${ex.message}", ex)
+        } finally {
+            runningBatches.decrementAndGet()
+        }
+    }
+
+    private fun claim(): List<MailQueueDao.Entry> {
+        synchronized(inProgress) {
+            val entries = mailQueueDao.getDueEntries(batchSize + inProgress.size)
+                    .filter { !inProgress.contains(it.id) }
+                    .take(batchSize)
+            entries.forEach { inProgress.add(it.id) }
+            return entries
+        }
+    }
+
+    /**
+     * @return false, if the connection to the mail server failed (the e-mails of the batch are postponed).
+     */
+    private fun sendBatch(batch: List<MailQueueDao.Entry>): Boolean {
+        val begin = System.currentTimeMillis()
+        val session = sessionFactory()
+        var transport: Transport? = null
+        try {
+            transport = session.transport
+            transport.connect()
+        } catch (ex: Exception) {
+            connectionFailureCounter.incrementAndGet()
+            // The e-mails weren't tried, so no attempts are counted (otherwise a long outage would fail them finally):
+            val nextAttempt = Date(System.currentTimeMillis() + getBackoffMillis(consecutiveConnectionFailures.incrementAndGet()))
+            log.error("Can't connect to mail server, ${batch.size} e-mails will be retried at $nextAttempt: ${ex.message}")
+            mailQueueDao.reschedule(batch.map { it.id }, ex.message, nextAttempt)
+            try {
+                transport?.close()
+            } catch (ex: Exception) {
+                // Ignore.
+            }
+            return false
+        }
+        consecutiveConnectionFailures.set(0)
+        try {
+            batch.forEach { entry ->
+                try {
+                    // Messages are loaded one by one, so only one message of the batch is held in memory:
+                    val bytes = mailQueueDao.getMessage(entry.id)
+                    if (bytes == null) {
+                        log.warn("Message of queued e-mail not found, skipping (#${entry.id}).")
+                        return@forEach
+                    }
+                    val message = fromByteArray(session, bytes)
+                    transport.sendMessage(message, message.allRecipients)
+                    mailQueueDao.markSent(entry.id)
+                    sentCounter.incrementAndGet()
+                    log.info("E-Mail successfully sent (#${entry.id}): ${entry.recipients}")
+                } catch (ex: Exception) {
+                    markFailed(entry, ex)
+                }
+            }
+        } finally {
+            try {
+                transport.close()
+            } catch (ex: Exception) {
+                log.warn("Error while closing mail transport: ${ex.message}")
+            }
+        }
+        batchCounter.incrementAndGet()
+        sendMillis.addAndGet(System.currentTimeMillis() - begin)
+        return true
+    }
+
+    private fun markFailed(entry: MailQueueDao.Entry, ex: Exception) {
+        val attempts = entry.attempts + 1
+        if (attempts >= maxAttempts) {
+            failedCounter.incrementAndGet()
+            log.error("Sending of e-mail finally failed after $attempts attempts (#${entry.id}): ${entry.recipients}", ex)
+            mailQueueDao.markFailed(entry.id, ex.message, null)
+        } else {
+            retryCounter.incrementAndGet()
+            val nextAttempt = Date(System.currentTimeMillis() + getBackoffMillis(attempts))
+            log.warn("Sending of e-mail failed (#${entry.id}, attempt $attempts), will be retried at $nextAttempt: ${ex.message}")
+            mailQueueDao.markFailed(entry.id, ex.message, nextAttempt)
+        }
+    }
+
+    private fun cleanup() {
+        val now = System.currentTimeMillis()
+        if (now - lastCleanup < CLEANUP_INTERVAL_MILLIS) {
+            return
+        }
+        lastCleanup = now
+        val deleted = mailQueueDao.deleteSentBefore(Date(now - retentionDays * 24L * 3600 * 1000))
+        if (deleted > 0) {
+            log.info("$deleted sent e-mails removed from mail queue.")
+        }
+    }
+
+    companion object {
+        private const val CLEANUP_INTERVAL_MILLIS = 3600 * 1000L
+
+        internal const val INITIAL_BACKOFF_MILLIS = 60 * 1000L
+
+        internal const val MAX_BACKOFF_MILLIS = 3600 * 1000L
+
+        /**
+         * Exponential backoff: 1, 2, 4, 8, ... minutes (max. one hour) after the given number of failed attempts.
+         */
+        @JvmStatic
+        internal fun getBackoffMillis(attempts: Int): Long {
+            if (attempts <= 1) {
+                return INITIAL_BACKOFF_MILLIS
+            }
+            return Math.min(MAX_BACKOFF_MILLIS, INITIAL_BACKOFF_MILLIS shl Math.min(attempts - 1, 16))
+        }
+
+        @JvmStatic
+        internal fun toByteArray(message: MimeMessage): ByteArray {
+            val baos = ByteArrayOutputStream()
+            message.writeTo(baos)
+            return baos.toByteArray()
+        }
+
+        @JvmStatic
+        internal fun fromByteArray(session: Session, bytes: ByteArray): MimeMessage {
+            return MimeMessage(session, ByteArrayInputStream(bytes))
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/////////////////////////////////////////////////////////////////////////////
+//
+// Project ProjectForge Community Edition
+//         www.projectforge.org
+//
+// Copyright (C) 2001-2020 Micromata GmbH, Germany (www.micromata.com)
+//
+// ProjectForge is dual-licensed.
+//
+// This community edition is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; version 3 of the License.
+//
+// This community edition is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+// Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, see http://www.gnu.org/licenses/.
+//
+/////////////////////////////////////////////////////////////////////////////
+
+
+package org.projectforge.mail
+
+import de.micromata.genome.jpa.DbRecord
+import java.util.*
+import javax.persistence.*
+
+/**
+ * Outgoing e-mail of the mail queue. The message is stored as RFC 822 byte stream (including all attachments), so it
+ * survives restarts and may be re-sent on failures.
+ *
+ * @see MailDispatcher
+ */
+@NamedQueries(
+        NamedQuery(name = MailQueueDO.FIND_DUE,
+                query = "select id, attempts, recipients from MailQueueDO where status = :status and nextAttempt <= :now order by id"),
+        NamedQuery(name = MailQueueDO.GET_MESSAGE,
+                query = "select message from MailQueueDO where id = :id"),
+        NamedQuery(name = MailQueueDO.COUNT_BY_STATUS,
+                query = "select count(*) from MailQueueDO where status = :status"),
+        NamedQuery(name = MailQueueDO.DELETE_SENT_BEFORE,
+                query = "delete from MailQueueDO where status = :status and sent < :sentBefore"))
+@Entity
+@Table(name = "T_MAIL_QUEUE", indexes = [Index(name = "idx_t_mail_queue_status", columnList = "status, next_attempt")])
+open class MailQueueDO : DbRecord<Int> {
+    enum class Status { PENDING, SENT, FAILED }
+
+    @get:Id
+    @get:GeneratedValue
+    @get:Column(name = "pk")
+    open var id: Int? = null
+
+    @get:Column(nullable = false)
+    open var created: Date? = null
+
+    @get:Enumerated(EnumType.STRING)
+    @get:Column(length = 20, nullable = false)
+    open var status: Status? = null
+
+    @get:Column(nullable = false)
+    open var attempts: Int = 0
+
+    @get:Column(name = "next_attempt", nullable = false)
+    open var nextAttempt: Date? = null
+
+    @get:Column
+    open var sent: Date? = null
+
+    /**
+     * For logging and monitoring only.
+     */
+    @get:Column(length = 1000)
+    open var recipients: String? = null
+
+    /**
+     * For logging and monitoring only.
+     */
+    @get:Column(length = 1000)
+    open var subject: String? = null
+
+    @get:Column(name = "last_error", length = 4000)
+    open var lastError: String? = null
+
+    /**
+     * The mime message as RFC 822 byte stream. Will be removed after successful sending.
+     */
+    @get:Column
+    @get:Basic(fetch = FetchType.LAZY)
+    open var message: ByteArray? = null
+
+    @javax.persistence.Transient
+    override fun getPk(): Int? {
+        return id
+    }
+
+    override fun setPk(pk: Int?) {
+        id = pk
+    }
+
+    companion object {
+        internal const val FIND_DUE = "MailQueueDO.findDue"
+        internal const val GET_MESSAGE = "MailQueueDO.getMessage"
+        internal const val COUNT_BY_STATUS = "MailQueueDO.countByStatus"
+        internal const val DELETE_SENT_BEFORE = "MailQueueDO.deleteSentBefore"
+    }
+}
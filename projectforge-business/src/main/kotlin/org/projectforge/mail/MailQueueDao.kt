@@ -0,0 +1,148 @@
+/////////////////////////////////////////////////////////////////////////////
+//
+// Project ProjectForge Community Edition
+//         www.projectforge.org
+//
+// Copyright (C) 2001-2020 Micromata GmbH, Germany (www.micromata.com)
+//
+// ProjectForge is dual-licensed.
+//
+// This community edition is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; version 3 of the License.
+//
+// This community edition is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+// Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, see http://www.gnu.org/licenses/.
+//
+/////////////////////////////////////////////////////////////////////////////
+
+
+package org.projectforge.mail
+
+import org.apache.commons.lang3.StringUtils
+import org.projectforge.framework.persistence.jpa.PfEmgrFactory
+import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.stereotype.Repository
+import java.util.*
+
+/**
+ * Persistence of the mail queue. No access checking, for internal use of [MailDispatcher] only.
+ */
+@Repository
+open class MailQueueDao {
+    @Autowired
+    private lateinit var emgrFactory: PfEmgrFactory
+
+    open fun enqueue(message: ByteArray, recipients: String?, subject: String?): MailQueueDO {
+        val entry = MailQueueDO()
+        val now = Date()
+        entry.created = now
+        entry.nextAttempt = now
+        entry.status = MailQueueDO.Status.PENDING
+        entry.recipients = StringUtils.abbreviate(recipients, 1000)
+        entry.subject = StringUtils.abbreviate(subject, 1000)
+        entry.message = message
+        emgrFactory.runInTrans { emgr ->
+            emgr.persist(entry)
+            emgr.flush()
+        }
+        return entry
+    }
+
+    /**
+     * @return Pending entries due for sending (ordered by id). The messages aren't loaded (see [getMessage]).
+     */
+    open fun getDueEntries(maxResults: Int): List<Entry> {
+        return emgrFactory.runRoTrans { emgr ->
+            emgr.entityManager.createNamedQuery(MailQueueDO.FIND_DUE, Array<Any?>::class.java)
+                    .setParameter("status", MailQueueDO.Status.PENDING)
+                    .setParameter("now", Date())
+                    .setMaxResults(maxResults)
+                    .resultList
+                    .map { Entry(it[0] as Int, it[1] as Int, it[2] as String?) }
+        }
+    }
+
+    /**
+     * @return The RFC 822 bytes of the queued message or null, if not found (or already sent).
+     */
+    open fun getMessage(id: Int): ByteArray? {
+        return emgrFactory.runRoTrans { emgr ->
+            emgr.entityManager.createNamedQuery(MailQueueDO.GET_MESSAGE, ByteArray::class.java)
+                    .setParameter("id", id)
+                    .resultList
+                    .firstOrNull()
+        }
+    }
+
+    open fun markSent(id: Int) {
+        emgrFactory.runInTrans { emgr ->
+            emgr.entityManager.createQuery("update MailQueueDO set status = :status, sent = :now, attempts = attempts + 1, lastError = null, message = null where id = :id")
+                    .setParameter("status", MailQueueDO.Status.SENT)
+                    .setParameter("now", Date())
+                    .setParameter("id", id)
+                    .executeUpdate()
+        }
+    }
+
+    /**
+     * @param nextAttempt The date of the next attempt or null, if the sending failed finally.
+     */
+    open fun markFailed(id: Int, error: String?, nextAttempt: Date?) {
+        emgrFactory.runInTrans { emgr ->
+            emgr.entityManager.createQuery("update MailQueueDO set status = :status, attempts = attempts + 1, lastError = :error, nextAttempt = :nextAttempt where id = :id")
+                    .setParameter("status", if (nextAttempt != null) MailQueueDO.Status.PENDING else MailQueueDO.Status.FAILED)
+                    .setParameter("error", StringUtils.abbreviate(error, 4000))
+                    .setParameter("nextAttempt", nextAttempt ?: Date())
+                    .setParameter("id", id)
+                    .executeUpdate()
+        }
+    }
+
+    /**
+     * Postpones the sending of the given entries without counting an attempt (e. g. if the mail server isn't reachable).
+     */
+    open fun reschedule(ids: Collection<Int>, error: String?, nextAttempt: Date) {
+        if (ids.isEmpty()) {
+            return
+        }
+        emgrFactory.runInTrans { emgr ->
+            emgr.entityManager.createQuery("update MailQueueDO set lastError = :error, nextAttempt = :nextAttempt where id in (:ids)")
+                    .setParameter("error", StringUtils.abbreviate(error, 4000))
+                    .setParameter("nextAttempt", nextAttempt)
+                    .setParameter("ids", ids)
+                    .executeUpdate()
+        }
+    }
+
+    open fun count(status: MailQueueDO.Status): Long {
+        return emgrFactory.runRoTrans { emgr ->
+            emgr.entityManager.createNamedQuery(MailQueueDO.COUNT_BY_STATUS, java.lang.Long::class.java)
+                    .setParameter("status", status)
+                    .singleResult.toLong()
+        }
+    }
+
+    /**
+     * Deletes all successfully sent entries sent before the given date.
+     * @return Number of deleted entries.
+     */
+    open fun deleteSentBefore(sentBefore: Date): Int {
+        return emgrFactory.runInTrans { emgr ->
+            emgr.entityManager.createNamedQuery(MailQueueDO.DELETE_SENT_BEFORE)
+                    .setParameter("status", MailQueueDO.Status.SENT)
+                    .setParameter("sentBefore", sentBefore)
+                    .executeUpdate()
+        }
+    }
+
+    /**
+     * Queue entry without message.
+     */
+    class Entry(val id: Int, val attempts: Int, val recipients: String?)
+}
@@ -0,0 +1,12 @@
+CREATE TABLE T_TASK_TREE_INTERVAL (
+  task_id                                INTEGER                      NOT NULL,
+  root_task_id                           INTEGER                      NOT NULL,
+  tree_left                              INTEGER                      NOT NULL,
+  tree_right                             INTEGER                      NOT NULL
+);
+
+ALTER TABLE T_TASK_TREE_INTERVAL
+  ADD CONSTRAINT t_task_tree_interval_pkey PRIMARY KEY (task_id);
+
+CREATE INDEX idx_task_tree_interval_root_left
+  ON T_TASK_TREE_INTERVAL (root_task_id, tree_left);
@@ -0,0 +1,10 @@
+CREATE TABLE T_SEARCH_INDEX_QUEUE (
+  pk                                     INTEGER                      NOT NULL,
+  created                                TIMESTAMP WITHOUT TIME ZONE  NOT NULL,
+  entity_class                           CHARACTER VARYING(255)       NOT NULL,
+  entity_id                              BIGINT                       NOT NULL,
+  attempts                               INTEGER                      NOT NULL
+);
+
+ALTER TABLE T_SEARCH_INDEX_QUEUE
+  ADD CONSTRAINT t_search_index_queue_pkey PRIMARY KEY (pk);
@@ -0,0 +1,2 @@
+ALTER TABLE T_ADDRESS_IMAGE ADD COLUMN image_thumbnail BLOB;
+ALTER TABLE T_ADDRESS_IMAGE ADD COLUMN image_hash CHARACTER VARYING(64);
@@ -0,0 +1,21 @@
+CREATE TABLE T_TIMESHEET_AGGREGATE (
+  pk                                     INTEGER                      NOT NULL,
+  user_id                                INTEGER                      NOT NULL,
+  booking_day                            DATE                         NOT NULL,
+  task_id                                INTEGER                      NOT NULL,
+  kost2_id                               INTEGER,
+  duration                               BIGINT                       NOT NULL,
+  timesheet_count                        INTEGER                      NOT NULL
+);
+
+ALTER TABLE T_TIMESHEET_AGGREGATE
+  ADD CONSTRAINT t_timesheet_aggregate_pkey PRIMARY KEY (pk);
+
+CREATE INDEX idx_timesheet_aggregate_day_user
+  ON T_TIMESHEET_AGGREGATE (booking_day, user_id);
+
+CREATE INDEX idx_timesheet_aggregate_task
+  ON T_TIMESHEET_AGGREGATE (task_id);
+
+ALTER TABLE T_TIMESHEET_AGGREGATE
+  ADD CONSTRAINT unique_t_timesheet_aggregate UNIQUE (user_id, booking_day, task_id, kost2_id);
@@ -0,0 +1,18 @@
+CREATE TABLE T_MAIL_QUEUE (
+  pk                                     INTEGER                      NOT NULL,
+  created                                TIMESTAMP WITHOUT TIME ZONE  NOT NULL,
+  status                                 CHARACTER VARYING(20)        NOT NULL,
+  attempts                               INTEGER                      NOT NULL,
+  next_attempt                           TIMESTAMP WITHOUT TIME ZONE  NOT NULL,
+  sent                                   TIMESTAMP WITHOUT TIME ZONE,
+  recipients                             CHARACTER VARYING(1000),
+  subject                                CHARACTER VARYING(1000),
+  last_error                             CHARACTER VARYING(4000),
+  message                                BYTEA
+);
+
+ALTER TABLE T_MAIL_QUEUE
+  ADD CONSTRAINT t_mail_queue_pkey PRIMARY KEY (pk);
+
+CREATE INDEX idx_t_mail_queue_status
+  ON T_MAIL_QUEUE (status, next_attempt);
@@ -0,0 +1,165 @@
+/////////////////////////////////////////////////////////////////////////////
+//
+// Project ProjectForge Community Edition
+//         www.projectforge.org
+//
+// Copyright (C) 2001-2020 Micromata GmbH, Germany (www.micromata.com)
+//
+// ProjectForge is dual-licensed.
+//
+// This community edition is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; version 3 of the License.
+//
+// This community edition is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+// Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, see http://www.gnu.org/licenses/.
+//
+/////////////////////////////////////////////////////////////////////////////
+
+
+package org.projectforge.business.ldap;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.directory.server.annotations.CreateLdapServer;
+import org.apache.directory.server.annotations.CreateTransport;
+import org.apache.directory.server.core.DirectoryService;
+import org.apache.directory.server.core.annotations.ContextEntry;
+import org.apache.directory.server.core.annotations.CreateDS;
+import org.apache.directory.server.core.annotations.CreatePartition;
+import org.apache.directory.server.core.factory.DSAnnotationProcessor;
+import org.apache.directory.server.factory.ServerAnnotationProcessor;
+import org.apache.directory.server.ldap.LdapServer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.runner.Description;
+import org.projectforge.framework.persistence.user.entities.GroupDO;
+import org.projectforge.framework.persistence.user.entities.PFUserDO;
+import org.projectforge.test.AbstractTestBase;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.util.*;
+
+/**
+ * Synchronization of users and groups against an embedded ApacheDS server (full and incremental runs).
+ */
+@CreateDS(name = "pfSyncTest",
+    partitions = {
+        @CreatePartition(
+            name = "example",
+            suffix = "dc=example,dc=org",
+            contextEntry = @ContextEntry(
+                entryLdif = "dn: dc=example,dc=org\n" +
+                    "dc: example\n" +
+                    "objectClass: top\n" +
+                    "objectClass: domain\n\n"))
+    })
+@CreateLdapServer(transports = {@CreateTransport(protocol = "LDAP")})
+public class LdapMasterLoginHandlerSyncTest extends AbstractTestBase
+{
+  private static DirectoryService directoryService;
+
+  private static LdapServer ldapServer;
+
+  @Autowired
+  private LdapMasterLoginHandler loginHandler;
+
+  @Autowired
+  private LdapUserDao ldapUserDao;
+
+  @Autowired
+  private LdapGroupDao ldapGroupDao;
+
+  @BeforeAll
+  static void startLdapServer() throws Exception
+  {
+    final Description description = Description.createSuiteDescription(LdapMasterLoginHandlerSyncTest.class);
+    directoryService = DSAnnotationProcessor.getDirectoryService(description);
+    ldapServer = ServerAnnotationProcessor.getLdapServer(description, directoryService, 1024);
+  }
+
+  @AfterAll
+  static void stopLdapServer() throws Exception
+  {
+    if (ldapServer != null) {
+      ldapServer.stop();
+    }
+    if (directoryService != null) {
+      directoryService.shutdown();
+      FileUtils.deleteDirectory(directoryService.getWorkingDirectory());
+    }
+  }
+
+  @Test
+  void fullAndIncrementalSync()
+  {
+    final LdapConfig ldapConfig = new LdapConfig();
+    ldapConfig.setServer("ldap://localhost");
+    ldapConfig.setPort(ldapServer.getPort());
+    ldapConfig.setBaseDN("dc=example,dc=org");
+    ldapConfig.setUserBase("ou=users");
+    ldapConfig.setGroupBase("ou=groups");
+    ldapConfig.setAuthentication("simple");
+    ldapConfig.setManagerUser("uid=admin,ou=system");
+    ldapConfig.setManagerPassword("secret");
+    loginHandler.ldapConfig = ldapConfig;
+    loginHandler.initialize();
+
+    final Date lastHour = new Date(System.currentTimeMillis() - 60 * 60 * 1000L);
+    final PFUserDO user1 = createUser(900001, "ldapsync1", lastHour);
+    final PFUserDO user2 = createUser(900002, "ldapsync2", lastHour);
+    final GroupDO group = new GroupDO();
+    group.setId(900101);
+    group.setName("ldapsync-group");
+    group.setLastUpdate(lastHour);
+    group.setAssignedUsers(new HashSet<>(Collections.singletonList(user1)));
+    final List<PFUserDO> users = Arrays.asList(user1, user2);
+    final List<GroupDO> groups = Collections.singletonList(group);
+
+    // First run is a full synchronization:
+    loginHandler.updateLdap(users, groups);
+    Assertions.assertNotNull(ldapUserDao.findByUsername("ldapsync1", "ou=users"));
+    Assertions.assertNotNull(ldapUserDao.findByUsername("ldapsync2", "ou=users"));
+    Assertions.assertEquals(1, getLdapGroup().getMembers().size());
+
+    // Incremental run: unmodified users (lastUpdate before the last synchronization) are skipped:
+    user2.setDescription("modified");
+    loginHandler.updateLdap(users, groups);
+    Assertions.assertNull(ldapUserDao.findByUsername("ldapsync2", "ou=users").getDescription());
+
+    // Modified user is written, as well as the groups of the modified user:
+    user2.setLastUpdate(new Date());
+    group.getAssignedUsers().add(user2);
+    loginHandler.updateLdap(users, groups);
+    Assertions.assertEquals("modified", ldapUserDao.findByUsername("ldapsync2", "ou=users").getDescription());
+    Assertions.assertEquals(2, getLdapGroup().getMembers().size());
+  }
+
+  private LdapGroup getLdapGroup()
+  {
+    for (final LdapGroup ldapGroup : ldapGroupDao.findAll("ou=groups")) {
+      if ("ldapsync-group".equals(ldapGroup.getCommonName())) {
+        return ldapGroup;
+      }
+    }
+    Assertions.fail("LDAP group not found.");
+    return null;
+  }
+
+  private PFUserDO createUser(final int id, final String username, final Date lastUpdate)
+  {
+    final PFUserDO user = new PFUserDO();
+    user.setId(id);
+    user.setUsername(username);
+    user.setFirstname("Sync");
+    user.setLastname(username);
+    user.setLastUpdate(lastUpdate);
+    return user;
+  }
+}
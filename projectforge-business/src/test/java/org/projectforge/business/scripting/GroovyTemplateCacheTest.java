@@ -0,0 +1,86 @@
+/////////////////////////////////////////////////////////////////////////////
+//
+// Project ProjectForge Community Edition
+//         www.projectforge.org
+//
+// Copyright (C) 2001-2020 Micromata GmbH, Germany (www.micromata.com)
+//
+// ProjectForge is dual-licensed.
+//
+// This community edition is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; version 3 of the License.
+//
+// This community edition is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+// Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, see http://www.gnu.org/licenses/.
+//
+/////////////////////////////////////////////////////////////////////////////
+
+package org.projectforge.business.scripting;
+
+import groovy.text.SimpleTemplateEngine;
+import groovy.text.Template;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class GroovyTemplateCacheTest
+{
+  private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(GroovyTemplateCacheTest.class);
+
+  private static final String TEMPLATE = "Dear ${name},<% for (i in 1..3) { %> [<%= i %>]<% } %>";
+
+  @Test
+  public void cacheTest() throws Exception
+  {
+    final GroovyTemplateCache cache = new GroovyTemplateCache();
+    final Template template = cache.getTemplate(TEMPLATE);
+    assertSame(template, cache.getTemplate(TEMPLATE));
+    assertNotSame(template, cache.getTemplate(TEMPLATE + " "));
+    assertEquals(1, cache.getHits());
+    assertEquals(2, cache.getMisses());
+    for (int i = 0; i < GroovyTemplateCache.MAX_SIZE + 10; i++) {
+      cache.getTemplate("Template " + i);
+    }
+    assertEquals(GroovyTemplateCache.MAX_SIZE, cache.getSize(), "Cache must be bounded.");
+  }
+
+  /**
+   * Simple benchmark: Rendering the same template for 40 recipients (e. g. calendar invitation).
+   */
+  @Test
+  public void renderBenchmark() throws Exception
+  {
+    final int recipients = 40;
+    final GroovyTemplateCache cache = new GroovyTemplateCache();
+    long begin = System.nanoTime();
+    for (int i = 0; i < recipients; i++) {
+      assertEquals("Dear Kai" + i + ", [1] [2] [3]", render(new SimpleTemplateEngine().createTemplate(TEMPLATE), i));
+    }
+    final long uncached = System.nanoTime() - begin;
+    begin = System.nanoTime();
+    for (int i = 0; i < recipients; i++) {
+      assertEquals("Dear Kai" + i + ", [1] [2] [3]", render(cache.getTemplate(TEMPLATE), i));
+    }
+    final long cached = System.nanoTime() - begin;
+    assertEquals(1, cache.getMisses());
+    assertEquals(recipients - 1, cache.getHits());
+    log.info("Rendering template " + recipients + " times: uncached=" + uncached / 1000000 + "ms, cached="
+        + cached / 1000000 + "ms (" + cache + ").");
+  }
+
+  private String render(final Template template, final int i)
+  {
+    final Map<String, Object> variables = new HashMap<>();
+    variables.put("name", "Kai" + i);
+    return template.make(variables).toString();
+  }
+}
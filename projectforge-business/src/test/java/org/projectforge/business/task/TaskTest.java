@@ -34,13 +34,19 @@ import org.projectforge.business.tasktree.TaskTreeHelper;
 import org.projectforge.business.timesheet.TimesheetDO;
 import org.projectforge.business.timesheet.TimesheetDao;
 import org.projectforge.common.task.TimesheetBookingStatus;
+import org.projectforge.framework.access.AccessDao;
 import org.projectforge.framework.access.AccessException;
 import org.projectforge.framework.access.AccessType;
+import org.projectforge.framework.access.GroupTaskAccessDO;
 import org.projectforge.framework.access.OperationType;
 import org.projectforge.framework.i18n.UserException;
+import org.projectforge.framework.persistence.api.QueryFilter;
+import org.projectforge.framework.persistence.api.impl.DBPredicate;
 import org.projectforge.framework.persistence.user.entities.GroupDO;
 import org.projectforge.framework.time.PFDateTime;
 import org.projectforge.test.AbstractTestBase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 
 import java.io.Serializable;
@@ -48,11 +54,12 @@ import java.time.LocalDate;
 import java.time.Month;
 import java.time.temporal.ChronoUnit;
 import java.util.List;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.*;
 
 public class TaskTest extends AbstractTestBase {
-  // private static final Logger log = Logger.getLogger(TaskTest.class);
+  private static final Logger log = LoggerFactory.getLogger(TaskTest.class);
 
   @Autowired
   private TaskDao taskDao;
@@ -69,6 +76,9 @@ public class TaskTest extends AbstractTestBase {
   @Autowired
   private TimesheetDao timesheetDao;
 
+  @Autowired
+  private AccessDao accessDao;
+
   @Test
   public void testTaskDO() {
     final List<TaskDO> list = taskDao.internalLoadAll();
@@ -259,6 +269,169 @@ public class TaskTest extends AbstractTestBase {
     }
   }
 
+  /**
+   * Compares the materialized permissions of the task tree with the recursive permission checks of the task nodes after
+   * inserting access entries, moving tasks and deleting access entries. The number of benchmark iterations is given by
+   * the system property task.benchmark.iterations (default is 100).
+   */
+  @Test
+  public void checkPermissionMatrix() {
+    initTestDB.addTask("matrix", "root");
+    initTestDB.addTask("m.1", "matrix");
+    initTestDB.addTask("m.1.1", "m.1");
+    initTestDB.addTask("m.1.1.1", "m.1.1");
+    initTestDB.addTask("m.2", "matrix");
+    initTestDB.addTask("m.2.1", "m.2");
+    final GroupDO group1 = initTestDB.addGroup("matrixGroup1");
+    final GroupDO group2 = initTestDB.addGroup("matrixGroup2");
+    initTestDB.createGroupTaskAccess(group1, getTask("m.1"), AccessType.TASKS, true, true, false, false);
+    initTestDB.createGroupTaskAccess(group1, getTask("m.2"), AccessType.TASKS, true, true, true, true);
+    final GroupTaskAccessDO access = initTestDB.createGroupTaskAccess(group2, getTask("m.1.1"), AccessType.TIMESHEETS,
+            true, false, false, false);
+    access.setRecursive(false);
+    accessDao.internalUpdate(access);
+    final TaskTree taskTree = TaskTreeHelper.getTaskTree();
+    assertPermissionMatrix(taskTree, group1, group2);
+    assertTrue(taskTree.hasPermission(getTaskNode(taskTree, "m.1.1.1"), group1.getId(), AccessType.TASKS, OperationType.INSERT));
+    assertFalse(taskTree.hasPermission(getTaskNode(taskTree, "m.1.1.1"), group1.getId(), AccessType.TASKS, OperationType.UPDATE));
+    assertTrue(taskTree.hasPermission(getTaskNode(taskTree, "m.1.1"), group2.getId(), AccessType.TIMESHEETS, OperationType.SELECT));
+    assertFalse(taskTree.hasPermission(getTaskNode(taskTree, "m.1.1.1"), group2.getId(), AccessType.TIMESHEETS, OperationType.SELECT), "Not recursive.");
+
+    // Move m.1.1 with its child below m.2:
+    final TaskDO task = taskDao.internalGetById(getTask("m.1.1").getId());
+    taskDao.setParentTask(task, getTask("m.2").getId());
+    taskDao.internalUpdate(task);
+    assertPermissionMatrix(taskTree, group1, group2);
+    assertTrue(taskTree.hasPermission(getTaskNode(taskTree, "m.1.1.1"), group1.getId(), AccessType.TASKS, OperationType.UPDATE));
+
+    // Remove the access:
+    accessDao.internalMarkAsDeleted(access);
+    assertPermissionMatrix(taskTree, group1, group2);
+    assertFalse(taskTree.hasPermission(getTaskNode(taskTree, "m.1.1"), group2.getId(), AccessType.TIMESHEETS, OperationType.SELECT));
+
+    final int iterations = Integer.getInteger("task.benchmark.iterations", 100);
+    final List<TaskNode> nodes = taskTree.getRootTaskNode().getDescendantIds().stream().map(taskTree::getTaskNodeById)
+            .collect(Collectors.toList());
+    final Integer[] groupIds = {group1.getId(), group2.getId()};
+    int counter = 0;
+    long begin = System.nanoTime();
+    for (int i = 0; i < iterations; i++) {
+      for (final TaskNode node : nodes) {
+        for (final Integer groupId : groupIds) {
+          if (node.hasPermission(groupId, AccessType.TASKS, OperationType.SELECT)) {
+            ++counter;
+          }
+        }
+      }
+    }
+    final long recursiveDuration = System.nanoTime() - begin;
+    begin = System.nanoTime();
+    for (int i = 0; i < iterations; i++) {
+      for (final TaskNode node : nodes) {
+        for (final Integer groupId : groupIds) {
+          if (taskTree.hasPermission(node, groupId, AccessType.TASKS, OperationType.SELECT)) {
+            --counter;
+          }
+        }
+      }
+    }
+    final long materializedDuration = System.nanoTime() - begin;
+    assertEquals(0, counter);
+    log.info("Benchmark of " + iterations * nodes.size() * groupIds.length + " permission checks: recursive="
+            + recursiveDuration / 1000000 + "ms, materialized=" + materializedDuration / 1000000 + "ms.");
+  }
+
+  /**
+   * Checks the pre-order intervals of the task nodes after inserting and moving tasks and the recursive task search by
+   * intervals.
+   */
+  @Test
+  public void checkTreeIntervals() {
+    initTestDB.addTask("intervals", "root");
+    initTestDB.addTask("i.1", "intervals");
+    initTestDB.addTask("i.1.1", "i.1");
+    initTestDB.addTask("i.1.1.1", "i.1.1");
+    initTestDB.addTask("i.2", "intervals");
+    final TaskTree taskTree = TaskTreeHelper.getTaskTree();
+    assertTreeIntervals(taskTree, "intervals");
+    assertPersistedTreeIntervals(taskTree);
+    final TaskDO task = taskDao.internalGetById(getTask("i.1.1").getId());
+    taskDao.setParentTask(task, getTask("i.2").getId());
+    taskDao.internalUpdate(task);
+    assertTreeIntervals(taskTree, "intervals");
+    assertPersistedTreeIntervals(taskTree);
+    initTestDB.addTask("i.1.2", "i.1"); // Shifts all following nodes.
+    assertTreeIntervals(taskTree, "intervals");
+    assertPersistedTreeIntervals(taskTree);
+    assertTrue(getTaskNode(taskTree, "i.2").isParentOf(getTaskNode(taskTree, "i.1.1.1")));
+    assertFalse(getTaskNode(taskTree, "i.1").isParentOf(getTaskNode(taskTree, "i.1.1.1")));
+
+    assertTrue(taskTree.isTreeIntervalsPersisted());
+    final Integer taskId = getTask("i.2").getId();
+    final DBPredicate predicate = QueryFilter.taskSearch("id", taskId, true);
+    assertTrue(predicate instanceof DBPredicate.TaskSubtree);
+    final QueryFilter queryFilter = new QueryFilter();
+    queryFilter.add(predicate);
+    final List<Integer> taskIds = taskDao.internalGetList(queryFilter).stream().map(TaskDO::getId).sorted()
+            .collect(Collectors.toList());
+    final List<Integer> expected = taskTree.getTaskNodeById(taskId).getDescendantIds();
+    expected.add(taskId);
+    expected.sort(null);
+    assertEquals(expected, taskIds);
+  }
+
+  /**
+   * The persisted intervals (written by bulk updates of shifted ranges) must match the intervals of all task nodes.
+   */
+  private void assertPersistedTreeIntervals(final TaskTree taskTree) {
+    assertTrue(taskTree.isTreeIntervalsPersisted());
+    final TaskNode root = taskTree.getRootTaskNode();
+    final List<TaskTreeIntervalDO> intervals = emf.runRoTrans(emgr -> emgr.selectDetached(TaskTreeIntervalDO.class,
+        "select i from " + TaskTreeIntervalDO.class.getName() + " i where i.rootTaskId = :rootTaskId",
+        "rootTaskId", root.getId()));
+    assertEquals(root.getDescendantIds().size() + 1, intervals.size());
+    for (final TaskTreeIntervalDO interval : intervals) {
+      final TaskNode node = taskTree.getTaskNodeById(interval.getTaskId());
+      assertEquals(node.getTreeLeft(), interval.getTreeLeft(), "Tree left of task " + node.getId());
+      assertEquals(node.getTreeRight(), interval.getTreeRight(), "Tree right of task " + node.getId());
+    }
+  }
+
+  private void assertTreeIntervals(final TaskTree taskTree, final String taskName) {
+    final TaskNode top = getTaskNode(taskTree, taskName);
+    final List<Integer> taskIds = top.getDescendantIds();
+    taskIds.add(top.getId());
+    for (final Integer taskId : taskIds) {
+      final TaskNode node = taskTree.getTaskNodeById(taskId);
+      assertTrue(node.getTreeLeft() > 0 && node.getTreeLeft() <= node.getTreeRight());
+      final List<Integer> descendantIds = node.getDescendantIds();
+      for (final Integer otherId : taskIds) {
+        final TaskNode other = taskTree.getTaskNodeById(otherId);
+        assertEquals(descendantIds.contains(otherId),
+                node.getTreeLeft() < other.getTreeLeft() && other.getTreeLeft() <= node.getTreeRight());
+      }
+    }
+  }
+
+  private TaskNode getTaskNode(final TaskTree taskTree, final String taskName) {
+    return taskTree.getTaskNodeById(getTask(taskName).getId());
+  }
+
+  private void assertPermissionMatrix(final TaskTree taskTree, final GroupDO... groups) {
+    for (final Integer taskId : taskTree.getRootTaskNode().getDescendantIds()) {
+      final TaskNode node = taskTree.getTaskNodeById(taskId);
+      for (final GroupDO group : groups) {
+        for (final AccessType accessType : AccessType.values()) {
+          for (final OperationType opType : OperationType.values()) {
+            assertEquals(node.hasPermission(group.getId(), accessType, opType),
+                    taskTree.hasPermission(node, group.getId(), accessType, opType),
+                    "Task " + node.getTask().getTitle() + ", group " + group.getName() + ", " + accessType + ", " + opType);
+          }
+        }
+      }
+    }
+  }
+
   @Test
   public void checkAccess() {
     logon(AbstractTestBase.TEST_ADMIN_USER);
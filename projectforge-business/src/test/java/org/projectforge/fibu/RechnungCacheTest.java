@@ -25,12 +25,16 @@ package org.projectforge.fibu;
 
 import org.junit.jupiter.api.Test;
 import org.projectforge.business.fibu.*;
+import org.projectforge.framework.cache.CacheSnapshotService;
 import org.projectforge.framework.time.PFDay;
 import org.projectforge.test.AbstractTestBase;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.util.ReflectionTestUtils;
 
+import java.io.File;
 import java.math.BigDecimal;
 import java.time.LocalDate;
+import java.util.Date;
 import java.util.Iterator;
 import java.util.Set;
 
@@ -40,6 +44,9 @@ public class RechnungCacheTest extends AbstractTestBase {
   @Autowired
   private AuftragDao auftragDao;
 
+  @Autowired
+  private CacheSnapshotService cacheSnapshotService;
+
   @Autowired
   private RechnungDao rechnungDao;
 
@@ -115,4 +122,82 @@ public class RechnungCacheTest extends AbstractTestBase {
     assertEquals(0, new BigDecimal("300").compareTo(RechnungDao.getNettoSumme(set)));
   }
 
+  /**
+   * Modifications while ProjectForge is down (not seen by the cache) must be detected on restart.
+   */
+  @Test
+  public void snapshotTest() {
+    logon(getUser(AbstractTestBase.TEST_FINANCE_USER));
+    final AuftragDO auftrag = new AuftragDO();
+    final AuftragsPositionDO auftragsPosition = new AuftragsPositionDO();
+    auftragsPosition.setTitel("Pos 1");
+    auftrag.addPosition(auftragsPosition);
+    auftrag.setNummer(auftragDao.getNextNumber(auftrag));
+    auftragDao.save(auftrag);
+    final RechnungDO rechnung = new RechnungDO();
+    final RechnungsPositionDO position = new RechnungsPositionDO();
+    position.setAuftragsPosition(auftrag.getPosition((short) 1));
+    position.setEinzelNetto(new BigDecimal("100"));
+    position.setText("1.1");
+    rechnung.addPosition(position);
+    rechnung.setNummer(rechnungDao.getNextNumber(rechnung));
+    rechnung.setDatum(LocalDate.now());
+    rechnung.setFaelligkeit(LocalDate.now());
+    rechnung.setProjekt(initTestDB.addProjekt(null, 1, "foo"));
+    rechnungDao.save(rechnung);
+    final Integer positionId = rechnung.getPositionen().get(0).getId();
+
+    ReflectionTestUtils.setField(cacheSnapshotService, "isEnabled", true);
+    // Snapshot of previous test runs:
+    new File((String) ReflectionTestUtils.getField(cacheSnapshotService, "baseDir"), "cacheSnapshots/RechnungCache.snapshot").delete();
+    try {
+      RechnungCache cache = createCache();
+      assertNettoSumme("100", cache, auftrag);
+      cache.writeSnapshot();
+
+      // Shutdown, position modified, restart: positions of the modified invoice are reloaded.
+      emf.runInTrans(emgr -> emgr.getEntityManager()
+              .createQuery("update RechnungsPositionDO set einzelNetto = :netto, lastUpdate = :lastUpdate where id = :id")
+              .setParameter("netto", new BigDecimal("150"))
+              .setParameter("lastUpdate", new Date())
+              .setParameter("id", positionId)
+              .executeUpdate());
+      cache = createCache();
+      assertNettoSumme("150", cache, auftrag);
+      cache.writeSnapshot();
+
+      // Shutdown, position and order position modified, restart: snapshot is rejected (rebuild).
+      emf.runInTrans(emgr -> {
+        emgr.getEntityManager()
+                .createQuery("update RechnungsPositionDO set einzelNetto = :netto where id = :id")
+                .setParameter("netto", new BigDecimal("200"))
+                .setParameter("id", positionId)
+                .executeUpdate();
+        return emgr.getEntityManager()
+                .createQuery("update AuftragsPositionDO set titel = :titel, lastUpdate = :lastUpdate where id = :id")
+                .setParameter("titel", "Pos 1 (modified)")
+                .setParameter("lastUpdate", new Date())
+                .setParameter("id", auftrag.getPosition((short) 1).getId())
+                .executeUpdate();
+      });
+      assertNettoSumme("200", createCache(), auftrag);
+    } finally {
+      ReflectionTestUtils.setField(cacheSnapshotService, "isEnabled", false);
+    }
+  }
+
+  /**
+   * @return New instance (as after a restart).
+   */
+  private RechnungCache createCache() {
+    final RechnungCache cache = new RechnungCache();
+    applicationContext.getAutowireCapableBeanFactory().autowireBean(cache);
+    return cache;
+  }
+
+  private void assertNettoSumme(final String expected, final RechnungCache cache, final AuftragDO auftrag) {
+    final Set<RechnungsPositionVO> set = cache.getRechnungsPositionVOSetByAuftragId(auftrag.getId());
+    assertEquals(1, set.size());
+    assertEquals(0, new BigDecimal(expected).compareTo(RechnungDao.getNettoSumme(set)));
+  }
 }
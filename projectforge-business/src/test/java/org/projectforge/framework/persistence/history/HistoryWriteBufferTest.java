@@ -0,0 +1,109 @@
+/////////////////////////////////////////////////////////////////////////////
+//
+// Project ProjectForge Community Edition
+//         www.projectforge.org
+//
+// Copyright (C) 2001-2020 Micromata GmbH, Germany (www.micromata.com)
+//
+// ProjectForge is dual-licensed.
+//
+// This community edition is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; version 3 of the License.
+//
+// This community edition is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+// Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, see http://www.gnu.org/licenses/.
+//
+/////////////////////////////////////////////////////////////////////////////
+
+package org.projectforge.framework.persistence.history;
+
+import org.junit.jupiter.api.Test;
+import org.projectforge.business.timesheet.TimesheetDO;
+import org.projectforge.business.timesheet.TimesheetDao;
+import org.projectforge.framework.persistence.jpa.PfEmgrFactory;
+import org.projectforge.framework.time.PFDateTime;
+import org.projectforge.test.AbstractTestBase;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.io.Serializable;
+import java.time.Month;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HistoryWriteBufferTest extends AbstractTestBase {
+  @Autowired
+  private PfEmgrFactory emgrFactory;
+
+  @Autowired
+  private TimesheetDao timesheetDao;
+
+  @Test
+  public void bufferTest() {
+    final HistoryWriteBuffer buffer = emgrFactory.runInTrans(emgr -> {
+      final HistoryWriteBuffer outer = HistoryWriteBuffer.begin(emgr);
+      assertNotNull(outer);
+      assertSame(outer, HistoryWriteBuffer.get(emgr));
+      assertNull(HistoryWriteBuffer.begin(emgr), "Nested call must use the outer buffer.");
+      outer.end();
+      return outer;
+    });
+    assertNotNull(buffer);
+    emgrFactory.runInTrans(emgr -> {
+      assertNull(HistoryWriteBuffer.get(emgr), "Buffer must be removed by end().");
+      return null;
+    });
+  }
+
+  @Test
+  public void massUpdateWithDeferredHistory() {
+    final String prefix = "hwb-";
+    initTestDB.addTask(prefix + "1", "root");
+    initTestDB.addTask(prefix + "2", "root");
+    initTestDB.addUser(prefix + "user");
+    logon(getUser(AbstractTestBase.TEST_ADMIN_USER));
+    final List<TimesheetDO> list = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      list.add(createTimesheet(prefix, 10 + i));
+    }
+    final boolean deferred = HistoryBaseDaoAdapter.isDeferredHistoryWrite();
+    HistoryBaseDaoAdapter.setDeferredHistoryWrite(true);
+    try {
+      final HistoryWriteBuffer.Statistics before = HistoryWriteBuffer.getStatistics();
+      final TimesheetDO master = new TimesheetDO();
+      master.setTask(initTestDB.getTask(prefix + "2"));
+      master.setLocation("Headquarter");
+      timesheetDao.massUpdate(list, master);
+      final HistoryWriteBuffer.Statistics after = HistoryWriteBuffer.getStatistics();
+      assertEquals(before.getFlushes() + 1, after.getFlushes(), "History of the mass update must be written in one flush.");
+      assertEquals(before.getEntities() + list.size(), after.getEntities());
+    } finally {
+      HistoryBaseDaoAdapter.setDeferredHistoryWrite(deferred);
+    }
+    for (final TimesheetDO ts : list) {
+      final TimesheetDO dbObj = timesheetDao.getById(ts.getId());
+      assertEquals("Headquarter", dbObj.getLocation());
+      assertEquals(initTestDB.getTask(prefix + "2").getId(), dbObj.getTaskId());
+      assertEquals(2, timesheetDao.getHistoryEntries(dbObj).length, "Insert and update expected in history.");
+    }
+  }
+
+  private TimesheetDO createTimesheet(final String prefix, final int hour) {
+    final TimesheetDO ts = new TimesheetDO();
+    ts.setStartTime(PFDateTime.withDate(2019, Month.NOVEMBER, 21, hour, 0, 0).getSqlTimestamp());
+    ts.setStopTime(PFDateTime.withDate(2019, Month.NOVEMBER, 21, hour, 45, 0).getSqlTimestamp());
+    ts.setTask(initTestDB.getTask(prefix + "1"));
+    ts.setUser(getUser(prefix + "user"));
+    ts.setLocation("Office");
+    ts.setDescription("Deferred history test.");
+    final Serializable id = timesheetDao.internalSave(ts);
+    return timesheetDao.getById(id);
+  }
+}
@@ -0,0 +1,115 @@
+/////////////////////////////////////////////////////////////////////////////
+//
+// Project ProjectForge Community Edition
+//         www.projectforge.org
+//
+// Copyright (C) 2001-2020 Micromata GmbH, Germany (www.micromata.com)
+//
+// ProjectForge is dual-licensed.
+//
+// This community edition is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; version 3 of the License.
+//
+// This community edition is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+// Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, see http://www.gnu.org/licenses/.
+//
+/////////////////////////////////////////////////////////////////////////////
+
+
+package org.projectforge.framework.renderer;
+
+import org.junit.jupiter.api.Test;
+import org.projectforge.test.AbstractTestBase;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PdfRendererTest extends AbstractTestBase
+{
+  private static final String STYLESHEET = "fo-styles/Micromata/timesheet-template-fo.xsl";
+
+  @Autowired
+  private PdfRenderer pdfRenderer;
+
+  @Test
+  public void renderSpooledTest() throws IOException
+  {
+    logon(TEST_USER);
+    try (final SpooledContent pdf = pdfRenderer.renderSpooled(STYLESHEET, "fo-styles/test/simple2pdf.xml", createData())) {
+      assertTrue(pdf.getSize() > 0);
+      final ByteArrayOutputStream out = new ByteArrayOutputStream();
+      pdf.writeTo(out);
+      assertEquals(pdf.getSize(), out.size());
+      assertTrue(new String(out.toByteArray(), 0, 5, StandardCharsets.US_ASCII).startsWith("%PDF"));
+    }
+  }
+
+  @Test
+  public void renderErrorTest()
+  {
+    logon(TEST_USER);
+    // Errors are thrown before anything is streamed:
+    assertThrows(RuntimeException.class,
+        () -> pdfRenderer.renderSpooled(STYLESHEET, "fo-styles/test/non-existing2pdf.xml", createData()));
+    assertThrows(RuntimeException.class,
+        () -> pdfRenderer.renderSpooled("fo-styles/test/non-existing-fo.xsl", "fo-styles/test/simple2pdf.xml", createData()));
+  }
+
+  @Test
+  public void spooledContentTest() throws IOException
+  {
+    final byte[] bytes = "0123456789".getBytes(StandardCharsets.US_ASCII);
+    try (final SpooledContent content = new SpooledContent(100, "pdf-renderer-test-")) {
+      content.getOutputStream().write(bytes);
+      assertTrue(content.isInMemory());
+      assertContent(content, bytes);
+    }
+    final File file;
+    try (final SpooledContent content = new SpooledContent(5, "pdf-renderer-test-")) {
+      content.getOutputStream().write(bytes);
+      assertFalse(content.isInMemory());
+      assertContent(content, bytes);
+      assertContent(content, bytes); // Content may be written multiple times.
+      file = getFile(content);
+      assertTrue(file.exists());
+    }
+    assertFalse(file.exists(), "Temporary file must be deleted on close.");
+  }
+
+  private void assertContent(final SpooledContent content, final byte[] expected) throws IOException
+  {
+    assertEquals(expected.length, content.getSize());
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    content.writeTo(out);
+    assertArrayEquals(expected, out.toByteArray());
+  }
+
+  private File getFile(final SpooledContent content)
+  {
+    final File[] files = new File(System.getProperty("java.io.tmpdir")).listFiles((dir, name) -> name.startsWith("pdf-renderer-test-"));
+    assertNotNull(files);
+    assertEquals(1, files.length);
+    return files[0];
+  }
+
+  private Map<String, Object> createData()
+  {
+    final Map<String, Object> data = new HashMap<>();
+    data.put("title", "PdfRendererTest");
+    data.put("systemDate", "2020-01-01");
+    return data;
+  }
+}
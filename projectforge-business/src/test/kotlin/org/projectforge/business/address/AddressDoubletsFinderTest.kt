@@ -0,0 +1,98 @@
+/////////////////////////////////////////////////////////////////////////////
+//
+// Project ProjectForge Community Edition
+//         www.projectforge.org
+//
+// Copyright (C) 2001-2020 Micromata GmbH, Germany (www.micromata.com)
+//
+// ProjectForge is dual-licensed.
+//
+// This community edition is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; version 3 of the License.
+//
+// This community edition is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+// Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, see http://www.gnu.org/licenses/.
+//
+/////////////////////////////////////////////////////////////////////////////
+
+package org.projectforge.business.address
+
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.assertThrows
+import org.projectforge.framework.access.AccessException
+import org.projectforge.test.AbstractTestBase
+import org.springframework.beans.factory.annotation.Autowired
+
+class AddressDoubletsFinderTest : AbstractTestBase() {
+    @Autowired
+    private lateinit var addressDao: AddressDao
+
+    @Autowired
+    private lateinit var addressDoubletsFinder: AddressDoubletsFinder
+
+    @Test
+    fun normalizeTest() {
+        assertEquals("kaireinhard", AddressDoubletsFinder.getNormalizedFullname(" Kai", "Reinhard "))
+        assertEquals("reinhard", AddressDoubletsFinder.getNormalizedFullname(null, "Reinhard"))
+        assertEquals(AddressDoubletsFinder.getFuzzyFullname("Hans", "Müller-Lüdenscheidt"),
+                AddressDoubletsFinder.getFuzzyFullname("hans ", "Muller Ludenscheidt"))
+        assertEquals("k.reinhard@acme.com", AddressDoubletsFinder.normalizeEmail(" K.Reinhard@acme.com"))
+        assertEquals(AddressDoubletsFinder.normalizePhone("+49 561 316793-0"),
+                AddressDoubletsFinder.normalizePhone("0561 3167930"))
+        assertNull(AddressDoubletsFinder.normalizePhone("123"))
+        assertNull(AddressDoubletsFinder.normalizePhone(null))
+    }
+
+    @Test
+    fun groupingTest() {
+        logon(ADMIN)
+        val a1 = createAddress("Hans", "Müller-Lüdenscheidt", "Hans.Mueller@acme.com", "+49 561 316793-0")
+        val a2 = createAddress("hans ", "Müller-Lüdenscheidt", null, null)
+        val a3 = createAddress("Hans", "Muller Ludenscheidt", "hans.mueller@acme.com ", null)
+        val a4 = createAddress("Berta", "Doublet-Finder", null, "0561 3167930")
+        val deleted = createAddress("Hans", "Müller-Lüdenscheidt", null, null)
+        addressDao.markAsDeleted(deleted)
+        val ids = listOf(a1, a2, a3, a4, deleted).map { it.id }
+
+        val groups = addressDoubletsFinder.findDoublets(*AddressDoubletsFinder.MatchKey.values())
+                .filter { group -> group.addressIds.any { ids.contains(it) } }
+        assertGroup(groups, AddressDoubletsFinder.MatchKey.FULLNAME, a1, a2)
+        assertGroup(groups, AddressDoubletsFinder.MatchKey.FUZZY_FULLNAME, a1, a2, a3)
+        assertGroup(groups, AddressDoubletsFinder.MatchKey.EMAIL, a1, a3)
+        assertGroup(groups, AddressDoubletsFinder.MatchKey.PHONE, a1, a4)
+        assertEquals(4, groups.size)
+
+        // Default match key is FULLNAME, the async report gets the same result:
+        val asyncGroups = addressDoubletsFinder.findDoubletsAsync().get()
+                .filter { group -> group.addressIds.any { ids.contains(it) } }
+        assertEquals(1, asyncGroups.size)
+        assertGroup(asyncGroups, AddressDoubletsFinder.MatchKey.FULLNAME, a1, a2)
+
+        logon(TEST_USER)
+        assertThrows<AccessException> { addressDoubletsFinder.findDoublets() }
+        assertThrows<AccessException> { addressDoubletsFinder.findDoubletsAsync() }
+    }
+
+    private fun assertGroup(groups: List<AddressDoubletsFinder.DoubletGroup>, matchKey: AddressDoubletsFinder.MatchKey, vararg addresses: AddressDO) {
+        val group = groups.find { it.matchKey == matchKey }
+        assertNotNull(group, "Group of $matchKey expected.")
+        assertEquals(addresses.map { it.id }.toSet(), group!!.addressIds.toSet())
+    }
+
+    private fun createAddress(firstName: String, name: String, email: String?, businessPhone: String?): AddressDO {
+        val address = AddressDO()
+        address.firstName = firstName
+        address.name = name
+        address.email = email
+        address.businessPhone = businessPhone
+        addressDao.save(address)
+        return address
+    }
+}
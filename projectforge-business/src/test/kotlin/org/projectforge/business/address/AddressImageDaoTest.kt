@@ -0,0 +1,127 @@
+/////////////////////////////////////////////////////////////////////////////
+//
+// Project ProjectForge Community Edition
+//         www.projectforge.org
+//
+// Copyright (C) 2001-2020 Micromata GmbH, Germany (www.micromata.com)
+//
+// ProjectForge is dual-licensed.
+//
+// This community edition is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; version 3 of the License.
+//
+// This community edition is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+// Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, see http://www.gnu.org/licenses/.
+//
+/////////////////////////////////////////////////////////////////////////////
+
+
+package org.projectforge.business.address
+
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Test
+import org.projectforge.business.image.ImageService
+import org.projectforge.framework.persistence.jpa.PfEmgrFactory
+import org.projectforge.test.AbstractTestBase
+import org.springframework.beans.factory.annotation.Autowired
+import java.awt.image.BufferedImage
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import javax.imageio.ImageIO
+
+class AddressImageDaoTest : AbstractTestBase() {
+    @Autowired
+    private lateinit var addressDao: AddressDao
+
+    @Autowired
+    private lateinit var addressImageDao: AddressImageDao
+
+    @Autowired
+    private lateinit var emgrFactory: PfEmgrFactory
+
+    @Test
+    fun thumbnailTest() {
+        logon(ADMIN)
+        val address = AddressDO()
+        address.name = "Image"
+        address.firstName = "Test"
+        addressDao.save(address)
+        val image = createImage(800, 400)
+        Assertions.assertEquals("image/jpeg", ImageService.getMimeType(image))
+        addressImageDao.saveOrUpdate(address.id, image)
+        Assertions.assertEquals(AddressImageDao.getHash(image), addressImageDao.getImageHash(address.id))
+        waitForPreviews(address.id)
+        assertThumbnail(addressImageDao.getThumbnail(address.id), image)
+
+        // Images of older versions (without hash and thumbnail):
+        emgrFactory.runInTrans { emgr ->
+            emgr.entityManager.createQuery("update AddressImageDO set imageHash = null, imageThumbnail = null, imagePreview = null where address.id = :addressId")
+                    .setParameter("addressId", address.id)
+                    .executeUpdate()
+        }
+        // Thumbnail is generated synchronously, the full image is never returned:
+        assertThumbnail(addressImageDao.getThumbnail(address.id), image)
+        Assertions.assertEquals(AddressImageDao.getHash(image), selectHash(address.id), "Hash stored with generated thumbnail.")
+
+        emgrFactory.runInTrans { emgr ->
+            emgr.entityManager.createQuery("update AddressImageDO set imageHash = null where address.id = :addressId")
+                    .setParameter("addressId", address.id)
+                    .executeUpdate()
+        }
+        Assertions.assertEquals(AddressImageDao.getHash(image), addressImageDao.getImageHash(address.id))
+        // The hash of legacy images is stored on first access (the image isn't loaded again):
+        Assertions.assertEquals(AddressImageDao.getHash(image), selectHash(address.id))
+
+        // Unsupported image data:
+        val invalid = "no image".toByteArray()
+        addressImageDao.saveOrUpdate(address.id, invalid)
+        Assertions.assertNull(addressImageDao.getThumbnail(address.id))
+    }
+
+    private fun assertThumbnail(thumbnail: ByteArray?, image: ByteArray) {
+        Assertions.assertNotNull(thumbnail)
+        Assertions.assertFalse(image.contentEquals(thumbnail!!))
+        Assertions.assertEquals("image/png", ImageService.getMimeType(thumbnail))
+        val bufferedImage = ImageIO.read(ByteArrayInputStream(thumbnail))
+        Assertions.assertEquals(AddressImageDao.THUMBNAIL_SIZE, bufferedImage.width)
+        Assertions.assertEquals(AddressImageDao.THUMBNAIL_SIZE / 2, bufferedImage.height)
+    }
+
+    private fun selectHash(addressId: Int): String? {
+        return emgrFactory.runRoTrans { emgr ->
+            emgr.entityManager.createNamedQuery(AddressImageDO.SELECT_IMAGE_HASH, String::class.java)
+                    .setParameter("addressId", addressId)
+                    .resultList.firstOrNull()
+        }
+    }
+
+    /**
+     * Waits until the background generation of the previews is done.
+     */
+    private fun waitForPreviews(addressId: Int) {
+        for (i in 0..100) {
+            val preview = emgrFactory.runRoTrans { emgr ->
+                emgr.entityManager.createNamedQuery(AddressImageDO.SELECT_IMAGE_PREVIEW, ByteArray::class.java)
+                        .setParameter("addressId", addressId)
+                        .resultList.firstOrNull()
+            }
+            if (preview != null) {
+                return
+            }
+            Thread.sleep(100)
+        }
+    }
+
+    private fun createImage(width: Int, height: Int): ByteArray {
+        val image = BufferedImage(width, height, BufferedImage.TYPE_INT_RGB)
+        val baos = ByteArrayOutputStream()
+        ImageIO.write(image, "jpg", baos)
+        return baos.toByteArray()
+    }
+}
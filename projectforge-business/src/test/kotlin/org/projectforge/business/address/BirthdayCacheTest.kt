@@ -0,0 +1,114 @@
+/////////////////////////////////////////////////////////////////////////////
+//
+// Project ProjectForge Community Edition
+//         www.projectforge.org
+//
+// Copyright (C) 2001-2020 Micromata GmbH, Germany (www.micromata.com)
+//
+// ProjectForge is dual-licensed.
+//
+// This community edition is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; version 3 of the License.
+//
+// This community edition is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+// Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, see http://www.gnu.org/licenses/.
+//
+/////////////////////////////////////////////////////////////////////////////
+
+
+package org.projectforge.business.address
+
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Test
+import org.projectforge.business.multitenancy.TenantRegistryMap
+import org.projectforge.framework.time.PFDateTime
+import org.projectforge.test.AbstractTestBase
+import org.springframework.beans.factory.annotation.Autowired
+import java.time.LocalDate
+import java.time.Month
+
+class BirthdayCacheTest : AbstractTestBase() {
+    @Autowired
+    private lateinit var addressDao: AddressDao
+
+    @Autowired
+    private lateinit var addressbookDao: AddressbookDao
+
+    @Test
+    fun bucketAndIncrementalUpdateTest() {
+        logon(ADMIN)
+        val leapDay = createAddress("leap-day", LocalDate.of(1972, Month.FEBRUARY, 29))
+        val endOfYear = createAddress("end-of-year", LocalDate.of(1980, Month.DECEMBER, 30))
+        val newYear = createAddress("new-year", LocalDate.of(1990, Month.JANUARY, 2))
+
+        // Range over the turn of the year:
+        assertBirthdays(Month.DECEMBER, 28, Month.JANUARY, 3, "end-of-year", "new-year")
+        // 29th of February has its own bucket:
+        assertBirthdays(Month.FEBRUARY, 28, Month.MARCH, 1, "leap-day")
+        assertBirthdays(Month.MARCH, 1, Month.MARCH, 1)
+
+        // Modified birthday is moved to another bucket:
+        newYear.birthday = LocalDate.of(1990, Month.JUNE, 15)
+        addressDao.update(newYear)
+        assertBirthdays(Month.DECEMBER, 28, Month.JANUARY, 3, "end-of-year")
+        assertBirthdays(Month.JUNE, 1, Month.JUNE, 30, "new-year")
+
+        // Deleted and undeleted addresses:
+        addressDao.markAsDeleted(endOfYear)
+        assertBirthdays(Month.DECEMBER, 28, Month.JANUARY, 3)
+        addressDao.undelete(addressDao.getById(endOfYear.id))
+        assertBirthdays(Month.DECEMBER, 28, Month.JANUARY, 3, "end-of-year")
+
+        // Removed birthday:
+        leapDay.birthday = null
+        addressDao.update(leapDay)
+        assertBirthdays(Month.FEBRUARY, 28, Month.MARCH, 1)
+    }
+
+    @Test
+    fun accessTest() {
+        logon(ADMIN)
+        val addressbook = AddressbookDO()
+        addressbook.title = "birthday-cache-private"
+        addressbookDao.internalSave(addressbook)
+        val address = createAddress("private-birthday", LocalDate.of(1985, Month.SEPTEMBER, 9), addressbook)
+        assertBirthdays(Month.SEPTEMBER, 9, Month.SEPTEMBER, 9, "private-birthday")
+
+        // Access is checked on query, the address book of the address isn't accessible for the test user:
+        logon(TEST_USER)
+        assertBirthdays(Month.SEPTEMBER, 9, Month.SEPTEMBER, 9)
+
+        // Address book membership is resolved on query:
+        logon(ADMIN)
+        address.addressbookList = mutableSetOf(addressbookDao.globalAddressbook)
+        addressDao.update(address)
+        logon(TEST_USER)
+        assertBirthdays(Month.SEPTEMBER, 9, Month.SEPTEMBER, 9, "private-birthday")
+    }
+
+    private fun createAddress(name: String, birthday: LocalDate, addressbook: AddressbookDO? = null): AddressDO {
+        val address = AddressDO()
+        address.name = name
+        address.firstName = "Birthday"
+        address.birthday = birthday
+        addressbook?.let { address.addressbookList = mutableSetOf(it) }
+        addressDao.save(address)
+        return address
+    }
+
+    private fun assertBirthdays(fromMonth: Month, fromDay: Int, toMonth: Month, toDay: Int, vararg expectedNames: String) {
+        val cache = TenantRegistryMap.getCache(BirthdayCache::class.java)
+        val from = PFDateTime.withDate(2019, fromMonth, fromDay).utilDate
+        val to = PFDateTime.withDate(2019, toMonth, toDay).utilDate
+        val names = cache.getBirthdays(from, to, true, emptySet())
+                .map { it.address.name }
+                .filter { it == "leap-day" || it == "end-of-year" || it == "new-year" || it == "private-birthday" }
+        Assertions.assertEquals(expectedNames.toSet(), names.toSet())
+    }
+}
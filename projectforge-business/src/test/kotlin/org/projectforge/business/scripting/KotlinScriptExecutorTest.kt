@@ -0,0 +1,78 @@
+/////////////////////////////////////////////////////////////////////////////
+//
+// Project ProjectForge Community Edition
+//         www.projectforge.org
+//
+// Copyright (C) 2001-2020 Micromata GmbH, Germany (www.micromata.com)
+//
+// ProjectForge is dual-licensed.
+//
+// This community edition is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; version 3 of the License.
+//
+// This community edition is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+// Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, see http://www.gnu.org/licenses/.
+//
+/////////////////////////////////////////////////////////////////////////////
+
+
+package org.projectforge.business.scripting
+
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Test
+import org.projectforge.test.AbstractTestBase
+import java.util.concurrent.TimeoutException
+
+class KotlinScriptExecutorTest : AbstractTestBase() {
+    @Test
+    fun freshEngineTest() {
+        var result = KotlinScriptExecutor.execute("val secret = \"user-1\"\nsecret", emptyMap())
+        Assertions.assertNull(result.exception)
+        Assertions.assertEquals("user-1", result.result)
+        // Declarations of previous executions must not be visible:
+        result = KotlinScriptExecutor.execute("secret", emptyMap())
+        Assertions.assertNotNull(result.exception)
+    }
+
+    @Test
+    fun compiledCacheTest() {
+        val script = "(bindings[\"value\"] as Int) * 2"
+        val compilations = KotlinScriptExecutor.compileCount
+        val cacheHits = KotlinScriptExecutor.cacheHitCount
+        Assertions.assertEquals(42, KotlinScriptExecutor.execute(script, mapOf("value" to 21), cacheKey = "compiledCacheTest").result)
+        Assertions.assertEquals(compilations + 1, KotlinScriptExecutor.compileCount)
+        // Same cache key, new bindings:
+        Assertions.assertEquals(10, KotlinScriptExecutor.execute(script, mapOf("value" to 5), cacheKey = "compiledCacheTest").result)
+        Assertions.assertEquals(compilations + 1, KotlinScriptExecutor.compileCount)
+        Assertions.assertEquals(cacheHits + 1, KotlinScriptExecutor.cacheHitCount)
+        // Bindings of the previous execution aren't visible:
+        Assertions.assertNotNull(KotlinScriptExecutor.execute(script, emptyMap(), cacheKey = "compiledCacheTest").exception)
+        // Modified script under same key is recompiled:
+        Assertions.assertEquals(15, KotlinScriptExecutor.execute("(bindings[\"value\"] as Int) * 3", mapOf("value" to 5), cacheKey = "compiledCacheTest").result)
+        Assertions.assertEquals(compilations + 2, KotlinScriptExecutor.compileCount)
+    }
+
+    @Test
+    fun timeoutAndUserContextTest() {
+        logon(TEST_USER)
+        val timeout = KotlinScriptExecutor.executionTimeoutSeconds
+        try {
+            KotlinScriptExecutor.executionTimeoutSeconds = 5
+            var result = KotlinScriptExecutor.execute("Thread.sleep(60000)\n\"finished\"", emptyMap())
+            Assertions.assertTrue(result.exception is TimeoutException)
+            KotlinScriptExecutor.executionTimeoutSeconds = 60
+            // User context is available in the executing thread:
+            result = KotlinScriptExecutor.execute("org.projectforge.framework.persistence.user.api.ThreadLocalUserContext.getUserId()", emptyMap())
+            Assertions.assertNull(result.exception)
+            Assertions.assertEquals(getUser(TEST_USER).id, result.result)
+        } finally {
+            KotlinScriptExecutor.executionTimeoutSeconds = timeout
+        }
+    }
+}
@@ -0,0 +1,232 @@
+/////////////////////////////////////////////////////////////////////////////
+//
+// Project ProjectForge Community Edition
+//         www.projectforge.org
+//
+// Copyright (C) 2001-2020 Micromata GmbH, Germany (www.micromata.com)
+//
+// ProjectForge is dual-licensed.
+//
+// This community edition is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; version 3 of the License.
+//
+// This community edition is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+// Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, see http://www.gnu.org/licenses/.
+//
+/////////////////////////////////////////////////////////////////////////////
+
+
+package org.projectforge.business.timesheet
+
+import mu.KotlinLogging
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Test
+import org.projectforge.business.task.TaskDO
+import org.projectforge.business.timesheet.TimesheetAggregationDao.Dimension
+import org.projectforge.framework.persistence.jpa.PfEmgrFactory
+import org.projectforge.framework.persistence.user.entities.PFUserDO
+import org.projectforge.test.AbstractTestBase
+import org.springframework.beans.factory.annotation.Autowired
+import java.time.LocalDate
+import java.time.LocalDateTime
+import java.time.ZoneOffset
+import java.util.*
+
+private val log = KotlinLogging.logger {}
+
+class TimesheetAggregationTest : AbstractTestBase() {
+    @Autowired
+    private lateinit var timesheetDao: TimesheetDao
+
+    @Autowired
+    private lateinit var timesheetAggregationDao: TimesheetAggregationDao
+
+    @Autowired
+    private lateinit var emgrFactory: PfEmgrFactory
+
+    @Test
+    fun incrementalMaintenanceTest() {
+        val prefix = "ts-agg-"
+        val task1 = initTestDB.addTask("${prefix}1", "root")
+        val task2 = initTestDB.addTask("${prefix}2", "root")
+        val user = initTestDB.addUser("${prefix}user1")
+        logon(TEST_FINANCE_USER)
+        val day1 = LocalDate.of(2019, 11, 21)
+        val day2 = LocalDate.of(2019, 11, 22)
+        createTimesheet(user, task1, day1, 8, 10)
+        val sheet2 = createTimesheet(user, task2, day1, 10, 11)
+        val sheet3 = createTimesheet(user, task1, day2, 8, 9)
+        val filter = TimesheetAggregationDao.Filter(day1, day2, userIds = listOf(user.id))
+
+        assertTotal(filter, 4, 3)
+        var byTask = timesheetAggregationDao.query(filter, Dimension.TASK).associateBy { it.taskId }
+        Assertions.assertEquals(3 * HOUR, byTask[task1.id]!!.duration)
+        Assertions.assertEquals(1 * HOUR, byTask[task2.id]!!.duration)
+        val byDayAndTask = timesheetAggregationDao.query(filter, Dimension.DAY, Dimension.TASK)
+        Assertions.assertEquals(3, byDayAndTask.size)
+        Assertions.assertEquals(2 * HOUR, byDayAndTask.first { it.day == day1 && it.taskId == task1.id }.duration)
+        Assertions.assertNull(byDayAndTask.first().userId, "User isn't a grouped dimension.")
+        assertTotal(TimesheetAggregationDao.Filter(day2, day2, userIds = listOf(user.id)), 1, 1)
+
+        // Move sheet3 to task2 and extend it by one hour:
+        sheet3.task = task2
+        sheet3.stopTime = getDate(day2, 10)
+        timesheetDao.internalUpdate(sheet3)
+        assertTotal(filter, 5, 3)
+        byTask = timesheetAggregationDao.query(filter, Dimension.TASK).associateBy { it.taskId }
+        Assertions.assertEquals(2 * HOUR, byTask[task1.id]!!.duration)
+        Assertions.assertEquals(3 * HOUR, byTask[task2.id]!!.duration)
+
+        timesheetDao.internalMarkAsDeleted(sheet2)
+        assertTotal(filter, 4, 2)
+        timesheetDao.internalUndelete(sheet2)
+        assertTotal(filter, 5, 3)
+
+        // Rebuilding from scratch must result in the same values:
+        timesheetAggregationDao.rebuild()
+        assertTotal(filter, 5, 3)
+        Assertions.assertEquals(3, timesheetAggregationDao.query(filter, Dimension.DAY, Dimension.TASK).size)
+    }
+
+    @Test
+    fun concurrentRebuildTest() {
+        val prefix = "ts-agg-concurrent-"
+        val task = initTestDB.addTask("${prefix}1", "root")
+        val user = initTestDB.addUser("${prefix}user1")
+        logon(TEST_FINANCE_USER)
+        val firstDay = LocalDate.of(2018, 3, 1)
+        val filter = TimesheetAggregationDao.Filter(firstDay, firstDay.plusDays(30), userIds = listOf(user.id))
+        val sheet = createTimesheet(user, task, firstDay, 8, 9)
+        assertTotal(filter, 1, 1)
+        // Facts are recomputed, multiple calls for the same time sheet don't count twice:
+        timesheetAggregationDao.refresh(sheet)
+        timesheetAggregationDao.refresh(sheet)
+        assertTotal(filter, 1, 1)
+
+        // Modifications while rebuilding mustn't get lost:
+        val rebuilder = Thread {
+            for (i in 1..3) {
+                timesheetAggregationDao.rebuild()
+            }
+        }
+        rebuilder.start()
+        for (i in 1..20) {
+            createTimesheet(user, task, firstDay.plusDays(i.toLong()), 8, 10)
+        }
+        rebuilder.join()
+        assertTotal(filter, 41, 21)
+    }
+
+    /**
+     * Compares summing of durations by loading all time sheets with the aggregates. The size of the data set may be
+     * given by system properties, e. g. -Dtimesheet.benchmark.users=500 -Dtimesheet.benchmark.years=5 (default is a
+     * small data set for running the test fast).
+     */
+    @Test
+    fun benchmark() {
+        val numberOfUsers = System.getProperty("timesheet.benchmark.users")?.toIntOrNull() ?: 5
+        val numberOfYears = System.getProperty("timesheet.benchmark.years")?.toIntOrNull() ?: 1
+        val prefix = "ts-agg-bench-"
+        val tasks = (1..10).map { initTestDB.addTask("$prefix$it", "root") }
+        val users = (1..numberOfUsers).map { initTestDB.addUser("${prefix}user$it") }
+        val firstDay = LocalDate.of(2010, 1, 1)
+        val lastDay = firstDay.plusYears(numberOfYears.toLong()).minusDays(1)
+        var counter = 0
+        users.forEachIndexed { userIdx, user ->
+            val sheets = mutableListOf<TimesheetDO>()
+            var day = firstDay
+            while (!day.isAfter(lastDay)) {
+                if (day.dayOfWeek.value <= 5) {
+                    // 3 time sheets per working day: 8-12, 13-15 and 15-17.
+                    sheets.add(newTimesheet(user, tasks[(userIdx + day.dayOfYear) % tasks.size], day, 8, 12))
+                    sheets.add(newTimesheet(user, tasks[(userIdx + day.dayOfYear + 1) % tasks.size], day, 13, 15))
+                    sheets.add(newTimesheet(user, tasks[(userIdx + day.dayOfYear + 2) % tasks.size], day, 15, 17))
+                }
+                day = day.plusDays(1)
+            }
+            // Persisted directly (without dao) for speeding up the creation of the test data:
+            emgrFactory.runInTrans { emgr ->
+                sheets.forEachIndexed { idx, sheet ->
+                    emgr.entityManager.persist(sheet)
+                    if (idx % 1000 == 0) {
+                        emgr.entityManager.flush()
+                        emgr.entityManager.clear()
+                    }
+                }
+            }
+            counter += sheets.size
+        }
+        var begin = System.currentTimeMillis()
+        timesheetAggregationDao.rebuild()
+        val rebuildDuration = System.currentTimeMillis() - begin
+        val userIds = users.map { it.id }
+        val from = lastDay.withDayOfMonth(1)
+
+        // Last month, HR view like: load all time sheets and sum them by user and task.
+        begin = System.currentTimeMillis()
+        val sums = emgrFactory.runRoTrans { emgr ->
+            emgr.entityManager.createQuery("from TimesheetDO t where t.user.id in (:userIds) and t.startTime >= :from and t.startTime < :until and t.deleted = false", TimesheetDO::class.java)
+                    .setParameter("userIds", userIds)
+                    .setParameter("from", getDate(from, 0))
+                    .setParameter("until", getDate(lastDay.plusDays(1), 0))
+                    .resultList
+                    .groupBy { Pair<Int?, Int?>(it.user?.id, it.task?.id) }
+                    .mapValues { entry -> entry.value.map { it.getDuration() }.sum() }
+        }
+        val timesheetsDuration = System.currentTimeMillis() - begin
+
+        begin = System.currentTimeMillis()
+        val aggregates = timesheetAggregationDao.query(TimesheetAggregationDao.Filter(from, lastDay, userIds = userIds), Dimension.USER, Dimension.TASK)
+        val aggregatesDuration = System.currentTimeMillis() - begin
+        Assertions.assertEquals(sums.size, aggregates.size)
+        aggregates.forEach {
+            Assertions.assertEquals(sums[Pair(it.userId, it.taskId)], it.duration)
+        }
+
+        // Total of all years:
+        begin = System.currentTimeMillis()
+        val total = timesheetAggregationDao.query(TimesheetAggregationDao.Filter(firstDay, lastDay, userIds = userIds)).first()
+        val totalDuration = System.currentTimeMillis() - begin
+        Assertions.assertEquals(counter, total.timesheetCount)
+        Assertions.assertEquals(counter / 3 * 8 * HOUR, total.duration)
+        log.info { "Benchmark of $counter time sheets ($numberOfUsers users, $numberOfYears years): rebuild=${rebuildDuration}ms, last month by loading time sheets=${timesheetsDuration}ms, last month by aggregates=${aggregatesDuration}ms, total of all years by aggregates=${totalDuration}ms." }
+    }
+
+    private fun assertTotal(filter: TimesheetAggregationDao.Filter, expectedHours: Long, expectedCount: Int) {
+        val result = timesheetAggregationDao.query(filter)
+        Assertions.assertEquals(1, result.size)
+        Assertions.assertEquals(expectedHours * HOUR, result[0].duration)
+        Assertions.assertEquals(expectedCount, result[0].timesheetCount)
+    }
+
+    private fun createTimesheet(user: PFUserDO, task: TaskDO, day: LocalDate, fromHour: Int, toHour: Int): TimesheetDO {
+        val id = timesheetDao.internalSave(newTimesheet(user, task, day, fromHour, toHour))
+        return timesheetDao.getById(id)
+    }
+
+    private fun newTimesheet(user: PFUserDO, task: TaskDO, day: LocalDate, fromHour: Int, toHour: Int): TimesheetDO {
+        val sheet = TimesheetDO()
+        sheet.user = user
+        sheet.task = task
+        sheet.timeZone = "UTC"
+        sheet.startTime = getDate(day, fromHour)
+        sheet.stopTime = getDate(day, toHour)
+        sheet.created = Date()
+        sheet.lastUpdate = sheet.created
+        return sheet
+    }
+
+    private fun getDate(day: LocalDate, hour: Int): Date {
+        return Date.from(LocalDateTime.of(day.year, day.month, day.dayOfMonth, hour, 0).toInstant(ZoneOffset.UTC))
+    }
+
+    companion object {
+        private const val HOUR = 3_600_000L
+    }
+}
@@ -29,6 +29,8 @@ import org.junit.jupiter.api.Assertions.assertTrue
 import org.junit.jupiter.api.Test
 import org.projectforge.business.user.service.UserPrefService
 import org.projectforge.framework.ToStringUtil
+import org.projectforge.framework.persistence.user.entities.UserPrefDO
+import org.projectforge.framework.persistence.user.entities.UserPrefEntryDO
 import org.projectforge.framework.utils.NumberHelper
 import org.projectforge.test.AbstractTestBase
 import org.springframework.beans.factory.annotation.Autowired
@@ -87,4 +89,82 @@ class UserPrefServiceTest : AbstractTestBase() {
         assertEquals("^JSON:88", prefs.find { it.area == area && it.name == name2 }!!.valueString)
         //println(ToStringUtil.toJsonString(userPrefDao.getUserPrefs(getUserId(TEST_USER2))))
     }
+
+    @Test
+    fun writeBehindTest() {
+        logon(TEST_USER)
+        val userId = getUserId(TEST_USER)
+        val area = "UserPrefCacheTest"
+        val name = NumberHelper.getSecureRandomAlphanumeric(20)
+        userPrefService.putEntry(area, name, "first")
+        userPrefCache.flushToDB(userId)
+        var dbPref = userPrefDao.getUserPrefs(userId).single { it.area == area && it.name == name }
+        assertEquals("^JSON:\"first\"", dbPref.valueString)
+        val id = dbPref.id
+
+        // Upsert: existing entry is updated, no new entry is inserted.
+        userPrefService.putEntry(area, name, "second")
+        userPrefCache.flushToDB(userId)
+        dbPref = userPrefDao.getUserPrefs(userId).single { it.area == area && it.name == name }
+        assertEquals("^JSON:\"second\"", dbPref.valueString)
+        assertEquals(id, dbPref.id)
+
+        // Entry is marked as modified by reading, but unchanged values aren't written:
+        val lastUpdate = dbPref.lastUpdate
+        assertEquals("second", userPrefService.getEntry(area, name, String::class.java))
+        userPrefCache.flushToDB(userId)
+        dbPref = userPrefDao.getUserPrefs(userId).single { it.area == area && it.name == name }
+        assertEquals(lastUpdate, dbPref.lastUpdate)
+
+        // Write-behind of modified entries:
+        userPrefService.putEntry(area, name, "third")
+        userPrefCache.flushModifiedEntries()
+        dbPref = userPrefDao.getUserPrefs(userId).single { it.area == area && it.name == name }
+        assertEquals("^JSON:\"third\"", dbPref.valueString)
+        logoff()
+    }
+
+    @Test
+    fun upsertLegacyEntriesTest() {
+        val user = getUser(TEST_USER)
+        val area = "UserPrefCacheTest"
+        val name = NumberHelper.getSecureRandomAlphanumeric(20)
+        val legacyPref = UserPrefDO()
+        legacyPref.user = user
+        legacyPref.area = area
+        legacyPref.name = name
+        val entry = UserPrefEntryDO()
+        entry.parameter = "legacy"
+        entry.value = "value"
+        legacyPref.addUserPrefEntry(entry)
+        userPrefDao.internalSaveOrUpdate(legacyPref)
+        assertEquals(1L, countEntries(user.id, area, name))
+
+        // Upsert of a json value must remove the legacy entries of the persisted user pref:
+        val jsonPref = UserPrefDO()
+        jsonPref.user = user
+        jsonPref.area = area
+        jsonPref.name = name
+        jsonPref.valueObject = "json"
+        userPrefDao.internalUpsert(user.id, listOf(jsonPref))
+        assertEquals(legacyPref.id, jsonPref.id)
+        assertEquals(0L, countEntries(user.id, area, name))
+        val dbPref = userPrefDao.getUserPrefs(user.id).single { it.area == area && it.name == name }
+        assertEquals("^JSON:\"json\"", dbPref.valueString)
+
+        // Now the bulk update is used:
+        jsonPref.valueObject = "json2"
+        userPrefDao.internalUpsert(user.id, listOf(jsonPref))
+        assertEquals("^JSON:\"json2\"", userPrefDao.getUserPrefs(user.id).single { it.area == area && it.name == name }.valueString)
+    }
+
+    private fun countEntries(userId: Int, area: String, name: String): Long {
+        return emf.runRoTrans { emgr ->
+            emgr.entityManager.createQuery("select count(e) from UserPrefDO p join p.userPrefEntries e where p.user.id=:userId and p.area=:area and p.name=:name", java.lang.Long::class.java)
+                    .setParameter("userId", userId)
+                    .setParameter("area", area)
+                    .setParameter("name", name)
+                    .singleResult.toLong()
+        }
+    }
 }
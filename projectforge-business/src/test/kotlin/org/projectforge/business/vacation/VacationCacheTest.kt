@@ -0,0 +1,154 @@
+/////////////////////////////////////////////////////////////////////////////
+//
+// Project ProjectForge Community Edition
+//         www.projectforge.org
+//
+// Copyright (C) 2001-2020 Micromata GmbH, Germany (www.micromata.com)
+//
+// ProjectForge is dual-licensed.
+//
+// This community edition is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; version 3 of the License.
+//
+// This community edition is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+// Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, see http://www.gnu.org/licenses/.
+//
+/////////////////////////////////////////////////////////////////////////////
+
+package org.projectforge.business.vacation
+
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Test
+import org.projectforge.business.employee.EmployeeTest
+import org.projectforge.business.fibu.EmployeeDO
+import org.projectforge.business.fibu.EmployeeDao
+import org.projectforge.business.fibu.api.EmployeeService
+import org.projectforge.business.user.GroupDao
+import org.projectforge.business.vacation.model.VacationDO
+import org.projectforge.business.vacation.model.VacationStatus
+import org.projectforge.business.vacation.repository.VacationDao
+import org.projectforge.business.vacation.service.VacationDaoTest
+import org.projectforge.test.AbstractTestBase
+import org.springframework.beans.factory.annotation.Autowired
+import java.time.DayOfWeek
+import java.time.LocalDate
+import java.time.temporal.TemporalAdjusters
+import java.util.concurrent.atomic.AtomicBoolean
+import kotlin.concurrent.thread
+
+class VacationCacheTest : AbstractTestBase() {
+    @Autowired
+    private lateinit var employeeDao: EmployeeDao
+
+    @Autowired
+    private lateinit var employeeService: EmployeeService
+
+    @Autowired
+    private lateinit var groupDao: GroupDao
+
+    @Autowired
+    private lateinit var vacationCache: VacationCache
+
+    @Autowired
+    private lateinit var vacationDao: VacationDao
+
+    @Test
+    fun incrementalUpdateTest() {
+        val employee = createEmployee("incremental")
+        val manager = createEmployee("incrementalManager")
+        logon(TEST_HR_USER)
+        val vacation = createVacation(employee, manager, 0)
+        vacationDao.save(vacation)
+        assertVacations(employee, 0, 0, vacation)
+        assertVacations(employee, 1, 2)
+
+        // Moved entry:
+        vacation.startDate = monday(2)
+        vacation.endDate = friday(2)
+        vacationDao.update(vacation)
+        assertVacations(employee, 0, 1)
+        assertVacations(employee, 1, 2, vacation)
+
+        // Sorted by start date:
+        val second = createVacation(employee, manager, 0)
+        vacationDao.save(second)
+        assertVacations(employee, 0, 2, second, vacation)
+
+        vacationDao.markAsDeleted(vacation)
+        assertVacations(employee, 0, 2, second)
+        vacationDao.undelete(vacation)
+        assertVacations(employee, 0, 2, second, vacation)
+
+        vacationCache.forceReload()
+        assertVacations(employee, 0, 2, second, vacation)
+    }
+
+    /**
+     * Updates entries while another thread reloads the cache: no update may be overwritten by a concurrent reload.
+     */
+    @Test
+    fun updateDuringRefreshTest() {
+        val employee = createEmployee("concurrent")
+        val manager = createEmployee("concurrentManager")
+        logon(TEST_HR_USER)
+        val vacation = createVacation(employee, manager, 0)
+        vacationDao.save(vacation)
+        val running = AtomicBoolean(true)
+        val reloader = thread {
+            while (running.get()) {
+                vacationCache.forceReload()
+            }
+        }
+        try {
+            for (week in 1..20) {
+                vacation.startDate = monday(week)
+                vacation.endDate = friday(week)
+                vacationDao.update(vacation)
+                assertVacations(employee, week, week, vacation)
+                assertVacations(employee, week - 1, week - 1)
+            }
+        } finally {
+            running.set(false)
+            reloader.join()
+        }
+        assertVacations(employee, 20, 20, vacation)
+    }
+
+    /**
+     * Special vacation (no check of left vacation days) of a whole week (at least one working day).
+     */
+    private fun createVacation(employee: EmployeeDO, manager: EmployeeDO, week: Int): VacationDO {
+        val vacation = VacationDaoTest.createVacation(employee, manager, manager, monday(week), friday(week), VacationStatus.IN_PROGRESS)
+        vacation.special = true
+        return vacation
+    }
+
+    private fun assertVacations(employee: EmployeeDO, fromWeek: Int, untilWeek: Int, vararg expected: VacationDO) {
+        val from = monday(fromWeek)
+        val until = friday(untilWeek)
+        val result = vacationCache.getVacationForPeriodAndUsers(from, until, null, setOf(employee.user!!.id))
+        Assertions.assertEquals(expected.map { it.id }, result.map { it.id }, "Vacations of period $from - $until.")
+    }
+
+    private fun createEmployee(name: String): EmployeeDO {
+        return EmployeeTest.createEmployee(employeeService, employeeDao, this, name, groupDao = groupDao)
+    }
+
+    companion object {
+        private val FIRST_MONDAY = LocalDate.now().plusWeeks(2).with(TemporalAdjusters.next(DayOfWeek.MONDAY))
+
+        private fun monday(week: Int): LocalDate {
+            return FIRST_MONDAY.plusWeeks(week.toLong())
+        }
+
+        private fun friday(week: Int): LocalDate {
+            return monday(week).plusDays(4)
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/////////////////////////////////////////////////////////////////////////////
+//
+// Project ProjectForge Community Edition
+//         www.projectforge.org
+//
+// Copyright (C) 2001-2020 Micromata GmbH, Germany (www.micromata.com)
+//
+// ProjectForge is dual-licensed.
+//
+// This community edition is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; version 3 of the License.
+//
+// This community edition is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+// Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, see http://www.gnu.org/licenses/.
+//
+/////////////////////////////////////////////////////////////////////////////
+
+
+package org.projectforge.framework.cache
+
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Test
+
+class CacheWarmUpTest {
+    @Test
+    fun sortByDependenciesTest() {
+        val tasks = listOf(
+                task("TaskTree", "UserGroupCache", "KostCache"),
+                task("KostCache"),
+                task("VacationCache", "UserGroupCache"),
+                task("UserGroupCache"))
+        val sorted = CacheWarmUp.sortByDependencies(tasks).map { it.name }
+        Assertions.assertEquals(4, sorted.size)
+        Assertions.assertTrue(sorted.indexOf("UserGroupCache") < sorted.indexOf("TaskTree"))
+        Assertions.assertTrue(sorted.indexOf("KostCache") < sorted.indexOf("TaskTree"))
+        Assertions.assertTrue(sorted.indexOf("UserGroupCache") < sorted.indexOf("VacationCache"))
+
+        Assertions.assertThrows(IllegalStateException::class.java) {
+            CacheWarmUp.sortByDependencies(listOf(task("a", "b"), task("b", "a")))
+        }
+        Assertions.assertThrows(IllegalStateException::class.java) {
+            CacheWarmUp.sortByDependencies(listOf(task("a", "unknown")))
+        }
+    }
+
+    @Test
+    fun warmUpTest() {
+        val warmUp = CacheWarmUp()
+        warmUp.register("a") {}
+        warmUp.register("b", "a") { throw IllegalStateException("b failed") }
+        warmUp.register("c", "b") {}
+        Assertions.assertFalse(warmUp.isDone)
+        warmUp.warmUp()
+        Assertions.assertTrue(warmUp.isDone)
+        val timeline = warmUp.timeline.associateBy { it.name }
+        Assertions.assertEquals(3, timeline.size)
+        Assertions.assertNull(timeline["a"]!!.error)
+        Assertions.assertEquals("b failed", timeline["b"]!!.error)
+        // Dependent tasks are run after failed dependencies:
+        Assertions.assertNull(timeline["c"]!!.error)
+        Assertions.assertTrue(timeline["c"]!!.startMillis >= timeline["b"]!!.startMillis)
+    }
+
+    private fun task(name: String, vararg dependsOn: String): CacheWarmUp.Task {
+        return CacheWarmUp.Task(name, dependsOn.toList()) {}
+    }
+}
@@ -0,0 +1,120 @@
+/////////////////////////////////////////////////////////////////////////////
+//
+// Project ProjectForge Community Edition
+//         www.projectforge.org
+//
+// Copyright (C) 2001-2020 Micromata GmbH, Germany (www.micromata.com)
+//
+// ProjectForge is dual-licensed.
+//
+// This community edition is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; version 3 of the License.
+//
+// This community edition is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+// Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, see http://www.gnu.org/licenses/.
+//
+/////////////////////////////////////////////////////////////////////////////
+
+
+package org.projectforge.framework.persistence.api
+
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Test
+import org.projectforge.business.task.TaskDO
+import org.projectforge.business.task.TaskDao
+import org.projectforge.registry.Registry
+import org.projectforge.test.AbstractTestBase
+import org.springframework.beans.factory.annotation.Autowired
+
+class UnifiedSearchServiceTest : AbstractTestBase() {
+    @Autowired
+    private lateinit var taskDao: TaskDao
+
+    @Autowired
+    private lateinit var unifiedSearchService: UnifiedSearchService
+
+    @Test
+    fun accessTest() {
+        // Test user has select access to ta_1_siud, but not to ta_4_xxxx:
+        val visible = initTestDB.addTask("unifiedsearchaccess1", "ta_1_siud")
+        val hidden = initTestDB.addTask("unifiedsearchaccess2", "ta_4_xxxx")
+        logon(TEST_ADMIN_USER)
+        Assertions.assertEquals(setOf(visible.id, hidden.id), searchTaskIds("unifiedsearchaccess"))
+        logon(TEST_USER)
+        Assertions.assertEquals(setOf(visible.id), searchTaskIds("unifiedsearchaccess"))
+    }
+
+    @Test
+    fun historyTest() {
+        val visible = initTestDB.addTask("unifiedsearchhistoryold1", "ta_1_siud")
+        val hidden = initTestDB.addTask("unifiedsearchhistoryold2", "ta_4_xxxx")
+        logon(TEST_ADMIN_USER)
+        rename(visible, "unifiedsearchhistorynew1")
+        rename(hidden, "unifiedsearchhistorynew2")
+
+        // Found only by history entries (old values), also in upper case:
+        Assertions.assertTrue(searchTaskIds("unifiedsearchhistoryold").isEmpty())
+        var hits = searchTasks("UnifiedSearchHistoryOld", true)
+        Assertions.assertEquals(setOf(visible.id, hidden.id), hits.map { it.dataObject.id }.toSet())
+        Assertions.assertTrue(hits.all { it.fromHistory })
+        Assertions.assertTrue(hits.all { it.score <= UnifiedSearchService.HISTORY_SCORE_FACTOR })
+
+        // Found directly and by history entries: only once as direct hit.
+        hits = searchTasks("unifiedsearchhistory", true)
+        Assertions.assertEquals(2, hits.size)
+        Assertions.assertEquals(setOf(visible.id, hidden.id), hits.map { it.dataObject.id }.toSet())
+        Assertions.assertTrue(hits.none { it.fromHistory })
+
+        // No access to the object, no access to its history:
+        logon(TEST_USER)
+        hits = searchTasks("unifiedsearchhistoryold", true)
+        Assertions.assertEquals(listOf(visible.id), hits.map { it.dataObject.id })
+    }
+
+    @Test
+    fun mergeTest() {
+        val entry = Registry.getInstance().getEntry(TaskDao::class.java)
+        val a = createTask(1)
+        val b = createTask(2)
+        val c = createTask(3)
+        val d = createTask(4)
+        val hits = listOf(UnifiedSearchService.Hit(entry, a, 1f), UnifiedSearchService.Hit(entry, b, .5f))
+        val historyHits = listOf(UnifiedSearchService.Hit(entry, b, .5f, true),
+                UnifiedSearchService.Hit(entry, c, .5f, true),
+                UnifiedSearchService.Hit(entry, d, .25f, true))
+        var result = UnifiedSearchService.mergeHits(hits, historyHits, 3)
+        // Direct hits first on equal scores:
+        Assertions.assertEquals(listOf(a, b, c), result.map { it.dataObject })
+        Assertions.assertEquals(listOf(false, false, true), result.map { it.fromHistory })
+        result = UnifiedSearchService.mergeHits(hits, historyHits, 10)
+        Assertions.assertEquals(listOf(a, b, c, d), result.map { it.dataObject })
+        Assertions.assertFalse(result[1].fromHistory, "History hit of b is ignored, b was found directly.")
+        Assertions.assertTrue(UnifiedSearchService.mergeHits(emptyList(), emptyList(), 10).isEmpty())
+    }
+
+    private fun rename(task: TaskDO, title: String) {
+        val dbTask = taskDao.getById(task.id)
+        dbTask.title = title
+        taskDao.update(dbTask)
+    }
+
+    private fun searchTasks(searchString: String, includeHistory: Boolean = false): List<UnifiedSearchService.Hit> {
+        return unifiedSearchService.search(searchString, 100, includeHistory).filter { it.dataObject is TaskDO }
+    }
+
+    private fun searchTaskIds(searchString: String): Set<Int?> {
+        return searchTasks(searchString).map { it.dataObject.id }.toSet()
+    }
+
+    private fun createTask(id: Int): TaskDO {
+        val task = TaskDO()
+        task.id = id
+        return task
+    }
+}
@@ -0,0 +1,68 @@
+/////////////////////////////////////////////////////////////////////////////
+//
+// Project ProjectForge Community Edition
+//         www.projectforge.org
+//
+// Copyright (C) 2001-2020 Micromata GmbH, Germany (www.micromata.com)
+//
+// ProjectForge is dual-licensed.
+//
+// This community edition is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; version 3 of the License.
+//
+// This community edition is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+// Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, see http://www.gnu.org/licenses/.
+//
+/////////////////////////////////////////////////////////////////////////////
+
+
+package org.projectforge.framework.persistence.database
+
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Test
+import org.projectforge.business.task.TaskDO
+import org.projectforge.framework.persistence.api.ReindexSettings
+import org.projectforge.framework.persistence.history.HibernateSearchReindexer
+import org.projectforge.test.AbstractTestBase
+import org.springframework.beans.factory.annotation.Autowired
+
+class DatabaseDaoReindexTest : AbstractTestBase() {
+    @Autowired
+    private lateinit var databaseDao: DatabaseDao
+
+    @Autowired
+    private lateinit var hibernateSearchReindexer: HibernateSearchReindexer
+
+    @Test
+    fun partitionedReindexTest() {
+        initTestDB.addTask("reindex", "root")
+        initTestDB.addTask("reindex.1", "reindex")
+        val threshold = databaseDao.partitionThreshold
+        try {
+            databaseDao.partitionThreshold = 0 // Force id range partitions.
+            val result = hibernateSearchReindexer.rebuildDatabaseSearchIndices(ReindexSettings(), TaskDO::class.java)
+            Assertions.assertEquals("TaskDO, ", result)
+        } finally {
+            databaseDao.partitionThreshold = threshold
+        }
+        val progress = hibernateSearchReindexer.progressList.find { it.entity == "TaskDO" }!!
+        Assertions.assertTrue(progress.finished)
+        Assertions.assertFalse(progress.failed)
+        Assertions.assertTrue(progress.total > 0)
+        Assertions.assertEquals(progress.total, progress.done, "All partitions should be indexed.")
+    }
+
+    @Test
+    fun partialResultTest() {
+        // String isn't an entity, so the re-indexing of this class fails:
+        val result = hibernateSearchReindexer.rebuildDatabaseSearchIndices(ReindexSettings(), TaskDO::class.java, String::class.java)
+        Assertions.assertTrue(result.contains("TaskDO, "), result)
+        Assertions.assertTrue(result.contains(HibernateSearchReindexer.PARTIAL_RESULT_MARKER + "String"), result)
+    }
+}
@@ -0,0 +1,113 @@
+/////////////////////////////////////////////////////////////////////////////
+//
+// Project ProjectForge Community Edition
+//         www.projectforge.org
+//
+// Copyright (C) 2001-2020 Micromata GmbH, Germany (www.micromata.com)
+//
+// ProjectForge is dual-licensed.
+//
+// This community edition is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; version 3 of the License.
+//
+// This community edition is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+// Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, see http://www.gnu.org/licenses/.
+//
+/////////////////////////////////////////////////////////////////////////////
+
+
+package org.projectforge.framework.persistence.database
+
+import org.hibernate.search.engine.ProjectionConstants
+import org.hibernate.search.jpa.Search
+import org.junit.jupiter.api.Assertions
+import org.junit.jupiter.api.Test
+import org.projectforge.business.task.TaskDO
+import org.projectforge.business.task.TaskDao
+import org.projectforge.test.AbstractTestBase
+import org.springframework.beans.factory.annotation.Autowired
+
+class SearchIndexerTest : AbstractTestBase() {
+    @Autowired
+    private lateinit var searchIndexer: SearchIndexer
+
+    @Autowired
+    private lateinit var searchIndexQueueDao: SearchIndexQueueDao
+
+    @Autowired
+    private lateinit var taskDao: TaskDao
+
+    @Test
+    fun queueTest() {
+        val parent = initTestDB.addTask("search-indexer", "root")
+        val child = initTestDB.addTask("search-indexer.1", "search-indexer")
+        val grandChild = initTestDB.addTask("search-indexer.1.1", "search-indexer.1")
+        searchIndexer.backgroundProcessing = false
+        try {
+            searchIndexer.processQueue() // Process entries of other tests.
+            Assertions.assertEquals(0, searchIndexer.backlog)
+
+            // Entries are queued twice and a non existing entity (purged from index):
+            searchIndexQueueDao.enqueue(TaskDO::class.java, listOf(parent.id!!, child.id!!, child.id!!, -42))
+            searchIndexer.processQueue()
+            Assertions.assertEquals(0, searchIndexer.backlog)
+
+            // Renaming the parent task queues the descendants (task path):
+            logon(TEST_ADMIN_USER)
+            val task = taskDao.getById(parent.id)
+            task.title = "Searchindexerrenamed"
+            taskDao.update(task)
+            val queuedIds = searchIndexQueueDao.getEntries(1000).filter { it.entityClass == TaskDO::class.java.name }.map { it.entityId }
+            Assertions.assertTrue(queuedIds.contains(child.id!!.toLong()), "Child task queued.")
+            Assertions.assertTrue(queuedIds.contains(grandChild.id!!.toLong()), "Grand child task queued.")
+            searchIndexer.processQueue()
+            Assertions.assertEquals(0, searchIndexer.backlog)
+            val foundIds = findTaskIdsByPath("searchindexerrenamed")
+            Assertions.assertTrue(foundIds.contains(child.id), "Child task found by new task path.")
+            Assertions.assertTrue(foundIds.contains(grandChild.id), "Grand child task found by new task path.")
+        } finally {
+            searchIndexer.backgroundProcessing = true
+        }
+    }
+
+    /**
+     * A failing entity mustn't prevent the indexing of the other entities of the batch and is removed after maxAttempts.
+     */
+    @Test
+    fun failedEntriesTest() {
+        val task = initTestDB.addTask("search-indexer-failure", "root")
+        searchIndexer.backgroundProcessing = false
+        try {
+            searchIndexer.processQueue() // Process entries of other tests.
+            searchIndexQueueDao.enqueue(String::class.java, listOf(1)) // No entity, fails.
+            searchIndexQueueDao.enqueue(TaskDO::class.java, listOf(task.id!!))
+            for (attempt in 1 until searchIndexer.maxAttempts) {
+                searchIndexer.processQueue()
+                val entries = searchIndexQueueDao.getEntries(10)
+                Assertions.assertEquals(1, entries.size, "Only the failed entry is left after attempt $attempt.")
+                Assertions.assertEquals(String::class.java.name, entries[0].entityClass)
+                Assertions.assertEquals(attempt, entries[0].attempts)
+            }
+            searchIndexer.processQueue()
+            Assertions.assertEquals(0, searchIndexer.backlog, "Failed entry removed after max attempts.")
+        } finally {
+            searchIndexer.backgroundProcessing = true
+        }
+    }
+
+    private fun findTaskIdsByPath(token: String): List<Int> {
+        return emf.runRoTrans { emgr ->
+            val fullTextEntityManager = Search.getFullTextEntityManager(emgr.entityManager)
+            val queryBuilder = fullTextEntityManager.searchFactory.buildQueryBuilder().forEntity(TaskDO::class.java).get()
+            val query = fullTextEntityManager.createFullTextQuery(queryBuilder.keyword().onField("taskpath").matching(token).createQuery(), TaskDO::class.java)
+            query.setProjection(ProjectionConstants.ID)
+            query.resultList.map { ((it as Array<*>)[0] as Number).toInt() }
+        }
+    }
+}
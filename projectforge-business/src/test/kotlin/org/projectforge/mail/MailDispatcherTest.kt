@@ -0,0 +1,222 @@
+/////////////////////////////////////////////////////////////////////////////
+//
+// Project ProjectForge Community Edition
+//         www.projectforge.org
+//
+// Copyright (C) 2001-2020 Micromata GmbH, Germany (www.micromata.com)
+//
+// ProjectForge is dual-licensed.
+//
+// This community edition is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; version 3 of the License.
+//
+// This community edition is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+// Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, see http://www.gnu.org/licenses/.
+//
+/////////////////////////////////////////////////////////////////////////////
+
+
+package org.projectforge.mail
+
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.Test
+import org.projectforge.framework.persistence.jpa.PfEmgrFactory
+import org.projectforge.test.AbstractTestBase
+import org.springframework.beans.factory.annotation.Autowired
+import java.util.*
+import javax.mail.*
+import javax.mail.internet.InternetAddress
+import javax.mail.internet.MimeMessage
+
+class MailDispatcherTest : AbstractTestBase() {
+    @Autowired
+    private lateinit var mailDispatcher: MailDispatcher
+
+    @Autowired
+    private lateinit var mailQueueDao: MailQueueDao
+
+    @Autowired
+    private lateinit var emgrFactory: PfEmgrFactory
+
+    @Test
+    fun sendAndRetryTest() {
+        assertFalse(mailDispatcher.queueEnabled, "Mail queue is opt-in.")
+        val session = createTestSession()
+        val factory = mailDispatcher.sessionFactory
+        mailDispatcher.sessionFactory = { session }
+        try {
+            TestTransport.sent.clear()
+            TestTransport.failures = 0
+            // Successful sending:
+            val sentId = mailQueueDao.enqueue(MailDispatcher.toByteArray(createMessage(session, "sent@example.org")), "sent@example.org", "Test").id!!
+            mailDispatcher.dispatch()
+            assertEquals(listOf("sent@example.org"), TestTransport.sent)
+            assertEntry(sentId, MailQueueDO.Status.SENT, 1)
+            assertNull(mailQueueDao.getMessage(sentId), "Message is removed after sending.")
+            mailDispatcher.dispatch()
+            assertEquals(1, TestTransport.sent.size, "Sent e-mails aren't sent twice.")
+
+            // Failed sending with retry and backoff:
+            TestTransport.sent.clear()
+            TestTransport.failures = 1
+            val retryId = mailQueueDao.enqueue(MailDispatcher.toByteArray(createMessage(session, "retry@example.org")), "retry@example.org", "Test").id!!
+            val begin = System.currentTimeMillis()
+            mailDispatcher.dispatch()
+            assertTrue(TestTransport.sent.isEmpty())
+            var entry = assertEntry(retryId, MailQueueDO.Status.PENDING, 1)
+            assertTrue(entry.nextAttempt!!.time >= begin + MailDispatcher.getBackoffMillis(1))
+            mailDispatcher.dispatch()
+            assertTrue(TestTransport.sent.isEmpty(), "Not sent before backoff elapsed.")
+            setNextAttemptDue(retryId)
+            mailDispatcher.dispatch()
+            assertEquals(listOf("retry@example.org"), TestTransport.sent)
+            assertEntry(retryId, MailQueueDO.Status.SENT, 2)
+
+            // Sending fails finally after max attempts:
+            TestTransport.sent.clear()
+            TestTransport.failures = Int.MAX_VALUE
+            val failedId = mailQueueDao.enqueue(MailDispatcher.toByteArray(createMessage(session, "failed@example.org")), "failed@example.org", "Test").id!!
+            for (attempt in 1 until mailDispatcher.maxAttempts) {
+                mailDispatcher.dispatch()
+                entry = assertEntry(failedId, MailQueueDO.Status.PENDING, attempt)
+                // Backoff grows exponentially:
+                assertTrue(entry.nextAttempt!!.time >= begin + MailDispatcher.getBackoffMillis(attempt))
+                setNextAttemptDue(failedId)
+            }
+            mailDispatcher.dispatch()
+            assertEntry(failedId, MailQueueDO.Status.FAILED, mailDispatcher.maxAttempts)
+            setNextAttemptDue(failedId)
+            mailDispatcher.dispatch()
+            assertEntry(failedId, MailQueueDO.Status.FAILED, mailDispatcher.maxAttempts)
+            assertTrue(TestTransport.sent.isEmpty())
+        } finally {
+            mailDispatcher.sessionFactory = factory
+            TestTransport.failures = 0
+        }
+    }
+
+    @Test
+    fun connectionFailureTest() {
+        val session = createTestSession()
+        val factory = mailDispatcher.sessionFactory
+        mailDispatcher.sessionFactory = { session }
+        try {
+            TestTransport.sent.clear()
+            TestTransport.connectFailures = Int.MAX_VALUE
+            val id = mailQueueDao.enqueue(MailDispatcher.toByteArray(createMessage(session, "outage@example.org")), "outage@example.org", "Test").id!!
+            // Outage longer than max attempts: no attempts are counted, the e-mail is postponed with backoff:
+            for (i in 1..mailDispatcher.maxAttempts + 2) {
+                val begin = System.currentTimeMillis()
+                mailDispatcher.dispatch()
+                val entry = assertEntry(id, MailQueueDO.Status.PENDING, 0)
+                assertTrue(entry.nextAttempt!!.time >= begin + MailDispatcher.getBackoffMillis(i))
+                setNextAttemptDue(id)
+            }
+            TestTransport.connectFailures = 0
+            mailDispatcher.dispatch()
+            assertEquals(listOf("outage@example.org"), TestTransport.sent)
+            assertEntry(id, MailQueueDO.Status.SENT, 1)
+        } finally {
+            mailDispatcher.sessionFactory = factory
+            TestTransport.connectFailures = 0
+        }
+    }
+
+    private fun assertEntry(id: Int, status: MailQueueDO.Status, attempts: Int): MailQueueDO {
+        val entry = emgrFactory.runRoTrans { emgr -> emgr.entityManager.find(MailQueueDO::class.java, id) }
+        assertEquals(status, entry.status)
+        assertEquals(attempts, entry.attempts)
+        return entry
+    }
+
+    private fun setNextAttemptDue(id: Int) {
+        emgrFactory.runInTrans { emgr ->
+            emgr.entityManager.createQuery("update MailQueueDO set nextAttempt = :date where id = :id")
+                    .setParameter("date", Date(System.currentTimeMillis() - 1000))
+                    .setParameter("id", id)
+                    .executeUpdate()
+        }
+    }
+
+    private fun createTestSession(): Session {
+        val properties = Properties()
+        properties["mail.transport.protocol"] = "smtp"
+        properties["mail.smtp.class"] = TestTransport::class.java.name
+        return Session.getInstance(properties)
+    }
+
+    private fun createMessage(session: Session, to: String): MimeMessage {
+        val message = MimeMessage(session)
+        message.setFrom(InternetAddress("sender@example.org"))
+        message.setRecipient(Message.RecipientType.TO, InternetAddress(to))
+        message.setSubject("Test", "UTF-8")
+        message.setText("Hello world.", "UTF-8")
+        message.saveChanges()
+        return message
+    }
+
+    /**
+     * Records the sent e-mails instead of sending them. The next [failures] sendings and the next [connectFailures]
+     * connects fail.
+     */
+    class TestTransport(session: Session, urlName: URLName?) : Transport(session, urlName) {
+        override fun protocolConnect(host: String?, port: Int, user: String?, password: String?): Boolean {
+            if (connectFailures > 0) {
+                --connectFailures
+                throw MessagingException("Test connection failure.")
+            }
+            return true
+        }
+
+        override fun sendMessage(message: Message, addresses: Array<out Address>) {
+            if (failures > 0) {
+                --failures
+                throw MessagingException("Test failure.")
+            }
+            sent.add((addresses[0] as InternetAddress).address)
+        }
+
+        companion object {
+            val sent = mutableListOf<String>()
+
+            @Volatile
+            var failures = 0
+
+            @Volatile
+            var connectFailures = 0
+        }
+    }
+    @Test
+    fun backoffTest() {
+        assertEquals(MailDispatcher.INITIAL_BACKOFF_MILLIS, MailDispatcher.getBackoffMillis(0))
+        assertEquals(MailDispatcher.INITIAL_BACKOFF_MILLIS, MailDispatcher.getBackoffMillis(1))
+        assertEquals(2 * MailDispatcher.INITIAL_BACKOFF_MILLIS, MailDispatcher.getBackoffMillis(2))
+        assertEquals(4 * MailDispatcher.INITIAL_BACKOFF_MILLIS, MailDispatcher.getBackoffMillis(3))
+        assertEquals(MailDispatcher.MAX_BACKOFF_MILLIS, MailDispatcher.getBackoffMillis(10))
+        assertEquals(MailDispatcher.MAX_BACKOFF_MILLIS, MailDispatcher.getBackoffMillis(100))
+    }
+
+    @Test
+    fun serializationTest() {
+        val session = Session.getInstance(Properties())
+        val message = MimeMessage(session)
+        message.setFrom(InternetAddress("sender@example.org"))
+        message.setRecipients(Message.RecipientType.TO, arrayOf(InternetAddress("a@example.org"), InternetAddress("b@example.org")))
+        message.setSubject("Test äöü", "UTF-8")
+        message.setText("Hello world.", "UTF-8")
+        message.saveChanges()
+
+        val restored = MailDispatcher.fromByteArray(session, MailDispatcher.toByteArray(message))
+        assertEquals("Test äöü", restored.subject)
+        assertEquals(2, restored.allRecipients.size)
+        assertEquals("b@example.org", (restored.allRecipients[1] as InternetAddress).address)
+        assertEquals("Hello world.", restored.content.toString().trim())
+        assertEquals(message.messageID, restored.messageID)
+    }
+}
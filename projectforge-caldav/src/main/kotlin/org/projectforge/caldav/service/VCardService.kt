@@ -35,6 +35,7 @@ import ezvcard.property.*
 import mu.KotlinLogging
 import org.projectforge.business.address.AddressDO
 import org.projectforge.business.address.AddressImageDao
+import org.projectforge.business.image.ImageService
 import org.projectforge.framework.time.PFDay
 import org.springframework.stereotype.Service
 import java.io.ByteArrayInputStream
@@ -109,12 +110,31 @@ class VCardService {
         vcard.addUrl(addressDO.website)
         vcard.addNote(addressDO.comment)
         if (addressDO.image == true) {
-            val photo = Photo(addressImageDao.getImage(addressDO.id), ImageType.JPEG)
-            vcard.addPhoto(photo)
+            // The thumbnail is embedded instead of the full image for keeping the vcards small:
+            addressImageDao.getThumbnail(addressDO.id)?.let { thumbnail ->
+                getImageType(thumbnail)?.let {
+                    vcard.addPhoto(Photo(thumbnail, it))
+                }
+            }
         }
         return vcard
     }
 
+    /**
+     * @return The image type of the given image (determined by its content) or null, if not supported.
+     */
+    internal fun getImageType(image: ByteArray): ImageType? {
+        return when (ImageService.getMimeType(image)) {
+            "image/png" -> ImageType.PNG
+            "image/jpeg" -> ImageType.JPEG
+            "image/gif" -> ImageType.GIF
+            else -> {
+                log.warn { "Unsupported image type of address image, not embedded in vcard." }
+                null
+            }
+        }
+    }
+
     fun buildVCardByteArray(addressDO: AddressDO, addressImageDao: AddressImageDao): ByteArray { //See: https://github.com/mangstadt/ez-vcard
         val vcard = buildVCard(addressDO, addressImageDao)
         return Ezvcard.write(vcard).version(VCardVersion.V3_0).go().toByteArray()
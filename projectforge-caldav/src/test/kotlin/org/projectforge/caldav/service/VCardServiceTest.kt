@@ -23,6 +23,7 @@
 
 package org.projectforge.web
 
+import ezvcard.parameter.ImageType
 import org.junit.jupiter.api.Assertions
 import org.junit.jupiter.api.Test
 import org.projectforge.business.address.AddressDO
@@ -42,4 +43,27 @@ class VCardServiceTest {
         val byteArray = VCardService().buildVCardByteArray(address, AddressImageDao())
         Assertions.assertTrue(byteArray.toString(StandardCharsets.UTF_8).contains("BDAY:1970-11-21"))
     }
+
+    @Test
+    fun photoTest() {
+        val address = AddressDO()
+        address.id = 42
+        address.name = "Reinhard"
+        address.image = true
+        val jpeg = byteArrayOf(0xFF.toByte(), 0xD8.toByte(), 0xFF.toByte(), 0xE0.toByte(), 0, 0x10)
+        var vcard = VCardService().buildVCard(address, TestAddressImageDao(jpeg))
+        Assertions.assertEquals(ImageType.JPEG, vcard.photos.single().contentType)
+        val png = byteArrayOf(0x89.toByte(), 'P'.toByte(), 'N'.toByte(), 'G'.toByte(), 0x0D, 0x0A, 0x1A, 0x0A)
+        vcard = VCardService().buildVCard(address, TestAddressImageDao(png))
+        Assertions.assertEquals(ImageType.PNG, vcard.photos.single().contentType)
+        // Unknown image types and missing thumbnails aren't embedded:
+        Assertions.assertTrue(VCardService().buildVCard(address, TestAddressImageDao("unknown".toByteArray())).photos.isEmpty())
+        Assertions.assertTrue(VCardService().buildVCard(address, TestAddressImageDao(null)).photos.isEmpty())
+    }
+
+    private class TestAddressImageDao(val thumbnail: ByteArray?) : AddressImageDao() {
+        override fun getThumbnail(addressId: Int): ByteArray? {
+            return thumbnail
+        }
+    }
 }
@@ -60,6 +60,7 @@ class FileObject() {
         lastUpdateByUser = node.getProperty(RepoService.PROPERTY_LAST_UPDATE_BY_USER)?.string
         fileId = node.name
         size = node.getProperty(RepoService.PROPERTY_FILESIZE)?.long?.toInt()
+        checksum = if (node.hasProperty(RepoService.PROPERTY_CHECKSUM)) node.getProperty(RepoService.PROPERTY_CHECKSUM).string else null
         if (log.isDebugEnabled) {
             log.debug { "Restoring: ${PFJcrUtils.toJson(this)}" }
         }
@@ -76,6 +77,7 @@ class FileObject() {
         node.setProperty(RepoService.PROPERTY_LAST_UPDATE, PFJcrUtils.convertToString(lastUpdate) ?: "")
         node.setProperty(RepoService.PROPERTY_LAST_UPDATE_BY_USER, lastUpdateByUser ?: "")
         size?.let { node.setProperty(RepoService.PROPERTY_FILESIZE, it.toLong()) }
+        checksum?.let { node.setProperty(RepoService.PROPERTY_CHECKSUM, it) }
         log.info { "Storing file info: ${PFJcrUtils.toJson(this)}" }
     }
 
@@ -106,6 +108,12 @@ class FileObject() {
     var size: Int? = null
         internal set
 
+    /**
+     * SHA-256 checksum (hex) of the content, calculated on storing. Null for files stored by older versions.
+     */
+    var checksum: String? = null
+        internal set
+
     /**
      * Optional description.
      */
@@ -29,12 +29,72 @@ private val log = KotlinLogging.logger {}
 
 /**
  * For information.
+ * @param withFilesStatistics If true, all file nodes are walked through for getting the logical size of all files
+ * (and the dedup ratio of the blob store).
  */
-class FileStoreInfo(repoService: RepoService) {
+class FileStoreInfo @JvmOverloads constructor(repoService: RepoService, withFilesStatistics: Boolean = true) {
     val approximateSize = PFJcrUtils.formatBytes(repoService.fileStore?.stats?.approximateSize)
     val tarFileCount = repoService.fileStore?.stats?.tarFileCount
     val location = repoService.fileStoreLocation?.absolutePath
 
+    /**
+     * Number of blobs in the content-addressed blob store (identical binaries are stored only once).
+     */
+    var blobCount: Int? = null
+        private set
+
+    /**
+     * Size of all blobs in the blob store.
+     */
+    var blobStoreSize: String? = null
+        private set
+
+    /**
+     * Number of stored files (attachments).
+     */
+    var fileCount: Int? = null
+        private set
+
+    /**
+     * Total size of all stored files (as if every file would be stored separately).
+     */
+    var filesSize: String? = null
+        private set
+
+    /**
+     * Total size of all files divided by the size of the blob store (values greater than 1 means savings by
+     * de-duplication). Small files stored inline aren't part of the blob store, so this is only an approximation.
+     */
+    var dedupRatio: String? = null
+        private set
+
+    init {
+        var blobBytes: Long? = null
+        try {
+            repoService.getBlobStoreStatistics()?.let { stats ->
+                blobCount = stats.first
+                blobBytes = stats.second
+                blobStoreSize = PFJcrUtils.formatBytes(stats.second)
+            }
+        } catch (ex: Exception) {
+            log.error { "Can't get blob store statistics: ${ex.message}" }
+        }
+        if (withFilesStatistics) {
+            try {
+                val stats = repoService.getFilesStatistics()
+                fileCount = stats.first
+                filesSize = PFJcrUtils.formatBytes(stats.second)
+                blobBytes?.let {
+                    if (it > 0) {
+                        dedupRatio = String.format("%.2f", stats.second.toDouble() / it)
+                    }
+                }
+            } catch (ex: Exception) {
+                log.error { "Can't get files statistics: ${ex.message}" }
+            }
+        }
+    }
+
     override fun toString(): String {
         return PFJcrUtils.toJson(this)
     }
@@ -26,34 +26,148 @@ package org.projectforge.jcr
 import mu.KotlinLogging
 import org.projectforge.common.BackupFilesPurging
 import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.beans.factory.annotation.Value
 import org.springframework.scheduling.annotation.Scheduled
 import org.springframework.stereotype.Component
 import java.io.File
 import java.io.FileOutputStream
+import java.util.*
 import java.util.zip.ZipOutputStream
 
 private val log = KotlinLogging.logger {}
 
+/**
+ * Nightly backup of the jcr. A full backup is done, if no checkpoint of a previous backup exists or if the last full
+ * backup is older than [fullBackupIntervalDays]. Otherwise only the files modified since the last backup are written
+ * (incremental backup, see [RepoBackupService.backupIncrementalAsZipArchive]).
+ */
 @Component
 class JCRBackupJob {
     @Autowired
     private lateinit var repoBackupService: RepoBackupService
 
+    @Autowired
+    private lateinit var repoService: RepoService
+
+    @Value("\${projectforge.jcr.backup.fullBackupIntervalDays:7}")
+    private var fullBackupIntervalDays: Int = 7
+
+    /**
+     * Time budget of incremental backups. If exceeded, the remaining modifications are written by the next backup.
+     */
+    @Value("\${projectforge.jcr.backup.maxIncrementalMinutes:60}")
+    private var maxIncrementalMinutes: Long = 60
+
     // projectforge.jcr.cron.backup=0 30 0 * * *
     @Scheduled(cron = "\${projectforge.jcr.cron.backup}")
     fun execute() {
         log.info("JCR backup job started.")
         val time = System.currentTimeMillis()
-        val backupFile = RepoBackupService.backupFilename
+        try {
+            repoService.collectGarbage()
+        } catch (ex: Exception) {
+            log.error("Error while collecting garbage of jcr repository: ${ex.message}", ex)
+        }
         val backupDirectory = repoBackupService.backupDirectory!!
-        val zipFile = File(backupDirectory, backupFile)
-        ZipOutputStream(FileOutputStream(zipFile)).use {
-            repoBackupService.backupAsZipArchive(zipFile.name, it)
+        val checkpoint = readCheckpoint(backupDirectory)
+        val lastBackup = checkpoint?.getProperty(PROPERTY_LAST_BACKUP)?.toLongOrNull()
+        var lastFullBackup = checkpoint?.getProperty(PROPERTY_LAST_FULL_BACKUP)?.toLongOrNull()
+        val newCheckpoint: Long
+        if (lastBackup == null || lastFullBackup == null || time - lastFullBackup > fullBackupIntervalDays * MILLIS_PER_DAY) {
+            val zipFile = File(backupDirectory, RepoBackupService.backupFilename)
+            ZipOutputStream(FileOutputStream(zipFile)).use {
+                repoBackupService.backupAsZipArchive(zipFile.name, it)
+            }
+            // All modifications before start of backup are included:
+            newCheckpoint = time
+            lastFullBackup = time
+        } else {
+            val zipFile = File(backupDirectory, RepoBackupService.incrementalBackupFilename)
+            newCheckpoint = ZipOutputStream(FileOutputStream(zipFile)).use {
+                repoBackupService.backupIncrementalAsZipArchive(zipFile.name, it, lastBackup, maxIncrementalMinutes * 60_000)
+            }
         }
+        writeCheckpoint(backupDirectory, newCheckpoint, lastFullBackup)
+        repoService.purgeJournal(newCheckpoint)
+        repoBackupService.backupBlobStore(File(backupDirectory, RepoBackupService.BLOBSTORE_BACKUP_DIRNAME))
         log.info("JCR backup job finished after ${(System.currentTimeMillis() - time) / 1000} seconds.")
+        // Chain of each incremental backup, before full backups are purged:
+        val chains = getIncrementalBackupChains(backupDirectory)
         BackupFilesPurging.purgeDirectory(
                 backupDirectory,
                 filePrefix = RepoBackupService.backupFilenamePrefix
         )
+        purgeIncrementalBackups(chains)
+        if (backupDirectory.listFiles()?.none { it.name.startsWith(RepoBackupService.backupFilenamePrefix) } == true) {
+            // Base of the current chain purged (full backup interval longer than the purging interval of daily backups):
+            File(backupDirectory, CHECKPOINT_FILENAME).delete()
+        }
+    }
+
+    /**
+     * An incremental backup is part of the chain of the last full backup written before (the same timestamp format is
+     * part of the file names, so the names are ordered chronologically).
+     * @return Map of incremental backup files by the full backup file they are based on (null, if not existing).
+     */
+    internal fun getIncrementalBackupChains(backupDirectory: File): Map<File?, List<File>> {
+        val files = backupDirectory.listFiles() ?: return emptyMap()
+        val fullBackups = files.filter { it.name.startsWith(RepoBackupService.backupFilenamePrefix) }
+                .sortedBy { it.name.removePrefix(RepoBackupService.backupFilenamePrefix) }
+        return files.filter { it.name.startsWith(RepoBackupService.incrementalBackupFilenamePrefix) }
+                .sortedBy { it.name }
+                .groupBy { incremental ->
+                    val timestamp = incremental.name.removePrefix(RepoBackupService.incrementalBackupFilenamePrefix)
+                    fullBackups.lastOrNull { it.name.removePrefix(RepoBackupService.backupFilenamePrefix) <= timestamp }
+                }
+    }
+
+    /**
+     * Incremental backups are useless without their full backup: whole chains are deleted, if the full backup they are
+     * based on was purged.
+     */
+    internal fun purgeIncrementalBackups(chains: Map<File?, List<File>>) {
+        chains.forEach { (fullBackup, incrementals) ->
+            if (fullBackup == null || !fullBackup.exists()) {
+                log.info("Deleting ${incrementals.size} incremental backups of purged full backup '${fullBackup?.name}'.")
+                incrementals.forEach { it.delete() }
+            }
+        }
+    }
+
+    private fun readCheckpoint(backupDirectory: File): Properties? {
+        val file = File(backupDirectory, CHECKPOINT_FILENAME)
+        if (!file.exists()) {
+            return null
+        }
+        return try {
+            val properties = Properties()
+            file.inputStream().use { properties.load(it) }
+            properties
+        } catch (ex: Exception) {
+            log.error("Can't read checkpoint file '${file.absolutePath}', doing a full backup: ${ex.message}", ex)
+            null
+        }
+    }
+
+    private fun writeCheckpoint(backupDirectory: File, lastBackup: Long, lastFullBackup: Long) {
+        val properties = Properties()
+        properties.setProperty(PROPERTY_LAST_BACKUP, lastBackup.toString())
+        properties.setProperty(PROPERTY_LAST_FULL_BACKUP, lastFullBackup.toString())
+        File(backupDirectory, CHECKPOINT_FILENAME).outputStream().use {
+            properties.store(it, "Checkpoint of the last jcr backup (epoch millis), don't edit.")
+        }
+    }
+
+    companion object {
+        /**
+         * Stores the checkpoint of the last (full) backup in the backup directory.
+         */
+        const val CHECKPOINT_FILENAME = "projectforge-jcr-checkpoint.properties"
+
+        private const val PROPERTY_LAST_BACKUP = "lastBackup"
+
+        private const val PROPERTY_LAST_FULL_BACKUP = "lastFullBackup"
+
+        private const val MILLIS_PER_DAY = 24 * 60 * 60 * 1000L
     }
 }
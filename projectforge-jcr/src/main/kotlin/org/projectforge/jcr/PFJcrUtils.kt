@@ -3,11 +3,15 @@ package org.projectforge.jcr
 import com.fasterxml.jackson.annotation.JsonAutoDetect
 import com.fasterxml.jackson.annotation.JsonInclude
 import com.fasterxml.jackson.annotation.PropertyAccessor
+import com.fasterxml.jackson.core.JsonGenerator
+import com.fasterxml.jackson.core.JsonParser
 import com.fasterxml.jackson.databind.ObjectMapper
 import com.fasterxml.jackson.databind.SerializationFeature
 import com.fasterxml.jackson.databind.module.SimpleModule
 import mu.KotlinLogging
 import java.io.IOException
+import java.io.InputStream
+import java.io.OutputStream
 import java.math.BigDecimal
 import java.math.RoundingMode
 import java.text.NumberFormat
@@ -37,6 +41,36 @@ object PFJcrUtils {
         return mapper.readValue(json, classOfT)
     }
 
+    /**
+     * Creates a json generator for streaming large json documents (e. g. backups). The given output stream isn't closed
+     * by the generator (zip streams are written entry by entry).
+     */
+    fun createJsonGenerator(out: OutputStream): JsonGenerator {
+        return mapper.factory.createGenerator(out).disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+    }
+
+    /**
+     * Creates a json parser for streaming large json documents (e. g. backups). The given input stream isn't closed by
+     * the parser (zip streams are read entry by entry).
+     */
+    fun createJsonParser(inputStream: InputStream): JsonParser {
+        return mapper.factory.createParser(inputStream).disable(JsonParser.Feature.AUTO_CLOSE_SOURCE)
+    }
+
+    /**
+     * Writes the given object to the generator by using the object mapper configuration of this class.
+     */
+    fun writeJson(generator: JsonGenerator, obj: Any) {
+        mapper.writeValue(generator, obj)
+    }
+
+    /**
+     * Reads the value at the current token of the parser by using the object mapper configuration of this class.
+     */
+    fun <T> readJson(parser: JsonParser, classOfT: Class<T>): T {
+        return mapper.readValue(parser, classOfT)
+    }
+
     fun convertToDate(isoString: String?): Date? {
         if (isoString.isNullOrBlank()) {
             return null
@@ -80,6 +114,15 @@ object PFJcrUtils {
         return sb.toString()
     }
 
+    /**
+     * @return Lower case hex string of the given bytes (e. g. for checksums).
+     */
+    fun toHex(bytes: ByteArray): String {
+        val sb = StringBuilder(bytes.size * 2)
+        bytes.forEach { sb.append(String.format("%02x", it)) }
+        return sb.toString()
+    }
+
     fun formatBytes(bytes: Int?): String {
         return formatBytes(bytes?.toLong())
     }
@@ -24,16 +24,20 @@
 package org.projectforge.jcr
 
 import mu.KotlinLogging
+import com.fasterxml.jackson.core.JsonGenerator
+import com.fasterxml.jackson.core.JsonParser
+import com.fasterxml.jackson.core.JsonToken
 import org.apache.commons.io.FilenameUtils
+import org.apache.commons.io.input.CloseShieldInputStream
 import org.springframework.beans.factory.annotation.Autowired
 import org.springframework.beans.factory.annotation.Value
 import org.springframework.stereotype.Service
-import java.io.ByteArrayInputStream
 import java.io.File
 import java.nio.charset.StandardCharsets
 import java.time.ZoneOffset
 import java.time.ZonedDateTime
 import java.time.format.DateTimeFormatter
+import java.util.*
 import java.util.zip.ZipEntry
 import java.util.zip.ZipInputStream
 import java.util.zip.ZipOutputStream
@@ -81,28 +85,88 @@ open class RepoBackupService {
      * @param absPath If not given, [RepoService.mainNodeName] is used.
      */
     open fun backupAsZipArchive(archiveName: String, zipOut: ZipOutputStream, absPath: String = "/${repoService.mainNodeName}") {
-        val archivNameWithoutExtension = if (archiveName.contains('.')) {
-            archiveName.substring(0, archiveName.indexOf('.'))
-        } else {
-            archiveName
-        }
+        val archivNameWithoutExtension = getArchiveNameWithoutExtension(archiveName)
         return runInSession { session ->
             log.info { "Creating backup of document view and binaries of path '$absPath' as '$archiveName'..." }
 
-            // Write README.TXT
-            zipOut.putNextEntry(createZipEntry(archivNameWithoutExtension, "README.TXT"))
-            val readme = this::class.java.getResource(BACKUP_README).readText()
-            zipOut.write(readme.toByteArray(StandardCharsets.UTF_8))
+            writeReadme(archivNameWithoutExtension, zipOut)
 
             val topNode = repoService.getNode(session, absPath, null)
             // Using repository.json if repository.xml doesn't work.
             zipOut.putNextEntry(createZipEntry(archivNameWithoutExtension, "repository.json"))
-            zipOut.write(PFJcrUtils.toJson(NodeInfo(topNode, recursive = true)).toByteArray(StandardCharsets.UTF_8))
+            // The node tree is written streamed, so the repository info doesn't need to fit in memory:
+            PFJcrUtils.createJsonGenerator(zipOut).use { generator ->
+                writeNode(generator, topNode)
+            }
             writeToZip(topNode, archivNameWithoutExtension, zipOut)
         }
     }
 
     /**
+     * Writes only the files modified (stored, changed or deleted) after the given time. The modified files are taken
+     * from the journal of the repository ([RepoService.NODENAME_JOURNAL]), so the repository isn't walked completely.
+     * For each modified file a change info (&lt;fileId&gt;.change.json) is written, followed by its content (if not
+     * deleted).
+     * An incremental backup has to be restored after the full backup it is based on (see [restoreBackupFromZipArchive]).
+     * @param since Epoch millis of the last backup (checkpoint).
+     * @param maxDurationMillis If given, the backup stops after this time budget and returns the checkpoint of the
+     * files written so far. The next incremental backup continues at this point.
+     * @return The new checkpoint (epoch millis of the last journal entry written) to use for the next backup.
+     */
+    @JvmOverloads
+    open fun backupIncrementalAsZipArchive(archiveName: String, zipOut: ZipOutputStream, since: Long, maxDurationMillis: Long? = null): Long {
+        val archivNameWithoutExtension = getArchiveNameWithoutExtension(archiveName)
+        val started = System.currentTimeMillis()
+        return runInSession { session ->
+            val entries = repoService.getJournalEntries(session, since)
+            log.info { "Creating incremental backup of ${entries.size} modifications since ${PFJcrUtils.convertToString(Date(since))} as '$archiveName'..." }
+            writeReadme(archivNameWithoutExtension, zipOut)
+            var checkpoint = since
+            val processedPaths = mutableSetOf<String>()
+            var counter = 0
+            for (entry in entries) {
+                if (maxDurationMillis != null && entry.millis != checkpoint && System.currentTimeMillis() - started > maxDurationMillis) {
+                    log.info { "Time budget of incremental backup exceeded, stopping. The remaining modifications will be written by the next backup." }
+                    break
+                }
+                checkpoint = entry.millis
+                if (!processedPaths.add(entry.path)) {
+                    continue // The current state of this file is already written.
+                }
+                val filesNodePath = entry.path.substringBeforeLast('/')
+                val fileId = entry.path.substringAfterLast('/')
+                val fileNode = getNodeIfExists(session, entry.path)
+                val fileChange = FileChange()
+                fileChange.path = entry.path
+                if (fileNode == null) {
+                    if (!entry.deleted) {
+                        // File deleted later on, a journal entry for the deletion will follow.
+                        processedPaths.remove(entry.path)
+                        continue
+                    }
+                    fileChange.deleted = true
+                } else {
+                    fileChange.node = NodeInfo(fileNode, false)
+                }
+                zipOut.putNextEntry(createZipEntry(archivNameWithoutExtension, filesNodePath, "$fileId$CHANGE_SUFFIX"))
+                zipOut.write(PFJcrUtils.toJson(fileChange).toByteArray(StandardCharsets.UTF_8))
+                if (fileNode != null) {
+                    val fileObject = FileObject(fileNode)
+                    repoService.getFileInputStream(fileNode, fileObject)?.use {
+                        zipOut.putNextEntry(createZipEntry(archivNameWithoutExtension, filesNodePath, PFJcrUtils.createSafeFilename(fileObject)))
+                        it.copyTo(zipOut)
+                    }
+                }
+                ++counter
+            }
+            log.info { "Incremental backup finished: $counter modified files written in ${(System.currentTimeMillis() - started) / 1000} seconds." }
+            checkpoint
+        }
+    }
+
+    /**
+     * Restores a full backup or an incremental backup. The nodes (repository.json) are read streamed. Incremental
+     * backups must be restored in chronological order after restoring the full backup they are based on.
      * @param absPath If not given, [RepoService.mainNodeName] is used (only used for creation of repository.xml).
      */
     @JvmOverloads
@@ -123,15 +187,26 @@ open class RepoBackupService {
                 if (!nodesRestored) {
                     if (fileName == "repository.json") {
                         log.info { "Restoring nodes from '${zipEntry.name}'..." }
-                        val json = zipIn.readBytes().toString(StandardCharsets.UTF_8)
-                        val topNode = PFJcrUtils.fromJson(json, NodeInfo::class.java)
-                        restoreNode(session.rootNode, topNode)
+                        PFJcrUtils.createJsonParser(zipIn).use { parser ->
+                            if (parser.nextToken() == JsonToken.START_OBJECT) {
+                                val counter = restoreNode(session, session.rootNode, parser, 0)
+                                log.info { "$counter nodes restored." }
+                            }
+                        }
                         session.save()
                         nodesRestored = true
                         zipEntry = zipIn.nextEntry
                         continue
                     }
                 }
+                if (fileName.endsWith(CHANGE_SUFFIX)) {
+                    val fileChange = PFJcrUtils.fromJson(zipIn.readBytes().toString(StandardCharsets.UTF_8), FileChange::class.java)
+                    restoreFileChange(session, fileChange)
+                    // Incremental backup: the file nodes are restored by the change infos.
+                    nodesRestored = true
+                    zipEntry = zipIn.nextEntry
+                    continue
+                }
                 val filesPath = getFilesPath(zipEntry.name)
                 if (!filesPath.isNullOrBlank() && !IGNORE_FILES.contains(fileName)) {
                     if (log.isDebugEnabled) {
@@ -154,10 +229,13 @@ open class RepoBackupService {
                     }
                     val fileObject = FileObject(fileNode)
                     log.info { "Restoring file '${zipEntry.name}': $fileObject" }
-                    val content = zipIn.readBytes()
-                    val inputStream = ByteArrayInputStream(content)
-                    val bin: Binary = session.valueFactory.createBinary(inputStream)
-                    fileNode.setProperty(RepoService.PROPERTY_FILECONTENT, session.valueFactory.createValue(bin))
+                    // Binary is streamed into the repository, the zip stream itself must not be closed:
+                    val bin: Binary = session.valueFactory.createBinary(CloseShieldInputStream(zipIn))
+                    try {
+                        fileNode.setProperty(RepoService.PROPERTY_FILECONTENT, session.valueFactory.createValue(bin))
+                    } finally {
+                        bin.dispose()
+                    }
                     session.save()
                 }
                 zipEntry = zipIn.nextEntry
@@ -166,14 +244,87 @@ open class RepoBackupService {
         }
     }
 
-    private fun restoreNode(parentNode: Node, nodeInfo: NodeInfo) {
-        val node = repoService.ensureNode(parentNode, nodeInfo.name)
-        nodeInfo.properties?.forEach {
-            it.addToNode(node)
+    /**
+     * Writes the node, its properties and all its descendants (the journal is ignored) as json object with the same
+     * structure as [NodeInfo].
+     */
+    private fun writeNode(generator: JsonGenerator, node: Node) {
+        generator.writeStartObject()
+        generator.writeStringField("name", node.name)
+        // Properties before children, so the node may be created and restored by the parser before its children.
+        node.properties?.let {
+            if (it.hasNext()) {
+                generator.writeArrayFieldStart("properties")
+                while (it.hasNext()) {
+                    PFJcrUtils.writeJson(generator, PropertyInfo(it.nextProperty()))
+                }
+                generator.writeEndArray()
+            }
+        }
+        generator.writeArrayFieldStart("children")
+        node.nodes?.let {
+            while (it.hasNext()) {
+                val child = it.nextNode()
+                if (child.name != RepoService.NODENAME_JOURNAL) {
+                    writeNode(generator, child)
+                }
+            }
+        }
+        generator.writeEndArray()
+        generator.writeEndObject()
+    }
+
+    /**
+     * Reads the node object at the current position of the parser (start object) and restores it including all its
+     * descendants. Transient changes are saved every [RESTORE_SAVE_INTERVAL] nodes for limiting the memory usage.
+     * @return The total number of restored nodes.
+     */
+    private fun restoreNode(session: SessionWrapper, parentNode: Node, parser: JsonParser, restoredNodes: Int): Int {
+        var counter = restoredNodes
+        var node: Node? = null
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            val field = parser.currentName
+            parser.nextToken()
+            when (field) {
+                "name" -> {
+                    node = repoService.ensureNode(parentNode, parser.text)
+                    if (++counter % RESTORE_SAVE_INTERVAL == 0) {
+                        session.save()
+                    }
+                }
+                "properties" -> {
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        val propertyInfo = PFJcrUtils.readJson(parser, PropertyInfo::class.java)
+                        propertyInfo.addToNode(node ?: throw IllegalArgumentException("Name of node must be given before its properties."))
+                    }
+                }
+                "children" -> {
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        counter = restoreNode(session, node
+                                ?: throw IllegalArgumentException("Name of node must be given before its children."), parser, counter)
+                    }
+                }
+                else -> parser.skipChildren()
+            }
+        }
+        return counter
+    }
+
+    private fun restoreFileChange(session: SessionWrapper, fileChange: FileChange) {
+        val path = fileChange.path ?: return
+        if (fileChange.deleted) {
+            getNodeIfExists(session, path)?.let {
+                log.info { "Removing deleted file '$path'." }
+                it.remove()
+                session.save()
+            }
+            return
         }
-        nodeInfo.children?.forEach {
-            restoreNode(node, it)
+        val fileNode = repoService.ensureNode(session.rootNode, path.removePrefix("/"))
+        fileChange.node?.properties?.forEach {
+            it.addToNode(fileNode)
         }
+        session.save()
     }
 
     private fun getFilesPath(fileName: String): String? {
@@ -194,11 +345,10 @@ open class RepoBackupService {
             fileList.forEach {
                 repoService.findFile(node, it.fileId, null)?.let { fileNode ->
                     val fileObject = FileObject(fileNode)
-                    val content = repoService.getFileContent(fileNode, fileObject)
-                    if (content != null) {
+                    repoService.getFileInputStream(fileNode, fileObject)?.use { content ->
                         val fileName = PFJcrUtils.createSafeFilename(it)
                         zipOut.putNextEntry(createZipEntry(archiveName, node.path, fileName))
-                        zipOut.write(content)
+                        content.copyTo(zipOut)
                     }
                 }
             }
@@ -213,15 +363,77 @@ open class RepoBackupService {
         zipOut.write(PFJcrUtils.toJson(nodeInfo).toByteArray(StandardCharsets.UTF_8))
         node.nodes?.let {
             while (it.hasNext()) {
-                writeToZip(it.nextNode(), archiveName, zipOut)
+                val child = it.nextNode()
+                if (child.name != RepoService.NODENAME_JOURNAL) {
+                    writeToZip(child, archiveName, zipOut)
+                }
             }
         }
     }
 
+    private fun getNodeIfExists(session: SessionWrapper, absPath: String): Node? {
+        return if (session.session.nodeExists(absPath)) session.getNode(absPath) else null
+    }
+
+    private fun writeReadme(archiveName: String, zipOut: ZipOutputStream) {
+        zipOut.putNextEntry(createZipEntry(archiveName, "README.TXT"))
+        val readme = this::class.java.getResource(BACKUP_README).readText()
+        zipOut.write(readme.toByteArray(StandardCharsets.UTF_8))
+    }
+
+    private fun getArchiveNameWithoutExtension(archiveName: String): String {
+        return if (archiveName.contains('.')) {
+            archiveName.substring(0, archiveName.indexOf('.'))
+        } else {
+            archiveName
+        }
+    }
+
     private fun createZipEntry(archiveName: String, vararg path: String?): ZipEntry {
         return ZipEntry("$archiveName/${path.joinToString(separator = "/") { it ?: "" }}")
     }
 
+    /**
+     * Incremental backup of the content-addressed blob store: blobs are immutable and named by their content hash, so
+     * only blobs not yet existing in the target directory are copied. Blobs of the target directory not existing anymore
+     * in the blob store (deleted by [RepoService.collectGarbage]) are removed.
+     * @return Number of copied blobs or null, if the repository doesn't use a blob store.
+     */
+    open fun backupBlobStore(targetDir: File): Int? {
+        val blobDir = repoService.blobStoreLocation ?: return null
+        if (!blobDir.isDirectory) {
+            return 0
+        }
+        var counter = 0
+        var bytes = 0L
+        blobDir.walkTopDown().filter { it.isFile }.forEach { blob ->
+            val target = File(targetDir, blob.relativeTo(blobDir).path)
+            if (!target.exists() || target.length() != blob.length()) {
+                target.parentFile.mkdirs()
+                // Copy to temp file first, so an interrupted backup doesn't leave incomplete blobs:
+                val tmpFile = File(target.parentFile, "${target.name}.tmp")
+                blob.copyTo(tmpFile, overwrite = true)
+                tmpFile.renameTo(target)
+                ++counter
+                bytes += blob.length()
+            }
+        }
+        var deleted = 0
+        // Bottom up, so empty directories are removed after their files:
+        targetDir.walkBottomUp().filter { it != targetDir }.forEach { target ->
+            if (target.isFile) {
+                if (!File(blobDir, target.relativeTo(targetDir).path).exists()) {
+                    target.delete()
+                    ++deleted
+                }
+            } else if (target.list()?.isEmpty() == true) {
+                target.delete()
+            }
+        }
+        log.info { "Backup of blob store to '${targetDir.absolutePath}' finished: $counter new blobs (${PFJcrUtils.formatBytes(bytes)}) copied, $deleted removed blobs deleted." }
+        return counter
+    }
+
     private fun <T> runInSession(method: (session: SessionWrapper) -> T): T {
         val session = SessionWrapper(this.repoService)
         try {
@@ -238,6 +450,10 @@ open class RepoBackupService {
 
         private val IGNORE_FILES = arrayOf("README.txt", "node.json", "files.txt", "files.json")
 
+        private const val CHANGE_SUFFIX = ".change.json"
+
+        private const val RESTORE_SAVE_INTERVAL = 1000
+
         val backupFilename: String
             get() {
                 val nowAsIsoString = ZonedDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd_HH-mm-ss").withZone(ZoneOffset.UTC))
@@ -245,5 +461,31 @@ open class RepoBackupService {
             }
 
         val backupFilenamePrefix = "projectforge-jcr-backup-"
+
+        val incrementalBackupFilename: String
+            get() {
+                val nowAsIsoString = ZonedDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd_HH-mm-ss").withZone(ZoneOffset.UTC))
+                return "$incrementalBackupFilenamePrefix$nowAsIsoString.zip"
+            }
+
+        /**
+         * Incremental backups have their own prefix, so they aren't purged with the full backups (see
+         * [JCRBackupJob.purgeIncrementalBackups]).
+         */
+        val incrementalBackupFilenamePrefix = "projectforge-jcr-incremental-backup-"
+
+        /**
+         * Name of the sub directory of the backup directory containing the backup of the blob store.
+         */
+        const val BLOBSTORE_BACKUP_DIRNAME = "projectforge-jcr-blobs"
     }
 }
+
+/**
+ * Change info of a file written by incremental backups.
+ */
+internal class FileChange {
+    var path: String? = null
+    var deleted: Boolean = false
+    var node: NodeInfo? = null
+}
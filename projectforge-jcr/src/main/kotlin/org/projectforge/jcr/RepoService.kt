@@ -26,18 +26,31 @@ package org.projectforge.jcr
 import mu.KotlinLogging
 import org.apache.jackrabbit.oak.Oak
 import org.apache.jackrabbit.oak.jcr.Jcr
+import org.apache.jackrabbit.oak.plugins.blob.MarkSweepGarbageCollector
+import org.apache.jackrabbit.oak.plugins.blob.datastore.DataStoreBlobStore
+import org.apache.jackrabbit.oak.plugins.blob.datastore.OakFileDataStore
+import org.apache.jackrabbit.oak.plugins.blob.datastore.SharedDataStoreUtils.SharedStoreRecordType
 import org.apache.jackrabbit.oak.plugins.document.DocumentNodeStore
+import org.apache.jackrabbit.oak.plugins.identifier.ClusterRepositoryInfo
+import org.apache.jackrabbit.oak.segment.SegmentBlobReferenceRetriever
 import org.apache.jackrabbit.oak.segment.SegmentNodeStoreBuilders
 import org.apache.jackrabbit.oak.segment.file.FileStore
 import org.apache.jackrabbit.oak.segment.file.FileStoreBuilder
 import org.apache.jackrabbit.oak.spi.state.NodeStore
+import org.springframework.beans.factory.annotation.Value
 import org.springframework.stereotype.Service
 import java.io.ByteArrayInputStream
 import java.io.File
 import java.io.InputStream
 import java.io.OutputStream
+import java.security.DigestInputStream
+import java.security.MessageDigest
 import java.security.SecureRandom
+import java.time.Instant
+import java.time.ZoneOffset
+import java.time.format.DateTimeFormatter
 import java.util.*
+import java.util.concurrent.Executor
 import javax.annotation.PreDestroy
 import javax.jcr.Binary
 import javax.jcr.Node
@@ -57,6 +70,21 @@ open class RepoService {
 
     private var nodeStore: NodeStore? = null
 
+    /**
+     * If true, binaries are stored content-addressed in a file data store (sub directory [BLOBSTORE_DIRNAME] of the
+     * repository dir) instead of inline in the segment tar files. Identical binaries are stored only once.
+     *
+     * Opt-in (default is false), because it changes the storage layout: existing binaries of the segment store remain
+     * readable, only new binaries are written to the blob store (migration of all binaries by restoring a full backup into
+     * an empty repository). Once enabled, it mustn't be disabled anymore, otherwise the binaries of the blob store are lost.
+     */
+    @Value("\${projectforge.jcr.blobStore.enabled:false}")
+    internal var blobStoreEnabled: Boolean = false
+
+    internal var blobStore: DataStoreBlobStore? = null
+
+    internal var blobStoreLocation: File? = null
+
     internal lateinit var mainNodeName: String
 
     @PreDestroy
@@ -65,9 +93,10 @@ open class RepoService {
         fileStore?.let {
             it.flush()
             it.gc()
-            log.info { "Jcr stats: ${FileStoreInfo(this)}" }
+            log.info { "Jcr stats: ${FileStoreInfo(this, withFilesStatistics = false)}" }
             it.close()
         }
+        blobStore?.close()
         nodeStore?.let {
             if (it is DocumentNodeStore) {
                 it.dispose()
@@ -135,14 +164,17 @@ open class RepoService {
             fileObject.lastUpdateByUser = user
             var bin: Binary? = null
             try {
-                bin = session.valueFactory.createBinary(content)
+                // The checksum is calculated while streaming the content into the repository:
+                val digestInputStream = DigestInputStream(content, MessageDigest.getInstance(CHECKSUM_ALGORITHM))
+                bin = session.valueFactory.createBinary(digestInputStream)
                 fileNode.setProperty(PROPERTY_FILECONTENT, bin)
                 fileObject.size = bin?.size?.toInt()
+                fileObject.checksum = PFJcrUtils.toHex(digestInputStream.messageDigest.digest())
             } finally {
                 bin?.dispose()
             }
             fileObject.copyTo(fileNode)
-            session.save()
+            saveAndJournal(session, fileNode.path)
         }
     }
 
@@ -161,8 +193,9 @@ open class RepoService {
                 } else {
                     log.info { "Deleting file: $fileObject" }
                     fileObject.copyFrom(fileNode)
+                    val fileNodePath = fileNode.path
                     fileNode.remove()
-                    session.save()
+                    saveAndJournal(session, fileNodePath, deleted = true)
                     true
                 }
             }
@@ -228,8 +261,10 @@ open class RepoService {
                     if (modified) {
                         fileNode.setProperty(PROPERTY_LAST_UPDATE_BY_USER, user)
                         fileNode.setProperty(PROPERTY_LAST_UPDATE, PFJcrUtils.convertToString( Date()) ?: "")
+                        saveAndJournal(session, fileNode.path)
+                    } else {
+                        session.save()
                     }
-                    session.save()
                     FileObject(fileNode)
                 }
             }
@@ -304,7 +339,13 @@ open class RepoService {
         }
     }
 
-    open fun retrieveFileInputStream(fileObject: FileObject): InputStream? {
+    /**
+     * The given fileObject isn't modified, use [getFileInfo] for getting the file infos (size, checksum etc.).
+     * @param offset If given, the first offset bytes are skipped (for serving byte ranges without reading the whole
+     * file).
+     */
+    @JvmOverloads
+    open fun retrieveFileInputStream(fileObject: FileObject, offset: Long = 0): InputStream? {
         return runInSession { session ->
             val filesNode = getFilesNode(session, fileObject.parentNodePath, fileObject.relPath, false)
             val node = findFile(filesNode, fileObject.fileId, fileObject.fileName)
@@ -312,7 +353,29 @@ open class RepoService {
                 log.warn { "File not found in repository: $fileObject" }
                 null
             } else {
-                getFileInputStream(node, fileObject)
+                val inputStream = getFileInputStream(node, fileObject)
+                if (inputStream != null && offset > 0) {
+                    skipFully(inputStream, offset)
+                }
+                inputStream
+            }
+        }
+    }
+
+    /**
+     * Oak's binary streams support skipping without reading the skipped blocks.
+     */
+    private fun skipFully(inputStream: InputStream, offset: Long) {
+        var remaining = offset
+        while (remaining > 0) {
+            val skipped = inputStream.skip(remaining)
+            if (skipped <= 0) {
+                if (inputStream.read() < 0) {
+                    throw IllegalArgumentException("Can't skip $offset bytes, end of stream reached.")
+                }
+                remaining--
+            } else {
+                remaining -= skipped
             }
         }
     }
@@ -324,7 +387,7 @@ open class RepoService {
         return content
     }
 
-    private fun getFileInputStream(node: Node?, fileObject: FileObject): InputStream? {
+    internal fun getFileInputStream(node: Node?, fileObject: FileObject): InputStream? {
         node ?: return null
         log.info { "Reading file from repository '${node.path}': '${fileObject.fileName}'..." }
         var binary: Binary? = null
@@ -336,6 +399,90 @@ open class RepoService {
         }
     }
 
+    /**
+     * Saves the modification of the given file and records it in the journal afterwards.
+     *
+     * Every modification of files (store, change of file info, delete) is recorded in the journal, so incremental
+     * backups only have to handle the modified files instead of walking the whole repository. The journal entries are
+     * bucketed by day: [NODENAME_JOURNAL]/yyyy-MM-dd/{epochMillis}-{fileId}.
+     *
+     * The time of the journal entry is taken after the modification is saved: a backup with a later checkpoint sees the
+     * modification, a backup with an earlier checkpoint gets it by the next incremental backup.
+     *
+     * Only file modifications are journaled. All other modifications of nodes (e. g. [ensureNode] or [storeProperty])
+     * are only covered by full backups.
+     */
+    private fun saveAndJournal(session: SessionWrapper, fileNodePath: String, deleted: Boolean = false) {
+        session.save()
+        val millis = System.currentTimeMillis()
+        val bucket = ensureNode(session.getNode("/$mainNodeName"), "$NODENAME_JOURNAL/${getJournalBucketName(millis)}")
+        val entryName = getJournalEntryName(millis, fileNodePath.substringAfterLast('/'))
+        if (!bucket.hasNode(entryName)) { // Otherwise same file modified within the same millisecond.
+            val entry = bucket.addNode(entryName)
+            entry.setProperty(PROPERTY_JOURNAL_PATH, fileNodePath)
+            entry.setProperty(PROPERTY_JOURNAL_DELETED, deleted)
+        }
+        session.save()
+    }
+
+    /**
+     * @return All journal entries (pairs of epoch millis and the file node path and the deleted flag) after the given
+     * time in chronological order.
+     */
+    internal fun getJournalEntries(session: SessionWrapper, after: Long): List<JournalEntry> {
+        val mainNode = session.getNode("/$mainNodeName")
+        if (!mainNode.hasNode(NODENAME_JOURNAL)) {
+            return emptyList()
+        }
+        val firstBucket = getJournalBucketName(after)
+        val result = mutableListOf<JournalEntry>()
+        val buckets = mainNode.getNode(NODENAME_JOURNAL).nodes
+        while (buckets.hasNext()) {
+            val bucket = buckets.nextNode()
+            if (bucket.name < firstBucket) {
+                continue
+            }
+            val entries = bucket.nodes
+            while (entries.hasNext()) {
+                val entry = entries.nextNode()
+                val millis = entry.name.substringBefore('-').toLongOrNull() ?: continue
+                if (millis > after) {
+                    result.add(JournalEntry(millis, entry.getProperty(PROPERTY_JOURNAL_PATH).string,
+                            entry.hasProperty(PROPERTY_JOURNAL_DELETED) && entry.getProperty(PROPERTY_JOURNAL_DELETED).boolean))
+                }
+            }
+        }
+        result.sortBy { it.millis }
+        return result
+    }
+
+    /**
+     * Removes all journal buckets (days) completely before the given time (e. g. the checkpoint of the last backup).
+     */
+    open fun purgeJournal(before: Long) {
+        runInSession { session ->
+            val mainNode = session.getNode("/$mainNodeName")
+            if (mainNode.hasNode(NODENAME_JOURNAL)) {
+                val lastBucketToKeep = getJournalBucketName(before)
+                val buckets = mainNode.getNode(NODENAME_JOURNAL).nodes
+                var counter = 0
+                while (buckets.hasNext()) {
+                    val bucket = buckets.nextNode()
+                    if (bucket.name < lastBucketToKeep) {
+                        bucket.remove()
+                        ++counter
+                    }
+                }
+                session.save()
+                if (counter > 0) {
+                    log.info { "$counter days of the journal purged." }
+                }
+            }
+        }
+    }
+
+    internal class JournalEntry(val millis: Long, val path: String, val deleted: Boolean)
+
     internal fun getNode(session: SessionWrapper, parentNodePath: String?, relPath: String? = null, ensureRelNode: Boolean = true): Node {
         return getNodeOrNull(session, parentNodePath, relPath, ensureRelNode)
                 ?: throw IllegalArgumentException("Can't find node ${getAbsolutePath(parentNodePath, relPath)}.")
@@ -421,12 +568,31 @@ open class RepoService {
             log.info { "Initializing JCR repository with main node '$mainNodeName' in: ${repositoryDir.absolutePath}" }
             this.mainNodeName = mainNodeName
 
-            FileStoreBuilder.fileStoreBuilder(repositoryDir).build().let { fileStore ->
+            val fileStoreBuilder = FileStoreBuilder.fileStoreBuilder(repositoryDir)
+            if (blobStoreEnabled) {
+                val blobDir = File(repositoryDir, BLOBSTORE_DIRNAME)
+                log.info { "Using content-addressed blob store for binaries: ${blobDir.absolutePath}" }
+                val dataStore = OakFileDataStore()
+                dataStore.path = blobDir.absolutePath
+                // Smaller binaries are stored inline:
+                dataStore.minRecordLength = BLOBSTORE_MIN_RECORD_LENGTH
+                dataStore.init(null)
+                val blobStore = DataStoreBlobStore(dataStore)
+                this.blobStore = blobStore
+                this.blobStoreLocation = blobDir
+                fileStoreBuilder.withBlobStore(blobStore)
+            }
+            fileStoreBuilder.build().let { fileStore ->
                 this.fileStore = fileStore
                 this.fileStoreLocation = repositoryDir
                 nodeStore = SegmentNodeStoreBuilders.builder(fileStore).build()
                 repository = Jcr(Oak(nodeStore)).createRepository()
             }
+            blobStore?.let { blobStore ->
+                // Registers this repository in the (shared) data store, needed by the blob garbage collection:
+                val repositoryId = ClusterRepositoryInfo.getOrCreateId(nodeStore!!)
+                blobStore.addMetadataRecord(ByteArrayInputStream(ByteArray(0)), SharedStoreRecordType.REPOSITORY.getNameFromId(repositoryId))
+            }
 
             runInSession { session ->
                 if (!session.rootNode.hasNode(mainNodeName)) {
@@ -438,6 +604,81 @@ open class RepoService {
         }
     }
 
+    /**
+     * Compacts the segment store and removes all binaries of the blob store, which aren't referenced anymore (e. g.
+     * after deleting attachments). Binaries modified within the last 24 hours are kept (may be referenced by
+     * uncommitted sessions).
+     * @return Number of deleted blobs or null, if no blob store is used.
+     */
+    open fun collectGarbage(): Long? {
+        val fileStore = this.fileStore ?: return null
+        log.info { "Compacting jcr segment store..." }
+        fileStore.gc()
+        val blobStore = this.blobStore ?: return null
+        val countBefore = blobStore.allChunkIds(0).asSequence().count()
+        log.info { "Collecting garbage of blob store ($countBefore blobs)..." }
+        val repositoryId = ClusterRepositoryInfo.getOrCreateId(nodeStore!!)
+        val garbageCollector = MarkSweepGarbageCollector(
+                SegmentBlobReferenceRetriever(fileStore),
+                blobStore,
+                Executor { it.run() },
+                File(fileStoreLocation, BLOBSTORE_GC_DIRNAME).absolutePath,
+                2048,
+                BLOBSTORE_GC_MAX_LAST_MODIFIED_INTERVAL,
+                repositoryId)
+        garbageCollector.collectGarbage(false)
+        val deleted = (countBefore - blobStore.allChunkIds(0).asSequence().count()).toLong()
+        log.info { "Garbage collection of blob store finished: $deleted unreferenced blobs deleted. ${FileStoreInfo(this, withFilesStatistics = false)}" }
+        return deleted
+    }
+
+    /**
+     * Counts the data records of the blob store only (metadata records, such as the repository id or the markers of the
+     * garbage collection, aren't part of it).
+     * @return Pair of number of blobs and the sum of their sizes or null, if no blob store is used.
+     */
+    internal fun getBlobStoreStatistics(): Pair<Int, Long>? {
+        val blobStore = this.blobStore ?: return null
+        var count = 0
+        var size = 0L
+        blobStore.allChunkIds(0).forEach {
+            ++count
+            size += blobStore.getBlobLength(it)
+        }
+        return Pair(count, size)
+    }
+
+    /**
+     * Walks through all file nodes for getting the number and the total (logical) size of all stored files.
+     * @return Pair of number of files and the sum of their sizes.
+     */
+    internal fun getFilesStatistics(): Pair<Int, Long> {
+        return runInSession { session ->
+            var count = 0
+            var size = 0L
+            fun walk(node: Node) {
+                val children = node.nodes
+                while (children.hasNext()) {
+                    val child = children.nextNode()
+                    if (child.name == NODENAME_FILES) {
+                        val fileNodes = child.nodes
+                        while (fileNodes.hasNext()) {
+                            val fileNode = fileNodes.nextNode()
+                            if (fileNode.hasProperty(PROPERTY_FILESIZE)) {
+                                ++count
+                                size += fileNode.getProperty(PROPERTY_FILESIZE).long
+                            }
+                        }
+                    } else {
+                        walk(child)
+                    }
+                }
+            }
+            walk(session.getNode("/$mainNodeName"))
+            Pair(count, size)
+        }
+    }
+
     internal fun close(session: Session) {
         session.save()
         fileStore?.close()
@@ -453,9 +694,28 @@ open class RepoService {
         internal const val PROPERTY_FILEDESC = "fileDescription"
         internal const val PROPERTY_LAST_UPDATE = "lastUpdate"
         internal const val PROPERTY_LAST_UPDATE_BY_USER = "lastUpdateByUser"
+        internal const val PROPERTY_CHECKSUM = "checksum"
+        internal const val CHECKSUM_ALGORITHM = "SHA-256"
         private const val PROPERTY_RANDOM_ID_LENGTH = 20
+        internal const val NODENAME_JOURNAL = "__JOURNAL"
+        private const val PROPERTY_JOURNAL_PATH = "path"
+        private const val PROPERTY_JOURNAL_DELETED = "deleted"
+        internal const val BLOBSTORE_DIRNAME = "blobs"
+        private const val BLOBSTORE_GC_DIRNAME = "blobs-gc"
+        private const val BLOBSTORE_MIN_RECORD_LENGTH = 4096
+        private const val BLOBSTORE_GC_MAX_LAST_MODIFIED_INTERVAL = 24 * 3600 * 1000L
         private val ALPHA_CHARSET: Array<Char> = ('a'..'z').toList().toTypedArray()
 
+        private val journalBucketFormatter = DateTimeFormatter.ofPattern("yyyy-MM-dd").withZone(ZoneOffset.UTC)
+
+        internal fun getJournalBucketName(millis: Long): String {
+            return journalBucketFormatter.format(Instant.ofEpochMilli(millis))
+        }
+
+        internal fun getJournalEntryName(millis: Long, fileId: String): String {
+            return "${String.format("%013d", millis)}-$fileId"
+        }
+
         internal fun getAbsolutePath(parentPath: String?, relPath: String?): String? {
             if (parentPath == null && relPath == null) {
                 return null
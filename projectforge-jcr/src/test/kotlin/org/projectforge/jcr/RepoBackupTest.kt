@@ -27,6 +27,7 @@ import mu.KotlinLogging
 import org.apache.jackrabbit.commons.JcrUtils
 import org.junit.jupiter.api.Assertions
 import org.junit.jupiter.api.Test
+import java.io.File
 import java.io.FileInputStream
 import java.io.FileOutputStream
 import java.util.zip.ZipInputStream
@@ -88,10 +89,68 @@ class RepoBackupTest {
             Assertions.assertEquals(logoFile[idx], fileObject.content!![idx])
         }
 
+        // Incremental backup: only modifications after the checkpoint are written.
+        val checkpoint = System.currentTimeMillis()
+        Thread.sleep(10)
+        Assertions.assertTrue(repoService.deleteFile(FileObject("/world/europe", "germany", fileName = "pom.xml")))
+        repoService.storeFile(createFileObject("/world/europe", "germany", "src", "test", "resources", "logback-test.xml").also { it.fileName = "logback-copy.xml" })
+
+        val incrementalZipFile = TestUtils.deleteAndCreateTestFile("incrementalbackup.zip")
+        val newCheckpoint = ZipOutputStream(FileOutputStream(incrementalZipFile)).use {
+            repoBackupService.backupIncrementalAsZipArchive(incrementalZipFile.name, it, checkpoint)
+        }
+        Assertions.assertTrue(newCheckpoint > checkpoint)
+        ZipInputStream(FileInputStream(incrementalZipFile)).use {
+            repo2BackupService.restoreBackupFromZipArchive(it, RepoBackupService.RESTORE_SECURITY_CONFIRMATION__I_KNOW_WHAT_I_M_DOING__REPO_MAY_BE_DESTROYED)
+        }
+        Assertions.assertFalse(repo2Service.retrieveFile(FileObject("/world/europe", "germany", fileName = "pom.xml")))
+        fileObject = FileObject("/world/europe", "germany", fileName = "logback-copy.xml")
+        Assertions.assertTrue(repo2Service.retrieveFile(fileObject))
+        Assertions.assertEquals(TestUtils.determineFile("src", "test", "resources", "logback-test.xml").length(), fileObject.content!!.size.toLong())
+        Assertions.assertTrue(repo2Service.retrieveFile(FileObject("/world/europe", "germany", fileName = "logo.png")))
+
+        // Nothing modified since the last incremental backup:
+        ZipOutputStream(FileOutputStream(TestUtils.deleteAndCreateTestFile("incrementalbackup2.zip"))).use {
+            Assertions.assertEquals(newCheckpoint, repoBackupService.backupIncrementalAsZipArchive("incrementalbackup2", it, newCheckpoint))
+        }
+
         repoService.shutdown()
         repo2Service.shutdown()
     }
 
+    @Test
+    fun incrementalChainPurgingTest() {
+        val dir = TestUtils.deleteAndCreateTestFile("testBackupPurging")
+        dir.mkdirs()
+        val full1 = createBackupFile(dir, RepoBackupService.backupFilenamePrefix, "2020-01-05_00-30-00")
+        val incremental1a = createBackupFile(dir, RepoBackupService.incrementalBackupFilenamePrefix, "2020-01-06_00-30-00")
+        val incremental1b = createBackupFile(dir, RepoBackupService.incrementalBackupFilenamePrefix, "2020-01-07_00-30-00")
+        val full2 = createBackupFile(dir, RepoBackupService.backupFilenamePrefix, "2020-01-08_00-30-00")
+        val incremental2 = createBackupFile(dir, RepoBackupService.incrementalBackupFilenamePrefix, "2020-01-09_00-30-00")
+        val orphan = createBackupFile(dir, RepoBackupService.incrementalBackupFilenamePrefix, "2020-01-01_00-30-00")
+        Assertions.assertFalse(incremental1a.name.startsWith(RepoBackupService.backupFilenamePrefix), "Incremental backups mustn't be purged as full backups.")
+
+        val job = JCRBackupJob()
+        val chains = job.getIncrementalBackupChains(dir)
+        Assertions.assertEquals(listOf(incremental1a, incremental1b), chains[full1])
+        Assertions.assertEquals(listOf(incremental2), chains[full2])
+        Assertions.assertEquals(listOf(orphan), chains[null])
+
+        full1.delete() // Purged full backup.
+        job.purgeIncrementalBackups(chains)
+        Assertions.assertFalse(incremental1a.exists())
+        Assertions.assertFalse(incremental1b.exists())
+        Assertions.assertFalse(orphan.exists())
+        Assertions.assertTrue(full2.exists())
+        Assertions.assertTrue(incremental2.exists())
+    }
+
+    private fun createBackupFile(dir: File, prefix: String, timestamp: String): File {
+        val file = File(dir, "$prefix$timestamp.zip")
+        file.writeText("test")
+        return file
+    }
+
     private fun createFileObject(parentNodePath: String, relPath: String, vararg path: String): FileObject {
         val fileObject = FileObject()
         fileObject.fileName = path.last()
@@ -29,6 +29,7 @@ import org.junit.jupiter.api.Test
 import org.junit.jupiter.api.fail
 import java.io.File
 import java.io.FileOutputStream
+import java.security.MessageDigest
 import java.util.*
 import java.util.zip.ZipOutputStream
 
@@ -72,6 +73,19 @@ class RepoTest {
         checkFile(file, file.fileId, "unkown")
         checkFile(file, "unkown", file.fileName)
 
+        val expectedChecksum = PFJcrUtils.toHex(MessageDigest.getInstance("SHA-256").digest(file.content))
+        Assertions.assertEquals(expectedChecksum, file.checksum)
+        val rangeFile = FileObject(file.parentNodePath, file.relPath, file.fileId)
+        repoService.retrieveFileInputStream(rangeFile, 10)!!.use {
+            val bytes = it.readBytes()
+            Assertions.assertEquals(file.content!!.size - 10, bytes.size)
+            Assertions.assertEquals(file.content!![10], bytes[0])
+        }
+        Assertions.assertNull(rangeFile.checksum, "Reading the stream doesn't modify the given file object.")
+        val fileInfo = repoService.getFileInfo(file.parentNodePath, file.relPath, file.fileId)!!
+        Assertions.assertEquals(expectedChecksum, fileInfo.checksum)
+        Assertions.assertEquals(file.size, fileInfo.size)
+
         val unknownFile = FileObject()
         unknownFile.fileId = "unknown id"
         unknownFile.fileName = "unknown filename"
@@ -99,6 +113,45 @@ class RepoTest {
         repoService.shutdown()
     }
 
+    @Test
+    fun blobStoreTest() {
+        repoService.shutdown()
+        val repo = RepoService()
+        repo.blobStoreEnabled = true // Opt-in
+        repo.init(TestUtils.deleteAndCreateTestFile("testBlobRepo"))
+        repo.ensureNode(null, "world/europe")
+        val content = ByteArray(100000) { (it % 251).toByte() }
+        for (i in 1..3) {
+            val file = FileObject("/world/europe", "attachments$i", fileName = "invoice.pdf")
+            file.content = content
+            repo.storeFile(file)
+        }
+        val info = FileStoreInfo(repo)
+        // Metadata records of the blob store (e. g. repository id) aren't counted:
+        Assertions.assertTrue(repo.blobStoreLocation!!.listFiles()!!.any { it.isFile && it.name.startsWith("repository-") })
+        Assertions.assertEquals(1, info.blobCount, "Identical binaries should be stored only once.")
+        Assertions.assertEquals(PFJcrUtils.formatBytes(100000L), info.blobStoreSize)
+        Assertions.assertEquals(3, info.fileCount)
+        Assertions.assertEquals(String.format("%.2f", 3.0), info.dedupRatio)
+
+        val repoBackupService = RepoBackupService()
+        repoBackupService.repoService = repo
+        val backupDir = TestUtils.deleteAndCreateTestFile("blobStoreBackup")
+        Assertions.assertTrue(repoBackupService.backupBlobStore(backupDir)!! > 0)
+        Assertions.assertEquals(0, repoBackupService.backupBlobStore(backupDir), "Nothing new to copy.")
+        // Blob deleted by garbage collection of the blob store:
+        val obsoleteBlob = File(backupDir, "zz/zz/zz/zzzzzz0123456789")
+        obsoleteBlob.parentFile.mkdirs()
+        obsoleteBlob.writeText("obsolete")
+        repoBackupService.backupBlobStore(backupDir)
+        Assertions.assertFalse(obsoleteBlob.exists(), "Blobs not existing anymore in the blob store should be removed.")
+        Assertions.assertFalse(File(backupDir, "zz").exists(), "Empty directories should be removed.")
+        repo.blobStoreLocation!!.walkTopDown().filter { it.isFile }.forEach {
+            Assertions.assertTrue(File(backupDir, it.relativeTo(repo.blobStoreLocation!!).path).exists())
+        }
+        repo.shutdown()
+    }
+
     private fun checkFile(expected: FileObject, id: String?, fileName: String?, repo: RepoService = repoService) {
         val file = FileObject()
         file.fileId = id
@@ -23,18 +23,22 @@
 
 package org.projectforge.rest
 
+import org.projectforge.business.address.AddressDO
 import org.projectforge.business.address.AddressImageDao
 import org.projectforge.rest.config.Rest
 import org.projectforge.rest.core.ExpiringSessionAttributes
 import org.springframework.beans.factory.annotation.Autowired
 import org.springframework.core.io.ByteArrayResource
 import org.springframework.core.io.Resource
+import org.springframework.http.CacheControl
 import org.springframework.http.HttpHeaders
 import org.springframework.http.HttpStatus
 import org.springframework.http.MediaType
 import org.springframework.http.ResponseEntity
 import org.springframework.web.bind.annotation.*
+import org.springframework.web.context.request.ServletWebRequest
 import org.springframework.web.multipart.MultipartFile
+import java.util.concurrent.TimeUnit
 import javax.servlet.http.HttpServletRequest
 
 
@@ -47,6 +51,20 @@ class AddressImageServicesRest() {
 
     companion object {
         internal val SESSION_IMAGE_ATTR = "uploadedAddressImage"
+
+        private const val IMAGE_MAX_AGE_DAYS = 365L
+
+        /**
+         * @return The url of the image (or its preview) versioned by the last update of the image, so the clients may
+         * cache the image for a long time.
+         */
+        @JvmStatic
+        @JvmOverloads
+        fun getImageUrl(address: AddressDO, preview: Boolean = false): String {
+            val path = if (preview) "imagePreview" else "image"
+            val timestamp = address.imageLastUpdate?.time
+            return if (timestamp != null) "address/$path/${address.id}?ts=$timestamp" else "address/$path/${address.id}"
+        }
     }
 
     private val log = org.slf4j.LoggerFactory.getLogger(AddressImageServicesRest::class.java)
@@ -77,31 +95,63 @@ class AddressImageServicesRest() {
     }
 
     /**
+     * The image is served with its hash as ETag (304, if not modified). If the url is versioned by the parameter ts
+     * (see [getImageUrl]), the image may be cached for a long time by the client.
      * @param id The id of the address the image is assigned to.
      */
     @GetMapping("image/{id}")
-    fun getImage(@PathVariable("id") id: Int): ResponseEntity<Resource> {
+    fun getImage(@PathVariable("id") id: Int, @RequestParam("ts", required = false) timestamp: Long?, request: HttpServletRequest): ResponseEntity<Resource> {
+        val hash = addressImageDao.getImageHash(id) ?: return ResponseEntity(HttpStatus.NOT_FOUND)
+        val eTag = "\"$hash\""
+        if (ServletWebRequest(request).checkNotModified(eTag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).cacheControl(getCacheControl(timestamp)).build()
+        }
         val image = addressImageDao.getImage(id) ?: return ResponseEntity(HttpStatus.NOT_FOUND)
         val resource = ByteArrayResource(image)
         return ResponseEntity.ok()
                 .contentType(MediaType.parseMediaType("application/octet-stream"))
                 .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=ProjectForge-addressImage_$id.png")
+                .eTag(eTag)
+                .cacheControl(getCacheControl(timestamp))
                 .body(resource)
     }
 
     /**
+     * The preview is served with the hash of the image as ETag (304, if not modified). If the preview isn't yet
+     * generated, the image itself is served.
      * @param id The id of the address the image is assigned to.
      */
     @GetMapping("imagePreview/{id}")
-    fun getImagePreview(@PathVariable("id") id: Int): ResponseEntity<Resource> {
-        val image = addressImageDao.getPreviewImage(id) ?: return ResponseEntity(HttpStatus.NOT_FOUND)
+    fun getImagePreview(@PathVariable("id") id: Int, @RequestParam("ts", required = false) timestamp: Long?, request: HttpServletRequest): ResponseEntity<Resource> {
+        val hash = addressImageDao.getImageHash(id) ?: return ResponseEntity(HttpStatus.NOT_FOUND)
+        val preview = addressImageDao.getPreviewImage(id)
+        // Preview not yet generated: the image itself must not be cached as preview.
+        val eTag = if (preview != null) "\"$hash-preview\"" else "\"$hash\""
+        if (ServletWebRequest(request).checkNotModified(eTag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag).cacheControl(getCacheControl(timestamp)).build()
+        }
+        val image = preview ?: addressImageDao.getImage(id) ?: return ResponseEntity(HttpStatus.NOT_FOUND)
         val resource = ByteArrayResource(image)
         return ResponseEntity.ok()
                 .contentType(MediaType.parseMediaType("application/octet-stream"))
                 .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=ProjectForge-addressImagePreview_$id.png")
+                .eTag(eTag)
+                .cacheControl(if (preview != null) getCacheControl(timestamp) else CacheControl.noCache().cachePrivate())
                 .body(resource)
     }
 
+    /**
+     * Versioned urls (parameter ts = last update of image) may be cached for a long time, because the url changes
+     * with every new image. Otherwise the client has to revalidate (ETag).
+     */
+    private fun getCacheControl(timestamp: Long?): CacheControl {
+        return if (timestamp != null) {
+            CacheControl.maxAge(IMAGE_MAX_AGE_DAYS, TimeUnit.DAYS).cachePrivate()
+        } else {
+            CacheControl.noCache().cachePrivate()
+        }
+    }
+
     /**
      * If given and greater 0, the image will be deleted from the address with the given id (pk), otherwise the image is
      * removed from the user's session and will not be used for the next update or save event anymore.
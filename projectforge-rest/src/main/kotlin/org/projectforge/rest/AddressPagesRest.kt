@@ -390,8 +390,8 @@ class AddressPagesRest
             ListAddress(transformFromDB(it),
                     id = it.id,
                     deleted = it.isDeleted,
-                    imageUrl = if (it.image == true) "address/image/${it.id}" else null,
-                    previewImageUrl = if (it.image == true) "address/imagePreview/${it.id}" else null)
+                    imageUrl = if (it.image == true) AddressImageServicesRest.getImageUrl(it) else null,
+                    previewImageUrl = if (it.image == true) AddressImageServicesRest.getImageUrl(it, preview = true) else null)
         }
         newList.forEach {
             it.address.imageData = null
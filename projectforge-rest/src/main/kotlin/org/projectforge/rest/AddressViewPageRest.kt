@@ -77,7 +77,7 @@ class AddressViewPageRest : AbstractDynamicPageRest() {
         val fieldSet = UIFieldset(12, title = "'${address.fullNameWithTitleAndForm}")
         layout.add(fieldSet)
         if (address.image == true) {
-            fieldSet.add(UICustomized("image", mutableMapOf("src" to "address/image/${address.id}", "alt" to address.fullNameWithTitleAndForm)))
+            fieldSet.add(UICustomized("image", mutableMapOf("src" to AddressImageServicesRest.getImageUrl(address), "alt" to address.fullNameWithTitleAndForm)))
         }
         var row = UIRow()
         fieldSet.add(row)
@@ -29,6 +29,7 @@ import org.projectforge.framework.jcr.Attachment
 import org.projectforge.framework.jcr.AttachmentsService
 import org.projectforge.framework.persistence.api.BaseDao
 import org.projectforge.framework.persistence.api.ExtendedBaseDO
+import org.projectforge.jcr.FileObject
 import org.projectforge.rest.config.Rest
 import org.projectforge.rest.core.AbstractDynamicPageRest
 import org.projectforge.rest.core.AbstractPagesRest
@@ -38,12 +39,18 @@ import org.projectforge.ui.ResponseAction
 import org.projectforge.ui.TargetType
 import org.projectforge.ui.UIAttachmentList
 import org.springframework.beans.factory.annotation.Autowired
-import org.springframework.core.io.InputStreamResource
+import org.springframework.core.io.AbstractResource
+import org.springframework.core.io.Resource
+import org.springframework.http.CacheControl
 import org.springframework.http.HttpHeaders
+import org.springframework.http.HttpStatus
 import org.springframework.http.MediaType
 import org.springframework.http.ResponseEntity
 import org.springframework.web.bind.annotation.*
+import org.springframework.web.context.request.ServletWebRequest
 import org.springframework.web.multipart.MultipartFile
+import java.io.FileNotFoundException
+import java.io.InputStream
 import javax.servlet.http.HttpServletRequest
 
 private val log = KotlinLogging.logger {}
@@ -131,24 +138,94 @@ class AttachmentsServicesRest : AbstractDynamicPageRest() {
                         .addVariable("data", ResponseData(list)))
     }
 
+    /**
+     * The content of an attachment never changes (only file name and description may be modified), so the ETag (checksum)
+     * and Last-Modified (creation date) are used for conditional requests. Byte ranges (Range header) are served by
+     * Spring via [AttachmentResource], which skips to the requested positions without reading the whole file.
+     */
     @GetMapping("download/{category}/{id}")
     fun download(@PathVariable("category", required = true) category: String,
                  @PathVariable("id", required = true) id: Int,
                  @RequestParam("fileId", required = true) fileId: String,
-                 @RequestParam("listId") listId: String?)
-            : ResponseEntity<InputStreamResource>? {
+                 @RequestParam("listId") listId: String?,
+                 request: HttpServletRequest)
+            : ResponseEntity<Resource>? {
         log.info { "User tries to download attachment: ${paramsToString(category, id, fileId, listId)}." }
         val pagesRest = getPagesRest(category, listId)
 
-        val result = attachmentsService.getAttachmentInputStream(pagesRest.jcrPath!!, id, fileId, pagesRest.attachmentsAccessChecker)
+        val fileInfo = attachmentsService.getAttachmentFileInfo(pagesRest.jcrPath!!, id, fileId, pagesRest.attachmentsAccessChecker)
                 ?: throw TechnicalException("File to download not accessible for user or not found: ${paramsToString(category, id, fileId, listId)}.")
 
-        val filename = result.first.fileName ?: "file"
-        val inputStream = result.second
-        return ResponseEntity.ok()
-                .contentType(MediaType.parseMediaType("application/octet-stream"))
-                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename*=\"${filename.replace('"', '_')}\"")
-                .body(InputStreamResource(inputStream))
+        return createDownloadResponse(fileInfo, request) { offset ->
+            attachmentsService.getAttachmentInputStream(pagesRest.jcrPath!!, id, fileId, pagesRest.attachmentsAccessChecker, offset = offset)?.second
+        }
+    }
+
+    /**
+     * Resource of an attachment with known length. Every call of [getInputStream] opens a new stream, so Spring is able
+     * to serve byte ranges (206 Partial content).
+     */
+    internal class AttachmentResource(private val fileInfo: FileObject,
+                                      private val streamSupplier: (offset: Long) -> InputStream?)
+        : AbstractResource() {
+        override fun getDescription(): String {
+            return "Attachment ${fileInfo.fileName} (#${fileInfo.fileId})"
+        }
+
+        override fun getFilename(): String? {
+            return fileInfo.fileName
+        }
+
+        override fun contentLength(): Long {
+            return fileInfo.size?.toLong() ?: super.contentLength()
+        }
+
+        override fun getInputStream(): InputStream {
+            return OffsetInputStream(description, streamSupplier)
+        }
+
+        override fun exists(): Boolean {
+            return true
+        }
+    }
+
+    /**
+     * Opens the repository stream lazily: skipping before the first read is done by opening the stream at the
+     * requested offset (used by Spring for serving byte ranges).
+     */
+    private class OffsetInputStream(private val description: String,
+                                    private val streamSupplier: (offset: Long) -> InputStream?)
+        : InputStream() {
+        private var offset = 0L
+        private var stream: InputStream? = null
+
+        private fun openStream(): InputStream {
+            return stream ?: (streamSupplier(offset) ?: throw FileNotFoundException("$description not found."))
+                    .also { stream = it }
+        }
+
+        override fun skip(n: Long): Long {
+            if (stream == null) {
+                if (n <= 0) {
+                    return 0
+                }
+                offset += n
+                return n
+            }
+            return openStream().skip(n)
+        }
+
+        override fun read(): Int {
+            return openStream().read()
+        }
+
+        override fun read(b: ByteArray, off: Int, len: Int): Int {
+            return openStream().read(b, off, len)
+        }
+
+        override fun close() {
+            stream?.close()
+        }
     }
 
     internal fun getPagesRest(category: String, listId: String?): AbstractPagesRest<out ExtendedBaseDO<Int>, *, out BaseDao<*>> {
@@ -172,4 +249,43 @@ class AttachmentsServicesRest : AbstractDynamicPageRest() {
     private fun paramsToString(category: String, id: Any, fileId: String, listId: String?): String {
         return "category='$category', id='$id', fileId='$fileId', listId='$listId'"
     }
+
+    companion object {
+        /**
+         * @return 304 (Not modified), if the conditional headers of the request match the given file, otherwise the
+         * response with the (lazily opened) content of the file.
+         * @param streamSupplier Opens the content of the file at the given offset.
+         */
+        internal fun createDownloadResponse(fileInfo: FileObject, request: HttpServletRequest, streamSupplier: (offset: Long) -> InputStream?)
+                : ResponseEntity<Resource> {
+            val eTag = getETag(fileInfo)
+            val lastModified = fileInfo.created?.time ?: -1
+            if (ServletWebRequest(request).checkNotModified(eTag, lastModified)) {
+                log.info { "Attachment not modified, nothing to download: fileId='${fileInfo.fileId}'." }
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                        .eTag(eTag)
+                        .build()
+            }
+            val filename = fileInfo.fileName ?: "file"
+            val builder = ResponseEntity.ok()
+                    .contentType(MediaType.parseMediaType("application/octet-stream"))
+                    .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename*=\"${filename.replace('"', '_')}\"")
+                    .header(HttpHeaders.ACCEPT_RANGES, "bytes")
+                    .cacheControl(CacheControl.noCache().cachePrivate())
+                    .eTag(eTag)
+            if (lastModified >= 0) {
+                builder.lastModified(lastModified)
+            }
+            return builder.body(AttachmentResource(fileInfo, streamSupplier))
+        }
+
+        internal fun getETag(fileInfo: FileObject): String {
+            return if (fileInfo.checksum != null) {
+                "\"${fileInfo.checksum}\""
+            } else {
+                // Files stored without checksum (older versions): the content of a file id never changes.
+                "\"${fileInfo.fileId}-${fileInfo.size}\""
+            }
+        }
+    }
 }
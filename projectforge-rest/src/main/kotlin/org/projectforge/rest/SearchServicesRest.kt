@@ -0,0 +1,71 @@
+/////////////////////////////////////////////////////////////////////////////
+//
+// Project ProjectForge Community Edition
+//         www.projectforge.org
+//
+// Copyright (C) 2001-2020 Micromata GmbH, Germany (www.micromata.com)
+//
+// ProjectForge is dual-licensed.
+//
+// This community edition is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; version 3 of the License.
+//
+// This community edition is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+// Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, see http://www.gnu.org/licenses/.
+//
+/////////////////////////////////////////////////////////////////////////////
+
+package org.projectforge.rest
+
+import org.projectforge.framework.DisplayNameCapable
+import org.projectforge.framework.i18n.translate
+import org.projectforge.framework.persistence.api.UnifiedSearchService
+import org.projectforge.rest.config.Rest
+import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.web.bind.annotation.GetMapping
+import org.springframework.web.bind.annotation.RequestMapping
+import org.springframework.web.bind.annotation.RequestParam
+import org.springframework.web.bind.annotation.RestController
+
+/**
+ * Global search over all entities (top hits by relevance).
+ */
+@RestController
+@RequestMapping("${Rest.URL}/search")
+open class SearchServicesRest {
+    class SearchHit(val area: String,
+                    val areaTitle: String,
+                    val id: Int?,
+                    val displayName: String?,
+                    val score: Float,
+                    val fromHistory: Boolean)
+
+    @Autowired
+    private lateinit var unifiedSearchService: UnifiedSearchService
+
+    @GetMapping
+    fun search(@RequestParam("search") search: String?,
+               @RequestParam("maxResults", required = false) maxResults: Int?,
+               @RequestParam("history", required = false) history: Boolean?): List<SearchHit> {
+        val limit = minOf(maxResults ?: UnifiedSearchService.DEFAULT_MAX_RESULTS, MAX_RESULTS)
+        return unifiedSearchService.search(search, limit, history == true).map {
+            val obj = it.dataObject
+            SearchHit(it.registryEntry.id,
+                    translate(it.registryEntry.i18nTitleHeading),
+                    obj.id,
+                    if (obj is DisplayNameCapable) obj.displayName else null,
+                    it.score,
+                    it.fromHistory)
+        }
+    }
+
+    companion object {
+        private const val MAX_RESULTS = 500
+    }
+}
@@ -23,17 +23,23 @@
 
 package org.projectforge.rest.admin
 
+import org.projectforge.business.address.AddressDoubletsFinder
 import org.projectforge.business.user.UserXmlPreferencesDO
 import org.projectforge.business.user.UserXmlPreferencesDao
 import org.projectforge.framework.access.AccessChecker
+import org.projectforge.framework.persistence.database.IndexProgressMonitor
+import org.projectforge.framework.persistence.history.HibernateSearchReindexer
+import org.projectforge.framework.persistence.history.HistoryWriteBuffer
 import org.projectforge.framework.persistence.user.api.ThreadLocalUserContext
 import org.projectforge.framework.utils.GZIPHelper
 import org.projectforge.rest.JsonUtils
 import org.projectforge.rest.config.Rest
 import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.web.bind.annotation.GetMapping
 import org.springframework.web.bind.annotation.PostMapping
 import org.springframework.web.bind.annotation.RequestBody
 import org.springframework.web.bind.annotation.RequestMapping
+import org.springframework.web.bind.annotation.RequestParam
 import org.springframework.web.bind.annotation.RestController
 
 
@@ -44,6 +50,10 @@ class AdminRest() {
     private lateinit var accessChecker: AccessChecker
     @Autowired
     private lateinit var userXmlPreferencesDao: UserXmlPreferencesDao
+    @Autowired
+    private lateinit var hibernateSearchReindexer: HibernateSearchReindexer
+    @Autowired
+    private lateinit var addressDoubletsFinder: AddressDoubletsFinder
 
     /**
      * Helper for reading compressed serialized settings of user's in the data base.
@@ -56,6 +66,34 @@ class AdminRest() {
         val result = userXmlPreferencesDao.deserialize(ThreadLocalUserContext.getUserId(), userPref, true)
         return JsonUtils.toJson(result)
     }
+
+    /**
+     * Progress and throughput of running (and last finished) re-indexings of the search indices per entity class.
+     */
+    @GetMapping("reindexProgress")
+    fun getReindexProgress(): List<IndexProgressMonitor.Progress> {
+        accessChecker.checkIsLoggedInUserMemberOfAdminGroup()
+        return hibernateSearchReindexer.progressList
+    }
+
+    /**
+     * Statistics of deferred history writing (flushes, written entities and durations).
+     */
+    @GetMapping("historyWriteStatistics")
+    fun getHistoryWriteStatistics(): HistoryWriteBuffer.Statistics {
+        accessChecker.checkIsLoggedInUserMemberOfAdminGroup()
+        return HistoryWriteBuffer.getStatistics()
+    }
+
+    /**
+     * Report of address doublets for data quality cleanup (runs in background, only one report at a time).
+     * @param matchKeys Keys to use for matching (FULLNAME, FUZZY_FULLNAME, EMAIL, PHONE), FULLNAME if not given.
+     */
+    @GetMapping("addressDoublets")
+    fun getAddressDoublets(@RequestParam("matchKeys", required = false) matchKeys: List<AddressDoubletsFinder.MatchKey>?)
+            : List<AddressDoubletsFinder.DoubletGroup> {
+        return addressDoubletsFinder.findDoubletsAsync(*(matchKeys ?: emptyList()).toTypedArray()).get()
+    }
 }
 
 /**
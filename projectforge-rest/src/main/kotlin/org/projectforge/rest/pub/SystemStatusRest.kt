@@ -25,8 +25,11 @@ package org.projectforge.rest.pub
 
 import org.projectforge.ProjectForgeVersion
 import org.projectforge.SystemStatus
+import org.projectforge.framework.cache.CacheWarmUp
 import org.projectforge.rest.config.Rest
 import org.springframework.beans.factory.annotation.Autowired
+import org.springframework.http.HttpStatus
+import org.springframework.http.ResponseEntity
 import org.springframework.web.bind.annotation.GetMapping
 import org.springframework.web.bind.annotation.RequestMapping
 import org.springframework.web.bind.annotation.RestController
@@ -55,6 +58,13 @@ class SystemStatusRest {
                           var setupRedirectUrl: String? = null,
                           var startTimeUTC: Date? = null)
 
+    /**
+     * @param status UP, if ProjectForge is up and running (all caches are initialized), otherwise STARTING.
+     */
+    data class HealthData(val status: String,
+                          val warmUpDone: Boolean,
+                          val warmUpTimeline: List<CacheWarmUp.TimelineEntry>)
+
     private var _systemData: SystemData? = null
 
     val systemData: SystemData
@@ -81,6 +91,9 @@ class SystemStatusRest {
     @Autowired
     private lateinit var systemStatus: SystemStatus
 
+    @Autowired
+    private lateinit var cacheWarmUp: CacheWarmUp
+
     @GetMapping("systemStatus")
     fun getSystemStatus(): SystemData {
         if (systemData.setupRedirectUrl != null
@@ -91,4 +104,15 @@ class SystemStatusRest {
         }
         return systemData
     }
+
+    /**
+     * Readiness check (e. g. for load balancers): status 200 if ProjectForge is up and running, otherwise 503 (start-up
+     * phase including the warm-up of the caches).
+     */
+    @GetMapping("health")
+    fun getHealth(): ResponseEntity<HealthData> {
+        val upAndRunning = systemStatus.upAndRunning
+        val health = HealthData(if (upAndRunning) "UP" else "STARTING", cacheWarmUp.isDone, cacheWarmUp.timeline)
+        return ResponseEntity(health, if (upAndRunning) HttpStatus.OK else HttpStatus.SERVICE_UNAVAILABLE)
+    }
 }
@@ -0,0 +1,109 @@
+/////////////////////////////////////////////////////////////////////////////
+//
+// Project ProjectForge Community Edition
+//         www.projectforge.org
+//
+// Copyright (C) 2001-2020 Micromata GmbH, Germany (www.micromata.com)
+//
+// ProjectForge is dual-licensed.
+//
+// This community edition is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; version 3 of the License.
+//
+// This community edition is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+// Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, see http://www.gnu.org/licenses/.
+//
+/////////////////////////////////////////////////////////////////////////////
+
+package org.projectforge.rest
+
+import org.junit.jupiter.api.Assertions.*
+import org.junit.jupiter.api.Test
+import org.projectforge.jcr.FileObject
+import org.springframework.core.io.Resource
+import org.springframework.http.HttpHeaders
+import org.springframework.http.ResponseEntity
+import org.springframework.test.web.servlet.MockMvc
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get
+import org.springframework.test.web.servlet.setup.MockMvcBuilders
+import org.springframework.web.bind.annotation.GetMapping
+import org.springframework.web.bind.annotation.RestController
+import java.io.ByteArrayInputStream
+import java.io.InputStream
+import java.util.*
+import javax.servlet.http.HttpServletRequest
+
+class AttachmentsServicesRestTest {
+    private val content = ByteArray(1000) { it.toByte() }
+
+    private val fileInfo = FileObject()
+
+    /**
+     * Offsets of all opened streams.
+     */
+    private val openedOffsets = mutableListOf<Long>()
+
+    private val mockMvc: MockMvc
+
+    init {
+        fileInfo.fileId = "test-file-id"
+        fileInfo.fileName = "test.pdf"
+        fileInfo.size = content.size
+        fileInfo.checksum = "0123456789abcdef"
+        fileInfo.created = Date(1_500_000_000_000)
+        mockMvc = MockMvcBuilders.standaloneSetup(DownloadRest()).build()
+    }
+
+    @Test
+    fun downloadTest() {
+        val response = mockMvc.perform(get("/download")).andReturn().response
+        assertEquals(200, response.status)
+        assertEquals("\"0123456789abcdef\"", response.getHeader(HttpHeaders.ETAG))
+        assertEquals("bytes", response.getHeader(HttpHeaders.ACCEPT_RANGES))
+        assertArrayEquals(content, response.contentAsByteArray)
+        assertEquals(listOf(0L), openedOffsets)
+    }
+
+    @Test
+    fun ifNoneMatchTest() {
+        val response = mockMvc.perform(get("/download").header(HttpHeaders.IF_NONE_MATCH, "\"0123456789abcdef\""))
+                .andReturn().response
+        assertEquals(304, response.status)
+        assertEquals(0, response.contentAsByteArray.size)
+        assertTrue(openedOffsets.isEmpty(), "No stream should be opened for not modified files.")
+
+        // Other ETag (other file):
+        assertEquals(200, mockMvc.perform(get("/download").header(HttpHeaders.IF_NONE_MATCH, "\"other\""))
+                .andReturn().response.status)
+    }
+
+    @Test
+    fun rangeTest() {
+        val response = mockMvc.perform(get("/download").header(HttpHeaders.RANGE, "bytes=100-199"))
+                .andReturn().response
+        assertEquals(206, response.status)
+        assertEquals("bytes 100-199/1000", response.getHeader(HttpHeaders.CONTENT_RANGE))
+        assertArrayEquals(content.copyOfRange(100, 200), response.contentAsByteArray)
+        // The stream is opened at the requested offset (skipped bytes aren't read):
+        assertEquals(listOf(100L), openedOffsets)
+    }
+
+    @RestController
+    inner class DownloadRest {
+        @GetMapping("/download")
+        fun download(request: HttpServletRequest): ResponseEntity<Resource> {
+            return AttachmentsServicesRest.createDownloadResponse(fileInfo, request) { offset ->
+                openedOffsets.add(offset)
+                val stream: InputStream = ByteArrayInputStream(content)
+                stream.skip(offset)
+                stream
+            }
+        }
+    }
+}
@@ -41,6 +41,7 @@ import org.projectforge.framework.persistence.api.BaseSearchFilter;
 import org.projectforge.framework.persistence.api.ExtendedBaseDO;
 import org.projectforge.framework.persistence.api.SearchDao;
 import org.projectforge.framework.persistence.api.SearchResultData;
+import org.projectforge.framework.persistence.api.UnifiedSearchService;
 import org.projectforge.framework.persistence.database.StatisticsCache;
 import org.projectforge.framework.utils.NumberFormatter;
 import org.projectforge.web.registry.WebRegistryEntry;
@@ -49,6 +50,7 @@ import org.projectforge.web.wicket.*;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Future;
 
 public class SearchAreaPanel extends Panel
 {
@@ -62,15 +64,20 @@ public class SearchAreaPanel extends Panel
   @SpringBean
   private StatisticsCache statisticsCache;
 
+  @SpringBean
+  private UnifiedSearchService unifiedSearchService;
+
   /**
    * @param page Needed, because in constructor this panel is not yet added to a page.
    * @param id
    * @param filter
    * @param registryEntry the area to show.
+   * @param searchFuture The search result of this area, if already started by the search page (parallel search of all
+   *          areas, see {@link UnifiedSearchService.AreaSearches#submit}). If null, the search is done by this panel.
    */
   @SuppressWarnings("serial")
   public SearchAreaPanel(final WebPage page, final String id, final SearchPageFilter filter,
-      final WebRegistryEntry webRegistryEntry)
+      final WebRegistryEntry webRegistryEntry, final Future<List<SearchResultData>> searchFuture)
   {
     super(id);
     final long millis = System.currentTimeMillis();
@@ -86,32 +93,17 @@ public class SearchAreaPanel extends Panel
     if (listPageColumnsCreator instanceof AbstractListPage) {
       ((AbstractListPage<?, ?, ?>) listPageColumnsCreator).setCalledBySearchPage(true);
     }
-    final Integer number = statisticsCache.getNumberOfEntities(webRegistryEntry.getDOClass());
-    final Class<? extends BaseSearchFilter> registeredFilterClass = webRegistryEntry.getSearchFilterClass();
-    final boolean isTaskDependentFilter = registeredFilterClass != null
-        && TaskDependentFilter.class.isAssignableFrom(registeredFilterClass);
-    if (number > MAXIMUM_ENTRIES_WITHOUT_FILTER_SETTINGS
-        && (filter.getSearchString() == null || filter.getSearchString().length() < 3)
-        && (isTaskDependentFilter == false || filter.getTask() == null)
-        && filter.getStartTimeOfModification() == null
-        && filter.getStopTimeOfModification() == null) {
-      // Don't search to large tables if to less filter settings are given.
-      setVisible(false);
-      return;
-    }
-    filter.updateUseModificationFilterFlag();
-    final BaseSearchFilter baseSearchFilter;
-    if (isTaskDependentFilter == true) {
-      baseSearchFilter = (BaseSearchFilter) BeanHelper.newInstance(registeredFilterClass,
-          new Class<?>[] { BaseSearchFilter.class },
-          filter);
-      ((TaskDependentFilter) baseSearchFilter).setTaskId(filter.getTaskId());
-      baseSearchFilter.copyBaseSearchFieldsFrom(filter);
+    final List<SearchResultData> searchResult;
+    if (searchFuture != null) {
+      searchResult = unifiedSearchService.getAreaSearchResult(searchFuture);
     } else {
-      baseSearchFilter = filter;
+      final BaseSearchFilter baseSearchFilter = createSearchFilter(filter, webRegistryEntry, statisticsCache);
+      if (baseSearchFilter == null) {
+        setVisible(false);
+        return;
+      }
+      searchResult = searchDao.getEntries(baseSearchFilter, webRegistryEntry.getDOClass(), webRegistryEntry.getDao());
     }
-    final List<SearchResultData> searchResult = searchDao.getEntries(baseSearchFilter, webRegistryEntry.getDOClass(),
-        webRegistryEntry.getDao());
     boolean hasError = false;
     if (searchResult == null) {
       // An error occured!
@@ -213,4 +205,40 @@ public class SearchAreaPanel extends Panel
     add(new Label("areaTitle", page.getString(webRegistryEntry.getI18nTitleHeading())));
     add(new Label("timeOfSearch", NumberFormatter.format(duration)));
   }
+
+  /**
+   * @return The filter for searching the given area or null, if the area shouldn't be searched (no list page columns
+   *         or too large table for the given filter settings).
+   */
+  static BaseSearchFilter createSearchFilter(final SearchPageFilter filter, final WebRegistryEntry webRegistryEntry,
+      final StatisticsCache statisticsCache)
+  {
+    if (webRegistryEntry.getListPageColumnsCreatorClass() == null) {
+      return null;
+    }
+    final Integer number = statisticsCache.getNumberOfEntities(webRegistryEntry.getDOClass());
+    final Class<? extends BaseSearchFilter> registeredFilterClass = webRegistryEntry.getSearchFilterClass();
+    final boolean isTaskDependentFilter = registeredFilterClass != null
+        && TaskDependentFilter.class.isAssignableFrom(registeredFilterClass);
+    if (number > MAXIMUM_ENTRIES_WITHOUT_FILTER_SETTINGS
+        && (filter.getSearchString() == null || filter.getSearchString().length() < 3)
+        && (isTaskDependentFilter == false || filter.getTask() == null)
+        && filter.getStartTimeOfModification() == null
+        && filter.getStopTimeOfModification() == null) {
+      // Don't search to large tables if to less filter settings are given.
+      return null;
+    }
+    filter.updateUseModificationFilterFlag();
+    final BaseSearchFilter baseSearchFilter;
+    if (isTaskDependentFilter == true) {
+      baseSearchFilter = (BaseSearchFilter) BeanHelper.newInstance(registeredFilterClass,
+          new Class<?>[] { BaseSearchFilter.class },
+          filter);
+      ((TaskDependentFilter) baseSearchFilter).setTaskId(filter.getTaskId());
+      baseSearchFilter.copyBaseSearchFieldsFrom(filter);
+    } else {
+      baseSearchFilter = filter;
+    }
+    return baseSearchFilter;
+  }
 }
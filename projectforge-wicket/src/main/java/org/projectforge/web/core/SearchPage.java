@@ -31,12 +31,22 @@ import org.apache.wicket.markup.head.JavaScriptReferenceHeaderItem;
 import org.apache.wicket.markup.html.panel.Panel;
 import org.apache.wicket.markup.repeater.RepeatingView;
 import org.apache.wicket.request.mapper.parameter.PageParameters;
+import org.apache.wicket.spring.injection.annot.SpringBean;
+import org.projectforge.framework.persistence.api.BaseSearchFilter;
+import org.projectforge.framework.persistence.api.SearchResultData;
+import org.projectforge.framework.persistence.api.UnifiedSearchService;
+import org.projectforge.framework.persistence.database.StatisticsCache;
 import org.projectforge.framework.persistence.user.entities.PFUserDO;
 import org.projectforge.web.fibu.ISelectCallerPage;
 import org.projectforge.web.registry.WebRegistry;
 import org.projectforge.web.registry.WebRegistryEntry;
 import org.projectforge.web.wicket.AbstractStandardFormPage;
 
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+
 public class SearchPage extends AbstractStandardFormPage implements ISelectCallerPage
 {
   private static final long serialVersionUID = -8416731462457080883L;
@@ -47,6 +57,18 @@ public class SearchPage extends AbstractStandardFormPage implements ISelectCalle
 
   private final RepeatingView areaRepeater;
 
+  @SpringBean
+  private StatisticsCache statisticsCache;
+
+  @SpringBean
+  private UnifiedSearchService unifiedSearchService;
+
+  /**
+   * The searches of all areas are started in parallel on refresh, the lazy loading panels take their results. The key
+   * is the id of the registry entry.
+   */
+  private transient Map<String, Future<List<SearchResultData>>> searchFutures;
+
   // Do not execute the search on the first call (due to performance issues):
   private boolean refreshed = true;
 
@@ -117,13 +139,16 @@ public class SearchPage extends AbstractStandardFormPage implements ISelectCalle
     }
     refreshed = true;
     areaRepeater.removeAll();
+    searchFutures = new HashMap<>();
     if (form.filter.isEmpty() == true) {
       return;
     }
+    final UnifiedSearchService.AreaSearches areaSearches = unifiedSearchService.createAreaSearches();
+    form.filter.updateUseModificationFilterFlag();
     if ("ALL".equals(form.filter.getArea()) == true) {
       for (final WebRegistryEntry registryEntry : WebRegistry.getInstance().getOrderedList()) {
         if (SearchForm.isSearchable(registryEntry.getRegistryEntry()) == true) {
-          addArea(registryEntry);
+          addArea(registryEntry, areaSearches);
         }
       }
     } else {
@@ -132,26 +157,45 @@ public class SearchPage extends AbstractStandardFormPage implements ISelectCalle
         log.error("Can't search in area '" + form.filter.getArea()
             + "'. No such area registered in WebRegistry! No results.");
       } else {
-        addArea(registryEntry);
+        addArea(registryEntry, areaSearches);
       }
     }
   }
 
-  private void addArea(final WebRegistryEntry webRegistryEntry)
+  private void addArea(final WebRegistryEntry webRegistryEntry, final UnifiedSearchService.AreaSearches areaSearches)
   {
+    final BaseSearchFilter searchFilter = SearchAreaPanel.createSearchFilter(form.filter, webRegistryEntry,
+        statisticsCache);
+    if (searchFilter == null) {
+      // Area isn't searched.
+      return;
+    }
+    // Start (or queue) the search now, so the areas are searched in parallel (each area with its own filter copy):
+    final BaseSearchFilter areaFilter = searchFilter == form.filter ? new BaseSearchFilter(searchFilter) : searchFilter;
+    searchFutures.put(webRegistryEntry.getId(), areaSearches.submit(areaFilter, webRegistryEntry.getDOClass(),
+        webRegistryEntry.getDao()));
     @SuppressWarnings("serial")
     final Panel panel = new AjaxLazyLoadPanel(areaRepeater.newChildId())
     {
       @Override
       public final Component getLazyLoadComponent(final String id)
       {
-        final SearchAreaPanel searchAreaPanel = new SearchAreaPanel(SearchPage.this, id, form.filter, webRegistryEntry);
+        final SearchAreaPanel searchAreaPanel = new SearchAreaPanel(SearchPage.this, id, form.filter, webRegistryEntry,
+            takeSearchFuture(webRegistryEntry.getId()));
         return searchAreaPanel;
       }
     };
     areaRepeater.add(panel);
   }
 
+  /**
+   * @return The started search of the given area or null, if not available (e. g. after deserialization of this page).
+   */
+  private Future<List<SearchResultData>> takeSearchFuture(final String registryId)
+  {
+    return searchFutures != null ? searchFutures.remove(registryId) : null;
+  }
+
   @Override
   public void renderHead(final IHeaderResponse response)
   {
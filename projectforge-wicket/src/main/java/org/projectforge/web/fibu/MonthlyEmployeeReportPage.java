@@ -51,11 +51,13 @@ import org.projectforge.framework.configuration.Configuration;
 import org.projectforge.framework.persistence.user.api.ThreadLocalUserContext;
 import org.projectforge.framework.persistence.user.entities.PFUserDO;
 import org.projectforge.framework.renderer.PdfRenderer;
+import org.projectforge.framework.renderer.SpooledContent;
 import org.projectforge.framework.time.DateTimeFormatter;
 import org.projectforge.framework.utils.NumberHelper;
 import org.projectforge.web.timesheet.TimesheetListPage;
 import org.projectforge.web.wicket.AbstractStandardFormPage;
 import org.projectforge.web.wicket.DownloadUtils;
+import org.projectforge.web.wicket.SpooledContentResourceStream;
 import org.projectforge.web.wicket.WicketUtils;
 import org.projectforge.web.wicket.bootstrap.GridBuilder;
 import org.projectforge.web.wicket.bootstrap.GridSize;
@@ -507,9 +509,9 @@ public class MonthlyEmployeeReportPage extends AbstractStandardFormPage implemen
     data.put("signatureEmployeeLabel", getString("timesheet.signatureEmployee") + ": " + employee.getFullname());
     data.put("signatureProjectLeaderLabel", getString("timesheet.signatureProjectLeader"));
     data.put("unbookedWorkingDaysLabel", getString("fibu.monthlyEmployeeReport.withoutTimesheets"));
-    // render the PDF with fop
-    final byte[] ba = pdfRenderer.render(styleSheet, xmlData, data);
-    DownloadUtils.setDownloadTarget(ba, filename);
+    // render the PDF with fop completely (errors are shown as usual), afterwards it's streamed to the response:
+    final SpooledContent pdf = pdfRenderer.renderSpooled(styleSheet, xmlData, data);
+    DownloadUtils.setDownloadTarget(filename, new SpooledContentResourceStream(pdf, filename));
   }
 
   @Override
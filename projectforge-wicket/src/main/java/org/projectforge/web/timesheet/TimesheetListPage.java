@@ -58,6 +58,7 @@ import org.projectforge.framework.persistence.user.api.ThreadLocalUserContext;
 import org.projectforge.framework.persistence.user.api.UserPrefArea;
 import org.projectforge.framework.persistence.user.entities.PFUserDO;
 import org.projectforge.framework.renderer.PdfRenderer;
+import org.projectforge.framework.renderer.SpooledContent;
 import org.projectforge.framework.time.DateFormats;
 import org.projectforge.framework.time.DateHelper;
 import org.projectforge.framework.utils.FileHelper;
@@ -547,10 +548,9 @@ public class TimesheetListPage extends AbstractListPage<TimesheetListForm, Times
 
     final Map<String, Object> data = formatter.getData(timeSheets, taskId, getRequest(), getResponse(), filter);
 
-    // render the PDF with fop
-    final byte[] content = pdfRenderer.render(styleSheet, xmlData, data);
-
-    DownloadUtils.setDownloadTarget(content, filename);
+    // render the PDF with fop completely (errors are shown as usual), afterwards it's streamed to the response:
+    final SpooledContent pdf = pdfRenderer.renderSpooled(styleSheet, xmlData, data);
+    DownloadUtils.setDownloadTarget(filename, new SpooledContentResourceStream(pdf, filename));
   }
 
   protected void exportExcel()
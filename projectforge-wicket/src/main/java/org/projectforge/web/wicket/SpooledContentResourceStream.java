@@ -0,0 +1,82 @@
+/////////////////////////////////////////////////////////////////////////////
+//
+// Project ProjectForge Community Edition
+//         www.projectforge.org
+//
+// Copyright (C) 2001-2020 Micromata GmbH, Germany (www.micromata.com)
+//
+// ProjectForge is dual-licensed.
+//
+// This community edition is free software; you can redistribute it and/or
+// modify it under the terms of the GNU General Public License as published
+// by the Free Software Foundation; version 3 of the License.
+//
+// This community edition is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+// Public License for more details.
+//
+// You should have received a copy of the GNU General Public License along
+// with this program; if not, see http://www.gnu.org/licenses/.
+//
+/////////////////////////////////////////////////////////////////////////////
+
+
+package org.projectforge.web.wicket;
+
+import org.apache.wicket.util.lang.Bytes;
+import org.apache.wicket.util.resource.AbstractResourceStreamWriter;
+import org.projectforge.framework.renderer.SpooledContent;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Needed for download files of completely rendered {@link SpooledContent}. The content is closed after writing.
+ */
+public class SpooledContentResourceStream extends AbstractResourceStreamWriter
+{
+  private static final long serialVersionUID = -5018293874563104592L;
+
+  private final transient SpooledContent content;
+
+  private final String contentType;
+
+  /**
+   * @param content
+   * @param filename Only needed for determine the mime type.
+   */
+  public SpooledContentResourceStream(final SpooledContent content, final String filename)
+  {
+    this.content = content;
+    this.contentType = DownloadUtils.getContentType(filename);
+  }
+
+  @Override
+  public String getContentType()
+  {
+    return contentType;
+  }
+
+  @Override
+  public Bytes length()
+  {
+    return Bytes.bytes(content.getSize());
+  }
+
+  @Override
+  public void write(final OutputStream output) throws IOException
+  {
+    try {
+      content.writeTo(output);
+    } finally {
+      content.close();
+    }
+  }
+
+  @Override
+  public void close() throws IOException
+  {
+    content.close();
+  }
+}